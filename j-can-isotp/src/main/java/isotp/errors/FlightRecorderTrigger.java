@@ -0,0 +1,35 @@
+package isotp.errors;
+
+import can.io.FlightRecorder;
+
+/**
+ * Error handler dumping the traffic kept by a :class:`~can.io.FlightRecorder`
+ * when the transport layer reports an error, before passing the error on to
+ * another handler.
+ */
+public class FlightRecorderTrigger implements Error_handler {
+
+	public final FlightRecorder recorder;
+	private final Error_handler next;
+
+	/**
+	 * @param recorder the recorder to dump
+	 * @param next     handler called after the dump, may be null
+	 */
+	public FlightRecorderTrigger(FlightRecorder recorder, Error_handler next) {
+		this.recorder = recorder;
+		this.next = next;
+	}
+
+	public FlightRecorderTrigger(FlightRecorder recorder) {
+		this(recorder, null);
+	}
+
+	@Override
+	public void handle(IsoTpError e) {
+		this.recorder.trigger("isotp-" + e.getClass().getSimpleName());
+		if (this.next != null) {
+			this.next.handle(e);
+		}
+	}
+}
@@ -1,8 +1,11 @@
 package isotp.protocol;
 
+import can.BufferedListener;
 import can.BusABC;
 import can.Message;
+import can.Notifier;
 import isotp.address.Address;
+import isotp.address.AddressingMode;
 import isotp.errors.Error_handler;
 
 /**
@@ -29,6 +32,8 @@ import isotp.errors.Error_handler;
 public class CanStack extends TransportLayer {
 
 	public BusABC bus;
+	/** Buffers the received messages when the stack is fed by a notifier */
+	public BufferedListener listener;
 
 	public CanStack(BusABC bus, Address address) {
 		super(address);
@@ -43,26 +48,59 @@ public class CanStack extends TransportLayer {
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
-				if (msg != null) {
-					return new CanMessage((int) msg.arbitration_id, msg.dlc, msg.data, msg.is_extended_id);// TODO extended_id;
-				}
-				return null;
+				return to_can_message(msg);
+			}
+		};
+		this.set_txfn();
+	}
+
+	/**
+	 * Create a stack sharing the bus of a notifier with other consumers. Instead
+	 * of reading the bus, the stack is given the messages of its receive
+	 * arbitration IDs by the notifier, buffered in {@link #listener}.
+	 * 
+	 * With the 29 bits fixed addressing modes, the priority bits of the received
+	 * IDs may vary, so the stack receives all messages and keeps those matching
+	 * its address.
+	 */
+	public CanStack(Notifier notifier, Address address) {
+		super(address);
+		this.set_bus(notifier.bus);
+		this.listener = new BufferedListener();
+		this.rxfn = new RxFunction() {
+
+			@Override
+			public CanMessage recv() {
+				return to_can_message(CanStack.this.listener.get_message(0l));
 			}
 		};
+		this.set_txfn();
+
+		if (address.addressing_mode == AddressingMode.NormalFixed_29bits
+				|| address.addressing_mode == AddressingMode.Mixed_29bits) {
+			notifier.add_listener(this.listener);
+		} else {
+			notifier.add_listener(this.listener, address.rx_arbitration_id_physical, address.is_29bits);
+			if (!address.rx_arbitration_id_functional.equals(address.rx_arbitration_id_physical)) {
+				notifier.add_listener(this.listener, address.rx_arbitration_id_functional, address.is_29bits);
+			}
+		}
+	}
+
+	private void set_txfn() {
 		this.txfn = new TxFunction() {
 			
 			@Override
 			public void send(CanMessage msg) {
 	
 				try {
-					CanStack.this.bus.send(new Message(System.currentTimeMillis(), msg.arbitration_id, msg.is_extended_id, null, null, null, null, msg.data, null, null, null, null));
+					CanStack.this.bus.send(new Message(CanStack.this.clock.time_ms(), msg.arbitration_id, msg.is_extended_id, null, null, null, null, msg.data, null, null, null, null));
 				} catch (Exception e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}				
 			}
 		};
-		
 	}
 
 	public void tx_canbus(Message msg) {
@@ -76,6 +114,10 @@ public class CanStack extends TransportLayer {
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		return to_can_message(msg);
+	}
+
+	private static CanMessage to_can_message(Message msg) {
 		if (msg != null) {
 			return new CanMessage((int) msg.arbitration_id, msg.dlc, msg.data, msg.is_extended_id);// TODO extended_id;
 		}
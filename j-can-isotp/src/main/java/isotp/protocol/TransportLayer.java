@@ -11,6 +11,7 @@ import java.util.concurrent.BlockingQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import can.Clock;
 import isotp.address.Address;
 import isotp.address.TargetAddressType;
 import isotp.errors.ConsecutiveFrameTimeoutError;
@@ -46,7 +47,7 @@ public class TransportLayer {
 		public void start(Long timeout) {
 			if (timeout != null)
 				this.setTimeout(timeout);
-			this.start_time = System.currentTimeMillis();
+			this.start_time = TransportLayer.this.clock.time_ms();
 		}
 
 		public void start() {
@@ -59,7 +60,7 @@ public class TransportLayer {
 
 		public long elapsed() {
 			if (this.start_time != null) {
-				return System.currentTimeMillis() - this.start_time;
+				return TransportLayer.this.clock.time_ms() - this.start_time;
 			} else {
 				return 0;
 			}
@@ -114,6 +115,8 @@ public class TransportLayer {
 	public Timer timer_tx_stmin;
 	public Timer timer_rx_fc;
 	public Timer timer_rx_cf;
+	/** Time source of the timers, the default clock when the layer was created */
+	public Clock clock = Clock.get_default();
 
 	public Error_handler error_handler;
 
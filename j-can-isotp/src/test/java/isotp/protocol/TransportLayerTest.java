@@ -10,6 +10,7 @@ import java.util.Calendar;
 import org.junit.Assert;
 import org.junit.Test;
 
+import can.VirtualClock;
 import isotp.TransportLayerBaseTest;
 import isotp.address.Address;
 import isotp.address.AddressingMode;
@@ -987,6 +988,25 @@ public class TransportLayerTest extends TransportLayerBaseTest {
 		this.assert_error_triggered(FlowControlTimeoutError.class.getName());
 	}
 
+	@Test
+	public void test_send_multiframe_flow_control_timeout_virtual_clock() throws Exception {
+		VirtualClock clock = new VirtualClock();
+		this.stack.clock = clock;
+		this.stack.params.set("rx_flowcontrol_timeout", 200L);
+
+		this.tx_isotp_frame(this.make_payload(10));
+		this.stack.process();
+		TestCase.assertNotNull(this.get_tx_can_msg());
+		clock.sleep(199);
+		this.stack.process();
+		this.assert_no_error_triggered();
+		// exactly at the timeout, however slow the test runs
+		clock.sleep(1);
+		this.stack.process();
+		TestCase.assertNull(this.get_tx_can_msg());
+		this.assert_error_triggered(FlowControlTimeoutError.class.getName());
+	}
+
 	@Test
 	public void test_send_multiframe_flow_control_timeout_recover() throws Exception {
 		this.stack.params.set("rx_flowcontrol_timeout", 200L);
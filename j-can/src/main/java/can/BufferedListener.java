@@ -0,0 +1,93 @@
+package can;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A listener storing the received messages in a bounded queue, to be consumed
+ * at the pace of another thread with :meth:`get_message`.
+ *
+ * When the queue is full, new messages are dropped (and counted) instead of
+ * blocking the receive thread of the :class:`~can.Notifier`, so a slow consumer
+ * cannot delay the other listeners.
+ */
+public class BufferedListener implements Listener {
+	private static final Logger logger = LoggerFactory.getLogger(BufferedListener.class);
+
+	/** Default capacity of the queue */
+	public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+	private final BlockingQueue<Message> buffer;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean is_stopped = false;
+
+	/**
+	 * @param queue_size capacity of the queue. Default: 4096
+	 */
+	public BufferedListener(Integer queue_size) {
+		// Default value if input is null
+		if (queue_size == null) {
+			queue_size = DEFAULT_QUEUE_SIZE;
+		}
+		this.buffer = new ArrayBlockingQueue<Message>(queue_size);
+	}
+
+	public BufferedListener() {
+		this(null);
+	}
+
+	@Override
+	public void on_message_received(Message msg) {
+		if (this.is_stopped)
+			return;
+		if (!this.buffer.offer(msg)) {
+			this.dropped.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void on_error(Exception exc) {
+		logger.warn("Error in receive thread: " + exc);
+	}
+
+	/**
+	 * Attempts to retrieve the message that has been in the queue for the longest
+	 * amount of time (FIFO).
+	 *
+	 * @param timeout The number of milliseconds to wait for a new message, 0 (or
+	 *                null) to return immediately
+	 * @return the message if there is one, or null if there is not.
+	 */
+	public Message get_message(Long timeout) {
+		if (timeout == null || timeout <= 0) {
+			return this.buffer.poll();
+		}
+		try {
+			return this.buffer.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/** @return the number of messages waiting in the queue */
+	public int size() {
+		return this.buffer.size();
+	}
+
+	/** @return the number of messages dropped because the queue was full */
+	public long dropped() {
+		return this.dropped.get();
+	}
+
+	/** Prohibits any more additions to this listener. */
+	@Override
+	public void stop() {
+		this.is_stopped = true;
+	}
+}
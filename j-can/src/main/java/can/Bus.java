@@ -1,7 +1,6 @@
 package can;
 
 import java.util.List;
-import java.util.Map;
 
 /** Bus wrapper with configuration loading. */
 public class Bus extends BusABC {
@@ -12,9 +11,9 @@ public class Bus extends BusABC {
 	}
 
 	@Override
-	public Map<String, Object> _recv_internal(Long time_left) {
+	public boolean _recv_internal(Long time_left, RecvResult result) {
 		// TODO Auto-generated method stub
-		return null;
+		return result.set(null, false);
 	}
 
 	@Override
@@ -1,13 +1,18 @@
 package can;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import can.broadcastmanager.ThreadBasedCyclicSendTask;
+import can.broadcastmanager.CyclicMessageGroup;
+import can.broadcastmanager.CyclicSendScheduler;
+import can.broadcastmanager.CyclicSendTaskABC;
 
 /**
  * The CAN Bus Abstract Base Class that serves as the basis for all concrete
@@ -25,9 +30,26 @@ public abstract class BusABC {
 	private static final int RECV_LOGGING_LEVEL = 9;
 
 	public List<Filter> _filters;
-	public List<ThreadBasedCyclicSendTask> _periodic_tasks;
+	/** compiled form of _filters, replaced as a whole when filters change */
+	private volatile FilterMatcher _filter_matcher = FilterMatcher.MATCH_ALL;
+	/** tasks attached to this bus, guarded by the list itself */
+	public List<CyclicSendTaskABC> _periodic_tasks;
 
 	public Boolean _lock_send_periodic;
+	/** serves all periodic tasks of this bus, created with the first one */
+	private CyclicSendScheduler _scheduler;
+	/** traffic counters, null unless enabled */
+	private volatile BusStatistics _statistics;
+	/** tracking of transmitted messages, null unless enabled */
+	private volatile TxConfirmation _tx_confirmation;
+
+	/** receive result reused by every call of recv from the same thread */
+	private final ThreadLocal<RecvResult> _recv_result = new ThreadLocal<RecvResult>() {
+		@Override
+		protected RecvResult initialValue() {
+			return new RecvResult();
+		}
+	};
 	public BusState busState = BusState.ACTIVE;
 
 	/**
@@ -43,12 +65,12 @@ public abstract class BusABC {
 	 *                    dictionary
 	 */
 	public BusABC(Object channel, List<Filter> can_filters, String[] args) {
-		this._periodic_tasks = new ArrayList<ThreadBasedCyclicSendTask>();
+		this._periodic_tasks = new ArrayList<CyclicSendTaskABC>();
 		this.set_filters(can_filters);
 	}
 
 	public BusABC() {
-		this._periodic_tasks = new ArrayList<ThreadBasedCyclicSendTask>();
+		this._periodic_tasks = new ArrayList<CyclicSendTaskABC>();
 	}
 
 	/**
@@ -66,9 +88,15 @@ public abstract class BusABC {
 	 *                    matches messages where ``<received_is_extended> ==
 	 *                    extended``. Else it matches every messages based only on
 	 *                    the arbitration ID and mask.
+	 * 
+	 *                    The filters are compiled once here, so modifying the
+	 *                    list afterwards has no effect until this method is
+	 *                    called again. It is safe to call while another thread
+	 *                    is receiving.
 	 */
 	public void set_filters(List<Filter> filters) {
 		this._filters = filters;
+		this._filter_matcher = FilterMatcher.compile(filters);
 		this._apply_filters(this._filters);
 	}
 
@@ -99,16 +127,19 @@ public abstract class BusABC {
 		long start = System.currentTimeMillis();
 		Long time_left = timeout;
 
-		Map<String, Object> newMessage;
+		RecvResult result = this._recv_result.get();
 		while (true) {
 			// try to get a message
-			newMessage = this._recv_internal(time_left);
+			this._recv_internal(time_left, result);
 
-			Message msg = (Message) newMessage.get("Message");
-			boolean already_filtered = (boolean) newMessage.get("already_filtered");
+			Message msg = result.msg;
+			boolean already_filtered = result.already_filtered;
+			result.clear();
 			// return it, if it matches
 			if ((msg != null) && (already_filtered || this._match_filters(msg))) {
-				logger.debug("Received: " + msg.toString());
+				if (logger.isDebugEnabled())
+					logger.debug("Received: " + msg.toString());
+				this._count_received(msg);
 				return msg;
 			} else if (timeout == null) {
 				// if not, and timeout is None, try indefinitely
@@ -125,6 +156,75 @@ public abstract class BusABC {
 		}
 	}
 
+	/**
+	 * Block waiting for messages from the Bus and return all of them that are
+	 * available at once.
+	 *
+	 * Waits like :meth:`~can.BusABC.recv` for the first message, then drains
+	 * every further message which is already queued without waiting again. This
+	 * saves the per call overhead of :meth:`~can.BusABC.recv` on busy buses.
+	 *
+	 * Interfaces which can fetch several messages from the driver in one call
+	 * should override this method.
+	 *
+	 * @param out     array receiving the messages, starting at index 0
+	 * @param max     maximum number of messages to return, limited to the length
+	 *                of ``out``
+	 * @param timeout milliseconds to wait for the first message or None to wait
+	 *                indefinitely
+	 * @return the number of messages written to ``out``, 0 on timeout
+	 * @throws Exception
+	 */
+	public int recv_batch(Message[] out, int max, Long timeout) throws Exception {
+		if (max > out.length)
+			max = out.length;
+		if (max <= 0)
+			return 0;
+
+		Message msg = this.recv(timeout);
+		if (msg == null)
+			return 0;
+		out[0] = msg;
+		int count = 1;
+
+		RecvResult result = this._recv_result.get();
+		while (count < max) {
+			if (!this._recv_internal(0l, result))
+				break;
+			msg = result.msg;
+			boolean already_filtered = result.already_filtered;
+			result.clear();
+			if (already_filtered || this._match_filters(msg)) {
+				this._count_received(msg);
+				out[count++] = msg;
+			}
+		}
+		result.clear();
+		return count;
+	}
+
+	/**
+	 * Block waiting for a message from the Bus and copy it into a reusable frame.
+	 *
+	 * Combined with a :class:`~can.MessagePool`, this reads messages without
+	 * allocating a :class:`~can.Message` per frame on interfaces which override
+	 * this method. The default implementation copies the result of
+	 * :meth:`~can.BusABC.recv`.
+	 *
+	 * @param frame   the frame receiving the message, unchanged on timeout
+	 * @param timeout milliseconds to wait for a message or None to wait
+	 *                indefinitely
+	 * @return true if a message was received, false on timeout
+	 * @throws Exception
+	 */
+	public boolean recv_into(Frame frame, Long timeout) throws Exception {
+		Message msg = this.recv(timeout);
+		if (msg == null)
+			return false;
+		frame.copy_from(msg);
+		return true;
+	}
+
 	/**
 	 * Read a message from the bus and tell whether it was filtered. This methods
 	 * may be called by :meth:`~can.BusABC.recv` to read a message multiple times if
@@ -136,15 +236,45 @@ public abstract class BusABC {
 	 * filtering provided by :meth:`~can.BusABC.recv` as a fallback. This method
 	 * should never be called directly.
 	 * 
+	 * The result is written into ``result``, which is reused for every message
+	 * read by the same thread, so implementations must not keep a reference to it.
+	 * Every interface has to implement this method, the older map based
+	 * :meth:`~can.BusABC._recv_internal(Long)` only adapts it for its callers.
+	 * 
+	 * @param timeout milliseconds to wait for a messages
+	 * @param result  receives 1. the message that was read or None on timeout 2. a
+	 *                bool that is True if message filtering has already been done
+	 *                and else False
+	 * 
+	 * @return true if a message was read
+	 * @throws Exception
+	 * 
+	 * @exception can.CanError: if an error occurred while reading
+	 */
+	public abstract boolean _recv_internal(Long timeout, RecvResult result) throws Exception;
+
+	/**
+	 * Compatibility adapter for callers of the map based receive method.
+	 * Allocates a map for every call, new code should use
+	 * :meth:`~can.BusABC._recv_internal(Long, RecvResult)` instead.
+	 * 
 	 * @param timeout: milliseconds to wait for a messages
 	 * 
-	 * @return: 1. a message that was read or None on timeout 2. a bool that is True
-	 *          if message filtering has already been done and else False
+	 * @return: a map holding 1. "Message": a message that was read or None on
+	 *          timeout 2. "already_filtered": a bool that is True if message
+	 *          filtering has already been done and else False
 	 * @throws Exception
 	 * 
 	 * @exception can.CanError: if an error occurred while reading
 	 */
-	public abstract Map<String, Object> _recv_internal(Long timeout) throws Exception;
+	public Map<String, Object> _recv_internal(Long timeout) throws Exception {
+		RecvResult result = new RecvResult();
+		this._recv_internal(timeout, result);
+		Map<String, Object> ret = new HashMap<>();
+		ret.put("Message", result.msg);
+		ret.put("already_filtered", result.already_filtered);
+		return ret;
+	}
 
 	/**
 	 * Transmit a message to the CAN bus.
@@ -166,6 +296,42 @@ public abstract class BusABC {
 		this.send(msg, null);
 	}
 
+	/**
+	 * Transmit several messages at once, in the given order.
+	 * 
+	 * The default implementation calls :meth:`~can.BusABC.send` for each message,
+	 * stopping at the first one which fails. Interfaces which can hand several
+	 * messages to the driver in one call should override this method.
+	 * 
+	 * @param msgs    the messages, starting at index 0
+	 * @param count   number of messages to send
+	 * @param timeout If > 0, wait up to this many milliseconds in total for the
+	 *                transmit queue to be ready. Might not be supported by all
+	 *                interfaces. None blocks indefinitly.
+	 * @return the number of messages handed to the driver. They are always the
+	 *         first ones: the message at this index failed or timed out, it and
+	 *         the following ones were not sent
+	 */
+	public int send_batch(Message[] msgs, int count, Long timeout) {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			Long time_left = null;
+			if (timeout != null)
+				time_left = Math.max(0, timeout - (System.currentTimeMillis() - start));
+			try {
+				this.send(msgs[i], time_left);
+			} catch (RuntimeException e) {
+				logger.warn("Error happened when sending messages. " + e.getMessage());
+				return i;
+			}
+		}
+		return count;
+	}
+
+	public int send_batch(Message[] msgs, int count) {
+		return this.send_batch(msgs, count, null);
+	}
+
 	/**
 	 * Start sending a message at a given period on this bus.
 	 * 
@@ -176,21 +342,23 @@ public abstract class BusABC {
 	 * - the task's :meth:`CyclicTask.stop()` method is called.
 	 * 
 	 * @param msg        Message to transmit
-	 * @param period     Period in seconds between each message
+	 * @param period     Period between each message, unit=millisecond
 	 * @param duration   The duration to keep sending this message at given rate. If
 	 *                   no duration is provided, the task will continue
-	 *                   indefinitely.
+	 *                   indefinitely. unit=millisecond
 	 * @param store_task If True (the default) the task will be attached to this Bus
 	 *                   instance. Disable to instead manage tasks manually.
 	 * @return A started task instance. Note the task can be stopped (and depending
 	 *         on the backend modified) by calling the :meth:`stop` method.
 	 *         can.broadcastmanager.CyclicSendTaskABC
 	 */
-	public ThreadBasedCyclicSendTask send_periodic(Message msg, Long period, Long duration, boolean store_task) {
-		ThreadBasedCyclicSendTask task = this._send_periodic_internal(msg, period, duration);
+	public CyclicSendTaskABC send_periodic(Message msg, Long period, Long duration, boolean store_task) {
+		CyclicSendTaskABC task = this._send_periodic_internal(msg, period, duration);
 
 		if (store_task) {
-			this._periodic_tasks.add(task);
+			synchronized (this._periodic_tasks) {
+				this._periodic_tasks.add(task);
+			}
 		}
 
 		return task;
@@ -202,14 +370,16 @@ public abstract class BusABC {
 	 * @param remove_tasks Stop tracking the stopped tasks
 	 */
 	public void stop_all_periodic_tasks(boolean remove_tasks) {
-		for (int i = 0; i < this._periodic_tasks.size(); i++) {
-
+		List<CyclicSendTaskABC> tasks;
+		synchronized (this._periodic_tasks) {
+			tasks = new ArrayList<CyclicSendTaskABC>(this._periodic_tasks);
 			if (remove_tasks) {
-				this._periodic_tasks.remove(i).stop();
-			} else {
-				this._periodic_tasks.get(i).stop();
+				this._periodic_tasks.clear();
 			}
 		}
+		for (int i = 0; i < tasks.size(); i++) {
+			tasks.get(i).stop();
+		}
 	}
 
 	public void stop_all_periodic_tasks() {
@@ -217,16 +387,211 @@ public abstract class BusABC {
 	}
 
 	/**
-	 * Default implementation of periodic message sending using threading. Override
-	 * this method to enable a more efficient backend specific approach.
+	 * Default implementation of periodic message sending: all tasks of this bus
+	 * share the thread of one {@link CyclicSendScheduler}. Override this method to
+	 * enable a more efficient backend specific approach.
+	 */
+	protected CyclicSendTaskABC _send_periodic_internal(Message msg, Long period, Long duration) {
+		return this._get_scheduler().schedule(msg, period, duration);
+	}
+
+	/**
+	 * Create an empty group of periodic messages. The messages added to the group
+	 * are started together, with phase offsets spreading their transmissions to
+	 * keep the peak bus load low.
+	 * 
+	 * @param bitrate      nominal bitrate of the bus, unit=bit/s
+	 * @param data_bitrate CAN FD data bitrate, null if the bitrate is not switched
+	 * @return the group, to be started once all messages are added
+	 */
+	public CyclicMessageGroup create_periodic_group(int bitrate, Integer data_bitrate) {
+		return new CyclicMessageGroup(this, this._get_scheduler(), bitrate, data_bitrate);
+	}
+
+	/**
+	 * Start counting the traffic of this bus. Received messages are counted by
+	 * :meth:`~can.BusABC.recv` and its variants, sent messages by the interfaces.
+	 * Enabling statistics again resets them.
+	 * 
+	 * @param bitrate      nominal bitrate of the bus, used to estimate the bus
+	 *                     load, unit=bit/s. Default: 500 kbit/s
+	 * @param data_bitrate CAN FD data bitrate, null if the bitrate is not switched
+	 * @return the statistics, see :meth:`~can.BusStatistics.snapshot`
 	 */
-	private ThreadBasedCyclicSendTask _send_periodic_internal(Message msg, Long period, Long duration) {
-		if (this._lock_send_periodic == null) {
-			this._lock_send_periodic = new Boolean(true);
+	public BusStatistics enable_statistics(Integer bitrate, Integer data_bitrate) {
+		BusStatistics statistics = new BusStatistics(bitrate, data_bitrate);
+		this._statistics = statistics;
+		return statistics;
+	}
+
+	/** Stop counting the traffic of this bus */
+	public void disable_statistics() {
+		this._statistics = null;
+	}
+
+	/** @return the statistics of this bus, null if they are not enabled */
+	public BusStatistics statistics() {
+		return this._statistics;
+	}
+
+	/** Count a message returned to the caller, for interfaces overriding the receive methods */
+	protected void _count_received(Message msg) {
+		BusStatistics statistics = this._statistics;
+		if (statistics != null)
+			statistics.received(msg);
+	}
+
+	/** Same as :meth:`_count_received` for a pooled frame */
+	protected void _count_received(Frame frame) {
+		BusStatistics statistics = this._statistics;
+		if (statistics != null)
+			statistics.received(frame);
+	}
+
+	/** Count a message handed to the driver, called by the interfaces' send methods */
+	protected void _count_sent(Message msg) {
+		BusStatistics statistics = this._statistics;
+		if (statistics != null)
+			statistics.sent(msg);
+	}
+
+	/**
+	 * Start tracking which sent messages actually went out on the bus. Every
+	 * message is matched with its echo from the interface, the time from sending
+	 * to the end of the frame on the bus is recorded, and
+	 * :meth:`~can.BusABC.send_confirmed` returns a future completed by the echo.
+	 * 
+	 * On interfaces delivering the echo in the receive path, like the Vector
+	 * one, messages are only confirmed while a thread is receiving from the bus.
+	 * Enabling the confirmation again resets it.
+	 * 
+	 * @param timeout     time after which a message without echo is lost,
+	 *                    unit=millisecond. Default: 1 s
+	 * @param max_pending number of messages waiting for their echo. Default: 1024
+	 * @return the confirmation, see :class:`~can.TxConfirmation`
+	 * @throws CanError if the interface cannot confirm transmissions
+	 */
+	public TxConfirmation enable_tx_confirmation(Long timeout, Integer max_pending) throws CanError {
+		if (!this._apply_tx_confirmation(true))
+			throw new CanError("Transmit confirmation is not supported by " + this.channel_info);
+		Long timeout_ns = timeout == null ? null : timeout * 1_000_000L;
+		TxConfirmation confirmation = new TxConfirmation(timeout_ns, max_pending, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return BusABC.this._tx_time_ns();
+			}
+		});
+		this._tx_confirmation = confirmation;
+		return confirmation;
+	}
+
+	/** Stop tracking sent messages, pending futures only fail at their timeout */
+	public void disable_tx_confirmation() {
+		if (this._tx_confirmation == null)
+			return;
+		this._tx_confirmation = null;
+		this._apply_tx_confirmation(false);
+	}
+
+	/** @return the transmit confirmation of this bus, null if it is not enabled */
+	public TxConfirmation tx_confirmation() {
+		return this._tx_confirmation;
+	}
+
+	/**
+	 * Transmit a message and follow it to the bus.
+	 * 
+	 * @param msg     A message object.
+	 * @param timeout see :meth:`~can.BusABC.send`
+	 * @return a future completed with the time the message was on the bus, taken
+	 *         from its echo, unit=nanosecond. It fails with a
+	 *         :class:`~can.CanError` if the message was not sent or its echo
+	 *         did not come in time.
+	 * @throws IllegalStateException if the transmit confirmation is not enabled
+	 */
+	public CompletableFuture<Long> send_confirmed(Message msg, Long timeout) {
+		TxConfirmation confirmation = this._tx_confirmation;
+		if (confirmation == null)
+			throw new IllegalStateException("Transmit confirmation is not enabled on " + this.channel_info);
+		CompletableFuture<Long> future = confirmation.claim(msg);
+		try {
+			this.send(msg, timeout);
+		} finally {
+			confirmation.unclaim(msg);
+		}
+		return future;
+	}
+
+	/**
+	 * Hook for enabling the echo of sent messages in the underlying driver or
+	 * hardware, for interfaces supporting the transmit confirmation.
+	 * 
+	 * {@link can.BusABC.enable_tx_confirmation}
+	 * 
+	 * @return false if the interface cannot confirm transmissions
+	 */
+	protected boolean _apply_tx_confirmation(boolean enabled) {
+		return false;
+	}
+
+	/**
+	 * @return the current time on the time base of the echoes' timestamps, used
+	 *         to measure the transmit latency, unit=nanosecond
+	 */
+	protected long _tx_time_ns() {
+		return Clock.get_default().time_ns();
+	}
+
+	/**
+	 * Remember a message the interface is about to hand to the driver, called by
+	 * the send methods of interfaces supporting the transmit confirmation.
+	 */
+	protected void _tx_started(Message msg) {
+		TxConfirmation confirmation = this._tx_confirmation;
+		if (confirmation != null)
+			confirmation.sent(msg, this._tx_time_ns());
+	}
+
+	/** The driver did not accept a message passed to :meth:`_tx_started` */
+	protected void _tx_failed(Message msg) {
+		TxConfirmation confirmation = this._tx_confirmation;
+		if (confirmation != null)
+			confirmation.failed(msg);
+	}
+
+	/**
+	 * Confirm a sent message with its echo.
+	 * 
+	 * @param echo    the message seen on the bus
+	 * @param wire_ns the time it was seen, unit=nanosecond
+	 * @return true if the echo belongs to a message sent by this bus
+	 */
+	protected boolean _tx_confirmed(Message echo, long wire_ns) {
+		TxConfirmation confirmation = this._tx_confirmation;
+		if (confirmation == null)
+			return false;
+		boolean is_extended_id = echo.is_extended_id != null && echo.is_extended_id.booleanValue();
+		int length = echo.is_remote_frame || echo.data == null ? 0 : Math.min(echo.dlc, echo.data.length);
+		return confirmation.confirm(echo.arbitration_id, is_extended_id, echo.is_remote_frame, echo.data, length,
+				wire_ns);
+	}
+
+	/** Same as :meth:`_tx_confirmed` for a pooled frame, seen at its timestamp */
+	protected boolean _tx_confirmed(Frame echo) {
+		TxConfirmation confirmation = this._tx_confirmation;
+		if (confirmation == null)
+			return false;
+		return confirmation.confirm(echo.arbitration_id, echo.is_extended_id, echo.is_remote_frame, echo.data,
+				echo.is_remote_frame ? 0 : echo.length, echo.timestamp_ns());
+	}
+
+	private CyclicSendScheduler _get_scheduler() {
+		synchronized (this._periodic_tasks) {
+			if (this._scheduler == null) {
+				this._scheduler = new CyclicSendScheduler(this);
+			}
+			return this._scheduler;
 		}
-		ThreadBasedCyclicSendTask task = new ThreadBasedCyclicSendTask(this, this._lock_send_periodic, msg, period,
-				duration);
-		return task;
 	}
 
 	/**
@@ -240,22 +605,12 @@ public abstract class BusABC {
 	 */
 	public boolean _match_filters(Message msg) {
 		// if no filters are set, all messages are matched
-		if (this._filters == null)
-			return true;
-		if (this._filters.isEmpty()) {
-			return true;
-		}
-
-		for (int i = 0; i < this._filters.size(); i++) {
-			Filter _filter = this._filters.get(i);
-			// check if this filter even applies to the message
-			if (_filter.match(msg)) {
-				return true;
-			}
-		}
+		return this._filter_matcher.match(msg);
+	}
 
-		// nothing matched
-		return false;
+	/** Same as :meth:`_match_filters` for a pooled frame */
+	public boolean _match_filters(Frame frame) {
+		return this._filter_matcher.match(frame.arbitration_id, frame.is_extended_id);
 	}
 
 	/** Modify the filters of this bus */
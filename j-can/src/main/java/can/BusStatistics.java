@@ -0,0 +1,398 @@
+package can;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the traffic of a bus: frames per ID with their inter-arrival times,
+ * error, remote and CAN FD frames, and the estimated bus load.
+ *
+ * Enabled with :meth:`~can.BusABC.enable_statistics`, the counters are updated
+ * by the receive and send paths of the bus without locking: frame type counters
+ * are striped {@link LongAdder}s, per-ID counters are created once per ID and
+ * updated with atomic operations. The bus time of each frame is its worst case
+ * length with bit stuffing (see {@link FrameTiming}), looked up in a table
+ * computed for the configured bitrates.
+ *
+ * The inter-arrival times are measured between the timestamps of the received
+ * frames, so they do not include the delays of the receive path; sent messages
+ * are stamped with the time they are counted. The time since the reset and the
+ * bus load windows are measured with the default :class:`Clock`.
+ *
+ * :meth:`snapshot` returns an immutable :class:`Report`; it is cheap enough to
+ * be polled every 100 ms.
+ */
+public class BusStatistics {
+
+	/** Default nominal bitrate, unit=bit/s */
+	public static final int DEFAULT_BITRATE = 500_000;
+	/** Number of buckets of the inter-arrival time histograms */
+	public static final int HISTOGRAM_BUCKETS = 32;
+	/** Worst case length of an error frame: error flags, delimiter and IFS */
+	static final int ERROR_FRAME_BITS = 12 + 8 + 3;
+	/** Time of the last frame of an ID not seen yet */
+	private static final long NONE = Long.MIN_VALUE;
+
+	/** Counters of one arbitration ID */
+	static final class IdCounter {
+		final long arbitration_id;
+		final boolean is_extended_id;
+		final AtomicLong count = new AtomicLong();
+		/** time of the last frame, unit=nanosecond, NONE before the first one */
+		final AtomicLong last = new AtomicLong(NONE);
+		final AtomicLong min_interval = new AtomicLong(Long.MAX_VALUE);
+		final AtomicLong max_interval = new AtomicLong();
+		/** sum of the intervals and of their squares, unit=microsecond */
+		final DoubleAdder interval_sum = new DoubleAdder();
+		final DoubleAdder interval_square_sum = new DoubleAdder();
+		final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+		IdCounter(long arbitration_id, boolean is_extended_id) {
+			this.arbitration_id = arbitration_id;
+			this.is_extended_id = is_extended_id;
+		}
+
+		void count(long now) {
+			this.count.incrementAndGet();
+			long previous = this.last.getAndSet(now);
+			if (previous == NONE)
+				return;
+			long interval = now - previous;
+			if (interval < 0)
+				interval = 0;
+			long min;
+			while (interval < (min = this.min_interval.get()) && !this.min_interval.compareAndSet(min, interval)) {
+			}
+			long max;
+			while (interval > (max = this.max_interval.get()) && !this.max_interval.compareAndSet(max, interval)) {
+			}
+			double us = interval / 1000.0;
+			this.interval_sum.add(us);
+			this.interval_square_sum.add(us * us);
+			this.histogram.incrementAndGet(bucket(interval));
+		}
+	}
+
+	/** Counters since the last reset, replaced as a whole by :meth:`reset` */
+	private static final class State {
+		/** unit=nanosecond */
+		final long start;
+		final LongAdder received = new LongAdder();
+		final LongAdder sent = new LongAdder();
+		final LongAdder error_frames = new LongAdder();
+		final LongAdder remote_frames = new LongAdder();
+		final LongAdder fd_frames = new LongAdder();
+		/** sum of the worst case frame durations, unit=nanosecond */
+		final LongAdder busy = new LongAdder();
+		final AtomicReferenceArray<IdCounter> standard = new AtomicReferenceArray<IdCounter>(0x800);
+		final ConcurrentHashMap<Long, IdCounter> extended = new ConcurrentHashMap<Long, IdCounter>();
+
+		State(long start) {
+			this.start = start;
+		}
+	}
+
+	/** Counters of one arbitration ID in a :class:`Report` */
+	public static final class IdReport {
+		public final long arbitration_id;
+		public final boolean is_extended_id;
+		public final long count;
+		/** shortest time between two frames, unit=nanosecond, 0 if unknown */
+		public final long min_interval;
+		/** longest time between two frames, unit=nanosecond */
+		public final long max_interval;
+		/** mean time between two frames, unit=nanosecond */
+		public final long mean_interval;
+		/** standard deviation of the time between two frames, unit=nanosecond */
+		public final long jitter;
+		private final long[] histogram;
+
+		IdReport(IdCounter counter) {
+			this.arbitration_id = counter.arbitration_id;
+			this.is_extended_id = counter.is_extended_id;
+			this.count = counter.count.get();
+			this.histogram = new long[HISTOGRAM_BUCKETS];
+			long intervals = 0;
+			for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+				this.histogram[i] = counter.histogram.get(i);
+				intervals += this.histogram[i];
+			}
+			if (intervals == 0) {
+				this.min_interval = 0;
+				this.max_interval = 0;
+				this.mean_interval = 0;
+				this.jitter = 0;
+				return;
+			}
+			this.min_interval = counter.min_interval.get();
+			this.max_interval = counter.max_interval.get();
+			double mean = counter.interval_sum.sum() / intervals;
+			double variance = counter.interval_square_sum.sum() / intervals - mean * mean;
+			this.mean_interval = (long) (mean * 1000);
+			this.jitter = (long) (Math.sqrt(Math.max(variance, 0)) * 1000);
+		}
+
+		/**
+		 * @return the number of intervals between two frames per bucket, see
+		 *         :meth:`bucket_limit`
+		 */
+		public long[] histogram() {
+			return this.histogram.clone();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d frames, interval %.3f ms (min %.3f, max %.3f, jitter %.3f)",
+					String.format(this.is_extended_id ? "0x%08x" : "0x%03x", this.arbitration_id), this.count,
+					this.mean_interval / 1e6, this.min_interval / 1e6, this.max_interval / 1e6, this.jitter / 1e6);
+		}
+	}
+
+	/** Immutable state of the counters */
+	public static final class Report {
+		/** wall clock time of the snapshot, unit=millisecond */
+		public final long timestamp;
+		/** time since the counters were reset, unit=nanosecond */
+		public final long elapsed;
+		public final long received;
+		public final long sent;
+		public final long error_frames;
+		public final long remote_frames;
+		public final long fd_frames;
+		/** sum of the worst case durations of the frames, unit=nanosecond */
+		public final long busy_time;
+		/** estimated bus load since the previous snapshot, 0.0 to 1.0 */
+		public final double bus_load;
+		/** estimated bus load since the counters were reset, 0.0 to 1.0 */
+		public final double average_bus_load;
+		/** per ID counters, standard IDs first, sorted by ID */
+		public final List<IdReport> ids;
+
+		Report(long timestamp, long elapsed, long received, long sent, long error_frames, long remote_frames,
+				long fd_frames, long busy_time, double bus_load, double average_bus_load, List<IdReport> ids) {
+			this.timestamp = timestamp;
+			this.elapsed = elapsed;
+			this.received = received;
+			this.sent = sent;
+			this.error_frames = error_frames;
+			this.remote_frames = remote_frames;
+			this.fd_frames = fd_frames;
+			this.busy_time = busy_time;
+			this.bus_load = bus_load;
+			this.average_bus_load = average_bus_load;
+			this.ids = ids;
+		}
+
+		/** @return the counters of an ID, null if it was not seen */
+		public IdReport get(long arbitration_id, boolean is_extended_id) {
+			for (IdReport id : this.ids) {
+				if (id.arbitration_id == arbitration_id && id.is_extended_id == is_extended_id)
+					return id;
+			}
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d received, %d sent, %d error, %d remote, %d FD frames, bus load %.1f%% (%.1f%%)",
+					this.received, this.sent, this.error_frames, this.remote_frames, this.fd_frames,
+					this.bus_load * 100, this.average_bus_load * 100);
+		}
+	}
+
+	public final int bitrate;
+	public final Integer data_bitrate;
+	/**
+	 * worst case duration of the frames, unit=nanosecond, indexed by
+	 * :meth:`duration_index`
+	 */
+	private final long[] durations;
+	private final long error_frame_duration;
+
+	private final Clock clock = Clock.get_default();
+	private volatile State state = new State(this.clock.time_ns());
+
+	// guarded by this, for the load between snapshots
+	private State last_state;
+	private long last_time;
+	private long last_busy;
+
+	/**
+	 * @param bitrate      nominal bitrate of the bus, unit=bit/s. Default: 500
+	 *                     kbit/s
+	 * @param data_bitrate CAN FD data bitrate, null if the bitrate is not switched
+	 */
+	public BusStatistics(Integer bitrate, Integer data_bitrate) {
+		// Default value if input is null
+		if (bitrate == null) {
+			bitrate = DEFAULT_BITRATE;
+		}
+		if (bitrate <= 0 || (data_bitrate != null && data_bitrate <= 0))
+			throw new IllegalArgumentException("Bitrates must be positive");
+		this.bitrate = bitrate;
+		this.data_bitrate = data_bitrate;
+
+		this.durations = new long[8 * (Frame.MAX_DATA_LENGTH + 1)];
+		for (int flags = 0; flags < 8; flags++) {
+			boolean is_extended_id = (flags & 4) != 0;
+			boolean is_fd = (flags & 2) != 0;
+			boolean bitrate_switch = (flags & 1) != 0;
+			int data_rate = is_fd && bitrate_switch && data_bitrate != null ? data_bitrate : bitrate;
+			for (int length = 0; length <= Frame.MAX_DATA_LENGTH; length++) {
+				int n = FrameTiming.payload_length(false, is_fd, length);
+				this.durations[flags * (Frame.MAX_DATA_LENGTH + 1) + length] = FrameTiming
+						.worst_case_nominal_bits(is_extended_id, is_fd, n) * 1_000_000_000L / bitrate
+						+ FrameTiming.worst_case_data_bits(is_fd, n) * 1_000_000_000L / data_rate;
+			}
+		}
+		this.error_frame_duration = ERROR_FRAME_BITS * 1_000_000_000L / bitrate;
+	}
+
+	public BusStatistics() {
+		this(null, null);
+	}
+
+	/**
+	 * @return the histogram bucket of an interval: bucket 0 holds intervals below
+	 *         1 µs, bucket i intervals from 2^(i-1) to 2^i µs, the last bucket
+	 *         every longer interval
+	 */
+	static int bucket(long interval) {
+		long us = interval / 1000;
+		return Math.min(64 - Long.numberOfLeadingZeros(us), HISTOGRAM_BUCKETS - 1);
+	}
+
+	/** @return the upper limit of a histogram bucket, unit=nanosecond */
+	public static long bucket_limit(int bucket) {
+		if (bucket >= HISTOGRAM_BUCKETS - 1)
+			return Long.MAX_VALUE;
+		return (1L << bucket) * 1000;
+	}
+
+	private static int duration_index(boolean is_extended_id, boolean is_fd, boolean bitrate_switch,
+			boolean is_remote_frame, int length) {
+		int flags = (is_extended_id ? 4 : 0) | (is_fd ? 2 : 0) | (bitrate_switch ? 1 : 0);
+		if (is_remote_frame || length < 0)
+			length = 0;
+		else if (length > Frame.MAX_DATA_LENGTH)
+			length = Frame.MAX_DATA_LENGTH;
+		return flags * (Frame.MAX_DATA_LENGTH + 1) + length;
+	}
+
+	/** Count a received message */
+	public void received(Message msg) {
+		boolean is_extended_id = msg.is_extended_id != null && msg.is_extended_id.booleanValue();
+		State state = this.state;
+		state.received.increment();
+		this.count(state, msg.arbitration_id, is_extended_id, msg.is_remote_frame, msg.is_error_frame, msg.is_fd,
+				msg.bitrate_switch, msg.dlc, msg.timestamp_ns());
+	}
+
+	/** Count a received pooled frame */
+	public void received(Frame frame) {
+		State state = this.state;
+		state.received.increment();
+		this.count(state, frame.arbitration_id, frame.is_extended_id, frame.is_remote_frame, frame.is_error_frame,
+				frame.is_fd, frame.bitrate_switch, frame.length, frame.timestamp_ns());
+	}
+
+	/** Count a sent message */
+	public void sent(Message msg) {
+		boolean is_extended_id = msg.is_extended_id != null && msg.is_extended_id.booleanValue();
+		State state = this.state;
+		state.sent.increment();
+		this.count(state, msg.arbitration_id, is_extended_id, msg.is_remote_frame, msg.is_error_frame, msg.is_fd,
+				msg.bitrate_switch, msg.dlc, this.clock.time_ns());
+	}
+
+	/** @param timestamp time of the frame, unit=nanosecond */
+	private void count(State state, long arbitration_id, boolean is_extended_id, boolean is_remote_frame,
+			boolean is_error_frame, boolean is_fd, boolean bitrate_switch, int length, long timestamp) {
+		if (is_error_frame) {
+			state.error_frames.increment();
+			state.busy.add(this.error_frame_duration);
+			return;
+		}
+		if (is_remote_frame)
+			state.remote_frames.increment();
+		if (is_fd)
+			state.fd_frames.increment();
+		state.busy.add(this.durations[duration_index(is_extended_id, is_fd, bitrate_switch, is_remote_frame, length)]);
+		this.counter(state, arbitration_id, is_extended_id).count(timestamp);
+	}
+
+	private IdCounter counter(State state, long arbitration_id, boolean is_extended_id) {
+		if (!is_extended_id) {
+			int index = (int) arbitration_id & 0x7FF;
+			IdCounter counter = state.standard.get(index);
+			if (counter == null) {
+				state.standard.compareAndSet(index, null, new IdCounter(index, false));
+				counter = state.standard.get(index);
+			}
+			return counter;
+		}
+		Long key = arbitration_id & 0x1FFFFFFF;
+		IdCounter counter = state.extended.get(key);
+		if (counter == null) {
+			IdCounter created = new IdCounter(key, true);
+			counter = state.extended.putIfAbsent(key, created);
+			if (counter == null)
+				counter = created;
+		}
+		return counter;
+	}
+
+	/** Clear every counter */
+	public synchronized void reset() {
+		this.state = new State(this.clock.time_ns());
+	}
+
+	/**
+	 * @return the current state of the counters. The bus load of the report is
+	 *         measured since the previous call
+	 */
+	public synchronized Report snapshot() {
+		State state = this.state;
+		long now = this.clock.time_ns();
+		long busy = state.busy.sum();
+		long elapsed = now - state.start;
+
+		long window_start = state == this.last_state ? this.last_time : state.start;
+		long window_busy = state == this.last_state ? busy - this.last_busy : busy;
+		double bus_load = now > window_start ? Math.min((double) window_busy / (now - window_start), 1.0) : 0.0;
+		double average_bus_load = elapsed > 0 ? Math.min((double) busy / elapsed, 1.0) : 0.0;
+		this.last_state = state;
+		this.last_time = now;
+		this.last_busy = busy;
+
+		List<IdReport> ids = new ArrayList<IdReport>();
+		for (int i = 0; i < 0x800; i++) {
+			IdCounter counter = state.standard.get(i);
+			if (counter != null)
+				ids.add(new IdReport(counter));
+		}
+		List<IdReport> extended = new ArrayList<IdReport>();
+		for (IdCounter counter : state.extended.values()) {
+			extended.add(new IdReport(counter));
+		}
+		Collections.sort(extended, new Comparator<IdReport>() {
+			@Override
+			public int compare(IdReport a, IdReport b) {
+				return Long.compare(a.arbitration_id, b.arbitration_id);
+			}
+		});
+		ids.addAll(extended);
+
+		return new Report(System.currentTimeMillis(), elapsed, state.received.sum(), state.sent.sum(),
+				state.error_frames.sum(), state.remote_frames.sum(), state.fd_frames.sum(), busy, bus_load,
+				average_bus_load, Collections.unmodifiableList(ids));
+	}
+}
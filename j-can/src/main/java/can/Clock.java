@@ -0,0 +1,160 @@
+package can;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Source of the timestamps of messages and of the timing of periodic tasks and
+ * replays.
+ *
+ * :meth:`time_ns` is an absolute time in nanoseconds since the epoch which
+ * never goes backwards: the system clock is derived from
+ * {@link System#nanoTime()}, aligned once with the wall clock, so timestamps
+ * are neither affected by wall clock adjustments nor limited to its millisecond
+ * resolution.
+ *
+ * Components read the default clock when they are created; it can be replaced
+ * with :meth:`set_default`, e.g. by tests. Components also wait through their
+ * clock, so with a :class:`VirtualClock` timeouts and periods elapse in virtual
+ * time, without sleeping.
+ */
+public abstract class Clock {
+
+	/** The clock based on {@link System#nanoTime()} */
+	public static final Clock SYSTEM = new SystemClock();
+
+	private static volatile Clock default_clock = SYSTEM;
+
+	/** @return the current time, unit=nanosecond since the epoch */
+	public abstract long time_ns();
+
+	/** @return the current time, unit=millisecond since the epoch */
+	public long time_ms() {
+		return Math.floorDiv(this.time_ns(), 1_000_000L);
+	}
+
+	/**
+	 * Measure the offset between a hardware clock and this clock, to map hardware
+	 * timestamps with a single addition. The hardware clock is read between two
+	 * readings of this clock a few times, the closest pair is used.
+	 *
+	 * @param hardware_clock returns the current hardware time, unit=nanosecond
+	 * @return the offset to add to hardware times, unit=nanosecond
+	 */
+	public long offset_of(LongSupplier hardware_clock) {
+		long best_window = Long.MAX_VALUE;
+		long offset = 0;
+		for (int i = 0; i < 5; i++) {
+			long before = this.time_ns();
+			long hardware = hardware_clock.getAsLong();
+			long after = this.time_ns();
+			if (after - before < best_window) {
+				best_window = after - before;
+				offset = before + (after - before) / 2 - hardware;
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * Sleep for the given time.
+	 *
+	 * @param nanos time to sleep, unit=nanosecond
+	 * @throws InterruptedException if the thread is interrupted while sleeping
+	 */
+	public void sleep_ns(long nanos) throws InterruptedException {
+		if (nanos > 0)
+			TimeUnit.NANOSECONDS.sleep(nanos);
+	}
+
+	/** Same as :meth:`sleep_ns`, unit=millisecond */
+	public void sleep(long millis) throws InterruptedException {
+		this.sleep_ns(millis * 1_000_000L);
+	}
+
+	/**
+	 * Wait for at most the given time, or until the thread is unparked, see
+	 * {@link LockSupport#parkNanos(Object, long)}. May return early.
+	 *
+	 * @param nanos maximum time to wait, unit=nanosecond
+	 */
+	public void park_ns(Object blocker, long nanos) {
+		LockSupport.parkNanos(blocker, nanos);
+	}
+
+	/** Wake up a thread waiting in :meth:`park_ns` */
+	public void unpark(Thread thread) {
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Take the head of a queue, waiting until an element is available or the
+	 * timeout expires.
+	 *
+	 * @param timeout time to wait, unit=millisecond
+	 * @return the head of the queue, or null on timeout
+	 */
+	public <T> T poll(BlockingQueue<T> queue, long timeout) throws InterruptedException {
+		return queue.poll(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return true if this clock follows the wall clock, so waits are subject to
+	 *         the scheduling latency of the system
+	 */
+	public boolean is_real_time() {
+		return true;
+	}
+
+	/**
+	 * Declare that a thread takes part in the timeline of this clock, waiting only
+	 * through it until it calls :meth:`deregister`. Components register the
+	 * threads they start before starting them, see :class:`VirtualClock`. Does
+	 * nothing by default.
+	 */
+	public void register(Thread thread) {
+	}
+
+	/** Same as :meth:`register` for the calling thread */
+	public void register() {
+		this.register(Thread.currentThread());
+	}
+
+	/** Undo :meth:`register` for the calling thread */
+	public void deregister() {
+	}
+
+	/** @return the clock used by components created from now on */
+	public static Clock get_default() {
+		return default_clock;
+	}
+
+	/** Replace the default clock, null restores :attr:`SYSTEM` */
+	public static void set_default(Clock clock) {
+		default_clock = clock == null ? SYSTEM : clock;
+	}
+
+	/** {@link System#nanoTime()} shifted to the epoch when the class is loaded */
+	static final class SystemClock extends Clock {
+		private final long offset;
+
+		SystemClock() {
+			// align on a change of the millisecond wall clock to start within 1 ms
+			long wall = System.currentTimeMillis();
+			long next;
+			long nano;
+			do {
+				nano = System.nanoTime();
+				next = System.currentTimeMillis();
+			} while (next == wall);
+			this.offset = next * 1_000_000L - nano;
+		}
+
+		@Override
+		public long time_ns() {
+			return System.nanoTime() + this.offset;
+		}
+	}
+}
@@ -13,7 +13,8 @@ public class Filter {
 
 	public boolean match(long received_can_id, Boolean received_can_extended) {
 		if (this.extended != null) {
-			if (received_can_extended != this.extended) {
+			boolean is_extended_id = received_can_extended != null && received_can_extended.booleanValue();
+			if (is_extended_id != this.extended.booleanValue()) {
 				return false;
 			}
 		}
@@ -22,7 +23,8 @@ public class Filter {
 
 	public boolean match(Message msg) {
 		if (this.extended != null) {
-			if (msg.is_extended_id != this.extended) {
+			boolean is_extended_id = msg.is_extended_id != null && msg.is_extended_id.booleanValue();
+			if (is_extended_id != this.extended.booleanValue()) {
 				return false;
 			}
 		}
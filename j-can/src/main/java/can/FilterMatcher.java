@@ -0,0 +1,228 @@
+package can;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, precompiled form of a list of {@link Filter}s, built by
+ * :meth:`~can.BusABC.set_filters`.
+ *
+ * Matching a message does not depend on the number of filters:
+ * <ul>
+ * <li>standard IDs are looked up in a 2048 bit set, which is computed from
+ * every filter applying to standard frames (exact IDs and masks alike)</li>
+ * <li>exact extended IDs are looked up in a hash set</li>
+ * <li>the remaining extended filters are grouped by mask, each group being one
+ * hash set lookup of ``arbitration_id & mask``</li>
+ * </ul>
+ * IDs which do not fit in 11 or 29 bits are checked against the original
+ * filters one by one.
+ */
+public final class FilterMatcher {
+
+	private static final long STD_ID_MASK = 0x7FF;
+	private static final long EXT_ID_MASK = 0x1FFFFFFF;
+
+	/** Matcher which accepts every message, used when no filter is set */
+	public static final FilterMatcher MATCH_ALL = new FilterMatcher();
+
+	private final boolean match_all;
+
+	/** bit i is set if standard ID i matches */
+	private final long[] std_ids = new long[(int) (STD_ID_MASK + 1) / 64];
+
+	/** true if any extended ID matches */
+	private final boolean ext_match_all;
+	/** extended IDs matched by filters with a full mask */
+	private final IntSet ext_exact;
+	/** masks of the other extended filters */
+	private final int[] ext_masks;
+	/** for each mask, the values of ``can_id & mask`` which match */
+	private final IntSet[] ext_values;
+
+	/** snapshot of the filters, for IDs out of the 11/29 bits range */
+	private final long[] can_ids;
+	private final long[] can_masks;
+	private final Boolean[] extended;
+
+	private FilterMatcher() {
+		this.match_all = true;
+		this.ext_match_all = true;
+		this.ext_exact = new IntSet(0);
+		this.ext_masks = new int[0];
+		this.ext_values = new IntSet[0];
+		this.can_ids = new long[0];
+		this.can_masks = new long[0];
+		this.extended = new Boolean[0];
+	}
+
+	private FilterMatcher(List<Filter> filters) {
+		int n = filters.size();
+		this.match_all = false;
+		this.can_ids = new long[n];
+		this.can_masks = new long[n];
+		this.extended = new Boolean[n];
+
+		List<Integer> exact = new ArrayList<>();
+		Map<Integer, List<Integer>> by_mask = new LinkedHashMap<>();
+		boolean ext_match_all = false;
+
+		for (int i = 0; i < n; i++) {
+			Filter filter = filters.get(i);
+			long can_id = filter.can_id;
+			long can_mask = filter.can_mask;
+			Boolean ext = filter.extended;
+			this.can_ids[i] = can_id;
+			this.can_masks[i] = can_mask;
+			this.extended[i] = ext;
+
+			if (ext == null || !ext.booleanValue()) {
+				// evaluate the filter for every possible standard ID
+				for (int id = 0; id <= STD_ID_MASK; id++) {
+					if (((can_id ^ id) & can_mask) == 0) {
+						this.std_ids[id >>> 6] |= 1L << id;
+					}
+				}
+			}
+
+			if (ext == null || ext.booleanValue()) {
+				// bits above 29 can only match if the filter expects them cleared
+				if ((can_id & can_mask & ~EXT_ID_MASK) != 0)
+					continue;
+				int mask = (int) (can_mask & EXT_ID_MASK);
+				int value = (int) (can_id & mask);
+				if (mask == 0) {
+					ext_match_all = true;
+				} else if (mask == EXT_ID_MASK) {
+					exact.add(value);
+				} else {
+					List<Integer> values = by_mask.get(mask);
+					if (values == null) {
+						values = new ArrayList<>();
+						by_mask.put(mask, values);
+					}
+					values.add(value);
+				}
+			}
+		}
+
+		this.ext_match_all = ext_match_all;
+		this.ext_exact = IntSet.of(exact);
+		this.ext_masks = new int[by_mask.size()];
+		this.ext_values = new IntSet[by_mask.size()];
+		int idx = 0;
+		for (Map.Entry<Integer, List<Integer>> entry : by_mask.entrySet()) {
+			this.ext_masks[idx] = entry.getKey();
+			this.ext_values[idx] = IntSet.of(entry.getValue());
+			idx++;
+		}
+	}
+
+	/**
+	 * Compile a list of filters.
+	 *
+	 * @param filters the filters, see :meth:`~can.BusABC.set_filters`. Later
+	 *                changes of the list or the filters do not affect the
+	 *                returned matcher.
+	 * @return a matcher, {@link #MATCH_ALL} if filters is null or empty
+	 */
+	public static FilterMatcher compile(List<Filter> filters) {
+		if (filters == null || filters.isEmpty())
+			return MATCH_ALL;
+		return new FilterMatcher(filters);
+	}
+
+	/** @return whether the given message matches at least one filter */
+	public boolean match(Message msg) {
+		if (this.match_all)
+			return true;
+		return this.match(msg.arbitration_id, msg.is_extended_id != null && msg.is_extended_id.booleanValue());
+	}
+
+	/** @return whether a message with the given ID matches at least one filter */
+	public boolean match(long id, boolean is_extended_id) {
+		if (this.match_all)
+			return true;
+
+		if (!is_extended_id) {
+			if ((id & ~STD_ID_MASK) == 0) {
+				return (this.std_ids[(int) id >>> 6] & (1L << id)) != 0;
+			}
+			return this.match_linear(id, false);
+		}
+
+		if ((id & ~EXT_ID_MASK) != 0)
+			return this.match_linear(id, true);
+		if (this.ext_match_all)
+			return true;
+		int ext_id = (int) id;
+		if (this.ext_exact.contains(ext_id))
+			return true;
+		for (int i = 0; i < this.ext_masks.length; i++) {
+			if (this.ext_values[i].contains(ext_id & this.ext_masks[i]))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean match_linear(long id, boolean is_extended_id) {
+		for (int i = 0; i < this.can_ids.length; i++) {
+			if (this.extended[i] != null && this.extended[i].booleanValue() != is_extended_id)
+				continue;
+			if (((this.can_ids[i] ^ id) & this.can_masks[i]) == 0)
+				return true;
+		}
+		return false;
+	}
+
+	/** Minimal open addressing set of non negative ints. */
+	static final class IntSet {
+		private static final int EMPTY = -1;
+
+		private final int[] table;
+		private final int mask;
+
+		IntSet(int expected) {
+			int size = Integer.highestOneBit(Math.max(2, expected * 2 - 1)) << 1;
+			this.table = new int[size];
+			this.mask = size - 1;
+			for (int i = 0; i < size; i++)
+				this.table[i] = EMPTY;
+		}
+
+		static IntSet of(List<Integer> values) {
+			IntSet set = new IntSet(values.size());
+			for (int value : values)
+				set.add(value);
+			return set;
+		}
+
+		private static int hash(int value) {
+			int h = value * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		void add(int value) {
+			int idx = hash(value) & this.mask;
+			while (this.table[idx] != EMPTY) {
+				if (this.table[idx] == value)
+					return;
+				idx = (idx + 1) & this.mask;
+			}
+			this.table[idx] = value;
+		}
+
+		boolean contains(int value) {
+			int idx = hash(value) & this.mask;
+			int entry;
+			while ((entry = this.table[idx]) != EMPTY) {
+				if (entry == value)
+					return true;
+				idx = (idx + 1) & this.mask;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package can;
+
+import java.util.Arrays;
+
+/**
+ * Mutable representation of a CAN message for the receive and transmit hot
+ * paths.
+ *
+ * Unlike :class:`~can.Message`, a frame holds only primitive fields and a
+ * payload buffer of 64 bytes which is never reallocated, so it can be reused
+ * for any number of messages. Frames are usually borrowed from a
+ * :class:`~can.MessagePool` and filled by :meth:`~can.BusABC.recv_into`;
+ * :meth:`to_message` converts a frame to a :class:`~can.Message` when it has to
+ * be kept.
+ *
+ * A frame must not be used after it has been released to its pool.
+ */
+public final class Frame {
+
+	/** Size of the payload buffer, the largest CAN FD payload */
+	public static final int MAX_DATA_LENGTH = 64;
+
+	/** unit=millisecond, see :meth:`timestamp_ns` for the full resolution */
+	public long timestamp;
+	/** full resolution of the timestamp, valid while it matches :attr:`timestamp` */
+	private long _timestamp_ns;
+	public long arbitration_id;
+	public boolean is_extended_id;
+	public boolean is_remote_frame;
+	public boolean is_error_frame;
+	public int channel;
+	/** number of valid bytes in :attr:`data` */
+	public int length;
+	/** payload buffer, only the first :attr:`length` bytes are valid */
+	public final byte[] data = new byte[MAX_DATA_LENGTH];
+	public boolean is_fd;
+	public boolean bitrate_switch;
+	public boolean error_state_indicator;
+
+	/** pool the frame was borrowed from, null if it was created directly */
+	final MessagePool pool;
+
+	public Frame() {
+		this(null);
+	}
+
+	Frame(MessagePool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @return the timestamp with nanosecond resolution, or :attr:`timestamp`
+	 *         converted if it was changed afterwards, unit=nanosecond
+	 */
+	public long timestamp_ns() {
+		if (Math.floorDiv(this._timestamp_ns, 1_000_000L) == this.timestamp)
+			return this._timestamp_ns;
+		return this.timestamp * 1_000_000L;
+	}
+
+	/** Set the timestamp with nanosecond resolution, :attr:`timestamp` as well */
+	public Frame timestamp_ns(long timestamp) {
+		this._timestamp_ns = timestamp;
+		this.timestamp = Math.floorDiv(timestamp, 1_000_000L);
+		return this;
+	}
+
+	/** Reset all fields to their defaults, the payload is cleared as well. */
+	public Frame reset() {
+		Arrays.fill(this.data, 0, this.length, (byte) 0);
+		this.timestamp = 0;
+		this._timestamp_ns = 0;
+		this.arbitration_id = 0;
+		this.is_extended_id = false;
+		this.is_remote_frame = false;
+		this.is_error_frame = false;
+		this.channel = 0;
+		this.length = 0;
+		this.is_fd = false;
+		this.bitrate_switch = false;
+		this.error_state_indicator = false;
+		return this;
+	}
+
+	/**
+	 * Replace the payload.
+	 *
+	 * @exception IllegalArgumentException if length exceeds 64 bytes
+	 */
+	public Frame set_data(byte[] src, int offset, int length) {
+		if (length < 0 || length > MAX_DATA_LENGTH)
+			throw new IllegalArgumentException("Invalid payload length " + length);
+		System.arraycopy(src, offset, this.data, 0, length);
+		if (length < this.length)
+			Arrays.fill(this.data, length, this.length, (byte) 0);
+		this.length = length;
+		return this;
+	}
+
+	/** Copy all fields of a message into this frame. */
+	public Frame copy_from(Message msg) {
+		this.timestamp_ns(msg.timestamp_ns());
+		this.arbitration_id = msg.arbitration_id;
+		this.is_extended_id = msg.is_extended_id != null && msg.is_extended_id.booleanValue();
+		this.is_remote_frame = msg.is_remote_frame;
+		this.is_error_frame = msg.is_error_frame;
+		this.channel = msg.channel;
+		this.is_fd = msg.is_fd;
+		this.bitrate_switch = msg.bitrate_switch;
+		this.error_state_indicator = msg.error_state_indicator;
+		if (msg.is_remote_frame || msg.data == null) {
+			// remote frames carry a DLC but no data
+			Arrays.fill(this.data, 0, this.length, (byte) 0);
+			this.length = Math.min(Math.max(msg.dlc, 0), MAX_DATA_LENGTH);
+		} else {
+			this.set_data(msg.data, 0, Math.min(Math.min(msg.dlc, msg.data.length), MAX_DATA_LENGTH));
+		}
+		return this;
+	}
+
+	/** Copy all fields of another frame into this frame. */
+	public Frame copy_from(Frame other) {
+		this.timestamp = other.timestamp;
+		this._timestamp_ns = other._timestamp_ns;
+		this.arbitration_id = other.arbitration_id;
+		this.is_extended_id = other.is_extended_id;
+		this.is_remote_frame = other.is_remote_frame;
+		this.is_error_frame = other.is_error_frame;
+		this.channel = other.channel;
+		this.is_fd = other.is_fd;
+		this.bitrate_switch = other.bitrate_switch;
+		this.error_state_indicator = other.error_state_indicator;
+		this.set_data(other.data, 0, other.length);
+		return this;
+	}
+
+	/** @return a new message with the content of this frame */
+	public Message to_message() {
+		Message msg = new Message();
+		msg.timestamp_ns(this.timestamp_ns());
+		msg.arbitration_id = this.arbitration_id;
+		msg.is_extended_id = this.is_extended_id;
+		msg.is_remote_frame = this.is_remote_frame;
+		msg.is_error_frame = this.is_error_frame;
+		msg.channel = this.channel;
+		msg.dlc = this.length;
+		msg.data = this.is_remote_frame ? new byte[8] : Arrays.copyOf(this.data, this.length);
+		msg.is_fd = this.is_fd;
+		msg.bitrate_switch = this.bitrate_switch;
+		msg.error_state_indicator = this.error_state_indicator;
+		return msg;
+	}
+
+	/** @return the DLC code of the frame, differs from the length above 8 bytes */
+	public int dlc() {
+		return Util.len2dlc(this.length);
+	}
+
+	/** Give the frame back to its pool, if it was borrowed from one. */
+	public void release() {
+		if (this.pool != null)
+			this.pool.release(this);
+	}
+
+	@Override
+	public String toString() {
+		return this.to_message().toString();
+	}
+}
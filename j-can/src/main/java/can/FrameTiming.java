@@ -0,0 +1,259 @@
+package can;
+
+/**
+ * Length of CAN frames on the wire, to estimate transmission times and bus
+ * load.
+ *
+ * The ``worst_case`` lengths count every possible stuff bit, the ``exact``
+ * ones build the bit stream of the frame, including its CRC, and count the
+ * stuff bits actually inserted. Both include the 3 bits of interframe space.
+ */
+public final class FrameTiming {
+
+	private FrameTiming() {
+	}
+
+	/** @return the number of data bytes of a message as transmitted */
+	public static int payload_length(Message msg) {
+		return payload_length(msg.is_remote_frame, msg.is_fd, msg.dlc);
+	}
+
+	/**
+	 * @param length number of data bytes of the message
+	 * @return the number of data bytes as transmitted, CAN FD payloads being
+	 *         padded to the next valid length
+	 */
+	public static int payload_length(boolean is_remote_frame, boolean is_fd, int length) {
+		if (is_remote_frame)
+			return 0;
+		if (is_fd)
+			return Util.dlc2len(Util.len2dlc(length));
+		return Math.min(length, 8);
+	}
+
+	/**
+	 * @return the number of bits sent with the nominal (arbitration) bitrate. For
+	 *         classic CAN frames this is the whole frame.
+	 */
+	public static int worst_case_nominal_bits(Message msg) {
+		boolean is_extended_id = msg.is_extended_id != null && msg.is_extended_id.booleanValue();
+		return worst_case_nominal_bits(is_extended_id, msg.is_fd, payload_length(msg));
+	}
+
+	/** @param n number of data bytes as transmitted, see :meth:`payload_length` */
+	public static int worst_case_nominal_bits(boolean is_extended_id, boolean is_fd, int n) {
+		if (!is_fd) {
+			// SOF..CRC are subject to bit stuffing: 34 (54) bits + data
+			if (is_extended_id)
+				return 8 * n + 67 + (54 + 8 * n - 1) / 4;
+			return 8 * n + 47 + (34 + 8 * n - 1) / 4;
+		}
+		// SOF, ID, (SRR, IDE, ID extension), RRS, IDE, FDF, res, BRS
+		int header = is_extended_id ? 36 : 17;
+		// CRC delimiter, ACK slot, ACK delimiter, EOF, IFS
+		return header + (header - 1) / 4 + 13;
+	}
+
+	/**
+	 * @return the number of bits sent with the data bitrate if the bitrate is
+	 *         switched, 0 for classic CAN frames
+	 */
+	public static int worst_case_data_bits(Message msg) {
+		return worst_case_data_bits(msg.is_fd, payload_length(msg));
+	}
+
+	/** @param n number of data bytes as transmitted, see :meth:`payload_length` */
+	public static int worst_case_data_bits(boolean is_fd, int n) {
+		if (!is_fd)
+			return 0;
+		int crc = n > 16 ? 21 : 17;
+		// ESI, DLC, data and their dynamic stuff bits
+		int dynamic = 5 + 8 * n;
+		// stuff count, CRC and their fixed stuff bits
+		int fixed = 4 + crc;
+		return dynamic + dynamic / 4 + fixed + (fixed + 3) / 4;
+	}
+
+	/** @return the worst case number of bits of the frame, ignoring bitrates */
+	public static int worst_case_bits(Message msg) {
+		return worst_case_nominal_bits(msg) + worst_case_data_bits(msg);
+	}
+
+	/**
+	 * @param msg          the frame
+	 * @param bitrate      nominal bitrate, unit=bit/s
+	 * @param data_bitrate data bitrate of CAN FD frames with bitrate switch, null
+	 *                     to use the nominal bitrate
+	 * @return the worst case time to transmit the frame, unit=nanosecond
+	 */
+	public static long worst_case_duration(Message msg, int bitrate, Integer data_bitrate) {
+		int data_rate = bitrate;
+		if (msg.is_fd && msg.bitrate_switch && data_bitrate != null)
+			data_rate = data_bitrate;
+		return worst_case_nominal_bits(msg) * 1_000_000_000L / bitrate
+				+ worst_case_data_bits(msg) * 1_000_000_000L / data_rate;
+	}
+
+	/**
+	 * @return the number of bits of the frame sent with the nominal (arbitration)
+	 *         bitrate, stuff bits included. For classic CAN frames this is the
+	 *         whole frame.
+	 */
+	public static int exact_nominal_bits(Message msg) {
+		return (int) (exact_bits(msg) >>> 32);
+	}
+
+	/**
+	 * @return the number of bits of the frame sent with the data bitrate if the
+	 *         bitrate is switched, stuff bits included. 0 for classic CAN frames
+	 */
+	public static int exact_data_bits(Message msg) {
+		return (int) exact_bits(msg);
+	}
+
+	/**
+	 * @param msg          the frame
+	 * @param bitrate      nominal bitrate, unit=bit/s
+	 * @param data_bitrate data bitrate of CAN FD frames with bitrate switch, null
+	 *                     to use the nominal bitrate
+	 * @return the time to transmit the frame, unit=nanosecond
+	 */
+	public static long exact_duration(Message msg, int bitrate, Integer data_bitrate) {
+		int data_rate = bitrate;
+		if (msg.is_fd && msg.bitrate_switch && data_bitrate != null)
+			data_rate = data_bitrate;
+		long bits = exact_bits(msg);
+		return (bits >>> 32) * 1_000_000_000L / bitrate + (bits & 0xFFFFFFFFL) * 1_000_000_000L / data_rate;
+	}
+
+	/**
+	 * Arbitration priority of a frame, the lowest value wins: the arbitration
+	 * fields in the order they are sent, a dominant (0) bit beating a recessive
+	 * one. A standard frame therefore wins against an extended frame with the
+	 * same base ID, a data frame against a remote frame.
+	 */
+	public static long arbitration_priority(Message msg) {
+		boolean is_extended_id = msg.is_extended_id != null && msg.is_extended_id.booleanValue();
+		// RTR of classic frames, RRS of CAN FD frames is always dominant
+		long rtr = msg.is_remote_frame && !msg.is_fd ? 1 : 0;
+		if (is_extended_id) {
+			long id = msg.arbitration_id & 0x1FFFFFFFL;
+			// base ID, SRR, IDE, ID extension, RTR
+			return (id >>> 18) << 21 | 1L << 20 | 1L << 19 | (id & 0x3FFFF) << 1 | rtr;
+		}
+		// ID, RTR, IDE
+		return (msg.arbitration_id & 0x7FF) << 21 | rtr << 20;
+	}
+
+	/** @return the nominal bits in the upper and the data bits in the lower half */
+	private static long exact_bits(Message msg) {
+		boolean is_extended_id = msg.is_extended_id != null && msg.is_extended_id.booleanValue();
+		int n = payload_length(msg);
+		long id = msg.arbitration_id;
+		Stuffer out = new Stuffer();
+
+		out.put(0, 1); // SOF
+		if (is_extended_id) {
+			out.put(id >>> 18, 11);
+			out.put(1, 1); // SRR
+			out.put(1, 1); // IDE
+			out.put(id, 18);
+		} else {
+			out.put(id, 11);
+		}
+
+		int dlc;
+		if (msg.is_fd) {
+			// RRS, (IDE,) FDF, res
+			out.put(is_extended_id ? 0b010 : 0b0010, is_extended_id ? 3 : 4);
+			out.put(msg.bitrate_switch ? 1 : 0, 1);
+			out.data_phase = true;
+			out.put(msg.error_state_indicator ? 1 : 0, 1);
+			dlc = Util.len2dlc(n);
+		} else {
+			out.put(msg.is_remote_frame ? 1 : 0, 1); // RTR
+			out.put(0, 2); // extended: r1 r0, standard: IDE r0
+			dlc = msg.is_remote_frame ? Math.min(Math.max(msg.dlc, 0), 8) : n;
+		}
+		out.put(dlc, 4);
+		for (int i = 0; i < n; i++) {
+			boolean present = msg.data != null && i < msg.data.length && i < msg.dlc;
+			out.put(present ? msg.data[i] : 0, 8);
+		}
+
+		if (msg.is_fd) {
+			// stuff count and CRC with their fixed stuff bits
+			int fixed = 4 + (n > 16 ? 21 : 17);
+			out.data += fixed + (fixed + 3) / 4;
+		} else {
+			out.stuff(out.crc, 15);
+		}
+		// CRC delimiter, ACK slot, ACK delimiter, EOF, IFS
+		out.nominal += 13;
+		return (long) out.nominal << 32 | out.data;
+	}
+
+	/**
+	 * Next value of a CRC-15 of classic CAN frames after one more bit.
+	 *
+	 * @param crc the CRC of the previous bits, 0 before the start of frame
+	 */
+	static int crc15(int crc, int bit) {
+		int crc_next = bit ^ (crc >>> 14);
+		crc = (crc << 1) & 0x7FFF;
+		if (crc_next != 0)
+			crc ^= 0x4599;
+		return crc;
+	}
+
+	/** Counts the bits of the dynamically stuffed part of a frame. */
+	private static final class Stuffer {
+		int nominal;
+		int data;
+		/** true once the bits are counted as data bits */
+		boolean data_phase;
+		/** CRC-15 of the bits put so far */
+		int crc;
+		private int last = -1;
+		private int run;
+
+		/** Append the lowest ``count`` bits of ``value``, MSB first, to the CRC. */
+		void put(long value, int count) {
+			for (int i = count - 1; i >= 0; i--) {
+				int bit = (int) (value >>> i) & 1;
+				this.crc = crc15(this.crc, bit);
+				this.bit(bit);
+			}
+		}
+
+		/** Append bits which are stuffed but not part of the CRC. */
+		void stuff(long value, int count) {
+			for (int i = count - 1; i >= 0; i--) {
+				this.bit((int) (value >>> i) & 1);
+			}
+		}
+
+		private void bit(int bit) {
+			this.count();
+			if (bit == this.last) {
+				this.run++;
+			} else {
+				this.last = bit;
+				this.run = 1;
+			}
+			if (this.run == 5) {
+				// stuff bit of the opposite value, which starts the next run
+				this.count();
+				this.last = 1 - bit;
+				this.run = 1;
+			}
+		}
+
+		private void count() {
+			if (this.data_phase)
+				this.data++;
+			else
+				this.nominal++;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package can;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds.
+ *
+ * Each power of two is split into 16 buckets, so a percentile is known within
+ * about 6%. Values are recorded by a single thread without locking, or by
+ * several threads holding the same lock; any thread may read percentiles
+ * concurrently.
+ */
+public class LatencyHistogram {
+
+	/** number of buckets per power of two, as a shift */
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	/** up to 2^40 ns, about 18 minutes; longer latencies land in the last bucket */
+	private static final int MAX_EXPONENT = 40;
+	public static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private volatile long count;
+	private volatile long max;
+
+	/** @return the bucket of a latency, unit=nanosecond */
+	public static int bucket(long value) {
+		if (value < SUB_COUNT)
+			return value < 0 ? 0 : (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+			return BUCKETS - 1;
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	/** @return the largest latency of a bucket, unit=nanosecond */
+	public static long bucket_limit(int bucket) {
+		if (bucket < SUB_COUNT)
+			return bucket;
+		int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+		long sub = bucket % SUB_COUNT;
+		return ((SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+
+	/** Record a latency, must only be called by one thread at a time */
+	public void record(long value) {
+		int bucket = bucket(value);
+		this.counts.lazySet(bucket, this.counts.get(bucket) + 1);
+		if (value > this.max)
+			this.max = value;
+		this.count = this.count + 1;
+	}
+
+	public long count() {
+		return this.count;
+	}
+
+	public long max() {
+		return this.max;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the upper bound of the bucket holding the percentile, 0 if nothing
+	 *         was recorded, unit=nanosecond
+	 */
+	public long percentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = this.counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+		long rank = (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= Math.max(1, rank))
+				return Math.min(bucket_limit(i), this.max);
+		}
+		return this.max;
+	}
+}
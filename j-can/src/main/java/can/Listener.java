@@ -0,0 +1,30 @@
+package can;
+
+/**
+ * The basic listener that can be called directly to handle some CAN message.
+ *
+ * Listeners are registered on a :class:`~can.Notifier`, and called from its
+ * receive thread: :meth:`on_message_received` must return quickly, or copy the
+ * message to its own queue (see :class:`~can.BufferedListener`).
+ */
+public interface Listener {
+
+	/**
+	 * This method is called to handle the given message.
+	 *
+	 * @param msg the delivered message, shared with the other listeners. It must
+	 *            not be modified.
+	 */
+	public void on_message_received(Message msg);
+
+	/**
+	 * This method is called to handle any exception in the receive thread.
+	 *
+	 * @param exc The exception causing the thread to stop, or thrown by
+	 *            :meth:`on_message_received`
+	 */
+	public void on_error(Exception exc);
+
+	/** Stop handling new messages, carry out any final tasks. */
+	public void stop();
+}
@@ -4,6 +4,7 @@ import java.util.Arrays;
 
 public class Message {
 
+	/** unit=millisecond, see :meth:`timestamp_ns` for the full resolution */
 	public long timestamp;
 	public long arbitration_id;
 	public Boolean is_extended_id;
@@ -17,6 +18,8 @@ public class Message {
 	public boolean error_state_indicator;
 
 	private float timestamp_delta = 1.0e-6f;
+	/** full resolution of the timestamp, valid while it matches :attr:`timestamp` */
+	private long _timestamp_ns;
 
 	/**
 	 * To create a message object, simply provide any of the below attributes
@@ -70,6 +73,30 @@ public class Message {
 		}
 	}
 
+	/** Empty message, all fields are set by the caller. */
+	Message() {
+		this.is_extended_id = false;
+	}
+
+	/**
+	 * Create a copy of the given message. The payload is copied as well, so the
+	 * new message does not share any mutable state with the original.
+	 */
+	public Message(Message other) {
+		this.timestamp = other.timestamp;
+		this._timestamp_ns = other._timestamp_ns;
+		this.arbitration_id = other.arbitration_id;
+		this.is_extended_id = other.is_extended_id;
+		this.is_remote_frame = other.is_remote_frame;
+		this.is_error_frame = other.is_error_frame;
+		this.channel = other.channel;
+		this.dlc = other.dlc;
+		this.data = other.data == null ? null : other.data.clone();
+		this.is_fd = other.is_fd;
+		this.bitrate_switch = other.bitrate_switch;
+		this.error_state_indicator = other.error_state_indicator;
+	}
+
 	/**
 	 * Checks if the message parameters are valid. Assumes that the types are
 	 * already correct.
@@ -132,7 +159,9 @@ public class Message {
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
 		builder.append("[timestamp:");
-		builder.append(String.format("%015.6f ", timestamp / 1000.0f));
+		long ns = this.timestamp_ns();
+		builder.append(String.format("%08d.%06d ", Math.floorDiv(ns, 1_000_000_000L),
+				Math.floorMod(ns, 1_000_000_000L) / 1000));
 		builder.append("ID=");
 //		String arbitration_id_string;
 //		if (this.is_extended_id != null) {
@@ -187,6 +216,23 @@ public class Message {
 		return builder.toString();
 	}
 
+	/**
+	 * @return the timestamp with nanosecond resolution as set by the interface, or
+	 *         :attr:`timestamp` converted if it was changed afterwards,
+	 *         unit=nanosecond
+	 */
+	public long timestamp_ns() {
+		if (Math.floorDiv(this._timestamp_ns, 1_000_000L) == this.timestamp)
+			return this._timestamp_ns;
+		return this.timestamp * 1_000_000L;
+	}
+
+	/** Set the timestamp with nanosecond resolution, :attr:`timestamp` as well */
+	public void timestamp_ns(long timestamp) {
+		this._timestamp_ns = timestamp;
+		this.timestamp = Math.floorDiv(timestamp, 1_000_000L);
+	}
+
 	/** return the dlc such that it also works on remote frames */
 	public int len() {
 		return this.dlc;
@@ -0,0 +1,92 @@
+package can;
+
+/**
+ * A bounded pool of reusable :class:`~can.Frame` objects.
+ *
+ * Backends and consumers borrow frames with :meth:`borrow` and give them back
+ * with :meth:`release` (or :meth:`~can.Frame.release`) once they are done, so
+ * a steady stream of messages does not allocate anything. When the pool is
+ * empty a new frame is created; when it is full, released frames are left to
+ * the garbage collector.
+ *
+ * The pool is thread safe: a frame may be borrowed by one thread and released
+ * by another.
+ */
+public class MessagePool {
+
+	/** Default number of frames kept by the pool */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final Frame[] frames;
+	private int size = 0;
+	private long created = 0;
+
+	/**
+	 * @param capacity maximum number of idle frames kept. Default: 1024
+	 * @param prefill  number of frames created up front. Default: 0
+	 */
+	public MessagePool(Integer capacity, Integer prefill) {
+		// Default value if input is null
+		if (capacity == null) {
+			capacity = DEFAULT_CAPACITY;
+		}
+		if (prefill == null) {
+			prefill = 0;
+		}
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+
+		this.frames = new Frame[capacity];
+		for (int i = 0; i < Math.min(prefill, capacity); i++) {
+			this.frames[this.size++] = new Frame(this);
+			this.created++;
+		}
+	}
+
+	public MessagePool() {
+		this(null, null);
+	}
+
+	/**
+	 * @return an idle frame with all fields reset, or a new frame if the pool is
+	 *         empty
+	 */
+	public Frame borrow() {
+		synchronized (this) {
+			if (this.size > 0) {
+				Frame frame = this.frames[--this.size];
+				this.frames[this.size] = null;
+				return frame;
+			}
+			this.created++;
+		}
+		return new Frame(this);
+	}
+
+	/**
+	 * Give a frame back to the pool. The frame must not be used anymore by the
+	 * caller.
+	 *
+	 * @exception IllegalArgumentException if the frame belongs to another pool
+	 */
+	public void release(Frame frame) {
+		if (frame.pool != this)
+			throw new IllegalArgumentException("The frame was not borrowed from this pool");
+		frame.reset();
+		synchronized (this) {
+			if (this.size < this.frames.length) {
+				this.frames[this.size++] = frame;
+			}
+		}
+	}
+
+	/** @return the number of idle frames in the pool */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/** @return the number of frames created by the pool so far */
+	public synchronized long created() {
+		return this.created;
+	}
+}
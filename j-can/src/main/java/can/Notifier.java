@@ -0,0 +1,302 @@
+package can;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owns the receive loop of a bus and dispatches every received message to the
+ * registered listeners.
+ *
+ * A bus should have a single reader: when several consumers call
+ * :meth:`~can.BusABC.recv` on the same bus, each message reaches only one of
+ * them. The notifier reads the bus from its own thread and looks up the
+ * listeners of each message by arbitration ID, so its cost does not grow with
+ * the number of listeners interested in other IDs. Listeners registered without
+ * an ID receive every message.
+ *
+ * Listeners are called from the receive thread, in registration order. A
+ * listener which does slow work should buffer the messages, see
+ * :class:`~can.BufferedListener`.
+ */
+public class Notifier {
+	private static final Logger logger = LoggerFactory.getLogger(Notifier.class);
+
+	/** Default time the thread waits for messages before checking for stop */
+	public static final long DEFAULT_TIMEOUT = 1000;
+	/** Number of messages read from the bus at once */
+	private static final int BATCH_SIZE = 64;
+
+	private static final Listener[] NO_LISTENERS = new Listener[0];
+
+	/**
+	 * Immutable dispatch table, replaced as a whole when the listeners change so
+	 * the receive thread never needs a lock.
+	 */
+	private static final class Table {
+		/** listeners by standard ID, null if none */
+		final Listener[][] standard;
+		/** listeners by extended ID */
+		final Map<Integer, Listener[]> extended;
+		/** listeners of all messages */
+		final Listener[] all;
+		/** every distinct listener, to notify errors and stop */
+		final Listener[] distinct;
+
+		Table(Listener[][] standard, Map<Integer, Listener[]> extended, Listener[] all, Listener[] distinct) {
+			this.standard = standard;
+			this.extended = extended;
+			this.all = all;
+			this.distinct = distinct;
+		}
+	}
+
+	/** A registration, as given to :meth:`add_listener` */
+	private static final class Entry {
+		final Listener listener;
+		/** null for all messages */
+		final Long arbitration_id;
+		final boolean is_extended_id;
+
+		Entry(Listener listener, Long arbitration_id, boolean is_extended_id) {
+			this.listener = listener;
+			this.arbitration_id = arbitration_id;
+			this.is_extended_id = is_extended_id;
+		}
+	}
+
+	public final BusABC bus;
+	private final long timeout;
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private volatile Table table = new Table(null, new HashMap<Integer, Listener[]>(), NO_LISTENERS, NO_LISTENERS);
+
+	private final Thread thread;
+	private volatile boolean running = true;
+	/** the exception which stopped the receive thread, if any */
+	private volatile Exception exception;
+
+	/**
+	 * Start reading the bus in a daemon thread.
+	 *
+	 * @param bus       the bus to read
+	 * @param listeners listeners of all messages, may be null
+	 * @param timeout   time the thread waits for messages before checking whether
+	 *                  it was stopped, unit=millisecond. Default: 1000
+	 */
+	public Notifier(BusABC bus, List<Listener> listeners, Long timeout) {
+		// Default value if input is null
+		if (timeout == null) {
+			timeout = DEFAULT_TIMEOUT;
+		}
+		this.bus = bus;
+		this.timeout = timeout;
+		if (listeners != null) {
+			for (Listener listener : listeners) {
+				this.add_listener(listener);
+			}
+		}
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Notifier.this._rx_thread();
+			}
+		});
+		this.thread.setName("can.notifier for bus '" + bus + "'");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public Notifier(BusABC bus) {
+		this(bus, null, null);
+	}
+
+	/** Add a listener receiving every message. */
+	public void add_listener(Listener listener) {
+		this._add(new Entry(listener, null, false));
+	}
+
+	/**
+	 * Add a listener receiving the messages of one arbitration ID. A listener may
+	 * be added for several IDs.
+	 *
+	 * @param listener       the listener
+	 * @param arbitration_id the arbitration ID
+	 * @param is_extended_id whether the ID is a 29 bits ID
+	 */
+	public void add_listener(Listener listener, long arbitration_id, boolean is_extended_id) {
+		if (arbitration_id < 0 || arbitration_id > (is_extended_id ? 0x1FFFFFFF : 0x7FF)) {
+			throw new IllegalArgumentException(String.format("Invalid arbitration ID 0x%X", arbitration_id));
+		}
+		this._add(new Entry(listener, arbitration_id, is_extended_id));
+	}
+
+	/**
+	 * Remove every registration of a listener. The listener is not stopped.
+	 *
+	 * @return true if the listener was registered
+	 */
+	public boolean remove_listener(Listener listener) {
+		synchronized (this.entries) {
+			boolean removed = false;
+			for (int i = this.entries.size() - 1; i >= 0; i--) {
+				if (this.entries.get(i).listener == listener) {
+					this.entries.remove(i);
+					removed = true;
+				}
+			}
+			if (removed) {
+				this._rebuild();
+			}
+			return removed;
+		}
+	}
+
+	private void _add(Entry entry) {
+		if (entry.listener == null)
+			throw new IllegalArgumentException("listener must not be null");
+		synchronized (this.entries) {
+			this.entries.add(entry);
+			this._rebuild();
+		}
+	}
+
+	/** Build a new dispatch table from the registrations. */
+	private void _rebuild() {
+		Map<Integer, List<Listener>> standard = new HashMap<Integer, List<Listener>>();
+		Map<Integer, List<Listener>> extended = new HashMap<Integer, List<Listener>>();
+		List<Listener> all = new ArrayList<Listener>();
+		List<Listener> distinct = new ArrayList<Listener>();
+		for (Entry entry : this.entries) {
+			if (!distinct.contains(entry.listener)) {
+				distinct.add(entry.listener);
+			}
+			if (entry.arbitration_id == null) {
+				if (!all.contains(entry.listener))
+					all.add(entry.listener);
+				continue;
+			}
+			Map<Integer, List<Listener>> map = entry.is_extended_id ? extended : standard;
+			List<Listener> list = map.get(entry.arbitration_id.intValue());
+			if (list == null) {
+				list = new ArrayList<Listener>();
+				map.put(entry.arbitration_id.intValue(), list);
+			}
+			if (!list.contains(entry.listener))
+				list.add(entry.listener);
+		}
+
+		Listener[][] standard_table = null;
+		if (!standard.isEmpty()) {
+			standard_table = new Listener[0x800][];
+			for (Map.Entry<Integer, List<Listener>> e : standard.entrySet()) {
+				standard_table[e.getKey()] = e.getValue().toArray(NO_LISTENERS);
+			}
+		}
+		Map<Integer, Listener[]> extended_table = new HashMap<Integer, Listener[]>();
+		for (Map.Entry<Integer, List<Listener>> e : extended.entrySet()) {
+			extended_table.put(e.getKey(), e.getValue().toArray(NO_LISTENERS));
+		}
+		this.table = new Table(standard_table, extended_table, all.toArray(NO_LISTENERS),
+				distinct.toArray(NO_LISTENERS));
+	}
+
+	/** @return the listeners registered for the message, without the catch-all ones */
+	private static Listener[] _lookup(Table table, Message msg) {
+		if (msg.is_extended_id != null && msg.is_extended_id.booleanValue()) {
+			if (table.extended.isEmpty())
+				return null;
+			return table.extended.get((int) msg.arbitration_id);
+		}
+		if (table.standard == null || msg.arbitration_id < 0 || msg.arbitration_id >= 0x800)
+			return null;
+		return table.standard[(int) msg.arbitration_id];
+	}
+
+	private void _rx_thread() {
+		Message[] batch = new Message[BATCH_SIZE];
+		try {
+			while (this.running) {
+				int count = this.bus.recv_batch(batch, batch.length, this.timeout);
+				for (int i = 0; i < count; i++) {
+					this._on_message_received(batch[i]);
+					batch[i] = null;
+				}
+			}
+		} catch (Exception e) {
+			if (!this.running) {
+				// the bus was shut down while waiting
+				return;
+			}
+			logger.error("Error in receive thread, stopping it: " + e);
+			this.exception = e;
+			this.running = false;
+			for (Listener listener : this.table.distinct) {
+				listener.on_error(e);
+			}
+		}
+	}
+
+	private void _on_message_received(Message msg) {
+		Table table = this.table;
+		Listener[] listeners = _lookup(table, msg);
+		if (listeners != null) {
+			for (Listener listener : listeners) {
+				this._deliver(listener, msg);
+			}
+		}
+		for (Listener listener : table.all) {
+			this._deliver(listener, msg);
+		}
+	}
+
+	private void _deliver(Listener listener, Message msg) {
+		try {
+			listener.on_message_received(msg);
+		} catch (Exception e) {
+			listener.on_error(e);
+		}
+	}
+
+	/** @return the exception which stopped the receive thread, or null */
+	public Exception exception() {
+		return this.exception;
+	}
+
+	/** @return whether the receive thread is running */
+	public boolean is_running() {
+		return this.running && this.thread.isAlive();
+	}
+
+	/**
+	 * Stop notifying Listeners when new :class:`~can.Message` objects arrive and
+	 * call :meth:`~can.Listener.stop` on each Listener.
+	 *
+	 * @param timeout Max time in milliseconds to wait for the receive thread to
+	 *                finish. Should exceed the timeout given at instantiation.
+	 *                Default: twice that timeout
+	 */
+	public void stop(Long timeout) {
+		if (timeout == null) {
+			timeout = 2 * this.timeout;
+		}
+		this.running = false;
+		if (Thread.currentThread() != this.thread) {
+			try {
+				this.thread.join(timeout);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (Listener listener : this.table.distinct) {
+			listener.stop();
+		}
+	}
+
+	public void stop() {
+		this.stop(null);
+	}
+}
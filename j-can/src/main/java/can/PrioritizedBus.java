@@ -0,0 +1,443 @@
+package can;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bus sending the messages of several producers in the order the CAN
+ * arbitration would, instead of the order the threads call :meth:`send`.
+ *
+ * Every message is given a priority class, 0 being the most urgent, either
+ * explicitly with :meth:`send(Message, Long, int)` or by its arbitration ID,
+ * see :meth:`set_priority_class`. Producers append to a lock-free queue and
+ * return at once; one sender thread moves the queued messages to a heap and
+ * always hands the wrapped bus the message of the most urgent class with the
+ * highest arbitration priority (see :meth:`~can.FrameTiming.arbitration_priority`),
+ * messages of equal priority in the order they were sent. A burst of bulk data
+ * therefore no longer delays a frame with a low ID by its whole length.
+ *
+ * A message waiting longer than ``max_wait`` is sent before all others, so a
+ * busy high priority class cannot starve the lower ones. The number of queued
+ * messages is kept per class, see :meth:`depth` and :meth:`max_depth`; a
+ * producer whose class queue is full waits for space.
+ *
+ * The order only holds for the messages still in the queue. Interfaces return
+ * from :meth:`~can.BusABC.send` as soon as the frame is in the driver's
+ * transmit FIFO, so without a limit the queue would empty into that FIFO,
+ * where the frames keep the order they were handed over. When the transmit
+ * confirmation of the wrapped bus is enabled, see
+ * :meth:`~can.BusABC.enable_tx_confirmation`, at most ``max_in_flight``
+ * messages are therefore handed over without having been seen on the bus; the
+ * others wait in the queue, where a more urgent message can still overtake
+ * them. Without the confirmation the messages are handed over as fast as the
+ * wrapped bus takes them, and are only ordered while it blocks.
+ *
+ * Receiving is passed through to the wrapped bus.
+ */
+public class PrioritizedBus extends BusABC {
+
+	/** a message waiting in the queue */
+	private static class Entry {
+		final Message msg;
+		final Long timeout;
+		final int priority_class;
+		final long priority;
+		/** unit=nanosecond */
+		final long queued_ns;
+		/** order of arrival, set by the sender thread */
+		long seq;
+		boolean sent;
+
+		Entry(Message msg, Long timeout, int priority_class, long queued_ns) {
+			this.msg = msg;
+			this.timeout = timeout;
+			this.priority_class = priority_class;
+			this.priority = FrameTiming.arbitration_priority(msg);
+			this.queued_ns = queued_ns;
+		}
+	}
+
+	private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			if (a.priority_class != b.priority_class)
+				return Integer.compare(a.priority_class, b.priority_class);
+			if (a.priority != b.priority)
+				return Long.compare(a.priority, b.priority);
+			return Long.compare(a.seq, b.seq);
+		}
+	};
+
+	/** Longest single park of the sender thread, unit=nanosecond */
+	private static final long MAX_PARK_NANOS = 100_000_000L;
+	/** Park of a producer waiting for space in its class queue, unit=nanosecond */
+	private static final long FULL_PARK_NANOS = 100_000L;
+
+	public final BusABC bus;
+	public final int classes;
+	public final int default_class;
+	/** unit=nanosecond */
+	public final long max_wait;
+	public final int queue_size;
+	public final int max_in_flight;
+
+	private final Clock clock = Clock.get_default();
+	/** priority class by arbitration ID, replaced as a whole when changed */
+	private volatile Map<Long, Integer> class_by_id = new HashMap<>();
+
+	private final ConcurrentLinkedQueue<Entry> inbox = new ConcurrentLinkedQueue<>();
+	/** messages taken from the inbox, owned by the sender thread */
+	private final PriorityQueue<Entry> heap = new PriorityQueue<>(64, ORDER);
+	/** the same messages in the order of arrival, sent ones are removed lazily */
+	private final ArrayDeque<Entry> arrivals = new ArrayDeque<>();
+	private long next_seq;
+
+	private final AtomicLongArray depth;
+	private final AtomicLongArray max_depth;
+	private final AtomicLongArray sent;
+	private final AtomicLong promoted = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	/** messages handed to the wrapped bus and waiting for their echo */
+	private final AtomicLong in_flight = new AtomicLong();
+	/** called when a message in flight is confirmed or lost */
+	private final BiConsumer<Long, Throwable> landed = new BiConsumer<Long, Throwable>() {
+		@Override
+		public void accept(Long wire_ns, Throwable error) {
+			PrioritizedBus.this.in_flight.decrementAndGet();
+			LockSupport.unpark(PrioritizedBus.this.thread);
+		}
+	};
+
+	private final Thread thread;
+	private volatile boolean running = true;
+	private volatile boolean flush_requested;
+	/** sender thread while it is parked waiting for messages */
+	private volatile Thread waiter;
+
+	/**
+	 * Wrap a bus and start the sender thread.
+	 *
+	 * @param bus           the bus to send the messages with
+	 * @param classes       number of priority classes. Default: 4
+	 * @param default_class class of messages whose arbitration ID has none
+	 *                      assigned. Default: 0
+	 * @param max_wait      time after which a waiting message is sent before all
+	 *                      others, unit=nanosecond. Default: 100 ms
+	 * @param queue_size    number of messages each class may queue before
+	 *                      :meth:`send` waits. Default: 4096
+	 * @param max_in_flight number of messages handed to the wrapped bus and not
+	 *                      yet confirmed, if its transmit confirmation is
+	 *                      enabled. Default: 2
+	 */
+	public PrioritizedBus(BusABC bus, Integer classes, Integer default_class, Long max_wait, Integer queue_size,
+			Integer max_in_flight) {
+		super();
+
+		// Default value if input is null
+		if (classes == null)
+			classes = 4;
+		if (default_class == null)
+			default_class = 0;
+		if (max_wait == null)
+			max_wait = 100_000_000L;
+		if (queue_size == null)
+			queue_size = 4096;
+		if (max_in_flight == null)
+			max_in_flight = 2;
+		if (default_class < 0 || default_class >= classes)
+			throw new IllegalArgumentException("default_class must be between 0 and " + (classes - 1));
+
+		this.bus = bus;
+		this.classes = classes;
+		this.default_class = default_class;
+		this.max_wait = max_wait;
+		this.queue_size = queue_size;
+		this.max_in_flight = max_in_flight;
+		this.depth = new AtomicLongArray(classes);
+		this.max_depth = new AtomicLongArray(classes);
+		this.sent = new AtomicLongArray(classes);
+		this.channel_info = "Prioritized " + bus.channel_info;
+
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				PrioritizedBus.this.run();
+			}
+		});
+		this.thread.setName("Prioritized sender for " + bus.channel_info);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public PrioritizedBus(BusABC bus) {
+		this(bus, null, null, null, null, null);
+	}
+
+	/**
+	 * Assign a priority class to the messages with an arbitration ID.
+	 *
+	 * @param priority_class the class, null to use ``default_class`` again
+	 */
+	public synchronized void set_priority_class(long arbitration_id, Integer priority_class) {
+		if (priority_class != null)
+			this.check_class(priority_class);
+		Map<Long, Integer> class_by_id = new HashMap<>(this.class_by_id);
+		if (priority_class == null)
+			class_by_id.remove(arbitration_id);
+		else
+			class_by_id.put(arbitration_id, priority_class);
+		this.class_by_id = class_by_id;
+	}
+
+	/** @return the priority class of the messages with an arbitration ID */
+	public int priority_class(long arbitration_id) {
+		Integer priority_class = this.class_by_id.get(arbitration_id);
+		if (priority_class == null)
+			return this.default_class;
+		return priority_class;
+	}
+
+	private void check_class(int priority_class) {
+		if (priority_class < 0 || priority_class >= this.classes)
+			throw new IllegalArgumentException("priority class must be between 0 and " + (this.classes - 1));
+	}
+
+	@Override
+	public boolean _recv_internal(Long timeout, RecvResult result) throws Exception {
+		return this.bus._recv_internal(timeout, result);
+	}
+
+	@Override
+	public Message recv(Long timeout) throws Exception {
+		return this.bus.recv(timeout);
+	}
+
+	@Override
+	public int recv_batch(Message[] out, int max, Long timeout) throws Exception {
+		return this.bus.recv_batch(out, max, timeout);
+	}
+
+	@Override
+	public boolean recv_into(Frame frame, Long timeout) throws Exception {
+		return this.bus.recv_into(frame, timeout);
+	}
+
+	@Override
+	public void _apply_filters(List<Filter> filters) {
+		this.bus.set_filters(filters);
+	}
+
+	/**
+	 * Queue a message in the class of its arbitration ID.
+	 *
+	 * @param timeout milliseconds to wait while the class queue is full, null
+	 *                waits indefinitely. Also passed to the wrapped bus when the
+	 *                message is sent.
+	 */
+	@Override
+	public void send(Message msg, Long timeout) {
+		this.send(msg, timeout, this.priority_class(msg.arbitration_id));
+	}
+
+	/**
+	 * Queue a message in the given priority class, it is copied so the caller may
+	 * reuse it.
+	 *
+	 * @param timeout        see :meth:`send(Message, Long)`
+	 * @param priority_class 0 for the most urgent messages
+	 */
+	public void send(Message msg, Long timeout, int priority_class) {
+		this.check_class(priority_class);
+		if (!this.running) {
+			logger.warn("Cannot send on a closed bus: " + this.channel_info);
+			return;
+		}
+		long deadline = timeout == null ? 0 : System.nanoTime() + timeout * 1_000_000L;
+		long depth;
+		while ((depth = this.depth.incrementAndGet(priority_class)) > this.queue_size) {
+			this.depth.decrementAndGet(priority_class);
+			if (!this.running || (timeout != null && deadline - System.nanoTime() <= 0)) {
+				this.dropped.incrementAndGet();
+				logger.warn(String.format("Error happened when sending message. Queue of class %d full: %s",
+						priority_class, this.channel_info));
+				return;
+			}
+			LockSupport.parkNanos(this, FULL_PARK_NANOS);
+		}
+		long max;
+		while (depth > (max = this.max_depth.get(priority_class))) {
+			if (this.max_depth.compareAndSet(priority_class, max, depth))
+				break;
+		}
+		this.inbox.offer(new Entry(new Message(msg), timeout, priority_class, this.clock.time_ns()));
+		Thread waiter = this.waiter;
+		if (waiter != null)
+			LockSupport.unpark(waiter);
+	}
+
+	/** Sender thread: hand the most urgent queued message to the wrapped bus */
+	private void run() {
+		while (this.running) {
+			if (this.flush_requested) {
+				this.flush_requested = false;
+				this.discard();
+			}
+			this.drain_inbox();
+			TxConfirmation confirmation = this.bus.tx_confirmation();
+			if (confirmation != null && this.in_flight.get() >= this.max_in_flight) {
+				// woken when a message in flight lands
+				this.waiter = Thread.currentThread();
+				if (this.in_flight.get() >= this.max_in_flight && this.running && !this.flush_requested)
+					LockSupport.parkNanos(this, MAX_PARK_NANOS);
+				this.waiter = null;
+				continue;
+			}
+			Entry entry = this.next();
+			if (entry == null) {
+				this.waiter = Thread.currentThread();
+				if (this.inbox.isEmpty() && this.running && !this.flush_requested)
+					LockSupport.parkNanos(this, MAX_PARK_NANOS);
+				this.waiter = null;
+				continue;
+			}
+			this.depth.decrementAndGet(entry.priority_class);
+			try {
+				if (confirmation != null) {
+					this.in_flight.incrementAndGet();
+					try {
+						this.bus.send_confirmed(entry.msg, entry.timeout).whenComplete(this.landed);
+					} catch (RuntimeException e) {
+						this.in_flight.decrementAndGet();
+						throw e;
+					}
+				} else {
+					this.bus.send(entry.msg, entry.timeout);
+				}
+			} catch (RuntimeException e) {
+				logger.warn("Error happened when sending message. " + e.getMessage());
+			}
+			this.sent.incrementAndGet(entry.priority_class);
+		}
+	}
+
+	private void drain_inbox() {
+		Entry entry;
+		while ((entry = this.inbox.poll()) != null) {
+			entry.seq = this.next_seq++;
+			this.heap.add(entry);
+			this.arrivals.addLast(entry);
+		}
+	}
+
+	/** @return the message to send next, null if none is queued */
+	private Entry next() {
+		Entry oldest;
+		while ((oldest = this.arrivals.peekFirst()) != null && oldest.sent) {
+			this.arrivals.pollFirst();
+		}
+		if (oldest == null)
+			return null;
+
+		Entry entry = this.heap.peek();
+		if (entry != oldest && this.clock.time_ns() - oldest.queued_ns >= this.max_wait) {
+			// waited too long behind more urgent messages
+			this.heap.remove(oldest);
+			this.promoted.incrementAndGet();
+			entry = oldest;
+		} else {
+			this.heap.poll();
+		}
+		entry.sent = true;
+		return entry;
+	}
+
+	/** Drop all queued messages, called by the sender thread */
+	private void discard() {
+		this.drain_inbox();
+		Entry entry;
+		while ((entry = this.heap.poll()) != null) {
+			this.depth.decrementAndGet(entry.priority_class);
+		}
+		this.arrivals.clear();
+	}
+
+	/**
+	 * @param priority_class the class
+	 * @return the number of messages of the class waiting to be sent
+	 */
+	public long depth(int priority_class) {
+		return this.depth.get(priority_class);
+	}
+
+	/** @return the highest number of messages the class has queued at once */
+	public long max_depth(int priority_class) {
+		return this.max_depth.get(priority_class);
+	}
+
+	/** @return the number of messages of the class handed to the wrapped bus */
+	public long sent(int priority_class) {
+		return this.sent.get(priority_class);
+	}
+
+	/** @return how often a message was sent early because it waited ``max_wait`` */
+	public long promoted() {
+		return this.promoted.get();
+	}
+
+	/** @return the number of messages handed to the wrapped bus and not yet confirmed */
+	public long in_flight() {
+		return this.in_flight.get();
+	}
+
+	/** @return the number of messages dropped because their class queue stayed full */
+	public long dropped() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * Discard the queued messages and the output buffer of the wrapped bus. The
+	 * queue is emptied by the sender thread shortly after the call.
+	 */
+	@Override
+	public void flush_tx_buffer() {
+		this.flush_requested = true;
+		Thread waiter = this.waiter;
+		if (waiter != null)
+			LockSupport.unpark(waiter);
+		this.bus.flush_tx_buffer();
+	}
+
+	/** Stop the sender thread, discarding the queued messages, and shut down the wrapped bus. */
+	@Override
+	public void shutdown() {
+		if (this.running) {
+			this.running = false;
+			this.thread.interrupt();
+			try {
+				this.thread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		this.bus.shutdown();
+	}
+
+	@Override
+	public BusState state() {
+		return this.bus.state();
+	}
+
+	@Override
+	public void state(BusState new_state) throws Exception {
+		this.bus.state(new_state);
+	}
+}
@@ -0,0 +1,33 @@
+package can;
+
+/**
+ * Reusable holder filled by {@link BusABC#_recv_internal(Long, RecvResult)}.
+ *
+ * One instance is kept per receiving thread and bus, so reading a message does
+ * not allocate anything besides the message itself.
+ */
+public class RecvResult {
+
+	/** the message that was read or null on timeout */
+	public Message msg;
+
+	/** True if message filtering has already been done by the interface */
+	public boolean already_filtered;
+
+	/**
+	 * Fill this result.
+	 *
+	 * @return true if a message was read
+	 */
+	public boolean set(Message msg, boolean already_filtered) {
+		this.msg = msg;
+		this.already_filtered = already_filtered;
+		return msg != null;
+	}
+
+	/** Forget the last message, so it can be garbage collected. */
+	public void clear() {
+		this.msg = null;
+		this.already_filtered = false;
+	}
+}
@@ -0,0 +1,326 @@
+package can;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+/**
+ * Confirmation of the messages a bus has actually transmitted, see
+ * :meth:`~can.BusABC.enable_tx_confirmation`.
+ *
+ * Every message handed to the driver is remembered until the interface sees
+ * its echo, i.e. the TX_OK event of the Vector driver or the own message of a
+ * virtual or simulated bus. The echo is matched with the oldest pending message
+ * with the same arbitration ID and data, and the time from the hand-off to the
+ * end of the frame on the bus is recorded, see :meth:`latency_percentile`.
+ * Messages sent with :meth:`~can.BusABC.send_confirmed` additionally complete
+ * their future with the bus time of the echo.
+ *
+ * A message without echo within ``timeout_ns``, or pushed out by ``max_pending``
+ * newer ones, counts as lost and its future fails with a :class:`CanError`.
+ * While messages are pending, a background thread waits for the timeout of the
+ * oldest one, so the futures fail even if nothing else is sent or received.
+ * Futures are completed by the thread seeing the echo, usually the receiving
+ * thread of the bus, so their callbacks must not block.
+ */
+public class TxConfirmation {
+
+	/** a message waiting for its echo */
+	private static class Pending {
+		Message msg;
+		long arbitration_id;
+		boolean is_extended_id;
+		boolean is_remote_frame;
+		byte[] data;
+		/** unit=nanosecond */
+		long sent_ns;
+		CompletableFuture<Long> future;
+	}
+
+	/** the message the current thread sends with its future */
+	private static class Claim {
+		final Message msg;
+		final CompletableFuture<Long> future = new CompletableFuture<>();
+
+		Claim(Message msg) {
+			this.msg = msg;
+		}
+	}
+
+	/** unit=nanosecond */
+	public final long timeout_ns;
+	public final int max_pending;
+	private final LongSupplier time_ns;
+	private final Clock clock = Clock.get_default();
+
+	/** guarded by this */
+	private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+	/** expires the pending messages, running while there are some, guarded by this */
+	private Thread watchdog;
+	private final ThreadLocal<Claim> claims = new ThreadLocal<>();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private volatile long confirmed;
+	private volatile long lost;
+	private volatile long unmatched;
+
+	/**
+	 * @param timeout_ns  time after which a message without echo is lost,
+	 *                    unit=nanosecond. Default: 1 s
+	 * @param max_pending number of messages waiting for their echo, the oldest
+	 *                    one is lost when more are sent. Default: 1024
+	 * @param time_ns     current time on the time base of the echoes,
+	 *                    unit=nanosecond. Default: the default :class:`Clock`
+	 */
+	public TxConfirmation(Long timeout_ns, Integer max_pending, LongSupplier time_ns) {
+		// Default value if input is null
+		if (timeout_ns == null)
+			timeout_ns = 1_000_000_000L;
+		if (max_pending == null)
+			max_pending = 1024;
+		if (time_ns == null) {
+			final Clock clock = this.clock;
+			time_ns = new LongSupplier() {
+				@Override
+				public long getAsLong() {
+					return clock.time_ns();
+				}
+			};
+		}
+
+		this.timeout_ns = timeout_ns;
+		this.max_pending = max_pending;
+		this.time_ns = time_ns;
+	}
+
+	public TxConfirmation(Long timeout_ns, Integer max_pending) {
+		this(timeout_ns, max_pending, null);
+	}
+
+	public TxConfirmation() {
+		this(null, null, null);
+	}
+
+	/**
+	 * Prepare the future of a message the current thread is about to send, taken
+	 * by :meth:`sent` when the interface hands the message to the driver.
+	 */
+	CompletableFuture<Long> claim(Message msg) {
+		Claim claim = new Claim(msg);
+		this.claims.set(claim);
+		return claim.future;
+	}
+
+	/**
+	 * End the send of a claimed message: if the interface did not hand it to the
+	 * driver, its future fails.
+	 */
+	void unclaim(Message msg) {
+		Claim claim = this.claims.get();
+		if (claim == null || claim.msg != msg)
+			return;
+		this.claims.remove();
+		claim.future.completeExceptionally(new CanError("Message was not sent: " + msg));
+	}
+
+	/**
+	 * Remember a message about to be handed to the driver.
+	 *
+	 * @param sent_ns time of the hand-off, on the time base of the timestamps of
+	 *                the echoes, unit=nanosecond
+	 */
+	void sent(Message msg, long sent_ns) {
+		Pending entry = new Pending();
+		entry.msg = msg;
+		entry.arbitration_id = msg.arbitration_id;
+		entry.is_extended_id = msg.is_extended_id != null && msg.is_extended_id.booleanValue();
+		entry.is_remote_frame = msg.is_remote_frame;
+		entry.data = msg.is_remote_frame || msg.data == null ? new byte[0]
+				: Arrays.copyOf(msg.data, Math.min(msg.dlc, msg.data.length));
+		entry.sent_ns = sent_ns;
+		Claim claim = this.claims.get();
+		if (claim != null && claim.msg == msg) {
+			this.claims.remove();
+			entry.future = claim.future;
+		}
+
+		List<Pending> expired;
+		synchronized (this) {
+			this.pending.addLast(entry);
+			expired = this.expire(sent_ns);
+			if (this.watchdog == null) {
+				this.watchdog = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							TxConfirmation.this._watchdog_thread();
+						} finally {
+							TxConfirmation.this.clock.deregister();
+						}
+					}
+				});
+				this.watchdog.setName("Transmit confirmation timeout");
+				this.watchdog.setDaemon(true);
+				this.clock.register(this.watchdog);
+				this.watchdog.start();
+			}
+		}
+		this.fail(expired, "No transmit confirmation");
+	}
+
+	/** Fail the messages whose echo does not come, until none is pending */
+	private void _watchdog_thread() {
+		while (true) {
+			long now = this.time_ns.getAsLong();
+			List<Pending> expired;
+			long wait;
+			synchronized (this) {
+				expired = this.expire(now);
+				Pending oldest = this.pending.peekFirst();
+				if (oldest == null) {
+					this.watchdog = null;
+					wait = 0;
+				} else {
+					wait = oldest.sent_ns + this.timeout_ns - now + 1;
+				}
+			}
+			this.fail(expired, "No transmit confirmation");
+			if (wait == 0)
+				return;
+			this.clock.park_ns(this, wait);
+		}
+	}
+
+	/** Forget a message the driver did not accept and fail its future */
+	void failed(Message msg) {
+		Pending entry = null;
+		synchronized (this) {
+			Iterator<Pending> it = this.pending.descendingIterator();
+			while (it.hasNext()) {
+				Pending candidate = it.next();
+				if (candidate.msg == msg) {
+					it.remove();
+					entry = candidate;
+					break;
+				}
+			}
+		}
+		if (entry != null && entry.future != null)
+			entry.future.completeExceptionally(new CanError("Message was not sent: " + msg));
+	}
+
+	/**
+	 * Match the echo of a transmitted message.
+	 *
+	 * @param wire_ns bus time of the echo, normally the end of the frame,
+	 *                unit=nanosecond
+	 * @return true if the echo belongs to a pending message
+	 */
+	boolean confirm(long arbitration_id, boolean is_extended_id, boolean is_remote_frame, byte[] data, int length,
+			long wire_ns) {
+		Pending match = null;
+		List<Pending> expired;
+		synchronized (this) {
+			Iterator<Pending> it = this.pending.iterator();
+			while (it.hasNext()) {
+				Pending entry = it.next();
+				if (entry.arbitration_id == arbitration_id && entry.is_extended_id == is_extended_id
+						&& entry.is_remote_frame == is_remote_frame && matches(entry.data, data, length)) {
+					it.remove();
+					match = entry;
+					break;
+				}
+			}
+			if (match != null) {
+				this.latency.record(Math.max(0, wire_ns - match.sent_ns));
+				this.confirmed++;
+			} else {
+				this.unmatched++;
+			}
+			expired = this.expire(wire_ns);
+		}
+		this.fail(expired, "No transmit confirmation");
+		if (match == null)
+			return false;
+		if (match.future != null)
+			match.future.complete(wire_ns);
+		return true;
+	}
+
+	private static boolean matches(byte[] expected, byte[] data, int length) {
+		if (expected.length != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (expected[i] != data[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the messages waiting too long or exceeding ``max_pending``, called
+	 * with the lock held.
+	 *
+	 * @return the removed messages, null if there are none
+	 */
+	private List<Pending> expire(long now_ns) {
+		List<Pending> expired = null;
+		Pending oldest;
+		while ((oldest = this.pending.peekFirst()) != null) {
+			if (this.pending.size() <= this.max_pending && now_ns - oldest.sent_ns <= this.timeout_ns)
+				break;
+			this.pending.pollFirst();
+			this.lost++;
+			if (expired == null)
+				expired = new ArrayList<>();
+			expired.add(oldest);
+		}
+		return expired;
+	}
+
+	private void fail(List<Pending> entries, String reason) {
+		if (entries == null)
+			return;
+		for (Pending entry : entries) {
+			if (entry.future != null)
+				entry.future.completeExceptionally(new CanError(reason + ": " + entry.msg));
+		}
+	}
+
+	/** @return the number of messages whose echo was seen */
+	public long confirmed() {
+		return this.confirmed;
+	}
+
+	/** @return the number of messages without echo, see :attr:`timeout` */
+	public long lost() {
+		return this.lost;
+	}
+
+	/** @return the number of echoes which matched no pending message */
+	public long unmatched() {
+		return this.unmatched;
+	}
+
+	/** @return the number of messages waiting for their echo */
+	public synchronized int pending() {
+		return this.pending.size();
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the time from handing a message to the driver to the end of its
+	 *         frame on the bus, 0 before the first confirmation, unit=nanosecond
+	 */
+	public long latency_percentile(double percentile) {
+		return this.latency.percentile(percentile);
+	}
+
+	/** @return the highest latency seen, unit=nanosecond */
+	public long max_latency() {
+		return this.latency.max();
+	}
+}
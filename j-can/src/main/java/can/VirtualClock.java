@@ -0,0 +1,337 @@
+package can;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A clock whose time only moves when everything waits on it: a discrete event
+ * scheduler for tests and simulations.
+ *
+ * The clock keeps a timeline of the waiting threads, see :meth:`sleep_ns`, and
+ * of the tasks scheduled with :meth:`schedule`. With ``auto_advance``, as soon
+ * as every registered thread waits on the clock, the time jumps to the next
+ * pending deadline and the thread or task due then runs. Timeouts of
+ * seconds therefore elapse instantly, and since only one registered thread runs
+ * at a time, the order of events is reproducible. Without ``auto_advance`` the
+ * time only moves with :meth:`advance`.
+ *
+ * A single thread needs no registration: its sleeps simply advance the time.
+ * When several threads take part, each of them, including the one running the
+ * test, calls :meth:`register` and may then only wait through the clock (sleep,
+ * :meth:`poll`, ...) until it calls :meth:`deregister`. Components register the
+ * threads they start themselves, before starting them, so the time cannot move
+ * on before these threads wait.
+ *
+ * Use it by installing it before creating the components:
+ *
+ * <pre>
+ * VirtualClock clock = new VirtualClock();
+ * Clock.set_default(clock);
+ * </pre>
+ */
+public class VirtualClock extends Clock {
+
+	/** Interval at which :meth:`poll` checks its queue, unit=nanosecond */
+	static final long POLL_STEP = 1_000_000L;
+
+	public final boolean auto_advance;
+
+	private volatile long now;
+	/** pending sleepers and tasks, by deadline then creation order */
+	private final PriorityQueue<Event> timeline = new PriorityQueue<>();
+	private long sequence;
+	private final Set<Thread> registered = new HashSet<>();
+	/** threads unparked while they were not parked, see :meth:`unpark` */
+	private final Set<Thread> permits = new HashSet<>();
+	/** number of threads waiting in the timeline */
+	private int sleeping;
+	/** number of registered threads waiting in the timeline */
+	private int registered_sleeping;
+	/** true while a task runs, the time does not move meanwhile */
+	private boolean running_task;
+
+	/**
+	 * @param start        initial time, unit=nanosecond since the epoch. Default:
+	 *                     0
+	 * @param auto_advance If true, the time jumps to the next deadline whenever
+	 *                     every registered thread waits. Default: true
+	 */
+	public VirtualClock(Long start, Boolean auto_advance) {
+		// Default value if input is null
+		if (start == null)
+			start = 0L;
+		if (auto_advance == null)
+			auto_advance = true;
+
+		this.now = start;
+		this.auto_advance = auto_advance;
+	}
+
+	public VirtualClock() {
+		this(null, null);
+	}
+
+	@Override
+	public long time_ns() {
+		return this.now;
+	}
+
+	@Override
+	public boolean is_real_time() {
+		return false;
+	}
+
+	/**
+	 * Run a task when the clock reaches a given time. Tasks run in the thread
+	 * which moves the time, one at a time, and must not wait on the clock.
+	 *
+	 * @param time_ns time to run the task at, unit=nanosecond since the epoch.
+	 *                Times in the past run the task at the current time.
+	 */
+	public synchronized void schedule_at(long time_ns, Runnable task) {
+		this.timeline.add(new Event(Math.max(time_ns, this.now), this.sequence++, task, null, false, false));
+		this.notifyAll();
+	}
+
+	/** Same as :meth:`schedule_at`, ``delay`` unit=nanosecond from now */
+	public void schedule(long delay, Runnable task) {
+		this.schedule_at(this.now + Math.max(delay, 0), task);
+	}
+
+	@Override
+	public synchronized void register(Thread thread) {
+		this.registered.add(thread);
+	}
+
+	@Override
+	public synchronized void deregister() {
+		if (this.registered.remove(Thread.currentThread()))
+			this.notifyAll();
+	}
+
+	@Override
+	public void sleep_ns(long nanos) throws InterruptedException {
+		this.wait_event(nanos, false);
+	}
+
+	/** Sleep until unparked with :meth:`unpark` or the time has elapsed */
+	@Override
+	public void park_ns(Object blocker, long nanos) {
+		try {
+			this.wait_event(nanos, true);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wake up a thread waiting in :meth:`park_ns` at the current time, or make
+	 * its next call return immediately.
+	 */
+	@Override
+	public synchronized void unpark(Thread thread) {
+		for (Iterator<Event> it = this.timeline.iterator(); it.hasNext();) {
+			Event event = it.next();
+			if (event.thread == thread && event.parked) {
+				it.remove();
+				this.wake(event);
+				return;
+			}
+		}
+		this.permits.add(thread);
+	}
+
+	/** Check the queue every :attr:`POLL_STEP` of virtual time until the timeout */
+	@Override
+	public <T> T poll(BlockingQueue<T> queue, long timeout) throws InterruptedException {
+		long deadline = this.now + timeout * 1_000_000L;
+		while (true) {
+			T element = queue.poll();
+			if (element != null)
+				return element;
+			long left = deadline - this.now;
+			if (left <= 0)
+				return null;
+			this.sleep_ns(Math.min(left, POLL_STEP));
+		}
+	}
+
+	/**
+	 * Move the time forward, waking the threads and running the tasks due
+	 * meanwhile in the order of their deadlines. Before each event, waits until the
+	 * registered threads woken by the previous one wait again.
+	 *
+	 * @param nanos unit=nanosecond
+	 */
+	public void advance(long nanos) throws InterruptedException {
+		this.advance_to(this.now + nanos);
+	}
+
+	/** Same as :meth:`advance` up to a given time, unit=nanosecond since the epoch */
+	public void advance_to(long time_ns) throws InterruptedException {
+		while (this.step(time_ns)) {
+		}
+	}
+
+	/**
+	 * Jump to the next pending deadline and wake the thread or run the task due
+	 * then.
+	 *
+	 * @return false if nothing is pending
+	 */
+	public boolean advance_to_next() throws InterruptedException {
+		return this.step(Long.MAX_VALUE);
+	}
+
+	/** @return the number of threads and tasks waiting for their deadline */
+	public synchronized int pending() {
+		return this.timeline.size();
+	}
+
+	/**
+	 * Process the next event if it is due at or before the limit, else move the
+	 * time to the limit.
+	 *
+	 * @return true if an event was processed
+	 */
+	private boolean step(long limit) throws InterruptedException {
+		Event task;
+		synchronized (this) {
+			int others = this.registered.size() - (this.registered.contains(Thread.currentThread()) ? 1 : 0);
+			while (this.running_task || this.registered_sleeping < others) {
+				this.wait();
+			}
+			Event next = this.timeline.peek();
+			if (next == null || next.time > limit) {
+				if (limit != Long.MAX_VALUE && limit > this.now)
+					this.now = limit;
+				return false;
+			}
+			task = this.next();
+			if (task == null)
+				return true;
+			this.running_task = true;
+		}
+		this.run(task);
+		return true;
+	}
+
+	private void wait_event(long nanos, boolean parked) throws InterruptedException {
+		Thread thread = Thread.currentThread();
+		Event event;
+		synchronized (this) {
+			if (parked && this.permits.remove(thread))
+				return;
+			boolean registered = this.registered.contains(thread);
+			event = new Event(this.now + Math.max(nanos, 0), this.sequence++, null, thread, registered, parked);
+			this.timeline.add(event);
+			this.sleeping++;
+			if (registered)
+				this.registered_sleeping++;
+			this.notifyAll();
+		}
+
+		try {
+			while (true) {
+				Event task;
+				synchronized (this) {
+					if (event.woken)
+						return;
+					if (!this.auto_advance || !this.may_advance()) {
+						this.wait();
+						continue;
+					}
+					task = this.next();
+					if (task == null)
+						continue;
+					this.running_task = true;
+				}
+				this.run(task);
+			}
+		} finally {
+			synchronized (this) {
+				if (!event.woken && this.timeline.remove(event)) {
+					// interrupted
+					this.sleeping--;
+					if (event.registered)
+						this.registered_sleeping--;
+					this.notifyAll();
+				}
+			}
+		}
+	}
+
+	/** @return true if every registered thread is waiting, and someone is */
+	private boolean may_advance() {
+		return !this.running_task && this.sleeping > 0 && this.registered_sleeping == this.registered.size();
+	}
+
+	/**
+	 * Take the next event from the timeline and move the time to its deadline.
+	 * Called with the lock held.
+	 *
+	 * @return the event if it is a task to run, null if it was a waiting thread,
+	 *         which has been woken
+	 */
+	private Event next() {
+		Event event = this.timeline.poll();
+		if (event.time > this.now)
+			this.now = event.time;
+		if (event.task != null)
+			return event;
+		this.wake(event);
+		return null;
+	}
+
+	private void wake(Event event) {
+		event.woken = true;
+		this.sleeping--;
+		if (event.registered)
+			this.registered_sleeping--;
+		this.notifyAll();
+	}
+
+	/** Run a task outside of the lock. */
+	private void run(Event task) {
+		try {
+			task.task.run();
+		} finally {
+			synchronized (this) {
+				this.running_task = false;
+				this.notifyAll();
+			}
+		}
+	}
+
+	/** A waiting thread or a scheduled task */
+	private static final class Event implements Comparable<Event> {
+		final long time;
+		final long sequence;
+		final Runnable task;
+		final Thread thread;
+		/** the thread was registered when it started waiting */
+		final boolean registered;
+		/** the thread may be woken by :meth:`unpark` */
+		final boolean parked;
+		boolean woken;
+
+		Event(long time, long sequence, Runnable task, Thread thread, boolean registered, boolean parked) {
+			this.time = time;
+			this.sequence = sequence;
+			this.task = task;
+			this.thread = thread;
+			this.registered = registered;
+			this.parked = parked;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			if (this.time != other.time)
+				return Long.compare(this.time, other.time);
+			return Long.compare(this.sequence, other.sequence);
+		}
+	}
+}
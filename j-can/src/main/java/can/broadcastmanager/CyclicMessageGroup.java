@@ -0,0 +1,227 @@
+package can.broadcastmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import can.BusABC;
+import can.FrameTiming;
+import can.Message;
+
+/**
+ * A group of periodic messages started together, with phase offsets chosen so
+ * that their transmissions are spread evenly over time.
+ *
+ * Without offsets, messages with harmonic periods (10/20/100 ms) all fall due
+ * in the same tick, producing bursts which may overflow the transmit queue of
+ * the interface. The offsets are assigned greedily, most frequent messages
+ * first: each message gets the offset which minimizes the highest load of the
+ * ticks it will be sent in, over the hyperperiod (least common multiple) of all
+ * periods.
+ *
+ * Usage: add the messages, check :meth:`peak_load` / :meth:`average_load`, then
+ * :meth:`start` the group.
+ */
+public class CyclicMessageGroup implements CyclicTask {
+
+	/** Longest hyperperiod considered, unit=tick */
+	private static final long MAX_HYPERPERIOD = 100_000;
+
+	private final BusABC bus;
+	private final CyclicSendScheduler scheduler;
+	private final int bitrate;
+	private final Integer data_bitrate;
+
+	private final List<ScheduledCyclicSendTask> tasks = new ArrayList<>();
+	private boolean assigned;
+	private double peak_load;
+	private double unsmoothed_peak_load;
+	private double average_load;
+
+	/**
+	 * Use :meth:`~can.BusABC.create_periodic_group` to create a group.
+	 *
+	 * @param bus          the bus the messages are sent on
+	 * @param scheduler    the scheduler of that bus
+	 * @param bitrate      nominal bitrate of the bus, unit=bit/s
+	 * @param data_bitrate CAN FD data bitrate, null if the bitrate is not switched
+	 */
+	public CyclicMessageGroup(BusABC bus, CyclicSendScheduler scheduler, int bitrate, Integer data_bitrate) {
+		if (bitrate <= 0)
+			throw new IllegalArgumentException("bitrate must be positive");
+		this.bus = bus;
+		this.scheduler = scheduler;
+		this.bitrate = bitrate;
+		this.data_bitrate = data_bitrate;
+	}
+
+	/**
+	 * Add a message to the group. Messages cannot be added once the offsets have
+	 * been assigned.
+	 *
+	 * @param msg    Message to transmit
+	 * @param period Period between each message, unit=millisecond
+	 * @return the task sending the message, started with the group
+	 */
+	public synchronized ScheduledCyclicSendTask add(Message msg, long period) {
+		if (this.assigned)
+			throw new IllegalStateException("Cannot add messages after the offsets have been assigned");
+		ScheduledCyclicSendTask task = this.scheduler.create(msg, period, null);
+		this.tasks.add(task);
+		return task;
+	}
+
+	/**
+	 * @return the tasks of the group, in the order they were added. Their phases
+	 *         are assigned by the first call to :meth:`start` or one of the load
+	 *         methods.
+	 */
+	public synchronized List<ScheduledCyclicSendTask> tasks() {
+		return new ArrayList<>(this.tasks);
+	}
+
+	/**
+	 * @return the projected highest load of a single tick with the assigned
+	 *         offsets, 1.0 meaning the bus is busy for the whole tick
+	 */
+	public synchronized double peak_load() {
+		this.assign_offsets();
+		return this.peak_load;
+	}
+
+	/**
+	 * @return the projected highest load of a single tick if all messages were
+	 *         started at the same time
+	 */
+	public synchronized double unsmoothed_peak_load() {
+		this.assign_offsets();
+		return this.unsmoothed_peak_load;
+	}
+
+	/** @return the projected average bus load caused by the group */
+	public synchronized double average_load() {
+		this.assign_offsets();
+		return this.average_load;
+	}
+
+	/** Start sending all messages of the group. */
+	public synchronized void start() {
+		this.assign_offsets();
+		long epoch = this.scheduler.clock().time_ns() + this.scheduler.tick();
+		for (ScheduledCyclicSendTask task : this.tasks) {
+			task.start(epoch);
+			synchronized (this.bus._periodic_tasks) {
+				this.bus._periodic_tasks.add(task);
+			}
+		}
+	}
+
+	/** Stop sending all messages of the group. */
+	@Override
+	public synchronized void stop() {
+		for (ScheduledCyclicSendTask task : this.tasks) {
+			task.stop();
+		}
+	}
+
+	/** Compute the phase offsets and the projected load, once. */
+	private void assign_offsets() {
+		if (this.assigned)
+			return;
+		this.assigned = true;
+
+		int n = this.tasks.size();
+		if (n == 0)
+			return;
+		long tick = this.scheduler.tick();
+		final long[] periods = new long[n];
+		final long[] durations = new long[n];
+		long hyperperiod = 1;
+		long max_period = 1;
+		double average_load = 0;
+		for (int i = 0; i < n; i++) {
+			ScheduledCyclicSendTask task = this.tasks.get(i);
+			periods[i] = Math.max(1, (task.period + tick / 2) / tick);
+			durations[i] = FrameTiming.worst_case_duration(task.message, this.bitrate, this.data_bitrate);
+			average_load += (double) durations[i] / task.period;
+			max_period = Math.max(max_period, periods[i]);
+			if (hyperperiod <= MAX_HYPERPERIOD)
+				hyperperiod = lcm(hyperperiod, periods[i]);
+		}
+		if (hyperperiod > MAX_HYPERPERIOD) {
+			// approximation: only the longest period is sure to repeat exactly
+			hyperperiod = Math.max(max_period, MAX_HYPERPERIOD - MAX_HYPERPERIOD % max_period);
+		}
+		this.average_load = average_load;
+
+		long[] unsmoothed = new long[(int) hyperperiod];
+		for (int i = 0; i < n; i++) {
+			add_load(unsmoothed, 0, periods[i], durations[i]);
+		}
+		this.unsmoothed_peak_load = (double) max(unsmoothed) / tick;
+
+		// most frequent messages first, then the longest frames
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			order.add(i);
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if (periods[a] != periods[b])
+					return Long.compare(periods[a], periods[b]);
+				return Long.compare(durations[b], durations[a]);
+			}
+		});
+
+		long[] load = new long[(int) hyperperiod];
+		for (int i : order) {
+			long period = periods[i];
+			long best_offset = 0;
+			long best_peak = Long.MAX_VALUE;
+			long best_sum = Long.MAX_VALUE;
+			for (long offset = 0; offset < period && offset < hyperperiod; offset++) {
+				long peak = 0;
+				long sum = 0;
+				for (long t = offset; t < hyperperiod; t += period) {
+					long value = load[(int) t];
+					sum += value;
+					if (value > peak)
+						peak = value;
+				}
+				if (peak < best_peak || (peak == best_peak && sum < best_sum)) {
+					best_offset = offset;
+					best_peak = peak;
+					best_sum = sum;
+				}
+			}
+			add_load(load, best_offset, period, durations[i]);
+			this.tasks.get(i).phase = best_offset * tick;
+		}
+		this.peak_load = (double) max(load) / tick;
+	}
+
+	private static void add_load(long[] load, long offset, long period, long duration) {
+		for (long t = offset; t < load.length; t += period) {
+			load[(int) t] += duration;
+		}
+	}
+
+	private static long max(long[] values) {
+		long max = 0;
+		for (long value : values)
+			max = Math.max(max, value);
+		return max;
+	}
+
+	private static long lcm(long a, long b) {
+		long x = a;
+		long y = b;
+		while (y != 0) {
+			long r = x % y;
+			x = y;
+			y = r;
+		}
+		return a / x * b;
+	}
+}
@@ -0,0 +1,274 @@
+package can.broadcastmanager;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.BusABC;
+import can.Clock;
+import can.Message;
+
+/**
+ * Sends all periodic messages of one bus from a single thread.
+ *
+ * Tasks are kept in a hashed timing wheel: time is divided into ticks of
+ * ``tick`` nanoseconds and a task due at tick ``t`` is stored in slot ``t %
+ * wheel_size``, so each tick only looks at the tasks of one slot. Deadlines are
+ * absolute (:meth:`~can.Clock.time_ns` of the first transmission plus a whole
+ * number of periods), so a late tick does not shift the following
+ * transmissions. If the scheduler is late by more than a full period, the
+ * missed transmissions are skipped instead of sent as a burst.
+ *
+ * All messages due in the same tick are handed to
+ * :meth:`~can.BusABC.send_batch` at once.
+ *
+ * The thread is started with the first task and ends some time after the last
+ * task has stopped.
+ */
+public class CyclicSendScheduler implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(CyclicSendScheduler.class);
+
+	/** Default tick length, unit=nanosecond */
+	public static final long DEFAULT_TICK = 1_000_000L;
+	/** Default number of slots of the wheel */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+	/** Time the thread waits for new tasks before ending, unit=nanosecond */
+	private static final long IDLE_TIMEOUT = 1_000_000_000L;
+
+	private final BusABC bus;
+	private final long tick;
+	private final int mask;
+	private final ScheduledCyclicSendTask[] wheel;
+	private final Clock clock;
+	private final long start;
+
+	/** tasks to be (re)started, handed over to the scheduler thread */
+	private final Queue<ScheduledCyclicSendTask> inbox = new ConcurrentLinkedQueue<>();
+	private Thread thread;
+
+	// the fields below are only used by the scheduler thread
+	private long current_tick;
+	private int scheduled;
+	private Message[] batch = new Message[16];
+	private ScheduledCyclicSendTask[] batch_tasks = new ScheduledCyclicSendTask[16];
+
+	/**
+	 * @param bus        the bus to send the messages on
+	 * @param tick       length of a tick, unit=nanosecond. Default: 1ms
+	 * @param wheel_size number of slots, rounded up to a power of two. Default: 512
+	 */
+	public CyclicSendScheduler(BusABC bus, Long tick, Integer wheel_size) {
+		if (tick == null)
+			tick = DEFAULT_TICK;
+		if (wheel_size == null)
+			wheel_size = DEFAULT_WHEEL_SIZE;
+		if (tick <= 0)
+			throw new IllegalArgumentException("tick must be positive");
+
+		int size = Integer.highestOneBit(Math.max(2, wheel_size - 1)) << 1;
+		this.bus = bus;
+		this.tick = tick;
+		this.mask = size - 1;
+		this.wheel = new ScheduledCyclicSendTask[size];
+		this.clock = Clock.get_default();
+		this.start = this.clock.time_ns();
+	}
+
+	public CyclicSendScheduler(BusABC bus) {
+		this(bus, null, null);
+	}
+
+	/** @return the clock the deadlines refer to */
+	Clock clock() {
+		return this.clock;
+	}
+
+	/**
+	 * Create and start a periodic task.
+	 *
+	 * @param msg      Message to transmit
+	 * @param period   Period between each message, unit=millisecond
+	 * @param duration The duration to keep sending this message, unit=millisecond.
+	 *                 If null, the task will continue indefinitely.
+	 * @return the started task
+	 */
+	public ScheduledCyclicSendTask schedule(Message msg, Long period, Long duration) {
+		ScheduledCyclicSendTask task = this.create(msg, period, duration);
+		task.start();
+		return task;
+	}
+
+	/** Create a periodic task without starting it. */
+	ScheduledCyclicSendTask create(Message msg, Long period, Long duration) {
+		if (period == null || period <= 0)
+			throw new IllegalArgumentException("period must be positive");
+		return new ScheduledCyclicSendTask(this, msg, period * 1_000_000L,
+				duration == null ? -1 : duration * 1_000_000L);
+	}
+
+	/** @return length of a tick, unit=nanosecond */
+	public long tick() {
+		return this.tick;
+	}
+
+	/** Hand a task to the scheduler thread, starting the thread if needed. */
+	void submit(ScheduledCyclicSendTask task) {
+		this.inbox.offer(task);
+		synchronized (this) {
+			if (this.thread == null) {
+				this.thread = new Thread(this);
+				this.thread.setName("Cyclic send scheduler for " + this.bus);
+				this.thread.setDaemon(true);
+				this.clock.register(this.thread);
+				this.thread.start();
+			} else {
+				this.clock.unpark(this.thread);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			this.serve();
+		} finally {
+			this.clock.deregister();
+		}
+	}
+
+	private void serve() {
+		this.current_tick = (this.clock.time_ns() - this.start) / this.tick;
+		while (true) {
+			this.drain_inbox();
+
+			if (this.scheduled == 0) {
+				this.clock.park_ns(this, IDLE_TIMEOUT);
+				synchronized (this) {
+					if (this.inbox.isEmpty()) {
+						this.thread = null;
+						return;
+					}
+				}
+				// skip the ticks spent idle
+				this.current_tick = (this.clock.time_ns() - this.start) / this.tick;
+				continue;
+			}
+
+			long now = this.clock.time_ns();
+			long tick_time = this.start + this.current_tick * this.tick;
+			if (now < tick_time) {
+				this.clock.park_ns(this, tick_time - now);
+				continue;
+			}
+			this.process_tick(now);
+			this.current_tick++;
+		}
+	}
+
+	private void drain_inbox() {
+		ScheduledCyclicSendTask task;
+		while ((task = this.inbox.poll()) != null) {
+			if (task.in_wheel || task.stopped)
+				continue;
+			task.deadline = task.epoch + task.phase;
+			task.end_time = task.duration < 0 ? -1 : task.deadline + task.duration;
+			task.in_wheel = true;
+			this.scheduled++;
+			this.insert(task, this.current_tick);
+		}
+	}
+
+	private void insert(ScheduledCyclicSendTask task, long min_tick) {
+		// first tick starting at or after the deadline
+		long tick = (task.deadline - this.start + this.tick - 1) / this.tick;
+		if (tick < min_tick)
+			tick = min_tick;
+		task.deadline_tick = tick;
+		int idx = (int) (tick & this.mask);
+		task.next = this.wheel[idx];
+		this.wheel[idx] = task;
+	}
+
+	private void remove(ScheduledCyclicSendTask task) {
+		task.in_wheel = false;
+		this.scheduled--;
+	}
+
+	private void process_tick(long now) {
+		int idx = (int) (this.current_tick & this.mask);
+		int count = 0;
+		ScheduledCyclicSendTask prev = null;
+		ScheduledCyclicSendTask task = this.wheel[idx];
+		while (task != null) {
+			ScheduledCyclicSendTask next = task.next;
+			if (task.stopped || task.deadline_tick <= this.current_tick) {
+				// unlink
+				if (prev == null)
+					this.wheel[idx] = next;
+				else
+					prev.next = next;
+				task.next = null;
+
+				if (task.stopped) {
+					this.remove(task);
+				} else {
+					if (count == this.batch.length) {
+						this.grow_batch();
+					}
+					this.batch[count] = task.message;
+					this.batch_tasks[count] = task;
+					count++;
+				}
+			} else {
+				prev = task;
+			}
+			task = next;
+		}
+		if (count == 0)
+			return;
+
+		int sent = this.bus.send_batch(this.batch, count);
+
+		for (int i = 0; i < count; i++) {
+			task = this.batch_tasks[i];
+			this.batch[i] = null;
+			this.batch_tasks[i] = null;
+
+			// a failing message must not keep the others due in this tick from being
+			// sent: the messages after it are sent one by one
+			boolean failed = false;
+			if (i >= sent) {
+				try {
+					this.bus.send(task.message);
+				} catch (RuntimeException e) {
+					logger.warn("Error happened when sending periodic message, stopping it. " + e.getMessage());
+					failed = true;
+				}
+			}
+
+			task.deadline += task.period;
+			if (task.deadline <= now) {
+				long missed = (now - task.deadline) / task.period + 1;
+				task.missed += missed;
+				task.deadline += missed * task.period;
+			}
+			if (failed || (task.end_time >= 0 && task.deadline >= task.end_time)) {
+				task.stopped = true;
+				this.remove(task);
+			} else {
+				this.insert(task, this.current_tick + 1);
+			}
+		}
+	}
+
+	private void grow_batch() {
+		Message[] batch = new Message[this.batch.length * 2];
+		ScheduledCyclicSendTask[] batch_tasks = new ScheduledCyclicSendTask[batch.length];
+		System.arraycopy(this.batch, 0, batch, 0, this.batch.length);
+		System.arraycopy(this.batch_tasks, 0, batch_tasks, 0, this.batch_tasks.length);
+		this.batch = batch;
+		this.batch_tasks = batch_tasks;
+	}
+}
@@ -0,0 +1,9 @@
+package can.broadcastmanager;
+
+/**
+ * A periodic message sending task which can be restarted and whose data can be
+ * modified, as returned by :meth:`~can.BusABC.send_periodic`.
+ */
+public interface CyclicSendTaskABC extends RestartableCyclicTaskABC, ModifiableCyclicTaskABC {
+
+}
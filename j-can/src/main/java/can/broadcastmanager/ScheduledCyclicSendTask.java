@@ -0,0 +1,111 @@
+package can.broadcastmanager;
+
+import can.Message;
+
+/**
+ * A periodic message sending task executed by a {@link CyclicSendScheduler}.
+ *
+ * The task does not own a thread: all tasks of a bus are served by the single
+ * thread of its scheduler.
+ */
+public class ScheduledCyclicSendTask implements CyclicSendTaskABC {
+
+	private final CyclicSendScheduler scheduler;
+	private final long arbitration_id;
+	/** unit=nanosecond */
+	final long period;
+	/** unit=nanosecond, negative to send indefinitely */
+	final long duration;
+	/** delay of the first transmission after starting, unit=nanosecond */
+	long phase;
+	/** time of the scheduler clock the task was started at, unit=nanosecond */
+	volatile long epoch;
+
+	volatile Message message;
+	volatile boolean stopped;
+	/** number of periods which were skipped because the scheduler was late */
+	volatile long missed;
+
+	// the fields below are only used by the scheduler thread
+	boolean in_wheel;
+	long deadline;
+	long deadline_tick;
+	long end_time;
+	ScheduledCyclicSendTask next;
+
+	ScheduledCyclicSendTask(CyclicSendScheduler scheduler, Message message, long period, long duration) {
+		this.scheduler = scheduler;
+		this.message = new Message(message);
+		this.arbitration_id = message.arbitration_id;
+		this.period = period;
+		this.duration = duration;
+		this.stopped = true;
+	}
+
+	@Override
+	public void stop() {
+		this.stopped = true;
+	}
+
+	/**
+	 * Start the task, the first message is sent on the first tick after its phase
+	 * has elapsed.
+	 */
+	@Override
+	public void start() {
+		this.start(this.scheduler.clock().time_ns());
+	}
+
+	/**
+	 * Start the task as if it had been started at the given time, so tasks started
+	 * with the same epoch keep their phases relative to each other.
+	 */
+	void start(long epoch) {
+		if (this.stopped) {
+			this.epoch = epoch;
+			this.stopped = false;
+			this.scheduler.submit(this);
+		}
+	}
+
+	/**
+	 * Replace the sent message. The next transmission uses either the old or the
+	 * new message as a whole, never a mix of both.
+	 *
+	 * @exception IllegalArgumentException if the arbitration ID differs
+	 */
+	@Override
+	public void modify_data(Message message) {
+		if (message.arbitration_id != this.arbitration_id) {
+			throw new IllegalArgumentException(String.format(
+					"The arbitration ID of a cyclic task cannot be changed (0x%X != 0x%X)", message.arbitration_id,
+					this.arbitration_id));
+		}
+		this.message = new Message(message);
+	}
+
+	/** @return the message currently sent */
+	public Message message() {
+		return this.message;
+	}
+
+	/** @return the period, unit=millisecond */
+	public long period() {
+		return this.period / 1_000_000L;
+	}
+
+	/** @return the delay of the first transmission, unit=millisecond */
+	public double phase() {
+		return this.phase / 1_000_000.0;
+	}
+
+	/** @return whether the task is stopped or has expired */
+	public boolean is_stopped() {
+		return this.stopped;
+	}
+
+	/** @return the number of transmissions skipped because the scheduler was late */
+	public long missed() {
+		return this.missed;
+	}
+}
@@ -1,9 +1,10 @@
 package can.broadcastmanager;
 
 import can.BusABC;
+import can.Clock;
 import can.Message;
 
-public class ThreadBasedCyclicSendTask implements Runnable, RestartableCyclicTaskABC, ModifiableCyclicTaskABC {
+public class ThreadBasedCyclicSendTask implements Runnable, CyclicSendTaskABC {
 
 	private Message message;
 	private long can_id;
@@ -15,9 +16,11 @@ public class ThreadBasedCyclicSendTask implements Runnable, RestartableCyclicTas
 	private BusABC bus;
 	private Long end_time;
 	private Boolean lock;
+	private final Clock clock = Clock.get_default();
 
 	public ThreadBasedCyclicSendTask(BusABC bus, Boolean lock, Message message, Long period, Long duration) {
 		this.bus = bus;
+		this.lock = lock;
 		this.message = message;
 		this.can_id = message.arbitration_id;
 		this.arbitration_id = message.arbitration_id;
@@ -27,18 +30,26 @@ public class ThreadBasedCyclicSendTask implements Runnable, RestartableCyclicTas
 		this.thread = null;
 
 		if (duration != null) {
-			this.end_time = System.currentTimeMillis() + this.duration;
+			this.end_time = this.clock.time_ms() + this.duration;
 		}
 		this.start();
 	}
 
 	@Override
 	public void run() {
+		try {
+			this.send_periodically();
+		} finally {
+			this.clock.deregister();
+		}
+	}
+
+	private void send_periodically() {
 		while (!this.stopped) {
 			long started;
 //			synchronized (bus) {
 			synchronized (this.lock) {
-				started = System.currentTimeMillis();
+				started = this.clock.time_ms();
 				try {
 					this.bus.send(this.message);
 				} catch (Exception e) {
@@ -46,13 +57,13 @@ public class ThreadBasedCyclicSendTask implements Runnable, RestartableCyclicTas
 				}
 			}
 
-			if (this.end_time != null && (System.currentTimeMillis() >= this.end_time)) {
+			if (this.end_time != null && (this.clock.time_ms() >= this.end_time)) {
 				break;
 			}
 
-			long delay = this.period - (System.currentTimeMillis() - started);
+			long delay = this.period - (this.clock.time_ms() - started);
 			try {
-				Thread.sleep(delay);
+				this.clock.sleep(delay);
 			} catch (InterruptedException e) {
 			}
 
@@ -71,6 +82,7 @@ public class ThreadBasedCyclicSendTask implements Runnable, RestartableCyclicTas
 			this.thread = new Thread(this);
 			this.thread.setName(String.format("Cyclic send task for 0x%X", this.message.arbitration_id));
 			this.thread.setDaemon(true);
+			this.clock.register(this.thread);
 			this.thread.start();
 		}
 	}
@@ -0,0 +1,156 @@
+package can.gateway;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.BusABC;
+import can.Clock;
+import can.Message;
+
+/**
+ * The messages going from one source bus to one destination bus.
+ *
+ * The receive thread of the source is the only producer and the forwarder
+ * thread of this direction the only consumer of a bounded ring, so handing a
+ * message over costs two ordered writes and no lock. The forwarder spins a
+ * little before parking; the producer only unparks it when it is parked.
+ */
+class Direction implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(Direction.class);
+
+	/** Number of empty polls before the forwarder is parked */
+	private static final int SPIN_TRIES = 100;
+	/** Longest single park of the forwarder, unit=nanosecond */
+	private static final long MAX_PARK_NANOS = 100_000_000L;
+	/** Number of messages handed to :meth:`~can.BusABC.send_batch` at once */
+	private static final int BATCH_SIZE = 32;
+
+	final BusABC source;
+	final BusABC destination;
+	private final Clock clock;
+
+	private final int mask;
+	private final Message[] messages;
+	private final Route[] routes;
+	private final long[] times;
+	/** next slot to read, only written by the forwarder */
+	private final AtomicLong head = new AtomicLong();
+	/** next slot to write, only written by the receive thread */
+	private final AtomicLong tail = new AtomicLong();
+	/** cached value of ``head`` seen by the producer */
+	private long head_cache;
+
+	private volatile Thread waiter;
+	private volatile boolean running;
+	private Thread thread;
+
+	Direction(BusABC source, BusABC destination, int capacity, Clock clock) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.source = source;
+		this.destination = destination;
+		this.clock = clock;
+		this.mask = size - 1;
+		this.messages = new Message[size];
+		this.routes = new Route[size];
+		this.times = new long[size];
+	}
+
+	/**
+	 * Hand a message over to the forwarder, called by the receive thread.
+	 *
+	 * @return false if the ring is full
+	 */
+	boolean offer(Message msg, Route route, long time) {
+		long tail = this.tail.get();
+		if (tail - this.head_cache > this.mask) {
+			this.head_cache = this.head.get();
+			if (tail - this.head_cache > this.mask)
+				return false;
+		}
+		int idx = (int) (tail & this.mask);
+		this.messages[idx] = msg;
+		this.routes[idx] = route;
+		this.times[idx] = time;
+		this.tail.set(tail + 1);
+
+		Thread waiter = this.waiter;
+		if (waiter != null)
+			LockSupport.unpark(waiter);
+		return true;
+	}
+
+	void start() {
+		this.running = true;
+		this.thread = new Thread(this);
+		this.thread.setName("can.gateway " + this.source + " -> " + this.destination);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/** Stop once the messages already handed over have been sent */
+	void stop(long timeout) throws InterruptedException {
+		this.running = false;
+		if (this.thread != null) {
+			LockSupport.unpark(this.thread);
+			this.thread.join(timeout);
+		}
+	}
+
+	@Override
+	public void run() {
+		Message[] batch = new Message[BATCH_SIZE];
+		Route[] batch_routes = new Route[BATCH_SIZE];
+		long[] batch_times = new long[BATCH_SIZE];
+		int spins = 0;
+		while (true) {
+			long head = this.head.get();
+			int count = (int) Math.min(this.tail.get() - head, BATCH_SIZE);
+			if (count == 0) {
+				if (!this.running)
+					return;
+				if (spins < SPIN_TRIES) {
+					spins++;
+					continue;
+				}
+				this.waiter = Thread.currentThread();
+				if (this.tail.get() == head && this.running)
+					LockSupport.parkNanos(this, MAX_PARK_NANOS);
+				this.waiter = null;
+				continue;
+			}
+			spins = 0;
+
+			for (int i = 0; i < count; i++) {
+				int idx = (int) ((head + i) & this.mask);
+				batch[i] = this.messages[idx];
+				batch_routes[i] = this.routes[idx];
+				batch_times[i] = this.times[idx];
+				this.messages[idx] = null;
+				this.routes[idx] = null;
+			}
+			this.head.lazySet(head + count);
+
+			int sent;
+			try {
+				sent = this.destination.send_batch(batch, count);
+			} catch (RuntimeException e) {
+				logger.warn("Cannot forward " + count + " messages to " + this.destination + ": " + e);
+				sent = 0;
+			}
+			long now = this.clock.time_ns();
+			for (int i = 0; i < count; i++) {
+				if (i < sent)
+					batch_routes[i].sent(now - batch_times[i]);
+				else
+					batch_routes[i].send_failed();
+			}
+			for (int i = 0; i < count; i++) {
+				batch[i] = null;
+				batch_routes[i] = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package can.gateway;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.BusABC;
+import can.Clock;
+import can.Message;
+
+/**
+ * Forwards messages between two or more buses according to a set of
+ * :class:`~can.gateway.Route` objects.
+ *
+ * Every source bus is read by its own receive thread, which looks up the routes
+ * of each message in a table compiled when the gateway starts: a 2048 entry
+ * array for standard IDs, a hash map for exact extended IDs and a short list
+ * for masked extended filters. The matching messages are rewritten and handed
+ * to one forwarder thread per direction (pair of source and destination bus)
+ * through a lock-free ring, so a slow destination does not delay the others.
+ *
+ * Error frames are not forwarded. The latency of each route, from the
+ * reception on the source until the destination accepted the message, is
+ * recorded, see :meth:`~can.gateway.Route.latency_percentile`.
+ */
+public class Gateway {
+	private static final Logger logger = LoggerFactory.getLogger(Gateway.class);
+
+	/** Default time the receive threads wait for messages before checking for stop */
+	public static final long DEFAULT_TIMEOUT = 100;
+	/** Default number of messages a direction can hold before dropping */
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+	/** Number of messages read from a source at once */
+	private static final int BATCH_SIZE = 64;
+
+	private static final Route[] NO_ROUTES = new Route[0];
+
+	/** The routes of one source bus, compiled at start */
+	static final class Table {
+		/** routes by standard ID, null if none */
+		final Route[][] standard = new Route[0x800][];
+		/** routes by exact extended ID */
+		final Map<Integer, Route[]> extended = new HashMap<Integer, Route[]>();
+		/** routes of extended IDs with a partial mask, checked one by one */
+		final Route[] extended_masked;
+
+		Table(List<Route> routes) {
+			Map<Integer, List<Route>> exact = new HashMap<Integer, List<Route>>();
+			List<Route> masked = new ArrayList<Route>();
+			for (Route route : routes) {
+				if (route.filter.extended == null || !route.filter.extended.booleanValue()) {
+					for (int id = 0; id < 0x800; id++) {
+						if (route.filter.match(id, false))
+							this.standard[id] = append(this.standard[id], route);
+					}
+				}
+				if (route.filter.extended == null || route.filter.extended.booleanValue()) {
+					if ((route.filter.can_mask & 0x1FFFFFFF) == 0x1FFFFFFF) {
+						int id = (int) (route.filter.can_id & 0x1FFFFFFF);
+						List<Route> list = exact.get(id);
+						if (list == null) {
+							list = new ArrayList<Route>();
+							exact.put(id, list);
+						}
+						list.add(route);
+					} else {
+						masked.add(route);
+					}
+				}
+			}
+			for (Map.Entry<Integer, List<Route>> e : exact.entrySet()) {
+				this.extended.put(e.getKey(), e.getValue().toArray(NO_ROUTES));
+			}
+			this.extended_masked = masked.toArray(NO_ROUTES);
+		}
+
+		private static Route[] append(Route[] routes, Route route) {
+			if (routes == null)
+				return new Route[] { route };
+			Route[] result = new Route[routes.length + 1];
+			System.arraycopy(routes, 0, result, 0, routes.length);
+			result[routes.length] = route;
+			return result;
+		}
+
+		/** Pass the message to every route it matches */
+		void dispatch(Message msg, long time) {
+			if (msg.is_extended_id != null && msg.is_extended_id.booleanValue()) {
+				Route[] routes = this.extended.get((int) msg.arbitration_id);
+				if (routes != null) {
+					for (Route route : routes) {
+						route.forward(msg, time);
+					}
+				}
+				for (Route route : this.extended_masked) {
+					if (route.filter.match(msg.arbitration_id, true))
+						route.forward(msg, time);
+				}
+				return;
+			}
+			if (msg.arbitration_id < 0 || msg.arbitration_id >= 0x800)
+				return;
+			Route[] routes = this.standard[(int) msg.arbitration_id];
+			if (routes != null) {
+				for (Route route : routes) {
+					route.forward(msg, time);
+				}
+			}
+		}
+	}
+
+	private final int queue_size;
+	private final long timeout;
+	private final Clock clock;
+	private final List<Route> routes = new ArrayList<Route>();
+	private final List<Direction> directions = new ArrayList<Direction>();
+	private final List<Thread> receivers = new ArrayList<Thread>();
+
+	private volatile boolean running = false;
+	/** the exception which stopped a receive thread, if any */
+	private volatile Exception exception;
+
+	/**
+	 * @param queue_size number of messages each direction can hold before
+	 *                   dropping. Default: 1024
+	 * @param timeout    time the receive threads wait for messages before checking
+	 *                   whether the gateway was stopped, unit=millisecond. Default:
+	 *                   100
+	 */
+	public Gateway(Integer queue_size, Long timeout) {
+		// Default value if input is null
+		if (queue_size == null) {
+			queue_size = DEFAULT_QUEUE_SIZE;
+		}
+		if (timeout == null) {
+			timeout = DEFAULT_TIMEOUT;
+		}
+		if (queue_size <= 0)
+			throw new IllegalArgumentException("queue_size must be positive");
+		this.queue_size = queue_size;
+		this.timeout = timeout;
+		this.clock = Clock.get_default();
+	}
+
+	public Gateway() {
+		this(null, null);
+	}
+
+	/**
+	 * Add a route. Routes are compiled when the gateway starts, so they can only be
+	 * added before :meth:`start`; the route cannot be reconfigured afterwards.
+	 */
+	public synchronized Route add_route(Route route) {
+		if (this.running)
+			throw new IllegalStateException("routes cannot be added to a running gateway");
+		route.seal();
+		this.routes.add(route);
+		return route;
+	}
+
+	/** @return the routes in the order they were added */
+	public synchronized List<Route> routes() {
+		return Collections.unmodifiableList(new ArrayList<Route>(this.routes));
+	}
+
+	/** Compile the routes and start the receive and forwarder threads. */
+	public synchronized void start() {
+		if (this.running)
+			return;
+		this.directions.clear();
+		this.receivers.clear();
+		this.exception = null;
+
+		Map<BusABC, List<Route>> by_source = new LinkedHashMap<BusABC, List<Route>>();
+		for (Route route : this.routes) {
+			List<Route> list = by_source.get(route.source);
+			if (list == null) {
+				list = new ArrayList<Route>();
+				by_source.put(route.source, list);
+			}
+			list.add(route);
+			route.direction = this.direction(route.source, route.destination);
+		}
+
+		this.running = true;
+		for (Direction direction : this.directions) {
+			direction.start();
+		}
+		for (Map.Entry<BusABC, List<Route>> e : by_source.entrySet()) {
+			final BusABC source = e.getKey();
+			final Table table = new Table(e.getValue());
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Gateway.this._rx_thread(source, table);
+				}
+			});
+			thread.setName("can.gateway receiver for bus '" + source + "'");
+			thread.setDaemon(true);
+			thread.start();
+			this.receivers.add(thread);
+		}
+	}
+
+	private Direction direction(BusABC source, BusABC destination) {
+		for (Direction direction : this.directions) {
+			if (direction.source == source && direction.destination == destination)
+				return direction;
+		}
+		Direction direction = new Direction(source, destination, this.queue_size, this.clock);
+		this.directions.add(direction);
+		return direction;
+	}
+
+	private void _rx_thread(BusABC source, Table table) {
+		Message[] batch = new Message[BATCH_SIZE];
+		try {
+			while (this.running) {
+				int count = source.recv_batch(batch, batch.length, this.timeout);
+				if (count == 0)
+					continue;
+				long now = this.clock.time_ns();
+				for (int i = 0; i < count; i++) {
+					Message msg = batch[i];
+					batch[i] = null;
+					if (!msg.is_error_frame)
+						table.dispatch(msg, now);
+				}
+			}
+		} catch (Exception e) {
+			if (!this.running) {
+				// the bus was shut down while waiting
+				return;
+			}
+			logger.error("Error receiving from " + source + ", stopping its routes: " + e);
+			this.exception = e;
+		}
+	}
+
+	/** @return the exception which stopped a receive thread, or null */
+	public Exception exception() {
+		return this.exception;
+	}
+
+	/** @return whether the gateway has been started and not stopped */
+	public boolean is_running() {
+		return this.running;
+	}
+
+	/**
+	 * Stop reading the sources, then send the messages already handed over to
+	 * the forwarder threads. The buses are not shut down.
+	 *
+	 * @param timeout max time to wait for each thread, unit=millisecond. Default:
+	 *                twice the receive timeout
+	 */
+	public synchronized void stop(Long timeout) {
+		if (timeout == null) {
+			timeout = 2 * this.timeout;
+		}
+		this.running = false;
+		try {
+			for (Thread thread : this.receivers) {
+				thread.join(timeout);
+			}
+			for (Direction direction : this.directions) {
+				direction.stop(timeout);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void stop() {
+		this.stop(null);
+	}
+}
@@ -0,0 +1,219 @@
+package can.gateway;
+
+import can.BusABC;
+import can.Filter;
+import can.LatencyHistogram;
+import can.Message;
+
+/**
+ * A route of a :class:`~can.gateway.Gateway`: the messages of ``source``
+ * matching ``filter`` are forwarded to ``destination``, optionally with another
+ * arbitration ID, a masked payload and a limited rate.
+ *
+ * The route is configured with the chainable setters before it is added to a
+ * gateway, its counters and latencies can be read at any time afterwards.
+ */
+public class Route {
+
+	public final BusABC source;
+	public final BusABC destination;
+	public final Filter filter;
+
+	private long rewrite_id;
+	private long rewrite_mask;
+	private Boolean rewrite_extended;
+	private byte[] data_mask;
+	private byte[] data_value;
+	/** unit=nanosecond, 0 without rate limit */
+	private long min_interval;
+	private boolean sealed;
+
+	/** the handoff to the forwarder thread of the destination */
+	Direction direction;
+	/** time the last message was forwarded, only used by the receive thread */
+	private long last_forwarded = Long.MIN_VALUE;
+
+	private volatile long matched;
+	private volatile long rate_limited;
+	private volatile long dropped;
+	private volatile long forwarded;
+	private volatile long send_errors;
+	final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * @param source      the bus the messages are read from
+	 * @param destination the bus the messages are sent to
+	 * @param filter      the messages to forward, null forwards every message
+	 */
+	public Route(BusABC source, BusABC destination, Filter filter) {
+		if (source == null || destination == null)
+			throw new IllegalArgumentException("source and destination must not be null");
+		if (source == destination)
+			throw new IllegalArgumentException("source and destination must differ");
+		// Default value if input is null
+		if (filter == null) {
+			filter = new Filter(0, 0, null);
+		}
+		this.source = source;
+		this.destination = destination;
+		this.filter = filter;
+	}
+
+	/**
+	 * Replace the bits of the arbitration ID selected by ``mask`` with those of
+	 * ``id``, e.g. ``rewrite(0x700, 0x700, null)`` moves 0x123 to 0x723.
+	 *
+	 * @param id       the new arbitration ID bits
+	 * @param mask     the bits to replace, 0x1FFFFFFF replaces the whole ID
+	 * @param extended the new ID type, null keeps the type of the message
+	 */
+	public Route rewrite(long id, long mask, Boolean extended) {
+		this.check_not_sealed();
+		this.rewrite_id = id & mask;
+		this.rewrite_mask = mask;
+		this.rewrite_extended = extended;
+		return this;
+	}
+
+	/**
+	 * Rewrite the payload as ``data[i] = (data[i] & mask[i]) | value[i]``. Bytes
+	 * beyond the length of ``mask`` are kept.
+	 *
+	 * @param mask  the bits of each byte to keep
+	 * @param value the bits to set, null sets none
+	 */
+	public Route mask_data(byte[] mask, byte[] value) {
+		this.check_not_sealed();
+		if (mask == null)
+			throw new IllegalArgumentException("mask must not be null");
+		if (value != null && value.length != mask.length)
+			throw new IllegalArgumentException("mask and value must have the same length");
+		this.data_mask = mask.clone();
+		this.data_value = value == null ? new byte[mask.length] : value.clone();
+		for (int i = 0; i < mask.length; i++) {
+			this.data_value[i] &= ~mask[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Forward at most ``max_rate`` messages per second. Messages arriving sooner
+	 * than ``1 / max_rate`` after the last forwarded one are discarded.
+	 *
+	 * @param max_rate messages per second, null removes the limit
+	 */
+	public Route rate_limit(Integer max_rate) {
+		this.check_not_sealed();
+		if (max_rate != null && max_rate <= 0)
+			throw new IllegalArgumentException("max_rate must be positive");
+		this.min_interval = max_rate == null ? 0 : 1_000_000_000L / max_rate;
+		return this;
+	}
+
+	private void check_not_sealed() {
+		if (this.sealed)
+			throw new IllegalStateException("the route is used by a gateway");
+	}
+
+	void seal() {
+		this.sealed = true;
+	}
+
+	/** @return whether the message is modified on its way */
+	boolean rewrites() {
+		return this.rewrite_mask != 0 || this.rewrite_extended != null || this.data_mask != null;
+	}
+
+	/**
+	 * Called by the receive thread of the source for every matching message.
+	 *
+	 * @param msg  the received message, shared with the other routes
+	 * @param time the time the message was received, unit=nanosecond
+	 */
+	void forward(Message msg, long time) {
+		this.matched++;
+		if (this.min_interval > 0) {
+			if (this.last_forwarded != Long.MIN_VALUE && time - this.last_forwarded < this.min_interval) {
+				this.rate_limited++;
+				return;
+			}
+			this.last_forwarded = time;
+		}
+		Message out = this.rewrites() ? this.apply(msg) : msg;
+		if (!this.direction.offer(out, this, time))
+			this.dropped++;
+	}
+
+	/** @return a rewritten copy of the message */
+	Message apply(Message msg) {
+		Message out = new Message(msg);
+		out.arbitration_id = (msg.arbitration_id & ~this.rewrite_mask) | this.rewrite_id;
+		if (this.rewrite_extended != null)
+			out.is_extended_id = this.rewrite_extended;
+		if (this.data_mask != null && out.data != null) {
+			int n = Math.min(out.data.length, this.data_mask.length);
+			for (int i = 0; i < n; i++) {
+				out.data[i] = (byte) ((out.data[i] & this.data_mask[i]) | this.data_value[i]);
+			}
+		}
+		return out;
+	}
+
+	/** Called by the forwarder thread once the message has been sent */
+	void sent(long latency) {
+		this.forwarded++;
+		this.latency.record(latency);
+	}
+
+	/** Called by the forwarder thread if the destination rejected the message */
+	void send_failed() {
+		this.send_errors++;
+	}
+
+	/** @return number of messages which matched the route */
+	public long matched() {
+		return this.matched;
+	}
+
+	/** @return number of messages sent to the destination */
+	public long forwarded() {
+		return this.forwarded;
+	}
+
+	/** @return number of messages discarded by the rate limit */
+	public long rate_limited() {
+		return this.rate_limited;
+	}
+
+	/** @return number of messages lost because the forwarder did not keep up */
+	public long dropped() {
+		return this.dropped;
+	}
+
+	/** @return number of messages the destination failed to send */
+	public long send_errors() {
+		return this.send_errors;
+	}
+
+	/**
+	 * Latency from the reception on the source until the destination accepted the
+	 * message, within about 6%.
+	 *
+	 * @param percentile between 0 and 100, e.g. 99.9
+	 * @return the latency, 0 before the first message, unit=nanosecond
+	 */
+	public long latency_percentile(double percentile) {
+		return this.latency.percentile(percentile);
+	}
+
+	/** @return the highest latency seen, unit=nanosecond */
+	public long max_latency() {
+		return this.latency.max();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Route(%s -> %s, 0x%X/0x%X)", this.source, this.destination, this.filter.can_id,
+				this.filter.can_mask);
+	}
+}
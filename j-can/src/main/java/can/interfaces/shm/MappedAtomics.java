@@ -0,0 +1,70 @@
+package can.interfaces.shm;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+
+import sun.misc.Unsafe;
+
+/**
+ * Atomic operations on the longs of a memory-mapped file, shared with other
+ * processes.
+ *
+ * Java 8 has no supported API for them: ``AtomicLong`` only covers the Java
+ * heap and the ``VarHandle`` views of byte buffers came with Java 9. This class
+ * is therefore the only user of ``sun.misc.Unsafe`` in the library, which it
+ * also needs to read the native address of the mapping. Once the minimum JDK is
+ * raised to 9, it can be replaced by
+ * ``MethodHandles.byteBufferViewVarHandle``.
+ */
+final class MappedAtomics {
+
+	private static final Unsafe UNSAFE;
+	private static final long ADDRESS_OFFSET;
+
+	static {
+		try {
+			Field field = Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			UNSAFE = (Unsafe) field.get(null);
+			ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/** native address of the mapping */
+	private final long address;
+
+	MappedAtomics(MappedByteBuffer buffer) {
+		this.address = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+	}
+
+	/** Volatile read of the long at ``offset`` */
+	long get(long offset) {
+		return UNSAFE.getLongVolatile(null, this.address + offset);
+	}
+
+	/**
+	 * Ordered write of the long at ``offset``: the writes before it are visible
+	 * when it is, like ``AtomicLong.lazySet``.
+	 */
+	void lazy_set(long offset, long value) {
+		UNSAFE.putOrderedLong(null, this.address + offset, value);
+	}
+
+	/** Atomic read-modify-write, not reordered with the accesses around it */
+	long get_and_set(long offset, long value) {
+		return UNSAFE.getAndSetLong(null, this.address + offset, value);
+	}
+
+	/** Same as :meth:`get_and_set` */
+	long get_and_add(long offset, long delta) {
+		return UNSAFE.getAndAddLong(null, this.address + offset, delta);
+	}
+
+	/** Same as :meth:`get_and_set` */
+	boolean compare_and_set(long offset, long expected, long value) {
+		return UNSAFE.compareAndSwapLong(null, this.address + offset, expected, value);
+	}
+}
@@ -0,0 +1,206 @@
+package can.interfaces.shm;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import can.BusABC;
+import can.CanError;
+import can.Clock;
+import can.Filter;
+import can.Frame;
+import can.Message;
+import can.RecvResult;
+
+/**
+ * A CAN bus shared by the processes of one machine through a memory-mapped
+ * file.
+ *
+ * Every SharedMemoryBus opened on the same channel, in this or another JVM,
+ * receives every message sent by the others. One process can own the hardware
+ * and forward its traffic, e.g. with a :class:`~can.gateway.Gateway`, to any
+ * number of local tools. Sending and receiving only touch the mapped memory;
+ * a waiting receiver spins, then yields, then sleeps in short steps, since a
+ * process cannot be woken up by another without a system call.
+ *
+ * Like for :class:`~can.interfaces.virtual.VirtualBus`, sending never blocks
+ * and a receiver falling more than ``rx_queue_size`` messages behind loses the
+ * oldest ones (see {@link #dropped()}).
+ */
+public class SharedMemoryBus extends BusABC {
+
+	/** Number of empty polls before the receiving thread yields */
+	private static final int SPIN_TRIES = 1000;
+	/** Number of yields before the receiving thread sleeps */
+	private static final int YIELD_TRIES = 100;
+	/** Sleep between polls once idle, unit=nanosecond */
+	private static final long IDLE_PARK_NANOS = 50_000L;
+
+	public final File file;
+	public boolean receive_own_messages;
+	public boolean preserve_timestamps;
+
+	private final long id = ThreadLocalRandom.current().nextLong();
+	private final Clock clock = Clock.get_default();
+	private volatile SharedRing ring;
+	private final SharedRing.Cursor cursor;
+	private long reported_dropped;
+	/** used by :meth:`send`, under the send lock */
+	private final Frame tx_frame = new Frame();
+	/** used by :meth:`_recv_internal`, by the single reading thread */
+	private final Frame rx_frame = new Frame();
+
+	/**
+	 * Open a shared memory channel.
+	 *
+	 * @param channel              name of the channel or path of its file. A
+	 *                             name is mapped to ``jcan-<name>.shm`` in the
+	 *                             temporary directory. Default: "channel-0"
+	 * @param can_filters          See :meth:`~can.BusABC.set_filters` for
+	 *                             details.
+	 * @param receive_own_messages If true, messages sent by this bus are received
+	 *                             by it as well. Default: false
+	 * @param rx_queue_size        Number of messages kept by the channel for
+	 *                             readers, rounded up to a power of two. Only used
+	 *                             by the first bus creating the file. Default:
+	 *                             2^14
+	 * @param preserve_timestamps  If true, the timestamp of sent messages is kept,
+	 *                             else it is set to the time of sending. Default:
+	 *                             false
+	 * @param args                 Unused
+	 * @throws CanError if the file cannot be mapped
+	 */
+	public SharedMemoryBus(Object channel, List<Filter> can_filters, Boolean receive_own_messages,
+			Integer rx_queue_size, Boolean preserve_timestamps, String[] args) throws CanError {
+		super(channel, can_filters, args);
+
+		// Default value if input is null
+		if (channel == null)
+			channel = "channel-0";
+		if (receive_own_messages == null)
+			receive_own_messages = false;
+		if (rx_queue_size == null)
+			rx_queue_size = 1 << 14;
+		if (preserve_timestamps == null)
+			preserve_timestamps = false;
+
+		this.file = file_of(channel);
+		this.receive_own_messages = receive_own_messages;
+		this.preserve_timestamps = preserve_timestamps;
+		this.channel_info = "Shared memory bus " + this.file;
+
+		this.ring = new SharedRing(this.file, rx_queue_size);
+		// only messages sent after opening are received
+		this.cursor = new SharedRing.Cursor(this.ring.head());
+	}
+
+	public SharedMemoryBus(Object channel) throws CanError {
+		this(channel, null, null, null, null, null);
+	}
+
+	/** @return the file holding the channel with the given name or path */
+	public static File file_of(Object channel) {
+		String name = String.valueOf(channel);
+		if (name.indexOf('/') >= 0 || name.indexOf(File.separatorChar) >= 0)
+			return new File(name);
+		return new File(System.getProperty("java.io.tmpdir"), "jcan-" + name + ".shm");
+	}
+
+	/**
+	 * Wait for the next frame of the channel, skipping own messages if they are
+	 * not wanted.
+	 *
+	 * @param timeout milliseconds to wait, null waits indefinitely
+	 * @return false on timeout
+	 * @throws CanError if the bus has been shut down
+	 */
+	private boolean poll(Frame frame, Long timeout) throws CanError {
+		long deadline = 0;
+		if (timeout != null)
+			deadline = System.nanoTime() + timeout * 1_000_000L;
+
+		int idle = 0;
+		while (true) {
+			SharedRing ring = this.ring;
+			if (ring == null)
+				throw new CanError("Cannot receive on a closed bus: " + this.channel_info);
+
+			if (ring.read(this.cursor, frame)) {
+				if (this.cursor.sender_id != this.id || this.receive_own_messages)
+					return true;
+				continue;
+			}
+			if (this.cursor.dropped != this.reported_dropped) {
+				logger.warn(String.format("%s: receiver overrun, %d messages lost", this.channel_info,
+						this.cursor.dropped - this.reported_dropped));
+				this.reported_dropped = this.cursor.dropped;
+				continue;
+			}
+
+			if (timeout != null && deadline - System.nanoTime() <= 0)
+				return false;
+			idle++;
+			if (idle < SPIN_TRIES)
+				continue;
+			if (idle < SPIN_TRIES + YIELD_TRIES) {
+				Thread.yield();
+				continue;
+			}
+			LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+		}
+	}
+
+	@Override
+	public boolean _recv_internal(Long timeout, RecvResult result) throws CanError {
+		if (!this.poll(this.rx_frame, timeout))
+			return result.set(null, false);
+		return result.set(this.rx_frame.to_message(), false);
+	}
+
+	/** Copy the frame straight from the shared memory, without a message. */
+	@Override
+	public boolean recv_into(Frame frame, Long timeout) throws Exception {
+		long deadline = timeout == null ? 0 : System.currentTimeMillis() + timeout;
+		while (true) {
+			Long left = timeout == null ? null : Math.max(0, deadline - System.currentTimeMillis());
+			if (!this.poll(frame, left))
+				return false;
+			if (this._match_filters(frame)) {
+				this._count_received(frame);
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public void send(Message msg, Long timeout) {
+		SharedRing ring = this.ring;
+		if (ring == null) {
+			logger.warn("Cannot send on a closed bus: " + this.channel_info);
+			return;
+		}
+		synchronized (this.tx_frame) {
+			this.tx_frame.copy_from(msg);
+			ring.publish(this.tx_frame, this.preserve_timestamps ? msg.timestamp_ns() : this.clock.time_ns(),
+					this.id);
+		}
+		this._count_sent(msg);
+	}
+
+	@Override
+	public void send(Message msg) {
+		this.send(msg, null);
+	}
+
+	/** @return the number of messages this bus lost because it read too slowly */
+	public long dropped() {
+		return this.cursor.dropped;
+	}
+
+	/** The file is kept, so other processes can keep using the channel. */
+	@Override
+	public void shutdown() {
+		this.ring = null;
+	}
+}
@@ -0,0 +1,226 @@
+package can.interfaces.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import can.CanError;
+import can.Frame;
+import can.io.TraceFormat;
+
+/**
+ * A ring of frames in a memory-mapped file, shared by the processes which map
+ * it.
+ *
+ * <pre>
+ * header (128): magic (8) | capacity (4) | slot size (4) | ... |
+ *               tail sequence (8, at offset 64)
+ * slot (96):    published (8) | sender (8) | timestamp ns (8) |
+ *               arbitration ID (4) | channel (2) | flags (1) |
+ *               payload length (1) | payload (64)
+ * </pre>
+ *
+ * The record part of a slot has the layout of a trace record, see
+ * :class:`~can.io.TraceFormat`. A sender claims a sequence number by
+ * atomically incrementing the tail, marks the slot as being written, fills it
+ * and publishes it by storing ``sequence + 1``, so an all zero file is an empty
+ * ring. Readers keep their own cursor, check the published sequence before and
+ * after copying a slot and skip ahead when they have been overrun, exactly like
+ * the in-process :class:`~can.interfaces.virtual.VirtualBus` channel.
+ *
+ * The sequence fields and the tail are accessed with atomic operations on the
+ * mapped memory, see :class:`MappedAtomics`, so the steady state involves no
+ * system call.
+ */
+class SharedRing {
+
+	static final long MAGIC = 0x4A43414E53484D31L; // "JCANSHM1"
+
+	static final int HEADER_SIZE = 128;
+	static final int SLOT_SIZE = 96;
+
+	// header offsets
+	private static final int HEADER_MAGIC = 0;
+	private static final int HEADER_CAPACITY = 8;
+	private static final int HEADER_SLOT_SIZE = 12;
+	/** on its own cache line, written by every sender */
+	private static final int HEADER_TAIL = 64;
+
+	// slot offsets
+	private static final int SLOT_PUBLISHED = 0;
+	private static final int SLOT_SENDER = 8;
+	private static final int SLOT_TIMESTAMP = 16;
+	private static final int SLOT_ID = 24;
+	private static final int SLOT_CHANNEL = 28;
+	private static final int SLOT_FLAGS = 30;
+	private static final int SLOT_LENGTH = 31;
+	private static final int SLOT_DATA = 32;
+
+	/** Value of the published field while a slot is being (re)written */
+	private static final long WRITING = -1L;
+
+	final File file;
+	final int capacity;
+	private final int mask;
+	private final MappedByteBuffer buffer;
+	/** atomic operations on the sequence fields and the tail */
+	private final MappedAtomics atomics;
+
+	/**
+	 * Map the ring file, creating and initializing it if it does not exist.
+	 *
+	 * @param capacity number of slots, rounded up to a power of two. Only used
+	 *                 when the file is created
+	 * @throws CanError if the file cannot be mapped or is not a ring file
+	 */
+	SharedRing(File file, int capacity) throws CanError {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.file = file;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+			// only held while opening, so two processes do not both initialize the file
+			FileLock lock = channel.lock();
+			try {
+				if (channel.size() >= HEADER_SIZE) {
+					MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+					if (header.getLong(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_SLOT_SIZE) != SLOT_SIZE)
+						throw new CanError(file + " is not a shared memory bus file");
+					size = header.getInt(HEADER_CAPACITY);
+				} else {
+					channel.truncate(0);
+				}
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) size * SLOT_SIZE);
+				if (this.buffer.getLong(HEADER_MAGIC) != MAGIC) {
+					this.buffer.putInt(HEADER_CAPACITY, size);
+					this.buffer.putInt(HEADER_SLOT_SIZE, SLOT_SIZE);
+					this.buffer.putLong(HEADER_MAGIC, MAGIC);
+				}
+			} finally {
+				lock.release();
+			}
+		} catch (CanError e) {
+			throw e;
+		} catch (IOException e) {
+			throw new CanError("Cannot map " + file, e);
+		}
+		this.capacity = size;
+		this.mask = size - 1;
+		this.atomics = new MappedAtomics(this.buffer);
+	}
+
+	/** @return the sequence number the next sent frame will get */
+	long head() {
+		return this.atomics.get(HEADER_TAIL);
+	}
+
+	private long slot(long seq) {
+		return HEADER_SIZE + (seq & this.mask) * SLOT_SIZE;
+	}
+
+	/** Append a frame to the ring. */
+	void publish(Frame frame, long timestamp_ns, long sender_id) {
+		long seq = this.atomics.get_and_add(HEADER_TAIL, 1);
+		int slot = (int) this.slot(seq);
+		// readers must not see the new content before the WRITING mark: the
+		// read-modify-write is not reordered with the writes which follow
+		this.atomics.get_and_set(slot + SLOT_PUBLISHED, WRITING);
+
+		int flags = TraceFormat.FLAG_VALID;
+		if (frame.is_extended_id)
+			flags |= TraceFormat.FLAG_EXTENDED_ID;
+		if (frame.is_remote_frame)
+			flags |= TraceFormat.FLAG_REMOTE_FRAME;
+		if (frame.is_error_frame)
+			flags |= TraceFormat.FLAG_ERROR_FRAME;
+		if (frame.is_fd)
+			flags |= TraceFormat.FLAG_FD;
+		if (frame.bitrate_switch)
+			flags |= TraceFormat.FLAG_BITRATE_SWITCH;
+		if (frame.error_state_indicator)
+			flags |= TraceFormat.FLAG_ERROR_STATE_INDICATOR;
+		MappedByteBuffer buffer = this.buffer;
+		buffer.putLong(slot + SLOT_SENDER, sender_id);
+		buffer.putLong(slot + SLOT_TIMESTAMP, timestamp_ns);
+		buffer.putInt(slot + SLOT_ID, (int) frame.arbitration_id);
+		buffer.putShort(slot + SLOT_CHANNEL, (short) frame.channel);
+		buffer.put(slot + SLOT_FLAGS, (byte) flags);
+		buffer.put(slot + SLOT_LENGTH, (byte) frame.length);
+		if (!frame.is_remote_frame) {
+			for (int i = 0; i < frame.length; i++) {
+				buffer.put(slot + SLOT_DATA + i, frame.data[i]);
+			}
+		}
+
+		this.atomics.lazy_set(slot + SLOT_PUBLISHED, seq + 1);
+	}
+
+	/**
+	 * Read the frame with the next sequence number of the cursor.
+	 *
+	 * @return false if it has not been published yet. When the reader has been
+	 *         overrun, the cursor is moved to the oldest frame still available and
+	 *         false is returned.
+	 */
+	boolean read(Cursor cursor, Frame frame) {
+		long seq = cursor.next;
+		int slot = (int) this.slot(seq);
+		long published = this.atomics.get(slot + SLOT_PUBLISHED);
+		if (published == seq + 1) {
+			MappedByteBuffer buffer = this.buffer;
+			long sender_id = buffer.getLong(slot + SLOT_SENDER);
+			int flags = buffer.get(slot + SLOT_FLAGS);
+			int length = Math.min(buffer.get(slot + SLOT_LENGTH) & 0xFF, Frame.MAX_DATA_LENGTH);
+			frame.timestamp_ns(buffer.getLong(slot + SLOT_TIMESTAMP));
+			frame.arbitration_id = buffer.getInt(slot + SLOT_ID) & 0xFFFFFFFFL;
+			frame.channel = buffer.getShort(slot + SLOT_CHANNEL);
+			frame.is_extended_id = (flags & TraceFormat.FLAG_EXTENDED_ID) != 0;
+			frame.is_remote_frame = (flags & TraceFormat.FLAG_REMOTE_FRAME) != 0;
+			frame.is_error_frame = (flags & TraceFormat.FLAG_ERROR_FRAME) != 0;
+			frame.is_fd = (flags & TraceFormat.FLAG_FD) != 0;
+			frame.bitrate_switch = (flags & TraceFormat.FLAG_BITRATE_SWITCH) != 0;
+			frame.error_state_indicator = (flags & TraceFormat.FLAG_ERROR_STATE_INDICATOR) != 0;
+			int payload = frame.is_remote_frame ? 0 : length;
+			for (int i = 0; i < payload; i++) {
+				frame.data[i] = buffer.get(slot + SLOT_DATA + i);
+			}
+			for (int i = payload; i < frame.length; i++) {
+				frame.data[i] = 0;
+			}
+			frame.length = length;
+
+			// the copy must not be reordered after the second check, which is therefore
+			// a read-modify-write, leaving the field unchanged
+			if (this.atomics.compare_and_set(slot + SLOT_PUBLISHED, seq + 1, seq + 1)) {
+				cursor.next = seq + 1;
+				cursor.sender_id = sender_id;
+				return true;
+			}
+			// overwritten while reading
+			published = WRITING;
+		}
+		if (published == WRITING || published > seq + 1) {
+			long oldest = this.head() - this.capacity;
+			if (oldest > seq) {
+				cursor.dropped += oldest - seq;
+				cursor.next = oldest;
+			}
+		}
+		return false;
+	}
+
+	/** Read position of one reader of the ring. */
+	static class Cursor {
+		/** sequence number of the next frame to read */
+		long next;
+		/** id of the bus that sent the last frame read */
+		long sender_id;
+		/** number of frames lost because this reader was too slow */
+		long dropped;
+
+		Cursor(long next) {
+			this.next = next;
+		}
+	}
+}
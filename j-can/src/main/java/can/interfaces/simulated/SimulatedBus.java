@@ -0,0 +1,235 @@
+package can.interfaces.simulated;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import can.BusABC;
+import can.CanError;
+import can.Filter;
+import can.Message;
+import can.RecvResult;
+
+/**
+ * A node of a simulated CAN network, which behaves like a real bus instead of
+ * an ideal one.
+ *
+ * Like for :class:`~can.interfaces.virtual.VirtualBus`, all SimulatedBus
+ * instances joined to the same channel name receive the messages sent by the
+ * others. Unlike there, every node has a transmit queue whose first frame
+ * competes in the arbitration by ID, frames occupy the bus for their exact
+ * duration at the configured bitrates, stuff bits included, and a node whose
+ * frames lose the arbitration waits. Throughput measured on a simulated bus,
+ * e.g. of ISO-TP transfers, therefore matches the one of a vehicle bus.
+ *
+ * Messages are timestamped with the end of their transmission. In simulated
+ * time (``real_time`` false) the network runs as fast as possible on its own
+ * clock, see :meth:`time_ns`, which predicts bus times without waiting for
+ * them.
+ */
+public class SimulatedBus extends BusABC {
+
+	/** Longest single wait of a receiving thread, unit=millisecond */
+	private static final long MAX_WAIT_MILLIS = 100L;
+
+	public final String channel_name;
+	public final boolean receive_own_messages;
+
+	private volatile SimulatedChannel channel;
+
+	/** frames waiting for transmission, guarded by the channel lock */
+	final ArrayDeque<Message> tx_queue = new ArrayDeque<>();
+	final int tx_queue_size;
+	/** number of times the first frame of the queue lost the arbitration */
+	volatile long arbitration_lost;
+
+	private final ArrayBlockingQueue<Message> rx_queue;
+	private volatile long dropped;
+	private long reported_dropped;
+
+	/**
+	 * Join a simulated channel.
+	 *
+	 * @param channel              name of the channel to join, any object is
+	 *                             converted with {@link String#valueOf(Object)}.
+	 *                             Default: "channel-0"
+	 * @param can_filters          See :meth:`~can.BusABC.set_filters` for
+	 *                             details.
+	 * @param receive_own_messages If true, messages sent by this bus are received
+	 *                             by it as well, after their transmission.
+	 *                             Default: false
+	 * @param bitrate              nominal bitrate, unit=bit/s. Only used by the
+	 *                             first bus joining the channel. Default: 500000
+	 * @param data_bitrate         data bitrate of CAN FD frames with bitrate
+	 *                             switch, unit=bit/s, null to use the nominal
+	 *                             bitrate. Only used by the first bus joining the
+	 *                             channel.
+	 * @param real_time            If true, frames are delivered when their
+	 *                             transmission ends, else as fast as possible on
+	 *                             the simulated clock of the channel. Only used
+	 *                             by the first bus joining the channel. Default:
+	 *                             true
+	 * @param tx_queue_size        Number of frames the node can queue before
+	 *                             :meth:`send` blocks. Default: 64
+	 * @param rx_queue_size        Number of received messages kept for the
+	 *                             reader, the oldest ones are lost when it is
+	 *                             full. Default: 2^16
+	 * @param args                 Unused
+	 */
+	public SimulatedBus(Object channel, List<Filter> can_filters, Boolean receive_own_messages, Integer bitrate,
+			Integer data_bitrate, Boolean real_time, Integer tx_queue_size, Integer rx_queue_size, String[] args) {
+		super(channel, can_filters, args);
+
+		// Default value if input is null
+		if (channel == null)
+			channel = "channel-0";
+		if (receive_own_messages == null)
+			receive_own_messages = false;
+		if (bitrate == null)
+			bitrate = 500000;
+		if (real_time == null)
+			real_time = true;
+		if (tx_queue_size == null)
+			tx_queue_size = 64;
+		if (rx_queue_size == null)
+			rx_queue_size = 1 << 16;
+
+		this.channel_name = String.valueOf(channel);
+		this.receive_own_messages = receive_own_messages;
+		this.tx_queue_size = tx_queue_size;
+		this.rx_queue = new ArrayBlockingQueue<>(rx_queue_size);
+		this.channel = SimulatedChannel.join(this.channel_name, bitrate, data_bitrate, real_time, this);
+		this.channel_info = String.format("Simulated bus channel %s at %d bit/s", this.channel_name,
+				this.channel.bitrate);
+	}
+
+	public SimulatedBus(Object channel) {
+		this(channel, null, null, null, null, null, null, null, null);
+	}
+
+	/** Called by the transmitter of the channel for every frame this node sent */
+	void transmitted(Message msg) {
+		this._tx_confirmed(msg, msg.timestamp_ns());
+		if (this.receive_own_messages)
+			this.deliver(msg);
+	}
+
+	/** Called by the transmitter of the channel for every frame on the bus */
+	void deliver(Message msg) {
+		while (!this.rx_queue.offer(msg)) {
+			if (this.rx_queue.poll() != null)
+				this.dropped++;
+		}
+	}
+
+	@Override
+	public boolean _recv_internal(Long timeout, RecvResult result) throws Exception {
+		long deadline = timeout == null ? 0 : System.currentTimeMillis() + timeout;
+		while (true) {
+			if (this.channel == null)
+				throw new CanError("Cannot receive on a closed bus: " + this.channel_info);
+			if (this.dropped != this.reported_dropped) {
+				long dropped = this.dropped;
+				logger.warn(String.format("%s: receiver overrun, %d messages lost", this.channel_info,
+						dropped - this.reported_dropped));
+				this.reported_dropped = dropped;
+			}
+
+			long wait = MAX_WAIT_MILLIS;
+			if (timeout != null)
+				wait = Math.min(wait, Math.max(0, deadline - System.currentTimeMillis()));
+			Message msg = this.rx_queue.poll(wait, TimeUnit.MILLISECONDS);
+			if (msg != null)
+				return result.set(msg, false);
+			if (timeout != null && deadline - System.currentTimeMillis() <= 0)
+				return result.set(null, false);
+		}
+	}
+
+	/**
+	 * Queue a message for transmission.
+	 *
+	 * @param timeout milliseconds to wait while the transmit queue is full, null
+	 *                waits indefinitely
+	 */
+	@Override
+	public void send(Message msg, Long timeout) {
+		SimulatedChannel channel = this.channel;
+		if (channel == null) {
+			logger.warn("Cannot send on a closed bus: " + this.channel_info);
+			return;
+		}
+		this._tx_started(msg);
+		try {
+			if (!channel.submit(this, new Message(msg), timeout)) {
+				logger.warn("Error happened when sending message. Transmit queue full: " + this.channel_info);
+				this._tx_failed(msg);
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this._tx_failed(msg);
+			return;
+		}
+		this._count_sent(msg);
+	}
+
+	/**
+	 * Frames are confirmed by the transmitter of the channel at the end of their
+	 * transmission, whether the node receives its own messages or not.
+	 */
+	@Override
+	protected boolean _apply_tx_confirmation(boolean enabled) {
+		return true;
+	}
+
+	/** The transmit latency is measured on the clock of the network */
+	@Override
+	protected long _tx_time_ns() {
+		return this.time_ns();
+	}
+
+	@Override
+	public void send(Message msg) {
+		this.send(msg, null);
+	}
+
+	/**
+	 * @return the current time of the network, the simulated time if it does not
+	 *         run in real time, unit=nanosecond since the epoch
+	 */
+	public long time_ns() {
+		SimulatedChannel channel = this.channel;
+		if (channel == null)
+			return 0;
+		return channel.time_ns();
+	}
+
+	/** @return the time the bus has been occupied by frames, unit=nanosecond */
+	public long busy_ns() {
+		SimulatedChannel channel = this.channel;
+		if (channel == null)
+			return 0;
+		return channel.busy_ns();
+	}
+
+	/** @return how often a frame of this node lost the arbitration */
+	public long arbitration_lost() {
+		return this.arbitration_lost;
+	}
+
+	/** @return the number of messages this bus lost because it read too slowly */
+	public long dropped() {
+		return this.dropped;
+	}
+
+	@Override
+	public void shutdown() {
+		SimulatedChannel channel = this.channel;
+		if (channel != null) {
+			this.channel = null;
+			channel.leave(this);
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package can.interfaces.simulated;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import can.Clock;
+import can.FrameTiming;
+import can.Message;
+
+/**
+ * A named simulated CAN network shared by the {@link SimulatedBus} nodes
+ * joined to it.
+ *
+ * One transmitter thread plays the role of the wire: whenever the bus is idle,
+ * the first frame of every node's transmit queue takes part in the
+ * arbitration, the frame with the highest priority occupies the bus for its
+ * exact duration (see :meth:`~can.FrameTiming.exact_duration`) and is then
+ * delivered to all nodes, timestamped with the end of its transmission. Frames
+ * queued while the bus is busy wait for the next arbitration.
+ *
+ * In real time the transmitter waits until the end of every frame, so senders
+ * are slowed down to the bitrate. In simulated time the network has its own
+ * clock, which jumps to the end of every frame without waiting.
+ */
+class SimulatedChannel implements Runnable {
+
+	/** all channels currently in use, by name */
+	private static final Map<String, SimulatedChannel> channels = new HashMap<>();
+
+	public final String name;
+	public final int bitrate;
+	public final Integer data_bitrate;
+	public final boolean real_time;
+
+	private final Clock clock = Clock.get_default();
+	/** guards the nodes' transmit queues and the state below */
+	final ReentrantLock lock = new ReentrantLock();
+	/** signaled when a frame is queued, a queue has space or a node leaves */
+	final Condition changed = this.lock.newCondition();
+
+	final List<SimulatedBus> members = new ArrayList<>();
+	/**
+	 * end of the last frame. In simulated time also the current time of the
+	 * network. unit=nanosecond
+	 */
+	private long time_ns;
+	/** time the bus was occupied, unit=nanosecond */
+	private long busy_ns;
+	private final Thread thread;
+
+	private SimulatedChannel(String name, int bitrate, Integer data_bitrate, boolean real_time) {
+		this.name = name;
+		this.bitrate = bitrate;
+		this.data_bitrate = data_bitrate;
+		this.real_time = real_time;
+		this.time_ns = this.clock.time_ns();
+
+		this.thread = new Thread(this);
+		this.thread.setName("Simulated bus transmitter for channel " + name);
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Add a bus to the channel with the given name, creating the channel if it
+	 * does not exist yet. The bus parameters are only used when the channel is
+	 * created.
+	 */
+	static SimulatedChannel join(String name, int bitrate, Integer data_bitrate, boolean real_time,
+			SimulatedBus bus) {
+		synchronized (channels) {
+			SimulatedChannel channel = channels.get(name);
+			boolean created = channel == null;
+			if (created) {
+				channel = new SimulatedChannel(name, bitrate, data_bitrate, real_time);
+				channels.put(name, channel);
+			}
+			channel.lock.lock();
+			try {
+				channel.members.add(bus);
+			} finally {
+				channel.lock.unlock();
+			}
+			if (created)
+				channel.thread.start();
+			return channel;
+		}
+	}
+
+	/** Remove a bus from this channel, stopping the channel once it is empty. */
+	void leave(SimulatedBus bus) {
+		synchronized (channels) {
+			this.lock.lock();
+			try {
+				this.members.remove(bus);
+				bus.tx_queue.clear();
+				this.changed.signalAll();
+				if (this.members.isEmpty() && channels.get(this.name) == this)
+					channels.remove(this.name);
+			} finally {
+				this.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Queue a frame for transmission by a node, waiting while its transmit queue
+	 * is full.
+	 *
+	 * @param timeout milliseconds to wait for space, null waits indefinitely
+	 * @return false if the queue stayed full or the node has left the channel
+	 */
+	boolean submit(SimulatedBus node, Message msg, Long timeout) throws InterruptedException {
+		long nanos = timeout == null ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeout);
+		this.lock.lock();
+		try {
+			while (node.tx_queue.size() >= node.tx_queue_size) {
+				if (!this.members.contains(node))
+					return false;
+				if (timeout == null)
+					this.changed.await();
+				else if (nanos <= 0)
+					return false;
+				else
+					nanos = this.changed.awaitNanos(nanos);
+			}
+			if (!this.members.contains(node))
+				return false;
+			node.tx_queue.add(msg);
+			this.changed.signalAll();
+			return true;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/** @return the current time of the network, unit=nanosecond since the epoch */
+	long time_ns() {
+		if (this.real_time)
+			return this.clock.time_ns();
+		this.lock.lock();
+		try {
+			return this.time_ns;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/** @return the time the bus was occupied by frames, unit=nanosecond */
+	long busy_ns() {
+		this.lock.lock();
+		try {
+			return this.busy_ns;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public void run() {
+		// true while the bus has been idle since the end of the last frame
+		boolean idle = true;
+		this.lock.lock();
+		try {
+			while (!this.members.isEmpty()) {
+				// arbitration between the first frames of all queues
+				SimulatedBus winner = null;
+				long winner_priority = 0;
+				for (SimulatedBus node : this.members) {
+					Message head = node.tx_queue.peek();
+					if (head == null)
+						continue;
+					long priority = FrameTiming.arbitration_priority(head);
+					if (winner == null || priority < winner_priority) {
+						winner = node;
+						winner_priority = priority;
+					}
+				}
+				if (winner == null) {
+					this.changed.await();
+					idle = true;
+					continue;
+				}
+				for (SimulatedBus node : this.members) {
+					if (node != winner && !node.tx_queue.isEmpty())
+						node.arbitration_lost++;
+				}
+				Message msg = winner.tx_queue.poll();
+				this.changed.signalAll();
+
+				// frames queued before the end of the last one follow it back to back
+				long start = this.time_ns;
+				if (this.real_time && idle)
+					start = Math.max(start, this.clock.time_ns());
+				idle = false;
+				long end = start + FrameTiming.exact_duration(msg, this.bitrate, this.data_bitrate);
+				this.time_ns = end;
+				this.busy_ns += end - start;
+				if (this.real_time) {
+					// on the wire, frames queued meanwhile wait for the next arbitration
+					long left;
+					while ((left = end - this.clock.time_ns()) > 0) {
+						this.lock.unlock();
+						try {
+							this.clock.park_ns(this, left);
+						} finally {
+							this.lock.lock();
+						}
+					}
+				}
+
+				Message received = new Message(msg);
+				received.timestamp_ns(end);
+				for (SimulatedBus node : this.members) {
+					if (node != winner)
+						node.deliver(received);
+				}
+				// the sender may have left while its frame was on the wire
+				if (this.members.contains(winner))
+					winner.transmitted(received);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,401 @@
+package can.interfaces.socketcan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import can.BusABC;
+import can.CanError;
+import can.Clock;
+import can.Filter;
+import can.Frame;
+import can.Message;
+import can.RecvResult;
+import can.Util;
+import can.interfaces.socketcan.jni.Jsocketcan;
+
+/**
+ * A CAN interface of the Linux kernel, e.g. "can0" or "vcan0", read through a
+ * raw ``AF_CAN`` socket.
+ *
+ * Frames cross the JNI boundary in batches: one ``recvmmsg`` call fetches all
+ * frames already queued by the kernel and :meth:`send_batch` hands a whole
+ * batch to ``sendmmsg``. The filters set by :meth:`~can.BusABC.set_filters`
+ * are installed in the kernel, so frames nobody asked for never reach the
+ * JVM. Receive timestamps are taken by the kernel, or by the controller if
+ * ``hardware_timestamps`` is set and the driver stamps frames with a PTP
+ * hardware clock. The time domain is chosen once when the socket is opened and
+ * mapped to the :class:`~can.Clock` with an offset measured at that time.
+ *
+ * Needs the ``Jsocketcan`` library built from ``src/main/native/Jsocketcan.c``
+ * on ``java.library.path``. A virtual interface for tests is created with:
+ *
+ * <pre>
+ * ip link add dev vcan0 type vcan
+ * ip link set up vcan0
+ * </pre>
+ */
+public class SocketCanBus extends BusABC {
+
+	/** Number of frames fetched from or handed to the kernel per call */
+	static final int BATCH_SIZE = 64;
+
+	public final String channel;
+	public final boolean fd;
+	public final boolean receive_own_messages;
+	public final boolean hardware_timestamps;
+
+	private volatile int socket = -1;
+	/** offset from the receive timestamps to the clock, unit=nanosecond */
+	public long time_offset;
+	public final Clock clock = Clock.get_default();
+	/** true while the kernel filters match the filters of the bus */
+	private volatile boolean is_filtered;
+
+	/** records received but not yet returned, guarded by itself */
+	private final ByteBuffer rx_buffer;
+	private int rx_count;
+	private int rx_index;
+	private final Frame rx_frame = new Frame();
+
+	/** records to send, guarded by itself */
+	private final ByteBuffer tx_buffer;
+	private final Frame tx_frame = new Frame();
+
+	/**
+	 * Open a raw CAN socket on a network interface.
+	 *
+	 * @param channel              name of the interface. Default: "can0"
+	 * @param can_filters          See :meth:`~can.BusABC.set_filters` for
+	 *                             details. Applied by the kernel.
+	 * @param receive_own_messages If true, messages sent by this bus are received
+	 *                             by it as well. Default: false
+	 * @param fd                   If true, CAN FD frames can be sent and received.
+	 *                             Default: false
+	 * @param hardware_timestamps  If true, the controller's receive timestamps are
+	 *                             used when available. Default: false
+	 * @param args                 Unused
+	 * @throws CanError if the library is missing or the interface cannot be opened
+	 */
+	public SocketCanBus(String channel, List<Filter> can_filters, Boolean receive_own_messages, Boolean fd,
+			Boolean hardware_timestamps, String[] args) throws CanError {
+		super();
+
+		// Default value if input is null
+		if (channel == null)
+			channel = "can0";
+		if (receive_own_messages == null)
+			receive_own_messages = false;
+		if (fd == null)
+			fd = false;
+		if (hardware_timestamps == null)
+			hardware_timestamps = false;
+
+		this.channel = channel;
+		this.fd = fd;
+		this.receive_own_messages = receive_own_messages;
+		this.hardware_timestamps = hardware_timestamps;
+		this.channel_info = "SocketCAN channel '" + channel + "'";
+
+		this.rx_buffer = ByteBuffer.allocateDirect(BATCH_SIZE * Jsocketcan.RECORD_SIZE).order(ByteOrder.nativeOrder());
+		this.tx_buffer = ByteBuffer.allocateDirect(BATCH_SIZE * Jsocketcan.RECORD_SIZE).order(ByteOrder.nativeOrder());
+
+		int res;
+		try {
+			res = Jsocketcan.open(channel, fd, receive_own_messages, hardware_timestamps);
+		} catch (UnsatisfiedLinkError | NoClassDefFoundError e) {
+			throw new CanError("The Jsocketcan library is not available", e);
+		}
+		if (res < 0)
+			throw new CanError("Cannot open " + this.channel_info + ": " + Jsocketcan.strerror(-res));
+		this.socket = res;
+		// receive error frames, they are not subject to the filters
+		res = Jsocketcan.set_error_filter(this.socket, Jsocketcan.CAN_ERR_MASK);
+		if (res < 0)
+			logger.warn("Could not enable error frames: " + Jsocketcan.strerror(-res));
+
+		if (hardware_timestamps && Jsocketcan.timestamp_mode(this.socket) != Jsocketcan.TIMESTAMP_HARDWARE)
+			logger.warn("No hardware timestamps on " + this.channel_info + ", using the kernel receive time");
+		// Calculate time offset for absolute timestamps
+		final int socket = this.socket;
+		this.time_offset = this.clock.offset_of(new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return Jsocketcan.time_ns(socket);
+			}
+		});
+
+		this.set_filters(can_filters);
+	}
+
+	public SocketCanBus(String channel) throws CanError {
+		this(channel, null, null, null, null, null);
+	}
+
+	/** @return the ``can_id`` of the kernel filter for a filter */
+	static int kernel_id(Filter filter) {
+		int can_id = (int) filter.can_id;
+		if (filter.extended != null && filter.extended.booleanValue())
+			can_id |= Jsocketcan.CAN_EFF_FLAG;
+		return can_id;
+	}
+
+	/** @return the ``can_mask`` of the kernel filter for a filter */
+	static int kernel_mask(Filter filter) {
+		int can_mask = (int) filter.can_mask & Jsocketcan.CAN_EFF_MASK;
+		// only compare the frame format if the filter asks for one
+		if (filter.extended != null)
+			can_mask |= Jsocketcan.CAN_EFF_FLAG;
+		return can_mask;
+	}
+
+	@Override
+	public void _apply_filters(List<Filter> filters) {
+		int socket = this.socket;
+		if (socket < 0)
+			return;
+
+		int res;
+		if (filters == null || filters.isEmpty()) {
+			res = Jsocketcan.set_receive_all(socket);
+		} else {
+			int[] can_ids = new int[filters.size()];
+			int[] can_masks = new int[filters.size()];
+			for (int i = 0; i < filters.size(); i++) {
+				can_ids[i] = kernel_id(filters.get(i));
+				can_masks[i] = kernel_mask(filters.get(i));
+			}
+			res = Jsocketcan.set_filters(socket, can_ids, can_masks, can_ids.length);
+		}
+		if (res < 0) {
+			// fallback: filter in software
+			logger.warn("Could not set filters: " + Jsocketcan.strerror(-res));
+			this.is_filtered = false;
+			Jsocketcan.set_receive_all(socket);
+			return;
+		}
+		this.is_filtered = true;
+	}
+
+	/** Write a frame as a send record at the given offset. */
+	static void encode(Frame frame, ByteBuffer buffer, int offset) {
+		int can_id;
+		if (frame.is_extended_id)
+			can_id = (int) (frame.arbitration_id & Jsocketcan.CAN_EFF_MASK) | Jsocketcan.CAN_EFF_FLAG;
+		else
+			can_id = (int) (frame.arbitration_id & Jsocketcan.CAN_SFF_MASK);
+		int length = frame.length;
+		int flags = 0;
+		if (frame.is_fd) {
+			// the kernel only takes lengths with a DLC code, pad with zeros
+			length = Util.dlc2len(Util.len2dlc(length));
+			if (frame.bitrate_switch)
+				flags |= Jsocketcan.CANFD_BRS;
+			if (frame.error_state_indicator)
+				flags |= Jsocketcan.CANFD_ESI;
+		} else {
+			length = Math.min(length, 8);
+			if (frame.is_remote_frame)
+				can_id |= Jsocketcan.CAN_RTR_FLAG;
+		}
+
+		int base = offset + Jsocketcan.RECORD_FRAME;
+		buffer.putLong(offset, frame.is_fd ? Jsocketcan.CANFD_MTU : Jsocketcan.CAN_MTU);
+		buffer.putInt(base + Jsocketcan.FRAME_CAN_ID, can_id);
+		buffer.put(base + Jsocketcan.FRAME_LEN, (byte) length);
+		buffer.put(base + Jsocketcan.FRAME_FLAGS, (byte) flags);
+		buffer.putShort(base + Jsocketcan.FRAME_FLAGS + 1, (short) 0);
+		int payload = frame.is_remote_frame ? 0 : Math.min(frame.length, length);
+		for (int i = 0; i < payload; i++) {
+			buffer.put(base + Jsocketcan.FRAME_DATA + i, frame.data[i]);
+		}
+		for (int i = payload; i < length; i++) {
+			buffer.put(base + Jsocketcan.FRAME_DATA + i, (byte) 0);
+		}
+	}
+
+	/** Read the received record at the given offset into a frame, with its timestamp as received. */
+	static void decode(ByteBuffer buffer, int offset, Frame frame) {
+		int base = offset + Jsocketcan.RECORD_FRAME;
+		int can_id = buffer.getInt(base + Jsocketcan.FRAME_CAN_ID);
+		int flags = buffer.get(base + Jsocketcan.FRAME_FLAGS);
+
+		frame.timestamp_ns(buffer.getLong(offset));
+		frame.is_extended_id = (can_id & Jsocketcan.CAN_EFF_FLAG) != 0;
+		frame.is_error_frame = (can_id & Jsocketcan.CAN_ERR_FLAG) != 0;
+		frame.is_fd = (flags & Jsocketcan.CANFD_FDF) != 0;
+		frame.is_remote_frame = !frame.is_fd && (can_id & Jsocketcan.CAN_RTR_FLAG) != 0;
+		frame.bitrate_switch = (flags & Jsocketcan.CANFD_BRS) != 0;
+		frame.error_state_indicator = (flags & Jsocketcan.CANFD_ESI) != 0;
+		if (frame.is_extended_id || frame.is_error_frame)
+			frame.arbitration_id = can_id & Jsocketcan.CAN_EFF_MASK;
+		else
+			frame.arbitration_id = can_id & Jsocketcan.CAN_SFF_MASK;
+
+		int length = Math.min(buffer.get(base + Jsocketcan.FRAME_LEN) & 0xFF, Frame.MAX_DATA_LENGTH);
+		int payload = frame.is_remote_frame ? 0 : length;
+		for (int i = 0; i < payload; i++) {
+			frame.data[i] = buffer.get(base + Jsocketcan.FRAME_DATA + i);
+		}
+		for (int i = payload; i < frame.length; i++) {
+			frame.data[i] = 0;
+		}
+		frame.length = length;
+	}
+
+	/**
+	 * Take the next received frame, fetching a new batch from the kernel if all
+	 * received ones have been returned. Called with the rx buffer locked.
+	 *
+	 * @param timeout milliseconds to wait, null waits indefinitely
+	 * @return false on timeout
+	 */
+	private boolean next(Frame frame, Long timeout) throws CanError {
+		if (this.rx_index == this.rx_count) {
+			int socket = this.socket;
+			if (socket < 0)
+				throw new CanError("Cannot receive on a closed bus: " + this.channel_info);
+			int timeout_ms = timeout == null ? -1 : (int) Math.min(Math.max(timeout, 0), Integer.MAX_VALUE);
+			int res = Jsocketcan.recv_batch(socket, this.rx_buffer, BATCH_SIZE, timeout_ms);
+			if (res < 0)
+				throw new CanError("Error receiving on " + this.channel_info + ": " + Jsocketcan.strerror(-res));
+			this.rx_index = 0;
+			this.rx_count = res;
+			if (res == 0)
+				return false;
+		}
+		decode(this.rx_buffer, this.rx_index++ * Jsocketcan.RECORD_SIZE, frame);
+		frame.timestamp_ns(frame.timestamp_ns() + this.time_offset);
+		return true;
+	}
+
+	@Override
+	public boolean _recv_internal(Long timeout, RecvResult result) throws CanError {
+		synchronized (this.rx_buffer) {
+			if (!this.next(this.rx_frame, timeout))
+				return result.set(null, false);
+			return result.set(this.rx_frame.to_message(), this.is_filtered);
+		}
+	}
+
+	/** Return the frames of one ``recvmmsg`` call. */
+	@Override
+	public int recv_batch(Message[] out, int max, Long timeout) throws Exception {
+		if (max > out.length)
+			max = out.length;
+		if (max <= 0)
+			return 0;
+
+		long deadline = timeout == null ? 0 : System.currentTimeMillis() + timeout;
+		synchronized (this.rx_buffer) {
+			int count = 0;
+			while (count == 0) {
+				Long left = timeout == null ? null : Math.max(0, deadline - System.currentTimeMillis());
+				if (!this.next(this.rx_frame, left))
+					return 0;
+				do {
+					if (this.is_filtered || this._match_filters(this.rx_frame)) {
+						Message msg = this.rx_frame.to_message();
+						this._count_received(msg);
+						out[count++] = msg;
+					}
+				} while (count < max && this.rx_index < this.rx_count && this.next(this.rx_frame, 0L));
+			}
+			return count;
+		}
+	}
+
+	/** Decode the frame straight from the receive buffer, without a message. */
+	@Override
+	public boolean recv_into(Frame frame, Long timeout) throws Exception {
+		long deadline = timeout == null ? 0 : System.currentTimeMillis() + timeout;
+		synchronized (this.rx_buffer) {
+			while (true) {
+				Long left = timeout == null ? null : Math.max(0, deadline - System.currentTimeMillis());
+				if (!this.next(frame, left))
+					return false;
+				if (this.is_filtered || this._match_filters(frame)) {
+					this._count_received(frame);
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send a message, blocking while the transmit queue of the interface is full,
+	 * up to ``timeout`` milliseconds. A message which could not be queued in time
+	 * is dropped with a warning.
+	 */
+	@Override
+	public void send(Message msg, Long timeout) {
+		synchronized (this.tx_buffer) {
+			this.tx_frame.copy_from(msg);
+			encode(this.tx_frame, this.tx_buffer, 0);
+			if (this.transmit(1, timeout) == 1)
+				this._count_sent(msg);
+		}
+	}
+
+	@Override
+	public void send(Message msg) {
+		this.send(msg, null);
+	}
+
+	/**
+	 * Send the messages with ``sendmmsg``, up to {@link #BATCH_SIZE} per call,
+	 * stopping when the timeout expires while the transmit queue is full.
+	 */
+	@Override
+	public int send_batch(Message[] msgs, int count, Long timeout) {
+		long deadline = timeout == null ? 0 : System.currentTimeMillis() + timeout;
+		synchronized (this.tx_buffer) {
+			for (int start = 0; start < count; start += BATCH_SIZE) {
+				int batch = Math.min(BATCH_SIZE, count - start);
+				for (int i = 0; i < batch; i++) {
+					this.tx_frame.copy_from(msgs[start + i]);
+					encode(this.tx_frame, this.tx_buffer, i * Jsocketcan.RECORD_SIZE);
+				}
+				Long left = timeout == null ? null : Math.max(0, deadline - System.currentTimeMillis());
+				int sent = this.transmit(batch, left);
+				for (int i = 0; i < sent; i++) {
+					this._count_sent(msgs[start + i]);
+				}
+				if (sent < batch)
+					return start + sent;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param timeout milliseconds to wait for room in the transmit queue, null
+	 *                waits indefinitely
+	 * @return the number of records of the tx buffer sent
+	 */
+	private int transmit(int count, Long timeout) {
+		int socket = this.socket;
+		if (socket < 0) {
+			logger.warn("Cannot send on a closed bus: " + this.channel_info);
+			return 0;
+		}
+		int timeout_ms = timeout == null ? -1 : (int) Math.min(Math.max(timeout, 0), Integer.MAX_VALUE);
+		int res = Jsocketcan.send_batch(socket, this.tx_buffer, count, timeout_ms);
+		if (res < 0) {
+			logger.warn("Error happened when sending message. " + Jsocketcan.strerror(-res));
+			return 0;
+		}
+		if (res < count)
+			logger.warn(String.format("Error happened when sending message. %d of %d messages sent", res, count));
+		return res;
+	}
+
+	@Override
+	public void shutdown() {
+		int socket = this.socket;
+		this.socket = -1;
+		if (socket >= 0)
+			Jsocketcan.close(socket);
+	}
+}
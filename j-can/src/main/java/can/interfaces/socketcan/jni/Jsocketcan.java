@@ -0,0 +1,121 @@
+package can.interfaces.socketcan.jni;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Thin JNI binding of raw ``AF_CAN`` sockets, implemented by
+ * ``src/main/native/Jsocketcan.c``.
+ *
+ * Frames are exchanged through direct buffers of {@link #RECORD_SIZE} byte
+ * records in native byte order, so a batch crosses the JNI boundary without
+ * copying Java arrays:
+ *
+ * <pre>
+ * record: timestamp ns on receive, MTU on send (8) | struct canfd_frame (72)
+ * </pre>
+ *
+ * Functions return a negative errno on failure, see :meth:`strerror`.
+ */
+public class Jsocketcan {
+	static {
+		System.loadLibrary("Jsocketcan");
+	}
+
+	public static final int RECORD_SIZE = 80;
+	/** offset of the canfd_frame in a record */
+	public static final int RECORD_FRAME = 8;
+
+	// struct canfd_frame
+	public static final int FRAME_CAN_ID = 0;
+	public static final int FRAME_LEN = 4;
+	public static final int FRAME_FLAGS = 5;
+	public static final int FRAME_DATA = 8;
+
+	public static final int CAN_MTU = 16;
+	public static final int CANFD_MTU = 72;
+
+	public static final int CAN_EFF_FLAG = 0x80000000;
+	public static final int CAN_RTR_FLAG = 0x40000000;
+	public static final int CAN_ERR_FLAG = 0x20000000;
+	public static final int CAN_SFF_MASK = 0x000007FF;
+	public static final int CAN_EFF_MASK = 0x1FFFFFFF;
+	public static final int CAN_ERR_MASK = 0x1FFFFFFF;
+
+	public static final int CANFD_BRS = 0x01;
+	public static final int CANFD_ESI = 0x02;
+	public static final int CANFD_FDF = 0x04;
+
+	public static final int EAGAIN = 11;
+	public static final int EINTR = 4;
+
+	/** receive timestamps taken by the kernel, on ``CLOCK_REALTIME`` */
+	public static final int TIMESTAMP_SOFTWARE = 1;
+	/** receive timestamps taken by the controller, on its PTP hardware clock */
+	public static final int TIMESTAMP_HARDWARE = 2;
+
+	/**
+	 * Open a raw CAN socket bound to an interface.
+	 *
+	 * @param ifname              interface name, e.g. "can0" or "vcan0"
+	 * @param fd                  enable CAN FD frames
+	 * @param receive_own         receive the frames sent on this socket
+	 * @param hardware_timestamps request hardware receive timestamps, used if
+	 *                            the controller stamps frames with a clock that
+	 *                            can be read, see :meth:`timestamp_mode`
+	 * @return the socket or a negative errno
+	 */
+	public static native int open(String ifname, boolean fd, boolean receive_own, boolean hardware_timestamps);
+
+	public static native int close(int socket);
+
+	/**
+	 * @return the time domain of the receive timestamps of a socket, chosen when
+	 *         it was opened: :attr:`TIMESTAMP_SOFTWARE` or
+	 *         :attr:`TIMESTAMP_HARDWARE`
+	 */
+	public static native int timestamp_mode(int socket);
+
+	/**
+	 * @return the current time in the domain of the receive timestamps of a
+	 *         socket, unit=nanosecond
+	 */
+	public static native long time_ns(int socket);
+
+	/**
+	 * Replace the kernel filters, ``CAN_RAW_FILTER``. No filter receives
+	 * nothing, see :meth:`set_receive_all`.
+	 */
+	public static native int set_filters(int socket, int[] can_ids, int[] can_masks, int count);
+
+	/** Receive every frame, the default of a new socket */
+	public static native int set_receive_all(int socket);
+
+	/** Select the error frames to receive, ``CAN_RAW_ERR_FILTER`` */
+	public static native int set_error_filter(int socket, int err_mask);
+
+	/**
+	 * Receive up to ``max`` frames with one ``recvmmsg`` call.
+	 *
+	 * @param buffer     direct buffer of at least ``max`` records
+	 * @param timeout_ms time to wait for the first frame, negative waits
+	 *                   indefinitely
+	 * @return the number of records written, 0 on timeout, or a negative errno
+	 */
+	public static native int recv_batch(int socket, ByteBuffer buffer, int max, int timeout_ms);
+
+	/**
+	 * Send ``count`` frames with ``sendmmsg``, blocking while the transmit queue
+	 * is full.
+	 *
+	 * @param buffer     direct buffer of ``count`` records, each starting with its
+	 *                   MTU
+	 * @param timeout_ms time to wait for room in the transmit queue, negative
+	 *                   waits indefinitely
+	 * @return the number of frames sent, fewer than ``count`` if the timeout
+	 *         expired, or a negative errno
+	 */
+	public static native int send_batch(int socket, ByteBuffer buffer, int count, int timeout_ms);
+
+	/** @return the message of an errno */
+	public static native String strerror(int errno);
+}
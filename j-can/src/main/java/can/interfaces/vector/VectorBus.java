@@ -5,10 +5,14 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.LongSupplier;
 
 import can.BusABC;
+import can.Clock;
 import can.Filter;
+import can.Frame;
 import can.Message;
+import can.RecvResult;
 import can.Util;
 import can.interfaces.vector.jni.Jvxlapi;
 import can.interfaces.vector.jni.XLcanFdConf;
@@ -31,8 +35,20 @@ public class VectorBus extends BusABC {
 	public Map<Integer, Integer> index_to_channel;
 	public XLcanFdConf canFdConf;
 	public long[] event_handle;
+	/** offset from the hardware time to the clock, unit=nanosecond */
 	public long time_offset;
+	public final Clock clock = Clock.get_default();
 	public boolean is_filtered;
+	/** deliver the echoes of sent messages to the reader */
+	public boolean receive_own_messages;
+
+	/** frame decoded by :meth:`recv_into` before it is known to match */
+	private final ThreadLocal<Frame> scratch_frame = new ThreadLocal<Frame>() {
+		@Override
+		protected Frame initialValue() {
+			return new Frame();
+		}
+	};
 
 	public VectorBus(int[] channels, List<Filter> can_filters, Long poll_interval, Boolean receive_own_messages,
 			Integer bitrate, Integer rx_queue_size, String app_name, Integer serial, Boolean fd, Integer data_bitrate,
@@ -68,6 +84,7 @@ public class VectorBus extends BusABC {
 			this.poll_interval = poll_interval;
 		}
 		this.channels = channels;
+		this.receive_own_messages = receive_own_messages;
 
 		if (app_name != null) {
 			this.app_name = app_name;
@@ -218,9 +235,15 @@ public class VectorBus extends BusABC {
 		}
 
 		// Calculate time offset for absolute timestamps
-		long[] offset = new long[1];
-		Jvxlapi.xlGetSyncTime(this.port_handle[0], offset);
-		this.time_offset = System.currentTimeMillis() - offset[0] * 1000;
+		// the hardware timestamps are in nanoseconds
+		this.time_offset = this.clock.offset_of(new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				long[] time = new long[1];
+				Jvxlapi.xlGetSyncTime(VectorBus.this.port_handle[0], time);
+				return time[0];
+			}
+		});
 
 		this.is_filtered = false;
 	}
@@ -259,13 +282,14 @@ public class VectorBus extends BusABC {
 	}
 
 	@Override
-	public Map<String, Object> _recv_internal(Long timeout) throws Exception {
+	public boolean _recv_internal(Long timeout, RecvResult result) throws Exception {
 		Long end_time = null;
 		if (timeout != null)
 			end_time = System.currentTimeMillis() + timeout;
 
 		XLcanRxEvent rxEvent = new XLcanRxEvent();
 		while (true) {
+			Message msg = null;
 			if (this.fd) {
 				try {
 					check_status(Jvxlapi.xlCanReceive(this.port_handle[0], rxEvent), "xlCanReceive");
@@ -274,26 +298,11 @@ public class VectorBus extends BusABC {
 						throw e;
 					}
 				}
-				if (rxEvent.tag == Jvxlapi.XL_CAN_EV_TAG_RX_OK || rxEvent.tag == Jvxlapi.XL_CAN_EV_TAG_TX_OK) {
-					long msg_id = rxEvent.canRxOkMsg.canId;
-					int dlc = Util.dlc2len(rxEvent.canRxOkMsg.dlc);
-					int flags = rxEvent.canRxOkMsg.msgFlags;
-					long timestamp = rxEvent.timeStampSync * 1000 + this.time_offset;
-					int channel = this.index_to_channel.get((rxEvent.channelIndex));
-					boolean is_extended_id = ((msg_id & Jvxlapi.XL_CAN_EXT_MSG_ID) != 0) ? true : false;
-					boolean is_remote_frame = ((flags & Jvxlapi.XL_CAN_RXMSG_FLAG_RTR) != 0) ? true : false;
-					boolean is_error_frame = ((flags & Jvxlapi.XL_CAN_RXMSG_FLAG_EF) != 0) ? true : false;
-					boolean is_fd = ((flags & Jvxlapi.XL_CAN_RXMSG_FLAG_EDL) != 0) ? true : false;
-					boolean error_state_indicator = ((flags & Jvxlapi.XL_CAN_RXMSG_FLAG_ESI) != 0) ? true : false;
-					Message msg = new Message(timestamp, msg_id, is_extended_id, is_remote_frame, is_error_frame,
-							channel, dlc, Arrays.copyOfRange(rxEvent.canRxOkMsg.data, 0, dlc), is_fd, null,
-							error_state_indicator, null);
-					Map<String, Object> ret = new HashMap<>();
-					ret.put("Message", msg);
-					ret.put("already_filtered", this.is_filtered);
-					return ret;
+				msg = this.to_message(rxEvent);
+				if (msg != null && rxEvent.tag == Jvxlapi.XL_CAN_EV_TAG_TX_OK && this.consume_echo(msg)) {
+					rxEvent = new XLcanRxEvent();
+					continue;
 				}
-
 			} else {
 				XLevent[] event = new XLevent[1];
 				int[] event_count = { 1 };
@@ -304,124 +313,472 @@ public class VectorBus extends BusABC {
 //						throw e;
 					}
 				}
+				msg = this.to_message(event[0]);
+				if (msg != null && is_tx_receipt(event[0]) && this.consume_echo(msg)) {
+					continue;
+				}
+			}
+
+			if (msg != null || !this.wait_for_event(end_time)) {
+				return result.set(msg, this.is_filtered);
+			}
+		}
+
+	}
+
+	/**
+	 * Fetch up to ``max`` events from the driver per call. In CAN mode
+	 * ``xlReceive`` delivers the whole batch at once, in CAN FD mode
+	 * ``xlCanReceive`` is called until the receive queue is empty.
+	 */
+	@Override
+	public int recv_batch(Message[] out, int max, Long timeout) throws Exception {
+		if (max > out.length)
+			max = out.length;
+		if (max <= 0)
+			return 0;
 
-				if (event[0] != null) {
-					if (event[0].tag == Jvxlapi.XL_RECEIVE_MSG) {
-						long msg_id = event[0].tagData.id & 0x1FFFFFFF;
-						int dlc = event[0].tagData.dlc;
-						int flags = event[0].tagData.flags;
-						long timestamp = event[0].timeStamp * 1000 + this.time_offset;
-						int channel = this.index_to_channel.get((event[0].chanIndex));
-						boolean is_extended_id = ((msg_id & Jvxlapi.XL_CAN_EXT_MSG_ID) != 0) ? true : false;
-						boolean is_remote_frame = ((flags & Jvxlapi.XL_CAN_MSG_FLAG_REMOTE_FRAME) != 0) ? true : false;
-						boolean is_error_frame = ((flags & Jvxlapi.XL_CAN_MSG_FLAG_ERROR_FRAME) != 0) ? true : false;
-						Message msg = new Message(timestamp, msg_id, is_extended_id, is_remote_frame, is_error_frame,
-								channel, dlc, Arrays.copyOfRange(event[0].tagData.data, 0, dlc), false, null, null,
-								null);
-						Map<String, Object> ret = new HashMap<>();
-						ret.put("Message", msg);
-						ret.put("already_filtered", this.is_filtered);
-						return ret;
+		Long end_time = null;
+		if (timeout != null)
+			end_time = System.currentTimeMillis() + timeout;
+
+		XLevent[] events = null;
+		int count = 0;
+		while (true) {
+			if (this.fd) {
+				while (count < max) {
+					XLcanRxEvent rxEvent = new XLcanRxEvent();
+					try {
+						check_status(Jvxlapi.xlCanReceive(this.port_handle[0], rxEvent), "xlCanReceive");
+					} catch (VectorError e) {
+						if (e.error_code != Jvxlapi.XL_ERR_QUEUE_IS_EMPTY) {
+							throw e;
+						}
+						break;
+					}
+					Message msg = this.to_message(rxEvent);
+					if (msg != null && rxEvent.tag == Jvxlapi.XL_CAN_EV_TAG_TX_OK && this.consume_echo(msg)) {
+						continue;
+					}
+					if (msg != null && (this.is_filtered || this._match_filters(msg))) {
+						this._count_received(msg);
+						out[count++] = msg;
+					}
+				}
+			} else {
+				if (events == null)
+					events = new XLevent[max];
+				int[] event_count = { max };
+				try {
+					check_status(Jvxlapi.xlReceive(this.port_handle[0], event_count, events), "xlReceive");
+				} catch (VectorError e) {
+					event_count[0] = 0;
+				}
+				for (int i = 0; i < event_count[0]; i++) {
+					Message msg = this.to_message(events[i]);
+					boolean echo = is_tx_receipt(events[i]);
+					events[i] = null;
+					if (msg != null && echo && this.consume_echo(msg)) {
+						continue;
+					}
+					if (msg != null && (this.is_filtered || this._match_filters(msg))) {
+						this._count_received(msg);
+						out[count++] = msg;
 					}
 				}
 			}
 
-			if (end_time != null) {
-				if (System.currentTimeMillis() > end_time) {
-					Map<String, Object> ret = new HashMap<>();
-					ret.put("Message", null);
-					ret.put("already_filtered", this.is_filtered);
-					return ret;
-				}
+			if (count > 0 || !this.wait_for_event(end_time)) {
+				return count;
 			}
+		}
+	}
 
-			// wait for receive event to occur
-			long time_left_ms = 0;
-			if (timeout == null) {
-				time_left_ms = 0xFFFFFFFF;// INFINITE timeout
+	/**
+	 * Decode the driver events directly into the frame, without creating a
+	 * :class:`~can.Message` nor copying the payload to a new array.
+	 */
+	@Override
+	public boolean recv_into(Frame frame, Long timeout) throws Exception {
+		Long end_time = null;
+		if (timeout != null)
+			end_time = System.currentTimeMillis() + timeout;
+
+		// decoded into a scratch frame, the caller's one is unchanged on timeout
+		Frame scratch = this.scratch_frame.get();
+		XLcanRxEvent rxEvent = null;
+		XLevent[] event = null;
+		while (true) {
+			boolean received = false;
+			if (this.fd) {
+				if (rxEvent == null)
+					rxEvent = new XLcanRxEvent();
+				try {
+					check_status(Jvxlapi.xlCanReceive(this.port_handle[0], rxEvent), "xlCanReceive");
+					received = this.to_frame(rxEvent, scratch);
+					if (received && rxEvent.tag == Jvxlapi.XL_CAN_EV_TAG_TX_OK && this.consume_echo(scratch)) {
+						continue;
+					}
+				} catch (VectorError e) {
+					if (e.error_code != Jvxlapi.XL_ERR_QUEUE_IS_EMPTY) {
+						throw e;
+					}
+				}
 			} else {
-				time_left_ms = end_time - System.currentTimeMillis();
+				if (event == null)
+					event = new XLevent[1];
+				int[] event_count = { 1 };
+				try {
+					check_status(Jvxlapi.xlReceive(this.port_handle[0], event_count, event), "xlReceive");
+					received = this.to_frame(event[0], scratch);
+				} catch (VectorError e) {
+				}
+				boolean echo = received && is_tx_receipt(event[0]);
+				event[0] = null;
+				if (echo && this.consume_echo(scratch)) {
+					continue;
+				}
+			}
+
+			if (received && (this.is_filtered || this._match_filters(scratch))) {
+				frame.copy_from(scratch);
+				this._count_received(frame);
+				return true;
+			}
+			if (!received && !this.wait_for_event(end_time)) {
+				return false;
+			}
+			if (received && end_time != null && System.currentTimeMillis() > end_time) {
+				return false;
 			}
-			logger.debug("wait for " + time_left_ms + "ms.");
-			Jvxlapi.WaitForSingleObject(this.port_handle[0], time_left_ms);
 		}
+	}
+
+	/** @return true if a CAN receive event is the receipt of a message sent by this bus */
+	private static boolean is_tx_receipt(XLevent event) {
+		return event != null && (event.tagData.flags & Jvxlapi.XL_CAN_MSG_FLAG_TX_COMPLETED) != 0;
+	}
+
+	/**
+	 * Confirm a sent message with its receipt, see
+	 * :meth:`~can.BusABC.enable_tx_confirmation`.
+	 * 
+	 * @return true if the receipt is not passed to the reader
+	 */
+	private boolean consume_echo(Message msg) {
+		this._tx_confirmed(msg, msg.timestamp_ns());
+		return !this.receive_own_messages;
+	}
+
+	/** Same as :meth:`consume_echo` for a pooled frame */
+	private boolean consume_echo(Frame frame) {
+		this._tx_confirmed(frame);
+		return !this.receive_own_messages;
+	}
+
+	/**
+	 * Wait for the driver to signal a receive event.
+	 * 
+	 * @param end_time absolute time in milliseconds to give up waiting, null waits
+	 *                 indefinitely
+	 * @return false if end_time has already passed
+	 */
+	private boolean wait_for_event(Long end_time) {
+		if (end_time != null) {
+			if (System.currentTimeMillis() > end_time) {
+				return false;
+			}
+		}
+
+		// wait for receive event to occur
+		long time_left_ms = 0;
+		if (end_time == null) {
+			time_left_ms = 0xFFFFFFFF;// INFINITE timeout
+		} else {
+			time_left_ms = end_time - System.currentTimeMillis();
+		}
+		logger.debug("wait for " + time_left_ms + "ms.");
+		Jvxlapi.WaitForSingleObject(this.port_handle[0], time_left_ms);
+		return true;
+	}
 
+	/** @return the message carried by a CAN FD receive event, or null */
+	private Message to_message(XLcanRxEvent rxEvent) throws Exception {
+		if (rxEvent.tag != Jvxlapi.XL_CAN_EV_TAG_RX_OK && rxEvent.tag != Jvxlapi.XL_CAN_EV_TAG_TX_OK) {
+			return null;
+		}
+		long msg_id = rxEvent.canRxOkMsg.canId;
+		int dlc = Util.dlc2len(rxEvent.canRxOkMsg.dlc);
+		int flags = rxEvent.canRxOkMsg.msgFlags;
+		long timestamp = rxEvent.timeStampSync + this.time_offset;
+		int channel = this.index_to_channel.get((rxEvent.channelIndex));
+		boolean is_extended_id = ((msg_id & Jvxlapi.XL_CAN_EXT_MSG_ID) != 0) ? true : false;
+		msg_id &= 0x1FFFFFFF;
+		boolean is_remote_frame = ((flags & Jvxlapi.XL_CAN_RXMSG_FLAG_RTR) != 0) ? true : false;
+		boolean is_error_frame = ((flags & Jvxlapi.XL_CAN_RXMSG_FLAG_EF) != 0) ? true : false;
+		boolean is_fd = ((flags & Jvxlapi.XL_CAN_RXMSG_FLAG_EDL) != 0) ? true : false;
+		boolean error_state_indicator = ((flags & Jvxlapi.XL_CAN_RXMSG_FLAG_ESI) != 0) ? true : false;
+		Message msg = new Message(Math.floorDiv(timestamp, 1_000_000L), msg_id, is_extended_id, is_remote_frame,
+				is_error_frame, channel, dlc, Arrays.copyOfRange(rxEvent.canRxOkMsg.data, 0, dlc), is_fd, null,
+				error_state_indicator, null);
+		msg.timestamp_ns(timestamp);
+		return msg;
+	}
+
+	/** @return the message carried by a CAN receive event, or null */
+	private Message to_message(XLevent event) throws Exception {
+		if (event == null || event.tag != Jvxlapi.XL_RECEIVE_MSG) {
+			return null;
+		}
+		long msg_id = event.tagData.id & 0x1FFFFFFF;
+		int dlc = event.tagData.dlc;
+		int flags = event.tagData.flags;
+		long timestamp = event.timeStamp + this.time_offset;
+		int channel = this.index_to_channel.get((event.chanIndex));
+		boolean is_extended_id = ((event.tagData.id & Jvxlapi.XL_CAN_EXT_MSG_ID) != 0) ? true : false;
+		boolean is_remote_frame = ((flags & Jvxlapi.XL_CAN_MSG_FLAG_REMOTE_FRAME) != 0) ? true : false;
+		boolean is_error_frame = ((flags & Jvxlapi.XL_CAN_MSG_FLAG_ERROR_FRAME) != 0) ? true : false;
+		Message msg = new Message(Math.floorDiv(timestamp, 1_000_000L), msg_id, is_extended_id, is_remote_frame,
+				is_error_frame, channel, dlc, Arrays.copyOfRange(event.tagData.data, 0, dlc), false, null, null, null);
+		msg.timestamp_ns(timestamp);
+		return msg;
+	}
+
+	/** Fill the frame with a CAN FD receive event, false if it carries no message */
+	private boolean to_frame(XLcanRxEvent rxEvent, Frame frame) {
+		if (rxEvent.tag != Jvxlapi.XL_CAN_EV_TAG_RX_OK && rxEvent.tag != Jvxlapi.XL_CAN_EV_TAG_TX_OK) {
+			return false;
+		}
+		long msg_id = rxEvent.canRxOkMsg.canId;
+		int flags = rxEvent.canRxOkMsg.msgFlags;
+		frame.timestamp_ns(rxEvent.timeStampSync + this.time_offset);
+		frame.arbitration_id = msg_id & 0x1FFFFFFF;
+		frame.is_extended_id = (msg_id & Jvxlapi.XL_CAN_EXT_MSG_ID) != 0;
+		frame.is_remote_frame = (flags & Jvxlapi.XL_CAN_RXMSG_FLAG_RTR) != 0;
+		frame.is_error_frame = (flags & Jvxlapi.XL_CAN_RXMSG_FLAG_EF) != 0;
+		frame.is_fd = (flags & Jvxlapi.XL_CAN_RXMSG_FLAG_EDL) != 0;
+		frame.bitrate_switch = (flags & Jvxlapi.XL_CAN_RXMSG_FLAG_BRS) != 0;
+		frame.error_state_indicator = (flags & Jvxlapi.XL_CAN_RXMSG_FLAG_ESI) != 0;
+		frame.channel = this.index_to_channel.get((rxEvent.channelIndex));
+		frame.set_data(rxEvent.canRxOkMsg.data, 0, Util.dlc2len(rxEvent.canRxOkMsg.dlc));
+		return true;
+	}
+
+	/** Fill the frame with a CAN receive event, false if it carries no message */
+	private boolean to_frame(XLevent event, Frame frame) {
+		if (event == null || event.tag != Jvxlapi.XL_RECEIVE_MSG) {
+			return false;
+		}
+		long msg_id = event.tagData.id;
+		int flags = event.tagData.flags;
+		frame.timestamp_ns(event.timeStamp + this.time_offset);
+		frame.arbitration_id = msg_id & 0x1FFFFFFF;
+		frame.is_extended_id = (msg_id & Jvxlapi.XL_CAN_EXT_MSG_ID) != 0;
+		frame.is_remote_frame = (flags & Jvxlapi.XL_CAN_MSG_FLAG_REMOTE_FRAME) != 0;
+		frame.is_error_frame = (flags & Jvxlapi.XL_CAN_MSG_FLAG_ERROR_FRAME) != 0;
+		frame.is_fd = false;
+		frame.bitrate_switch = false;
+		frame.error_state_indicator = false;
+		frame.channel = this.index_to_channel.get((event.chanIndex));
+		frame.set_data(event.tagData.data, 0, Math.min(event.tagData.dlc, 8));
+		return true;
 	}
 
 	@Override
 	public void send(Message msg, Long timeout) {
-		long msg_id = msg.arbitration_id;
-		if (msg.is_extended_id) {
-			msg_id |= Jvxlapi.XL_CAN_EXT_MSG_ID;
-		}
-		int flags = 0;
-		// If channel has been specified, try to send only to that one.
-		// Otherwise send to all channels
-		long mask = this.mask;
-		if (this.channel_masks.containsKey(msg.channel))
-			mask = this.channel_masks.get(msg.channel);
+		long mask = this.channel_mask(msg);
 
 		if (this.fd) {
-			if (msg.is_fd) {
-				flags |= Jvxlapi.XL_CAN_TXMSG_FLAG_EDL;
-			}
-			if (msg.bitrate_switch) {
-				flags |= Jvxlapi.XL_CAN_TXMSG_FLAG_BRS;
-			}
-			if (msg.is_remote_frame) {
-				flags |= Jvxlapi.XL_CAN_TXMSG_FLAG_RTR;
-			}
 			int message_count = 1;
 			int[] MsgCntSent = { 1 };
 			XLcanTxEvent[] xl_events = new XLcanTxEvent[1];
-			XLcanTxEvent xLcanTxEvent = new XLcanTxEvent();
-			xLcanTxEvent.tag = Jvxlapi.XL_CAN_EV_TAG_TX_MSG;
-			xLcanTxEvent.transId = 0xffff;
-			xLcanTxEvent.tagData.id = msg_id;
-			xLcanTxEvent.tagData.flags = flags;
-			xLcanTxEvent.tagData.dlc = Util.len2dlc(msg.dlc);
-
-			for (int i = 0; i < msg.data.length; i++) {
-				xLcanTxEvent.tagData.data[i] = msg.data[i];
-			}
-			xl_events[0] = xLcanTxEvent;
+			xl_events[0] = this.to_xl_can_tx_event(msg);
+			this._tx_started(msg);
 			try {
 				check_status(Jvxlapi.xlCanTransmitEx(this.port_handle[0], mask, message_count, MsgCntSent, xl_events),
 						"xlCanTransmitEx");
+				this._count_sent(msg);
 			} catch (VectorError e) {
 				logger.warn("Error happened when sending message. " + e.getMessage());
+				this._tx_failed(msg);
 			}
 		} else {
-			if (msg.is_remote_frame) {
-				flags |= Jvxlapi.XL_CAN_MSG_FLAG_REMOTE_FRAME;
-			}
 			int[] message_count = { 1 };
 			XLevent[] xl_events = new XLevent[1];
-			XLevent xlevent = new XLevent();
-			xlevent.tag = Jvxlapi.XL_TRANSMIT_MSG;
-			xlevent.tagData.id = msg_id;
-			xlevent.tagData.dlc = msg.dlc;
-			xlevent.tagData.flags = flags;
-			for (int i = 0; i < msg.data.length; i++) {
-				xlevent.tagData.data[i] = msg.data[i];
-			}
-			xl_events[0] = xlevent;
+			xl_events[0] = this.to_xl_event(msg);
+			this._tx_started(msg);
 			try {
 				check_status(Jvxlapi.xlCanTransmit(this.port_handle[0], mask, message_count, xl_events),
 						"xlCanTransmit");
+				this._count_sent(msg);
 			} catch (VectorError e) {
 				logger.warn("Error happened when sending message. " + e.getMessage());
+				this._tx_failed(msg);
 			}
 		}
 
 	}
 
+	/**
+	 * Hand consecutive messages for the same channel to the driver in one
+	 * ``xlCanTransmit`` / ``xlCanTransmitEx`` call, stopping at the first call
+	 * which does not send all its messages. The driver does not block, the
+	 * timeout is not used.
+	 */
+	@Override
+	public int send_batch(Message[] msgs, int count, Long timeout) {
+		int first = 0;
+		while (first < count) {
+			long mask = this.channel_mask(msgs[first]);
+			int last = first + 1;
+			while (last < count && this.channel_mask(msgs[last]) == mask) {
+				last++;
+			}
+			int message_count = last - first;
+
+			if (this.fd) {
+				int[] MsgCntSent = { 0 };
+				XLcanTxEvent[] xl_events = new XLcanTxEvent[message_count];
+				for (int i = 0; i < message_count; i++) {
+					xl_events[i] = this.to_xl_can_tx_event(msgs[first + i]);
+					this._tx_started(msgs[first + i]);
+				}
+				int sent = 0;
+				try {
+					check_status(Jvxlapi.xlCanTransmitEx(this.port_handle[0], mask, message_count, MsgCntSent,
+							xl_events), "xlCanTransmitEx");
+					sent = MsgCntSent[0];
+					for (int i = 0; i < sent; i++) {
+						this._count_sent(msgs[first + i]);
+					}
+				} catch (VectorError e) {
+					logger.warn("Error happened when sending messages. " + e.getMessage());
+				}
+				for (int i = sent; i < message_count; i++) {
+					this._tx_failed(msgs[first + i]);
+				}
+				if (sent < message_count)
+					return first + sent;
+			} else {
+				int[] message_counts = { message_count };
+				XLevent[] xl_events = new XLevent[message_count];
+				for (int i = 0; i < message_count; i++) {
+					xl_events[i] = this.to_xl_event(msgs[first + i]);
+					this._tx_started(msgs[first + i]);
+				}
+				int sent = 0;
+				try {
+					check_status(Jvxlapi.xlCanTransmit(this.port_handle[0], mask, message_counts, xl_events),
+							"xlCanTransmit");
+					sent = message_counts[0];
+					for (int i = 0; i < sent; i++) {
+						this._count_sent(msgs[first + i]);
+					}
+				} catch (VectorError e) {
+					logger.warn("Error happened when sending messages. " + e.getMessage());
+				}
+				for (int i = sent; i < message_count; i++) {
+					this._tx_failed(msgs[first + i]);
+				}
+				if (sent < message_count)
+					return first + sent;
+			}
+			first = last;
+		}
+		return count;
+	}
+
+	/**
+	 * If channel has been specified, try to send only to that one. Otherwise send
+	 * to all channels
+	 */
+	private long channel_mask(Message msg) {
+		Long mask = this.channel_masks.get(msg.channel);
+		if (mask != null)
+			return mask;
+		return this.mask;
+	}
+
+	/** @return the CAN FD transmit event for a message */
+	private XLcanTxEvent to_xl_can_tx_event(Message msg) {
+		long msg_id = msg.arbitration_id;
+		if (msg.is_extended_id) {
+			msg_id |= Jvxlapi.XL_CAN_EXT_MSG_ID;
+		}
+		int flags = 0;
+		if (msg.is_fd) {
+			flags |= Jvxlapi.XL_CAN_TXMSG_FLAG_EDL;
+		}
+		if (msg.bitrate_switch) {
+			flags |= Jvxlapi.XL_CAN_TXMSG_FLAG_BRS;
+		}
+		if (msg.is_remote_frame) {
+			flags |= Jvxlapi.XL_CAN_TXMSG_FLAG_RTR;
+		}
+		XLcanTxEvent xLcanTxEvent = new XLcanTxEvent();
+		xLcanTxEvent.tag = Jvxlapi.XL_CAN_EV_TAG_TX_MSG;
+		xLcanTxEvent.transId = 0xffff;
+		xLcanTxEvent.tagData.id = msg_id;
+		xLcanTxEvent.tagData.flags = flags;
+		xLcanTxEvent.tagData.dlc = Util.len2dlc(msg.dlc);
+
+		for (int i = 0; i < msg.data.length; i++) {
+			xLcanTxEvent.tagData.data[i] = msg.data[i];
+		}
+		return xLcanTxEvent;
+	}
+
+	/** @return the CAN transmit event for a message */
+	private XLevent to_xl_event(Message msg) {
+		long msg_id = msg.arbitration_id;
+		if (msg.is_extended_id) {
+			msg_id |= Jvxlapi.XL_CAN_EXT_MSG_ID;
+		}
+		int flags = 0;
+		if (msg.is_remote_frame) {
+			flags |= Jvxlapi.XL_CAN_MSG_FLAG_REMOTE_FRAME;
+		}
+		XLevent xlevent = new XLevent();
+		xlevent.tag = Jvxlapi.XL_TRANSMIT_MSG;
+		xlevent.tagData.id = msg_id;
+		xlevent.tagData.dlc = msg.dlc;
+		xlevent.tagData.flags = flags;
+		for (int i = 0; i < msg.data.length; i++) {
+			xlevent.tagData.data[i] = msg.data[i];
+		}
+		return xlevent;
+	}
+
 	@Override
 	public void send(Message msg) {
 		this.send(msg, null);
 
 	}
 
+	/**
+	 * Switch the TX receipts of the driver on, they are kept on while own
+	 * messages are received.
+	 */
+	@Override
+	protected boolean _apply_tx_confirmation(boolean enabled) {
+		int tx_receipts = 0;
+		if (enabled || this.receive_own_messages)
+			tx_receipts = 1;
+		try {
+			check_status(Jvxlapi.xlCanSetChannelMode(this.port_handle[0], this.mask, tx_receipts, 0),
+					"xlCanSetChannelMode");
+		} catch (VectorError e) {
+			logger.warn("Could not set the channel mode: " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected long _tx_time_ns() {
+		return this.clock.time_ns();
+	}
+
 	@Override
 	public void flush_tx_buffer() {
 		try {
@@ -31,6 +31,7 @@ public class VectorError extends CanError {
 
 	public VectorError(int error_code, String error_string, String function) {
 		super(function + " failed " + error_string);
+		this.error_code = error_code;
 	}
 
 }
@@ -0,0 +1,193 @@
+package can.interfaces.virtual;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import can.BusABC;
+import can.CanError;
+import can.Clock;
+import can.Filter;
+import can.Message;
+import can.RecvResult;
+
+/**
+ * A virtual CAN bus using an in-process message ring.
+ *
+ * Any number of VirtualBus instances can join the same channel (identified by
+ * its name) and will receive every message sent by the others, without any
+ * hardware being involved. This makes it the transport of choice for tests and
+ * throughput measurements of the upper layers.
+ *
+ * Sending never blocks: if a receiver does not keep up and falls more than
+ * ``rx_queue_size`` messages behind, the oldest messages are lost for that
+ * receiver only (see {@link #dropped()}).
+ */
+public class VirtualBus extends BusABC {
+
+	/** Number of empty polls before a receiving thread is parked. */
+	private static final int SPIN_TRIES = 100;
+
+	/** Longest single park while waiting without timeout, unit=nanosecond */
+	private static final long MAX_PARK_NANOS = 100_000_000L;
+
+	private static final AtomicLong next_id = new AtomicLong();
+
+	public final String channel_name;
+	public boolean receive_own_messages;
+	public boolean preserve_timestamps;
+
+	private final long id;
+	private final Clock clock = Clock.get_default();
+	private volatile VirtualChannel channel;
+	private final VirtualChannel.Cursor cursor;
+	private long reported_dropped;
+
+	/** thread currently parked in {@link #_recv_internal(Long, RecvResult)}, if any */
+	volatile Thread waiter;
+
+	/**
+	 * Join a virtual channel.
+	 *
+	 * @param channel              name of the channel to join, any object is
+	 *                             converted with {@link String#valueOf(Object)}.
+	 *                             Default: "channel-0"
+	 * @param can_filters          See :meth:`~can.BusABC.set_filters` for
+	 *                             details.
+	 * @param receive_own_messages If true, messages sent by this bus are received
+	 *                             by it as well. Default: false
+	 * @param rx_queue_size        Number of messages kept by the channel for
+	 *                             readers, rounded up to a power of two. Only used
+	 *                             by the first bus joining the channel. Default:
+	 *                             2^16
+	 * @param preserve_timestamps  If true, the timestamp of sent messages is kept,
+	 *                             else it is set to the time of sending. Default:
+	 *                             false
+	 * @param args                 Unused
+	 */
+	public VirtualBus(Object channel, List<Filter> can_filters, Boolean receive_own_messages, Integer rx_queue_size,
+			Boolean preserve_timestamps, String[] args) {
+		super(channel, can_filters, args);
+
+		// Default value if input is null
+		if (channel == null)
+			channel = "channel-0";
+		if (receive_own_messages == null)
+			receive_own_messages = false;
+		if (rx_queue_size == null)
+			rx_queue_size = 1 << 16;
+		if (preserve_timestamps == null)
+			preserve_timestamps = false;
+
+		this.channel_name = String.valueOf(channel);
+		this.receive_own_messages = receive_own_messages;
+		this.preserve_timestamps = preserve_timestamps;
+		this.channel_info = "Virtual bus channel " + this.channel_name;
+
+		this.id = next_id.incrementAndGet();
+		this.channel = VirtualChannel.join(this.channel_name, rx_queue_size, this);
+		// only messages sent after joining are received
+		this.cursor = new VirtualChannel.Cursor(this.channel.head());
+	}
+
+	public VirtualBus(Object channel) {
+		this(channel, null, null, null, null, null);
+	}
+
+	@Override
+	public boolean _recv_internal(Long timeout, RecvResult result) throws CanError {
+		return result.set(this.poll(timeout), false);
+	}
+
+	/**
+	 * Wait for the next message of the channel, skipping own messages if they are
+	 * not wanted.
+	 *
+	 * @param timeout milliseconds to wait, null waits indefinitely
+	 * @return the message or null on timeout
+	 * @throws CanError if the bus has been shut down
+	 */
+	private Message poll(Long timeout) throws CanError {
+		long deadline = 0;
+		if (timeout != null)
+			deadline = System.nanoTime() + timeout * 1_000_000L;
+
+		int spins = 0;
+		while (true) {
+			VirtualChannel channel = this.channel;
+			if (channel == null)
+				throw new CanError("Cannot receive on a closed bus: " + this.channel_info);
+
+			Message msg = channel.read(this.cursor);
+			if (msg != null) {
+				if (this.cursor.sender_id != this.id || this.receive_own_messages)
+					return msg;
+				continue;
+			}
+			if (this.cursor.dropped != this.reported_dropped) {
+				logger.warn(String.format("%s: receiver overrun, %d messages lost", this.channel_info,
+						this.cursor.dropped - this.reported_dropped));
+				this.reported_dropped = this.cursor.dropped;
+				continue;
+			}
+
+			long time_left = MAX_PARK_NANOS;
+			if (timeout != null) {
+				time_left = deadline - System.nanoTime();
+				if (time_left <= 0)
+					return null;
+			}
+			if (spins < SPIN_TRIES) {
+				spins++;
+				continue;
+			}
+			channel.await(this, this.cursor, Math.min(time_left, MAX_PARK_NANOS));
+		}
+	}
+
+	@Override
+	public void send(Message msg, Long timeout) {
+		VirtualChannel channel = this.channel;
+		if (channel == null) {
+			logger.warn("Cannot send on a closed bus: " + this.channel_info);
+			return;
+		}
+		Message msg_copy = new Message(msg);
+		if (!this.preserve_timestamps)
+			msg_copy.timestamp_ns(this.clock.time_ns());
+		this._tx_started(msg);
+		channel.publish(msg_copy, this.id);
+		this._count_sent(msg_copy);
+		// the channel has no transmission delay, the message is on the bus once published
+		this._tx_confirmed(msg_copy, this.clock.time_ns());
+	}
+
+	/** Messages are confirmed as soon as they are published to the channel. */
+	@Override
+	protected boolean _apply_tx_confirmation(boolean enabled) {
+		return true;
+	}
+
+	@Override
+	protected long _tx_time_ns() {
+		return this.clock.time_ns();
+	}
+
+	@Override
+	public void send(Message msg) {
+		this.send(msg, null);
+	}
+
+	/** @return the number of messages this bus lost because it read too slowly */
+	public long dropped() {
+		return this.cursor.dropped;
+	}
+
+	@Override
+	public void shutdown() {
+		VirtualChannel channel = this.channel;
+		if (channel != null) {
+			this.channel = null;
+			channel.leave(this);
+		}
+	}
+}
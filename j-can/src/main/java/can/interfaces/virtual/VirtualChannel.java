@@ -0,0 +1,180 @@
+package can.interfaces.virtual;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import can.Message;
+
+/**
+ * A named in-process channel shared by any number of {@link VirtualBus}
+ * instances.
+ *
+ * Messages are written into a bounded ring of slots. Every slot carries the
+ * sequence number of the message it holds, so each member can keep its own read
+ * cursor and consume every message (fan-out) without taking a lock. Senders
+ * claim a sequence number with a single atomic increment and never wait for
+ * slow readers: a reader that falls more than one ring behind skips ahead and
+ * counts the lost messages.
+ */
+class VirtualChannel {
+
+	/** Value of a slot sequence while the slot is being (re)written. */
+	private static final long WRITING = -1L;
+
+	/** all channels currently in use, by name */
+	private static final Map<String, VirtualChannel> channels = new HashMap<>();
+
+	public final String name;
+	public final int capacity;
+	private final int mask;
+
+	private final AtomicReferenceArray<Message> slots;
+	private final AtomicLongArray senders;
+	private final AtomicLongArray sequences;
+	/** next sequence number to be claimed by a sender */
+	private final AtomicLong tail = new AtomicLong();
+	/** number of members currently parked in {@link #await} */
+	private final AtomicInteger sleepers = new AtomicInteger();
+
+	final List<VirtualBus> members = new CopyOnWriteArrayList<>();
+
+	private VirtualChannel(String name, int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.name = name;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.senders = new AtomicLongArray(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			// nothing has been published yet
+			this.sequences.set(i, Long.MIN_VALUE);
+		}
+	}
+
+	/**
+	 * Add a bus to the channel with the given name, creating the channel if it
+	 * does not exist yet. The capacity is only used when the channel is created.
+	 */
+	static VirtualChannel join(String name, int capacity, VirtualBus bus) {
+		synchronized (channels) {
+			VirtualChannel channel = channels.get(name);
+			if (channel == null) {
+				channel = new VirtualChannel(name, capacity);
+				channels.put(name, channel);
+			}
+			channel.members.add(bus);
+			return channel;
+		}
+	}
+
+	/** Remove a bus from this channel, dropping the channel once it is empty. */
+	void leave(VirtualBus bus) {
+		synchronized (channels) {
+			this.members.remove(bus);
+			if (this.members.isEmpty() && channels.get(this.name) == this) {
+				channels.remove(this.name);
+			}
+		}
+	}
+
+	/** @return the sequence number the next sent message will get */
+	long head() {
+		return this.tail.get();
+	}
+
+	/** Append a message to the ring and wake up parked readers. */
+	void publish(Message msg, long sender_id) {
+		long seq = this.tail.getAndIncrement();
+		int idx = (int) (seq & this.mask);
+		this.sequences.set(idx, WRITING);
+		this.slots.set(idx, msg);
+		this.senders.set(idx, sender_id);
+		this.sequences.set(idx, seq);
+
+		if (this.sleepers.get() > 0) {
+			for (VirtualBus member : this.members) {
+				Thread waiter = member.waiter;
+				if (waiter != null) {
+					LockSupport.unpark(waiter);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the message with the given sequence number into the cursor.
+	 *
+	 * @return the message, or null if it has not been published yet. When the
+	 *         reader has been overrun, {@link Cursor#next} is moved to the oldest
+	 *         message still available and null is returned.
+	 */
+	Message read(Cursor cursor) {
+		long seq = cursor.next;
+		int idx = (int) (seq & this.mask);
+		long published = this.sequences.get(idx);
+		if (published == seq) {
+			Message msg = this.slots.get(idx);
+			long sender_id = this.senders.get(idx);
+			if (this.sequences.get(idx) == seq) {
+				cursor.next = seq + 1;
+				cursor.sender_id = sender_id;
+				return msg;
+			}
+			// overwritten while reading
+			published = WRITING;
+		}
+		if (published == WRITING || published > seq) {
+			long oldest = this.tail.get() - this.capacity;
+			if (oldest > seq) {
+				cursor.dropped += oldest - seq;
+				cursor.next = oldest;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Park the calling thread until a new message is published or the given time
+	 * has elapsed. The ring is checked once more after registering as waiter, so a
+	 * message published in between is never missed.
+	 *
+	 * @param bus    the member which is going to wait
+	 * @param cursor the reader cursor of that member
+	 * @param nanos  maximum time to park, unit=nanosecond
+	 */
+	void await(VirtualBus bus, Cursor cursor, long nanos) {
+		bus.waiter = Thread.currentThread();
+		this.sleepers.incrementAndGet();
+		try {
+			if (this.sequences.get((int) (cursor.next & this.mask)) >= cursor.next) {
+				return;
+			}
+			LockSupport.parkNanos(this, nanos);
+		} finally {
+			this.sleepers.decrementAndGet();
+			bus.waiter = null;
+		}
+	}
+
+	/** Read position of one member of the channel. */
+	static class Cursor {
+		/** sequence number of the next message to read */
+		long next;
+		/** id of the bus that sent the last message read */
+		long sender_id;
+		/** number of messages lost because this reader was too slow */
+		long dropped;
+
+		Cursor(long next) {
+			this.next = next;
+		}
+	}
+}
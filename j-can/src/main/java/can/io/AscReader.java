@@ -0,0 +1,192 @@
+package can.io;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+import can.Frame;
+
+/**
+ * Reads Vector ASC log files.
+ *
+ * CAN, CAN FD and error frame lines are read; other events are skipped. The
+ * timestamps of the file are relative to the start of the measurement given by
+ * the ``date`` header, they are converted to absolute times if the date can be
+ * parsed. Channels are numbered from 1 in ASC files and from 0 here.
+ *
+ * <pre>
+ *    0.012345 1  123             Rx   d 8 01 02 03 04 05 06 07 08
+ *    0.012400 2  18DAF110x       Tx   r 4
+ *    0.012500 CANFD   1 Rx        123                                   1 0 d 12 ...
+ *    0.012600 1  ErrorFrame
+ * </pre>
+ */
+public class AscReader extends TextLogReader {
+
+	/** Format of the ``date`` header */
+	static final String DATE_FORMAT = "EEE MMM dd hh:mm:ss.SSS a yyyy";
+
+	/** flags of CANFD lines */
+	static final int FD_FLAG_REMOTE_FRAME = 0x0010;
+	static final int FD_FLAG_EDL = 0x1000;
+	static final int FD_FLAG_BRS = 0x2000;
+	static final int FD_FLAG_ESI = 0x4000;
+
+	/** start of the measurement, unit=nanosecond */
+	private long start = 0;
+	private int radix = 16;
+
+	public AscReader(String path) throws IOException {
+		super(path);
+	}
+
+	public AscReader(ReadableByteChannel channel) {
+		super(channel);
+	}
+
+	/** @return the start of the measurement given in the header, unit=millisecond */
+	public long start_time() {
+		return this.start / 1_000_000L;
+	}
+
+	@Override
+	long parse_line(LineScanner s, Frame frame) {
+		s.skip_spaces();
+		if (s.match_token("date")) {
+			this.parse_date(s.rest());
+			return SKIP;
+		}
+		if (s.match_token("base")) {
+			if (s.match_token("dec"))
+				this.radix = 10;
+			else if (s.match_token("hex"))
+				this.radix = 16;
+			return SKIP;
+		}
+
+		long time = s.seconds();
+		if (time < 0)
+			return SKIP;
+		s.skip_spaces();
+		long timestamp = this.start + time;
+
+		if (s.match_token("CANFD"))
+			return this.parse_fd(s, frame, timestamp);
+
+		long channel = s.decimal();
+		if (s.digits == 0)
+			return SKIP;
+		s.skip_spaces();
+
+		frame.reset();
+		frame.timestamp_ns(timestamp);
+		frame.channel = (int) Math.max(channel - 1, 0);
+
+		if (s.match_token("ErrorFrame")) {
+			frame.is_error_frame = true;
+			return timestamp;
+		}
+		if (!this.parse_id(s, frame))
+			return SKIP;
+		if (!s.match_token("Rx") && !s.match_token("Tx"))
+			return SKIP;
+
+		if (s.match_token("r")) {
+			frame.is_remote_frame = true;
+			long dlc = s.hex();
+			if (s.digits > 0)
+				frame.length = (int) Math.min(dlc, 8);
+			return timestamp;
+		}
+		if (!s.match_token("d"))
+			return SKIP;
+		long dlc = s.hex();
+		if (s.digits == 0)
+			return SKIP;
+		s.skip_spaces();
+		return this.parse_data(s, frame, (int) Math.min(dlc, 8)) ? timestamp : SKIP;
+	}
+
+	/** ``CANFD <channel> <dir> <id> [name] <brs> <esi> <dlc> <length> <data> ...`` */
+	private long parse_fd(LineScanner s, Frame frame, long timestamp) {
+		long channel = s.decimal();
+		if (s.digits == 0)
+			return SKIP;
+		s.skip_spaces();
+		if (!s.match_token("Rx") && !s.match_token("Tx"))
+			return SKIP;
+
+		frame.reset();
+		frame.timestamp_ns(timestamp);
+		frame.channel = (int) Math.max(channel - 1, 0);
+		if (!this.parse_id(s, frame))
+			return SKIP;
+		// optional symbolic name
+		if (s.token_length() != 1)
+			s.skip_token();
+
+		long brs = s.decimal();
+		s.skip_spaces();
+		long esi = s.decimal();
+		s.skip_spaces();
+		s.hex(); // DLC
+		s.skip_spaces();
+		long length = s.decimal();
+		if (s.digits == 0 || length > Frame.MAX_DATA_LENGTH)
+			return SKIP;
+		s.skip_spaces();
+		if (!this.parse_data(s, frame, (int) length))
+			return SKIP;
+
+		frame.is_fd = true;
+		frame.bitrate_switch = brs != 0;
+		frame.error_state_indicator = esi != 0;
+
+		// message duration, message length, flags
+		s.skip_token();
+		s.skip_token();
+		long flags = s.hex();
+		if (s.digits > 0) {
+			frame.is_fd = (flags & FD_FLAG_EDL) != 0;
+			if ((flags & FD_FLAG_REMOTE_FRAME) != 0) {
+				frame.is_remote_frame = true;
+			}
+		}
+		return timestamp;
+	}
+
+	/** Parse an ID, followed by ``x`` for extended IDs */
+	private boolean parse_id(LineScanner s, Frame frame) {
+		long id = s.number(this.radix);
+		if (s.digits == 0)
+			return false;
+		frame.arbitration_id = id;
+		frame.is_extended_id = s.skip('x');
+		s.skip_spaces();
+		return true;
+	}
+
+	private boolean parse_data(LineScanner s, Frame frame, int length) {
+		for (int i = 0; i < length; i++) {
+			long value = s.number(this.radix);
+			if (s.digits == 0)
+				return false;
+			frame.data[i] = (byte) value;
+			s.skip_spaces();
+		}
+		frame.length = length;
+		return true;
+	}
+
+	private void parse_date(String date) {
+		SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT, Locale.ENGLISH);
+		try {
+			this.start = format.parse(date.trim()).getTime() * 1_000_000L;
+		} catch (ParseException e) {
+			// relative timestamps only
+			this.start = 0;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package can.io;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import can.Clock;
+import can.Frame;
+
+/**
+ * Writes Vector ASC log files, see {@link AscReader}.
+ *
+ * The measurement starts with the first message written: its time is the date
+ * of the header and the timestamps of the file are relative to it.
+ */
+public class AscWriter extends TextLogWriter {
+
+	private static final int CANFD_SYMBOLIC_NAME_WIDTH = 32;
+
+	/** start of the measurement, unit=nanosecond, -1 before the first message */
+	private long start = -1;
+
+	public AscWriter(String path) throws IOException {
+		super(path);
+	}
+
+	public AscWriter(WritableByteChannel channel) {
+		super(channel);
+	}
+
+	private void format_header(long timestamp) throws IOException {
+		this.start = timestamp;
+		SimpleDateFormat format = new SimpleDateFormat(AscReader.DATE_FORMAT, Locale.ENGLISH);
+		String date = format.format(new Date(timestamp / 1_000_000L));
+		// Vector writes am/pm in lower case
+		date = date.replace(" AM ", " am ").replace(" PM ", " pm ");
+		this.out.reserve(512);
+		this.out.append("date ").append(date).append('\n');
+		this.out.append("base hex  timestamps absolute\n");
+		this.out.append("internal events logged\n");
+		this.out.append("// version 9.0.0\n");
+		this.out.append("Begin Triggerblock ").append(date).append('\n');
+		this.out.append("   0.000000 Start of measurement\n");
+	}
+
+	@Override
+	void format(Frame frame, long timestamp) throws IOException {
+		if (this.start < 0)
+			this.format_header(timestamp);
+		TextBuffer out = this.out.reserve(512);
+
+		long time = Math.max(timestamp - this.start, 0);
+		out.decimal_right(time / 1_000_000_000L, 4).append('.').decimal(time % 1_000_000_000L / 1000, 6).append(' ');
+		int channel = frame.channel + 1;
+
+		if (frame.is_error_frame) {
+			out.decimal(channel).append("  ErrorFrame\n");
+			return;
+		}
+
+		if (frame.is_fd) {
+			out.append("CANFD ").decimal_right(channel, 3).append(" Rx   ");
+			int id_length = this.format_id(frame);
+			out.spaces(Math.max(8 - id_length, 0) + 2 + CANFD_SYMBOLIC_NAME_WIDTH + 2);
+			out.append(frame.bitrate_switch ? '1' : '0').append(' ');
+			out.append(frame.error_state_indicator ? '1' : '0').append(' ');
+			out.hex(frame.dlc()).append(' ').decimal_right(frame.length, 2);
+			for (int i = 0; i < frame.length; i++) {
+				out.append(' ').hex(frame.data[i] & 0xFF, 2);
+			}
+			int flags = AscReader.FD_FLAG_EDL;
+			if (frame.bitrate_switch)
+				flags |= AscReader.FD_FLAG_BRS;
+			if (frame.error_state_indicator)
+				flags |= AscReader.FD_FLAG_ESI;
+			// message duration, message length, flags, CRC, bit timings
+			out.append("        0    0 ").spaces(8 - 4).hex(flags, 4);
+			out.append("        0        0        0        0        0\n");
+			return;
+		}
+
+		out.decimal(channel).append("  ");
+		int id_length = this.format_id(frame);
+		out.spaces(Math.max(15 - id_length, 0) + 1).append("Rx   ");
+		if (frame.is_remote_frame) {
+			out.append("r ").hex(frame.length).append('\n');
+			return;
+		}
+		out.append("d ").hex(frame.length);
+		for (int i = 0; i < frame.length; i++) {
+			out.append(' ').hex(frame.data[i] & 0xFF, 2);
+		}
+		out.append('\n');
+	}
+
+	/** @return the number of characters written */
+	private int format_id(Frame frame) {
+		long id = frame.arbitration_id & (frame.is_extended_id ? 0x1FFFFFFF : 0x7FF);
+		int digits = 1;
+		while ((id >>> (4 * digits)) != 0)
+			digits++;
+		this.out.hex(id, digits);
+		if (frame.is_extended_id) {
+			this.out.append('x');
+			digits++;
+		}
+		return digits;
+	}
+
+	@Override
+	void format_footer() throws IOException {
+		if (this.start < 0)
+			this.format_header(Clock.get_default().time_ns());
+		this.out.reserve(64).append("End TriggerBlock\n");
+	}
+}
@@ -0,0 +1,93 @@
+package can.io;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+import can.Frame;
+
+/**
+ * Reads log files of the Linux can-utils ``candump -l`` command:
+ *
+ * <pre>
+ * (1436509052.249713) can0 123#DEADBEEF
+ * (1436509052.250000) can0 18DAF110#0210
+ * (1436509052.251000) can1 123#R4
+ * (1436509052.252000) can1 123##1112233445566778899AABB
+ * </pre>
+ *
+ * Extended IDs are written with 8 digits. The channel of a message is the
+ * number the interface name ends with (1 for ``vcan1``).
+ */
+public class CandumpReader extends TextLogReader {
+
+	/** SocketCAN flag of error frames in the ID */
+	static final long CAN_ERR_FLAG = 0x20000000L;
+	/** SocketCAN CAN FD flags */
+	static final int CANFD_BRS = 0x01;
+	static final int CANFD_ESI = 0x02;
+
+	public CandumpReader(String path) throws IOException {
+		super(path);
+	}
+
+	public CandumpReader(ReadableByteChannel channel) {
+		super(channel);
+	}
+
+	@Override
+	long parse_line(LineScanner s, Frame frame) {
+		s.skip_spaces();
+		if (!s.skip('('))
+			return SKIP;
+		long timestamp = s.seconds();
+		if (timestamp < 0 || !s.skip(')'))
+			return SKIP;
+		s.skip_spaces();
+		if (s.at_end())
+			return SKIP;
+		int channel = (int) s.skip_token_number();
+
+		long id = s.hex();
+		int digits = s.digits;
+		if (digits == 0 || !s.skip('#'))
+			return SKIP;
+
+		frame.reset();
+		frame.timestamp_ns(timestamp);
+		frame.channel = channel;
+		if (digits > 3) {
+			frame.is_extended_id = true;
+			frame.is_error_frame = (id & CAN_ERR_FLAG) != 0;
+			id &= 0x1FFFFFFF;
+		}
+		frame.arbitration_id = id;
+
+		if (s.skip('#')) {
+			int flags = LineScanner.hex_value(s.peek());
+			if (flags < 0)
+				return SKIP;
+			s.pos++;
+			frame.is_fd = true;
+			frame.bitrate_switch = (flags & CANFD_BRS) != 0;
+			frame.error_state_indicator = (flags & CANFD_ESI) != 0;
+		} else if (s.skip('R')) {
+			frame.is_remote_frame = true;
+			int length = LineScanner.hex_value(s.peek());
+			if (length > 0 && length <= 8) {
+				s.pos++;
+				frame.length = length;
+			}
+			return timestamp;
+		}
+
+		int length = 0;
+		int value;
+		while (length < Frame.MAX_DATA_LENGTH && (value = s.hex_byte()) >= 0) {
+			frame.data[length++] = (byte) value;
+			// optional separator of candump -S
+			s.skip('.');
+		}
+		frame.length = length;
+		return timestamp;
+	}
+}
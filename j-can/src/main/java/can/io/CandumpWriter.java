@@ -0,0 +1,73 @@
+package can.io;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import can.Frame;
+
+/**
+ * Writes log files in the format of the Linux can-utils ``candump -l``
+ * command, see {@link CandumpReader}. They can be replayed with ``canplayer``.
+ */
+public class CandumpWriter extends TextLogWriter {
+
+	/** Default prefix of the interface names, followed by the channel number */
+	public static final String DEFAULT_INTERFACE_PREFIX = "can";
+
+	private final String interface_prefix;
+
+	/**
+	 * @param path             the file to write
+	 * @param interface_prefix name of the interfaces without the channel number,
+	 *                         e.g. "vcan". Default: "can"
+	 */
+	public CandumpWriter(String path, String interface_prefix) throws IOException {
+		super(path);
+		this.interface_prefix = interface_prefix == null ? DEFAULT_INTERFACE_PREFIX : interface_prefix;
+	}
+
+	public CandumpWriter(String path) throws IOException {
+		this(path, null);
+	}
+
+	public CandumpWriter(WritableByteChannel channel, String interface_prefix) {
+		super(channel);
+		this.interface_prefix = interface_prefix == null ? DEFAULT_INTERFACE_PREFIX : interface_prefix;
+	}
+
+	@Override
+	void format(Frame frame, long timestamp) throws IOException {
+		TextBuffer out = this.out.reserve(256);
+		out.append('(').decimal(timestamp / 1_000_000_000L, 10).append('.')
+				.decimal(timestamp % 1_000_000_000L / 1000, 6).append(") ");
+		out.append(this.interface_prefix).decimal(frame.channel).append(' ');
+
+		if (frame.is_error_frame) {
+			out.hex(frame.arbitration_id & 0x1FFFFFFF | CandumpReader.CAN_ERR_FLAG, 8);
+		} else if (frame.is_extended_id) {
+			out.hex(frame.arbitration_id & 0x1FFFFFFF, 8);
+		} else {
+			out.hex(frame.arbitration_id & 0x7FF, 3);
+		}
+		out.append('#');
+
+		if (frame.is_fd) {
+			int flags = 0;
+			if (frame.bitrate_switch)
+				flags |= CandumpReader.CANFD_BRS;
+			if (frame.error_state_indicator)
+				flags |= CandumpReader.CANFD_ESI;
+			out.append('#').hex(flags, 1);
+		} else if (frame.is_remote_frame) {
+			out.append('R');
+			if (frame.length > 0 && frame.length <= 8)
+				out.hex(frame.length, 1);
+			out.append('\n');
+			return;
+		}
+		for (int i = 0; i < frame.length; i++) {
+			out.hex(frame.data[i] & 0xFF, 2);
+		}
+		out.append('\n');
+	}
+}
@@ -0,0 +1,352 @@
+package can.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.Frame;
+import can.Listener;
+import can.Message;
+
+/**
+ * Always-on circular recorder of the most recent messages, to be dumped to a
+ * trace file when something goes wrong.
+ *
+ * Messages are stored in a fixed size direct buffer using the record layout of
+ * {@link TraceFormat}, the oldest records being overwritten. Like
+ * {@link TraceWriter}, recording a message only claims a slot with an atomic
+ * increment and copies the fields, without locking nor allocating. Each slot
+ * has a stamp telling which record it holds and whether it is complete, so a
+ * dump running concurrently with the writers skips the slots being
+ * overwritten.
+ *
+ * :meth:`dump` writes the records to a trace readable by {@link TraceReader}.
+ * :meth:`trigger` does the same into :attr:`directory` in the background, for
+ * the error handlers of the upper layers; triggers closer than ``holdoff`` to
+ * the previous dump are ignored, so a burst of errors only produces one file.
+ *
+ * The recorder is a :class:`~can.Listener`, so it can be registered on a
+ * :class:`~can.Notifier`.
+ */
+public class FlightRecorder implements Listener {
+	private static final Logger logger = LoggerFactory.getLogger(FlightRecorder.class);
+
+	/** Default size of the buffer, unit=byte */
+	public static final int DEFAULT_CAPACITY = 64 << 20;
+	/** Default time span dumped by :meth:`trigger`, unit=millisecond */
+	public static final long DEFAULT_WINDOW = 10_000;
+	/** Default minimum delay between two triggered dumps, unit=millisecond */
+	public static final long DEFAULT_HOLDOFF = 10_000;
+
+	/** writes the triggered dumps, one at a time */
+	private static final ExecutorService DUMPER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r);
+			thread.setName("flight recorder dump");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final ByteBuffer buffer;
+	private final int slots;
+	/** 2 * seq + 1 while record ``seq`` is written in its slot, 2 * seq + 2 once complete */
+	private final AtomicLongArray stamps;
+	/** sequence number of the next record */
+	private final AtomicLong sequence = new AtomicLong();
+
+	public final File directory;
+	private final long window;
+	private final long holdoff;
+	/** time of the last triggered dump, unit=nanosecond */
+	private final AtomicLong last_trigger = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * @param capacity  size of the buffer, unit=byte. Default: 64 MiB, about 800k
+	 *                  messages
+	 * @param directory where :meth:`trigger` writes its dumps. Default: the
+	 *                  temporary directory
+	 * @param window    time span before the newest message dumped by
+	 *                  :meth:`trigger`, unit=millisecond. Default: 10 s
+	 * @param holdoff   minimum delay between two triggered dumps,
+	 *                  unit=millisecond. Default: 10 s
+	 */
+	public FlightRecorder(Integer capacity, File directory, Long window, Long holdoff) {
+		// Default value if input is null
+		if (capacity == null) {
+			capacity = DEFAULT_CAPACITY;
+		}
+		if (directory == null) {
+			directory = new File(System.getProperty("java.io.tmpdir"));
+		}
+		if (window == null) {
+			window = DEFAULT_WINDOW;
+		}
+		if (holdoff == null) {
+			holdoff = DEFAULT_HOLDOFF;
+		}
+		if (capacity < TraceFormat.RECORD_SIZE)
+			throw new IllegalArgumentException("capacity must hold at least one record");
+
+		this.slots = capacity / TraceFormat.RECORD_SIZE;
+		this.buffer = ByteBuffer.allocateDirect(this.slots * TraceFormat.RECORD_SIZE);
+		this.stamps = new AtomicLongArray(this.slots);
+		this.directory = directory;
+		this.window = window;
+		this.holdoff = holdoff;
+	}
+
+	public FlightRecorder() {
+		this(null, null, null, null);
+	}
+
+	/** @return the number of messages the buffer holds */
+	public int slots() {
+		return this.slots;
+	}
+
+	/** @return the number of messages recorded so far, overwritten ones included */
+	public long count() {
+		return this.sequence.get();
+	}
+
+	/**
+	 * Record a message.
+	 *
+	 * @param timestamp      unit=nanosecond
+	 * @param channel        channel number
+	 * @param arbitration_id arbitration ID
+	 * @param flags          combination of the ``FLAG_*`` constants of
+	 *                       {@link TraceFormat}
+	 * @param data           payload
+	 * @param offset         offset of the payload in ``data``
+	 * @param length         payload length, at most 64 bytes. For remote frames
+	 *                       the requested length, ``data`` is not read
+	 */
+	public void record(long timestamp, int channel, long arbitration_id, int flags, byte[] data, int offset,
+			int length) {
+		if (length < 0 || length > TraceFormat.MAX_DATA_LENGTH)
+			throw new IllegalArgumentException("Invalid payload length " + length);
+		long seq = this.sequence.getAndIncrement();
+		int slot = (int) (seq % this.slots);
+		// readers must see the slot as incomplete before its content changes: the
+		// read-modify-write is not reordered with the writes which follow
+		this.stamps.getAndSet(slot, 2 * seq + 1);
+
+		ByteBuffer buffer = this.buffer;
+		int pos = slot * TraceFormat.RECORD_SIZE;
+		buffer.putLong(pos + TraceFormat.RECORD_TIMESTAMP, timestamp);
+		buffer.putInt(pos + TraceFormat.RECORD_ID, (int) arbitration_id);
+		buffer.putShort(pos + TraceFormat.RECORD_CHANNEL, (short) channel);
+		buffer.put(pos + TraceFormat.RECORD_FLAGS, (byte) (flags | TraceFormat.FLAG_VALID));
+		buffer.put(pos + TraceFormat.RECORD_LENGTH, (byte) length);
+		if ((flags & TraceFormat.FLAG_REMOTE_FRAME) == 0) {
+			for (int i = 0; i < length; i++) {
+				buffer.put(pos + TraceFormat.RECORD_DATA + i, data[offset + i]);
+			}
+		}
+		this.stamps.lazySet(slot, 2 * seq + 2);
+	}
+
+	/** Record a message with its nanosecond timestamp. */
+	public void record(Message msg) {
+		int flags = 0;
+		if (msg.is_extended_id != null && msg.is_extended_id.booleanValue())
+			flags |= TraceFormat.FLAG_EXTENDED_ID;
+		flags |= flags(msg.is_remote_frame, msg.is_error_frame, msg.is_fd, msg.bitrate_switch,
+				msg.error_state_indicator);
+		int length = Math.min(Math.max(msg.dlc, 0), TraceFormat.MAX_DATA_LENGTH);
+		if (!msg.is_remote_frame)
+			length = msg.data == null ? 0 : Math.min(length, msg.data.length);
+		this.record(msg.timestamp_ns(), msg.channel, msg.arbitration_id, flags, msg.data, 0, length);
+	}
+
+	/** Record a pooled frame with its nanosecond timestamp. */
+	public void record(Frame frame) {
+		int flags = frame.is_extended_id ? TraceFormat.FLAG_EXTENDED_ID : 0;
+		flags |= flags(frame.is_remote_frame, frame.is_error_frame, frame.is_fd, frame.bitrate_switch,
+				frame.error_state_indicator);
+		this.record(frame.timestamp_ns(), frame.channel, frame.arbitration_id, flags, frame.data, 0,
+				frame.length);
+	}
+
+	private static int flags(boolean is_remote_frame, boolean is_error_frame, boolean is_fd, boolean bitrate_switch,
+			boolean error_state_indicator) {
+		int flags = 0;
+		if (is_remote_frame)
+			flags |= TraceFormat.FLAG_REMOTE_FRAME;
+		if (is_error_frame)
+			flags |= TraceFormat.FLAG_ERROR_FRAME;
+		if (is_fd)
+			flags |= TraceFormat.FLAG_FD;
+		if (bitrate_switch)
+			flags |= TraceFormat.FLAG_BITRATE_SWITCH;
+		if (error_state_indicator)
+			flags |= TraceFormat.FLAG_ERROR_STATE_INDICATOR;
+		return flags;
+	}
+
+	/**
+	 * Copy a record out of the buffer.
+	 *
+	 * @return false if the record was overwritten or is still being written
+	 */
+	private boolean read(long seq, ByteBuffer view, byte[] record) {
+		int slot = (int) (seq % this.slots);
+		long stamp = 2 * seq + 2;
+		if (this.stamps.get(slot) != stamp)
+			return false;
+		view.position(slot * TraceFormat.RECORD_SIZE);
+		view.get(record);
+		// the copy must not be reordered after the second check, which is therefore
+		// a read-modify-write, leaving the stamp unchanged
+		return this.stamps.compareAndSet(slot, stamp, stamp);
+	}
+
+	/**
+	 * Copy the complete records out of the buffer, the writers going on.
+	 *
+	 * @param window time span before the newest message to copy,
+	 *               unit=millisecond. null copies every message in the buffer
+	 * @return the records, one after the other
+	 */
+	private ByteBuffer snapshot(Long window) {
+		long end = this.sequence.get();
+		long start = Math.max(0, end - this.slots);
+		ByteBuffer view = this.buffer.duplicate();
+		byte[] record = new byte[TraceFormat.RECORD_SIZE];
+
+		if (window != null) {
+			// the newest complete record gives the end of the window
+			long seq = end - 1;
+			while (seq >= start && !this.read(seq, view, record))
+				seq--;
+			long oldest = ByteBuffer.wrap(record).getLong(TraceFormat.RECORD_TIMESTAMP) - window * 1_000_000L;
+			for (long first = start; seq >= start && first <= seq; first++) {
+				if (this.read(first, view, record)
+						&& ByteBuffer.wrap(record).getLong(TraceFormat.RECORD_TIMESTAMP) >= oldest) {
+					start = first;
+					break;
+				}
+			}
+		}
+
+		ByteBuffer snapshot = ByteBuffer.allocate((int) (end - start) * TraceFormat.RECORD_SIZE);
+		for (long seq = start; seq < end; seq++) {
+			if (this.read(seq, view, record))
+				snapshot.put(record);
+		}
+		snapshot.flip();
+		return snapshot;
+	}
+
+	/**
+	 * Write records copied by :meth:`snapshot` to a trace.
+	 *
+	 * @return the number of messages written
+	 */
+	private static long write(String base_name, ByteBuffer records) throws IOException {
+		int count = records.remaining() / TraceFormat.RECORD_SIZE;
+		byte[] array = records.array();
+		TraceWriter writer = new TraceWriter(base_name, Math.max(count, 1));
+		try {
+			for (int pos = records.position(); pos < records.limit(); pos += TraceFormat.RECORD_SIZE) {
+				int flags = array[pos + TraceFormat.RECORD_FLAGS] & 0xFF & ~TraceFormat.FLAG_VALID;
+				writer.write(records.getLong(pos + TraceFormat.RECORD_TIMESTAMP),
+						records.getShort(pos + TraceFormat.RECORD_CHANNEL),
+						records.getInt(pos + TraceFormat.RECORD_ID) & 0xFFFFFFFFL, flags, array,
+						pos + TraceFormat.RECORD_DATA, array[pos + TraceFormat.RECORD_LENGTH] & 0xFF);
+			}
+		} finally {
+			writer.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Write the recorded messages to a trace. Recording goes on during the dump,
+	 * messages recorded after the dump started are not written.
+	 *
+	 * @param base_name path and name of the trace, without the segment suffix
+	 * @param window    time span before the newest message to write,
+	 *                  unit=millisecond. null writes every message in the buffer
+	 * @return the number of messages written
+	 * @throws IOException if the trace cannot be created
+	 */
+	public long dump(String base_name, Long window) throws IOException {
+		return write(base_name, this.snapshot(window));
+	}
+
+	public long dump(String base_name) throws IOException {
+		return this.dump(base_name, null);
+	}
+
+	/**
+	 * Dump the last ``window`` of traffic into :attr:`directory`, unless a
+	 * triggered dump happened less than ``holdoff`` ago.
+	 *
+	 * The records are copied out of the buffer in the calling thread, then
+	 * written to the trace by a background thread shared by all the recorders,
+	 * so the error handlers calling this method are not held up by the disk.
+	 *
+	 * @param reason short description of the trigger, part of the file name
+	 * @return the base name of the trace once it is written, or null if the
+	 *         trigger was ignored. The future fails if the dump fails
+	 */
+	public CompletableFuture<String> trigger(String reason) {
+		long now = System.nanoTime();
+		long last = this.last_trigger.get();
+		if (last != Long.MIN_VALUE && now - last < this.holdoff * 1_000_000L)
+			return null;
+		if (!this.last_trigger.compareAndSet(last, now))
+			return null;
+
+		String name = String.format("flight-%s-%s", new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()),
+				reason.replaceAll("[^A-Za-z0-9_.-]", "_"));
+		final String base_name = new File(this.directory, name).getPath();
+		final String trigger_reason = reason;
+		final ByteBuffer records = this.snapshot(this.window);
+		final CompletableFuture<String> result = new CompletableFuture<>();
+		DUMPER.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					long count = write(base_name, records);
+					logger.info(String.format("Flight recorder dumped %d messages to %s (%s)", count, base_name,
+							trigger_reason));
+					result.complete(base_name);
+				} catch (IOException | RuntimeException e) {
+					logger.error("Flight recorder cannot dump to " + base_name + ": " + e);
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public void on_message_received(Message msg) {
+		this.record(msg);
+	}
+
+	@Override
+	public void on_error(Exception exc) {
+		logger.warn("Error in receive thread, flight recorder may be incomplete: " + exc);
+	}
+
+	@Override
+	public void stop() {
+	}
+}
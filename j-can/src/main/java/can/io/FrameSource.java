@@ -0,0 +1,26 @@
+package can.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import can.Frame;
+
+/**
+ * A stream of recorded messages, read one after the other into a reusable
+ * frame.
+ */
+public interface FrameSource extends Closeable {
+
+	/** Returned by :meth:`next` at the end of the stream */
+	public static final long END = Long.MIN_VALUE;
+
+	/**
+	 * Read the next message.
+	 *
+	 * @param frame receives the message
+	 * @return the recorded timestamp of the message, unit=nanosecond, or
+	 *         {@link #END} if there are no more messages
+	 * @throws IOException if the recording cannot be read
+	 */
+	public long next(Frame frame) throws IOException;
+}
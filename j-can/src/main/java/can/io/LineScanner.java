@@ -0,0 +1,282 @@
+package can.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits an ASCII stream into lines and parses numbers and words directly from
+ * the bytes, without creating strings.
+ *
+ * The stream is read in large blocks into one reusable buffer; a line is the
+ * range ``[pos, end)`` of that buffer. The parsing methods advance ``pos`` and
+ * never go past the end of the line.
+ */
+final class LineScanner {
+
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private final ReadableByteChannel channel;
+	private byte[] buffer;
+	private ByteBuffer wrapper;
+	/** valid bytes in the buffer */
+	private int limit = 0;
+	/** start of the next line */
+	private int next = 0;
+	private boolean eof = false;
+
+	/** start of the line */
+	private int start;
+	/** current position in the line */
+	int pos;
+	/** end of the line, excluding the line terminator */
+	int end;
+	/** number of digits read by the last call of :meth:`hex` or :meth:`decimal` */
+	int digits;
+
+	LineScanner(ReadableByteChannel channel) {
+		this.channel = channel;
+		this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+		this.wrapper = ByteBuffer.wrap(this.buffer);
+	}
+
+	/**
+	 * Move to the next line.
+	 *
+	 * @return false at the end of the stream
+	 */
+	boolean next_line() throws IOException {
+		while (true) {
+			for (int i = this.next; i < this.limit; i++) {
+				if (this.buffer[i] == '\n') {
+					this.set_line(this.next, i);
+					this.next = i + 1;
+					return true;
+				}
+			}
+			if (this.eof) {
+				if (this.next < this.limit) {
+					// last line without terminator
+					this.set_line(this.next, this.limit);
+					this.next = this.limit;
+					return true;
+				}
+				return false;
+			}
+			this.fill();
+		}
+	}
+
+	private void set_line(int start, int end) {
+		if (end > start && this.buffer[end - 1] == '\r')
+			end--;
+		this.start = start;
+		this.pos = start;
+		this.end = end;
+	}
+
+	/** Move the unread bytes to the start of the buffer and read more. */
+	private void fill() throws IOException {
+		int remaining = this.limit - this.next;
+		if (this.next == 0 && remaining == this.buffer.length) {
+			// line longer than the buffer
+			byte[] buffer = new byte[this.buffer.length * 2];
+			System.arraycopy(this.buffer, 0, buffer, 0, remaining);
+			this.buffer = buffer;
+			this.wrapper = ByteBuffer.wrap(buffer);
+		} else if (this.next > 0) {
+			System.arraycopy(this.buffer, this.next, this.buffer, 0, remaining);
+		}
+		this.next = 0;
+		this.limit = remaining;
+		this.wrapper.clear();
+		this.wrapper.position(remaining);
+		int read = 0;
+		while (read == 0) {
+			read = this.channel.read(this.wrapper);
+		}
+		if (read < 0)
+			this.eof = true;
+		else
+			this.limit += read;
+	}
+
+	boolean at_end() {
+		return this.pos >= this.end;
+	}
+
+	/** @return the current byte, or -1 at the end of the line */
+	int peek() {
+		return this.pos < this.end ? this.buffer[this.pos] : -1;
+	}
+
+	/** Skip the current byte if it is ``c``, and tell whether it was */
+	boolean skip(char c) {
+		if (this.pos < this.end && this.buffer[this.pos] == c) {
+			this.pos++;
+			return true;
+		}
+		return false;
+	}
+
+	void skip_spaces() {
+		while (this.pos < this.end && (this.buffer[this.pos] == ' ' || this.buffer[this.pos] == '\t'))
+			this.pos++;
+	}
+
+	/** Skip a word and the spaces following it */
+	void skip_token() {
+		while (this.pos < this.end && this.buffer[this.pos] != ' ' && this.buffer[this.pos] != '\t')
+			this.pos++;
+		this.skip_spaces();
+	}
+
+	/**
+	 * Skip a word and the spaces following it.
+	 *
+	 * @return the number the word ends with, e.g. 1 for ``vcan1``, 0 if none
+	 */
+	long skip_token_number() {
+		long value = 0;
+		while (this.pos < this.end && this.buffer[this.pos] != ' ' && this.buffer[this.pos] != '\t') {
+			byte c = this.buffer[this.pos++];
+			if (c >= '0' && c <= '9')
+				value = value * 10 + (c - '0');
+			else
+				value = 0;
+		}
+		this.skip_spaces();
+		return value;
+	}
+
+	/** @return the length of the word at the current position */
+	int token_length() {
+		int i = this.pos;
+		while (i < this.end && this.buffer[i] != ' ' && this.buffer[i] != '\t')
+			i++;
+		return i - this.pos;
+	}
+
+	/**
+	 * Skip ``word`` if the line continues with it, followed by a space or the end
+	 * of the line.
+	 */
+	boolean match_token(String word) {
+		int length = word.length();
+		if (this.end - this.pos < length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (this.buffer[this.pos + i] != word.charAt(i))
+				return false;
+		}
+		int after = this.pos + length;
+		if (after < this.end && this.buffer[after] != ' ' && this.buffer[after] != '\t')
+			return false;
+		this.pos = after;
+		this.skip_spaces();
+		return true;
+	}
+
+	/** @return whether the line starts with ``prefix``, ignoring leading spaces */
+	boolean line_starts_with(String prefix) {
+		int start = this.pos;
+		this.skip_spaces();
+		int length = prefix.length();
+		boolean result = this.end - this.pos >= length;
+		for (int i = 0; result && i < length; i++) {
+			result = this.buffer[this.pos + i] == prefix.charAt(i);
+		}
+		this.pos = start;
+		return result;
+	}
+
+	/** @return the value of a hex digit, -1 if ``c`` is none */
+	static int hex_value(int c) {
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= 'A' && c <= 'F')
+			return c - 'A' + 10;
+		if (c >= 'a' && c <= 'f')
+			return c - 'a' + 10;
+		return -1;
+	}
+
+	/** Parse hex digits, the number of digits is stored in :attr:`digits` */
+	long hex() {
+		long value = 0;
+		int start = this.pos;
+		int digit;
+		while (this.pos < this.end && (digit = hex_value(this.buffer[this.pos])) >= 0) {
+			value = (value << 4) | digit;
+			this.pos++;
+		}
+		this.digits = this.pos - start;
+		return value;
+	}
+
+	/** Parse exactly two hex digits, -1 if there are not */
+	int hex_byte() {
+		if (this.end - this.pos < 2)
+			return -1;
+		int high = hex_value(this.buffer[this.pos]);
+		int low = hex_value(this.buffer[this.pos + 1]);
+		if (high < 0 || low < 0)
+			return -1;
+		this.pos += 2;
+		return (high << 4) | low;
+	}
+
+	/** Parse a number in base 16 or 10 */
+	long number(int radix) {
+		return radix == 16 ? this.hex() : this.decimal();
+	}
+
+	/** Parse decimal digits, the number of digits is stored in :attr:`digits` */
+	long decimal() {
+		long value = 0;
+		int start = this.pos;
+		while (this.pos < this.end && this.buffer[this.pos] >= '0' && this.buffer[this.pos] <= '9') {
+			value = value * 10 + (this.buffer[this.pos] - '0');
+			this.pos++;
+		}
+		this.digits = this.pos - start;
+		return value;
+	}
+
+	/**
+	 * Parse a number of seconds with an optional fraction, e.g.
+	 * ``1436509052.249713``.
+	 *
+	 * @return the value in nanoseconds, -1 if there are no digits
+	 */
+	long seconds() {
+		long seconds = this.decimal();
+		int integer_digits = this.digits;
+		long nanos = 0;
+		int fraction_digits = 0;
+		if (this.skip('.')) {
+			long scale = 100_000_000L;
+			int start = this.pos;
+			while (this.pos < this.end && this.buffer[this.pos] >= '0' && this.buffer[this.pos] <= '9') {
+				nanos += (this.buffer[this.pos] - '0') * scale;
+				scale /= 10;
+				this.pos++;
+			}
+			fraction_digits = this.pos - start;
+		}
+		if (integer_digits == 0 && fraction_digits == 0)
+			return -1;
+		return seconds * 1_000_000_000L + nanos;
+	}
+
+	/** @return the current line as a string, for error messages */
+	String line() {
+		return new String(this.buffer, this.start, this.end - this.start, StandardCharsets.US_ASCII);
+	}
+
+	/** @return the rest of the line as a string */
+	String rest() {
+		return new String(this.buffer, this.pos, this.end - this.pos, StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,589 @@
+package can.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.BusABC;
+import can.Clock;
+import can.Frame;
+import can.MessagePool;
+
+/**
+ * Merges the messages of several buses or recordings into a single stream
+ * ordered by timestamp.
+ *
+ * Every bus is read by its own receive thread into a bounded lock-free ring;
+ * recordings are read on demand. A merge thread keeps the next message of each
+ * input in a binary heap and hands the earliest one over to the reader through
+ * another bounded ring, so memory does not grow with the length of the capture
+ * and the reader never takes a lock.
+ *
+ * Recordings are merged exactly. A bus may still deliver a message older than
+ * the ones waiting for the others, so a message is only released once every
+ * input has a later one, or once it is older than the reorder window: skews
+ * between the delivery of the buses up to the window are absorbed. Messages
+ * arriving later than that are passed on as they come and counted, see
+ * :meth:`late`. Bus timestamps are compared with the default
+ * :class:`~can.Clock`, which the backends use to timestamp messages.
+ *
+ * When the ring of a bus is full, because the reader is too slow, its messages
+ * are dropped and counted, see :meth:`dropped`. The buses are not shut down by
+ * the merge.
+ *
+ * <pre>
+ * MergeReader merge = new MergeReader(null, null);
+ * merge.add_bus(powertrain, 0);
+ * merge.add_bus(body, 1);
+ * merge.start();
+ * Frame frame = new Frame();
+ * while (merge.next(frame) != FrameSource.END) {
+ * 	...
+ * }
+ * </pre>
+ */
+public class MergeReader implements FrameSource {
+	private static final Logger logger = LoggerFactory.getLogger(MergeReader.class);
+
+	/** Default reorder window, unit=nanosecond */
+	public static final long DEFAULT_REORDER_WINDOW = 10_000_000L;
+	/** Default number of messages each ring can hold */
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+	/** Time the receive threads wait for messages before checking for stop */
+	private static final long RECV_TIMEOUT = 100;
+	/** Number of empty polls before a thread is parked */
+	private static final int SPIN_TRIES = 100;
+	/** Longest single park of a thread, unit=nanosecond */
+	private static final long MAX_PARK_NANOS = 10_000_000L;
+
+	/**
+	 * Bounded ring of frames with a single producer and a single consumer, so
+	 * handing a frame over costs two ordered writes and no lock.
+	 */
+	private static final class Ring {
+		private final int mask;
+		private final Frame[] frames;
+		/** next slot to read, only written by the consumer */
+		private final AtomicLong head = new AtomicLong();
+		/** next slot to write, only written by the producer */
+		private final AtomicLong tail = new AtomicLong();
+		/** cached value of ``head`` seen by the producer */
+		private long head_cache;
+
+		Ring(int capacity) {
+			int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+			this.mask = size - 1;
+			this.frames = new Frame[size];
+		}
+
+		/** @return false if the ring is full */
+		boolean offer(Frame frame) {
+			long tail = this.tail.get();
+			if (tail - this.head_cache > this.mask) {
+				this.head_cache = this.head.get();
+				if (tail - this.head_cache > this.mask)
+					return false;
+			}
+			this.frames[(int) (tail & this.mask)] = frame;
+			this.tail.set(tail + 1);
+			return true;
+		}
+
+		/** @return the oldest frame, or null if the ring is empty */
+		Frame poll() {
+			long head = this.head.get();
+			if (head == this.tail.get())
+				return null;
+			int idx = (int) (head & this.mask);
+			Frame frame = this.frames[idx];
+			this.frames[idx] = null;
+			this.head.lazySet(head + 1);
+			return frame;
+		}
+
+		boolean is_empty() {
+			return this.head.get() == this.tail.get();
+		}
+	}
+
+	/** A bus or a recording, with the next message to merge */
+	private final class Input {
+		final BusABC bus;
+		final FrameSource source;
+		/** channel written into the messages, null to keep theirs */
+		final Integer channel;
+		/** position of the input, breaks ties between equal timestamps */
+		final int index;
+		/** messages received from the bus, null for recordings */
+		final Ring ring;
+
+		/** next message of the input, only used by the merge thread */
+		Frame head;
+		long head_time;
+		/** no more messages will come once the ring is empty */
+		volatile boolean finished;
+		final AtomicLong dropped = new AtomicLong();
+		Thread thread;
+
+		Input(BusABC bus, FrameSource source, Integer channel, int index) {
+			this.bus = bus;
+			this.source = source;
+			this.channel = channel;
+			this.index = index;
+			this.ring = bus == null ? null : new Ring(MergeReader.this.queue_size);
+		}
+
+		/**
+		 * Take the next message of the input as its head, called by the merge
+		 * thread.
+		 *
+		 * @return false if no message is available yet
+		 */
+		boolean fill() throws IOException {
+			if (this.bus != null) {
+				this.head = this.ring.poll();
+				if (this.head == null)
+					return false;
+				this.head_time = this.head.timestamp_ns();
+				return true;
+			}
+			if (this.finished)
+				return false;
+			Frame frame = MergeReader.this.pool.borrow();
+			long time = this.source.next(frame);
+			if (time == END) {
+				frame.release();
+				this.finished = true;
+				return false;
+			}
+			if (this.channel != null)
+				frame.channel = this.channel;
+			this.head = frame.timestamp_ns(time);
+			this.head_time = time;
+			return true;
+		}
+
+		/** @return true if the input has ended and everything was merged */
+		boolean is_done() {
+			return this.finished && this.head == null && (this.ring == null || this.ring.is_empty());
+		}
+	}
+
+	private final long reorder_window;
+	private final int queue_size;
+	private final Clock clock;
+	private final MessagePool pool;
+	private final List<Input> inputs = new ArrayList<Input>();
+	private final Ring output;
+
+	/** inputs with a head, ordered by head time, only used by the merge thread */
+	private Input[] heap;
+	private int heap_size;
+	/** inputs without a head, only used by the merge thread */
+	private Input[] idle;
+	private int idle_size;
+	/** timestamp of the last merged message, unit=nanosecond */
+	private long last_time = Long.MIN_VALUE;
+
+	private Thread merger;
+	private volatile boolean started = false;
+	private volatile boolean running = false;
+	/** set by the merge thread once everything was handed over */
+	private volatile boolean finished = false;
+	private volatile boolean closed = false;
+	/** thread parked waiting for messages, or for space in the output */
+	private volatile Thread merge_waiter;
+	private volatile Thread read_waiter;
+
+	private final AtomicLong merged = new AtomicLong();
+	private final AtomicLong late = new AtomicLong();
+	/** the exception which stopped an input, if any */
+	private volatile Exception exception;
+
+	/**
+	 * @param reorder_window longest delay by which a bus may deliver a message
+	 *                       after the messages of the others, unit=nanosecond.
+	 *                       Default: 10 ms
+	 * @param queue_size     number of messages each bus and the output can hold.
+	 *                       Default: 1024
+	 */
+	public MergeReader(Long reorder_window, Integer queue_size) {
+		// Default value if input is null
+		if (reorder_window == null) {
+			reorder_window = DEFAULT_REORDER_WINDOW;
+		}
+		if (queue_size == null) {
+			queue_size = DEFAULT_QUEUE_SIZE;
+		}
+		if (reorder_window < 0)
+			throw new IllegalArgumentException("reorder_window must not be negative");
+		if (queue_size <= 0)
+			throw new IllegalArgumentException("queue_size must be positive");
+		this.reorder_window = reorder_window;
+		this.queue_size = queue_size;
+		this.clock = Clock.get_default();
+		this.pool = new MessagePool(null, null);
+		this.output = new Ring(queue_size);
+	}
+
+	public MergeReader() {
+		this(null, null);
+	}
+
+	/**
+	 * Merge the messages received from a bus. The merge becomes its only reader
+	 * once started.
+	 *
+	 * @param channel channel written into the messages of the bus, null to keep
+	 *                theirs
+	 */
+	public synchronized void add_bus(BusABC bus, Integer channel) {
+		this.add(new Input(bus, null, channel, this.inputs.size()));
+	}
+
+	/**
+	 * Merge a recording, closed with the merge. Its messages must be in
+	 * timestamp order.
+	 *
+	 * @param channel channel written into the messages of the recording, null to
+	 *                keep theirs
+	 */
+	public synchronized void add_source(FrameSource source, Integer channel) {
+		this.add(new Input(null, source, channel, this.inputs.size()));
+	}
+
+	private void add(Input input) {
+		if (this.started)
+			throw new IllegalStateException("inputs cannot be added to a started merge");
+		this.inputs.add(input);
+	}
+
+	/** Start the receive threads of the buses and the merge thread. */
+	public synchronized void start() {
+		if (this.started)
+			return;
+		this.started = true;
+		this.running = true;
+		this.heap = new Input[this.inputs.size()];
+		this.idle = this.inputs.toArray(new Input[0]);
+		this.idle_size = this.idle.length;
+		for (final Input input : this.inputs) {
+			if (input.bus == null)
+				continue;
+			input.thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					MergeReader.this._rx_thread(input);
+				}
+			});
+			input.thread.setName("can.merge receiver for bus '" + input.bus + "'");
+			input.thread.setDaemon(true);
+			input.thread.start();
+		}
+		this.merger = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				MergeReader.this._merge_thread();
+			}
+		});
+		this.merger.setName("can.merge of " + this.inputs.size() + " inputs");
+		this.merger.setDaemon(true);
+		this.merger.start();
+	}
+
+	private void _rx_thread(Input input) {
+		Frame frame = this.pool.borrow();
+		try {
+			while (this.running) {
+				if (!input.bus.recv_into(frame, RECV_TIMEOUT))
+					continue;
+				if (input.channel != null)
+					frame.channel = input.channel;
+				if (input.ring.offer(frame)) {
+					frame = this.pool.borrow();
+					Thread waiter = this.merge_waiter;
+					if (waiter != null)
+						LockSupport.unpark(waiter);
+				} else {
+					input.dropped.incrementAndGet();
+				}
+			}
+		} catch (Exception e) {
+			if (this.running) {
+				logger.error("Error receiving from " + input.bus + ", stopping its merge: " + e);
+				this.exception = e;
+			}
+		} finally {
+			frame.release();
+			input.finished = true;
+			Thread waiter = this.merge_waiter;
+			if (waiter != null)
+				LockSupport.unpark(waiter);
+		}
+	}
+
+	private void _merge_thread() {
+		try {
+			while (!this.closed) {
+				// the inputs without a head may still deliver the earliest message
+				for (int i = this.idle_size - 1; i >= 0; i--) {
+					Input input = this.idle[i];
+					if (input.fill())
+						this.push(input);
+					else if (!input.is_done())
+						continue;
+					this.idle[i] = this.idle[--this.idle_size];
+					this.idle[this.idle_size] = null;
+				}
+				if (this.heap_size == 0 && this.idle_size == 0)
+					return;
+
+				if (this.heap_size > 0) {
+					Input top = this.heap[0];
+					long wait = 0;
+					if (this.idle_size > 0)
+						wait = top.head_time + this.reorder_window - this.clock.time_ns();
+					if (wait <= 0) {
+						this.pop();
+						Frame frame = top.head;
+						top.head = null;
+						this.idle[this.idle_size++] = top;
+						if (!this.emit(frame, top.head_time))
+							return;
+						continue;
+					}
+					this.park_merger(Math.min(wait, MAX_PARK_NANOS));
+				} else {
+					this.park_merger(MAX_PARK_NANOS);
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Cannot read recorded messages, stopping the merge: " + e);
+			this.exception = e;
+		} finally {
+			this.finished = true;
+			Thread waiter = this.read_waiter;
+			if (waiter != null)
+				LockSupport.unpark(waiter);
+		}
+	}
+
+	/** Park the merge thread unless a bus has delivered meanwhile */
+	private void park_merger(long nanos) {
+		this.merge_waiter = Thread.currentThread();
+		boolean delivered = false;
+		for (int i = 0; i < this.idle_size; i++) {
+			Ring ring = this.idle[i].ring;
+			if (ring != null && !ring.is_empty())
+				delivered = true;
+		}
+		if (!delivered && !this.closed)
+			LockSupport.parkNanos(this, nanos);
+		this.merge_waiter = null;
+	}
+
+	/**
+	 * Hand a merged message over to the reader, waiting while the output is full.
+	 *
+	 * @return false if the merge was closed meanwhile
+	 */
+	private boolean emit(Frame frame, long time) {
+		if (time < this.last_time)
+			this.late.incrementAndGet();
+		else
+			this.last_time = time;
+		while (!this.output.offer(frame)) {
+			if (this.closed) {
+				frame.release();
+				return false;
+			}
+			this.merge_waiter = Thread.currentThread();
+			if (!this.closed)
+				LockSupport.parkNanos(this, MAX_PARK_NANOS);
+			this.merge_waiter = null;
+		}
+		this.merged.incrementAndGet();
+		Thread waiter = this.read_waiter;
+		if (waiter != null)
+			LockSupport.unpark(waiter);
+		return true;
+	}
+
+	private boolean before(Input a, Input b) {
+		if (a.head_time != b.head_time)
+			return a.head_time < b.head_time;
+		return a.index < b.index;
+	}
+
+	private void push(Input input) {
+		int i = this.heap_size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!this.before(input, this.heap[parent]))
+				break;
+			this.heap[i] = this.heap[parent];
+			i = parent;
+		}
+		this.heap[i] = input;
+	}
+
+	private void pop() {
+		Input last = this.heap[--this.heap_size];
+		this.heap[this.heap_size] = null;
+		if (this.heap_size == 0)
+			return;
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= this.heap_size)
+				break;
+			if (child + 1 < this.heap_size && this.before(this.heap[child + 1], this.heap[child]))
+				child++;
+			if (!this.before(this.heap[child], last))
+				break;
+			this.heap[i] = this.heap[child];
+			i = child;
+		}
+		this.heap[i] = last;
+	}
+
+	/**
+	 * Read the next merged message. Only one thread may read the merge.
+	 *
+	 * @param frame   receives the message
+	 * @param timeout milliseconds to wait for a message, null to wait until the
+	 *                end of the merge
+	 * @return true if a message was read, false on timeout or at the end of the
+	 *         merge, see :meth:`is_finished`
+	 */
+	public boolean recv_into(Frame frame, Long timeout) throws InterruptedException {
+		long deadline = timeout == null ? 0 : System.nanoTime() + timeout * 1_000_000L;
+		int spins = 0;
+		while (true) {
+			Frame merged = this.output.poll();
+			if (merged != null) {
+				frame.copy_from(merged);
+				merged.release();
+				Thread waiter = this.merge_waiter;
+				if (waiter != null)
+					LockSupport.unpark(waiter);
+				return true;
+			}
+			if (this.finished && this.output.is_empty())
+				return false;
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			long left = timeout == null ? MAX_PARK_NANOS : deadline - System.nanoTime();
+			if (left <= 0)
+				return false;
+			if (spins < SPIN_TRIES) {
+				spins++;
+				continue;
+			}
+			this.read_waiter = Thread.currentThread();
+			if (this.output.is_empty() && !this.finished)
+				LockSupport.parkNanos(this, Math.min(left, MAX_PARK_NANOS));
+			this.read_waiter = null;
+		}
+	}
+
+	/**
+	 * Read the next merged message, waiting until one is available.
+	 *
+	 * @return the timestamp of the message, unit=nanosecond, or {@link #END} once
+	 *         all inputs have ended or the merge was stopped and everything was
+	 *         read
+	 */
+	@Override
+	public long next(Frame frame) throws IOException {
+		try {
+			if (!this.recv_into(frame, null))
+				return END;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for merged messages");
+		}
+		return frame.timestamp_ns();
+	}
+
+	/** @return true once every merged message has been read */
+	public boolean is_finished() {
+		return this.finished && this.output.is_empty();
+	}
+
+	/** @return the number of messages handed over to the reader */
+	public long merged() {
+		return this.merged.get();
+	}
+
+	/** @return the number of messages older than one merged before them */
+	public long late() {
+		return this.late.get();
+	}
+
+	/** @return the number of messages of the buses lost because the reader was slow */
+	public long dropped() {
+		long dropped = 0;
+		for (Input input : this.inputs) {
+			dropped += input.dropped.get();
+		}
+		return dropped;
+	}
+
+	/** @return the exception which stopped an input, or null */
+	public Exception exception() {
+		return this.exception;
+	}
+
+	/**
+	 * Stop reading the buses. The messages received so far are still merged, and
+	 * can be read until :meth:`next` returns {@link #END}; recordings are read to
+	 * their end.
+	 */
+	public void stop() {
+		this.running = false;
+		Thread merger = this.merger;
+		if (merger != null)
+			LockSupport.unpark(merger);
+	}
+
+	/** Stop the merge, discard the messages not read yet and close the recordings. */
+	@Override
+	public void close() throws IOException {
+		this.stop();
+		this.closed = true;
+		try {
+			for (Input input : this.inputs) {
+				if (input.thread != null)
+					input.thread.join(2 * RECV_TIMEOUT);
+			}
+			if (this.merger != null) {
+				LockSupport.unpark(this.merger);
+				this.merger.join(2 * RECV_TIMEOUT);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Frame frame;
+		while ((frame = this.output.poll()) != null) {
+			frame.release();
+		}
+		IOException error = null;
+		for (Input input : this.inputs) {
+			if (input.source == null)
+				continue;
+			try {
+				input.source.close();
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		if (error != null)
+			throw error;
+	}
+}
@@ -0,0 +1,449 @@
+package can.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.Frame;
+import can.Listener;
+import can.Message;
+
+/**
+ * Writes captured messages to pcapng files, to be opened in Wireshark.
+ *
+ * Messages are stored as SocketCAN frames (``LINKTYPE_CAN_SOCKETCAN``), CAN FD
+ * frames included, with one interface per channel and nanosecond timestamps.
+ *
+ * Writing a message only encodes it into one of a few direct buffers; full
+ * buffers are written to the file by a background thread, which also writes
+ * the pending messages every ``flush_interval``. If the disk cannot keep up and
+ * all buffers are full, messages are dropped and counted instead of blocking
+ * the caller (usually the receive thread of a :class:`~can.Notifier`).
+ *
+ * With ``max_file_size`` set, the capture is rotated to a new file
+ * ``<base>.00001.pcapng``, ``<base>.00002.pcapng``... when the file size
+ * would exceed it.
+ */
+public class PcapngWriter implements Listener, Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(PcapngWriter.class);
+
+	public static final int LINKTYPE_CAN_SOCKETCAN = 227;
+
+	/** Default size of each buffer, unit=byte */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+	/** Default number of buffers */
+	public static final int DEFAULT_BUFFER_COUNT = 8;
+	/** Default maximum delay before messages are written, unit=millisecond */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	// block types
+	private static final int SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+	private static final int INTERFACE_DESCRIPTION_BLOCK = 0x00000001;
+	private static final int ENHANCED_PACKET_BLOCK = 0x00000006;
+	private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+	// options
+	private static final short OPT_ENDOFOPT = 0;
+	private static final short IF_NAME = 2;
+	private static final short IF_TSRESOL = 9;
+
+	// SocketCAN
+	private static final int CAN_EFF_FLAG = 0x80000000;
+	private static final int CAN_RTR_FLAG = 0x40000000;
+	private static final int CAN_ERR_FLAG = 0x20000000;
+	private static final int CANFD_BRS = 0x01;
+	private static final int CANFD_ESI = 0x02;
+	private static final int CANFD_FDF = 0x04;
+	private static final int CAN_MTU = 16;
+	private static final int CANFD_MTU = 72;
+
+	/** Buffer of encoded blocks, and the file they belong to */
+	private static final class Chunk {
+		final ByteBuffer buffer;
+		int file;
+
+		Chunk(int size) {
+			this.buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/** Handed to the writer thread to stop it */
+	private static final Chunk END = new Chunk(0);
+
+	public final String path;
+	private final Long max_file_size;
+	private final long flush_interval;
+	private final String interface_prefix;
+
+	private final BlockingQueue<Chunk> free;
+	private final BlockingQueue<Chunk> filled;
+	private final Thread thread;
+
+	// the fields below are guarded by this
+	private Chunk active;
+	private int file = 0;
+	private long file_size = 0;
+	/** interface ID of each channel in the current file */
+	private final Map<Integer, Integer> interfaces = new HashMap<Integer, Integer>();
+	private long written = 0;
+	private long dropped = 0;
+	private boolean closed = false;
+
+	// used by the writer thread only
+	private FileChannel channel;
+	private int channel_file = -1;
+	private volatile IOException error;
+
+	/**
+	 * @param path             the capture file. With rotation, the path without
+	 *                         the ``.pcapng`` extension is the base of the file
+	 *                         names
+	 * @param max_file_size    size at which a new file is started, unit=byte. null
+	 *                         writes a single file
+	 * @param interface_prefix name of the interfaces without the channel number.
+	 *                         Default: "can"
+	 * @param buffer_size      size of each buffer, unit=byte. Default: 1 MiB
+	 * @param buffer_count     number of buffers. Default: 8
+	 * @param flush_interval   maximum time before a message is written to the
+	 *                         file, unit=millisecond. Default: 1000
+	 * @throws IOException if the file cannot be created
+	 */
+	public PcapngWriter(String path, Long max_file_size, String interface_prefix, Integer buffer_size,
+			Integer buffer_count, Long flush_interval) throws IOException {
+		// Default value if input is null
+		if (interface_prefix == null) {
+			interface_prefix = CandumpWriter.DEFAULT_INTERFACE_PREFIX;
+		}
+		if (buffer_size == null) {
+			buffer_size = DEFAULT_BUFFER_SIZE;
+		}
+		if (buffer_count == null) {
+			buffer_count = DEFAULT_BUFFER_COUNT;
+		}
+		if (flush_interval == null) {
+			flush_interval = DEFAULT_FLUSH_INTERVAL;
+		}
+		if (buffer_size < 1024 || buffer_count < 2)
+			throw new IllegalArgumentException("At least 2 buffers of 1 KiB are needed");
+
+		this.path = path;
+		this.max_file_size = max_file_size;
+		this.flush_interval = flush_interval;
+		this.interface_prefix = interface_prefix;
+		this.free = new ArrayBlockingQueue<Chunk>(buffer_count);
+		this.filled = new ArrayBlockingQueue<Chunk>(buffer_count + 1);
+		for (int i = 0; i < buffer_count; i++) {
+			this.free.add(new Chunk(buffer_size));
+		}
+
+		// create the first file now to report errors to the caller
+		this.open(0);
+		synchronized (this) {
+			this.active = this.free.poll();
+			this.start_file();
+		}
+
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				PcapngWriter.this._writer_thread();
+			}
+		});
+		this.thread.setName("pcapng writer " + path);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public PcapngWriter(String path) throws IOException {
+		this(path, null, null, null, null, null);
+	}
+
+	/** @return the name of the n-th file of the capture */
+	public String file_name(int file) {
+		if (this.max_file_size == null)
+			return this.path;
+		String base = this.path.endsWith(".pcapng") ? this.path.substring(0, this.path.length() - 7) : this.path;
+		return String.format("%s.%05d.pcapng", base, file);
+	}
+
+	/** Append a message with its nanosecond timestamp. */
+	public void write(Message msg) {
+		boolean is_extended_id = msg.is_extended_id != null && msg.is_extended_id.booleanValue();
+		int length = msg.is_remote_frame || msg.data == null ? Math.max(msg.dlc, 0)
+				: Math.min(msg.dlc, msg.data.length);
+		this.write(msg.timestamp_ns(), msg.channel, msg.arbitration_id, is_extended_id, msg.is_remote_frame,
+				msg.is_error_frame, msg.is_fd, msg.bitrate_switch, msg.error_state_indicator, msg.data, length);
+	}
+
+	/**
+	 * Append a pooled frame.
+	 *
+	 * @param frame     the message
+	 * @param timestamp unit=nanosecond
+	 */
+	public void write(Frame frame, long timestamp) {
+		this.write(timestamp, frame.channel, frame.arbitration_id, frame.is_extended_id, frame.is_remote_frame,
+				frame.is_error_frame, frame.is_fd, frame.bitrate_switch, frame.error_state_indicator, frame.data,
+				frame.length);
+	}
+
+	private synchronized void write(long timestamp, int channel, long arbitration_id, boolean is_extended_id,
+			boolean is_remote_frame, boolean is_error_frame, boolean is_fd, boolean bitrate_switch,
+			boolean error_state_indicator, byte[] data, int length) {
+		if (this.closed)
+			throw new IllegalStateException("The capture is closed");
+
+		int mtu = is_fd ? CANFD_MTU : CAN_MTU;
+		int block_length = 28 + mtu + 4;
+		Integer interface_id = this.interfaces.get(channel);
+		if (this.max_file_size != null && this.file_size > 0
+				&& this.file_size + block_length + (interface_id == null ? 64 : 0) > this.max_file_size) {
+			this.handoff();
+			this.file++;
+			this.file_size = 0;
+			this.interfaces.clear();
+			interface_id = null;
+		}
+		if (this.file_size == 0) {
+			// the section header is written with the first block of the file, which
+			// may come after a message dropped for lack of buffers
+			if (!this.reserve(256))
+				return;
+			this.start_file();
+		}
+		if (interface_id == null) {
+			if (!this.reserve(256))
+				return;
+			interface_id = this.write_interface(channel);
+		}
+		if (!this.reserve(block_length))
+			return;
+
+		ByteBuffer out = this.active.buffer;
+		out.putInt(ENHANCED_PACKET_BLOCK);
+		out.putInt(block_length);
+		out.putInt(interface_id);
+		out.putInt((int) (timestamp >>> 32));
+		out.putInt((int) timestamp);
+		out.putInt(mtu);
+		out.putInt(mtu);
+
+		// struct can_frame / canfd_frame, the ID in network byte order
+		int can_id = (int) arbitration_id & (is_extended_id ? 0x1FFFFFFF : 0x7FF);
+		if (is_extended_id)
+			can_id |= CAN_EFF_FLAG;
+		if (is_remote_frame)
+			can_id |= CAN_RTR_FLAG;
+		if (is_error_frame)
+			can_id |= CAN_ERR_FLAG;
+		out.order(ByteOrder.BIG_ENDIAN).putInt(can_id).order(ByteOrder.LITTLE_ENDIAN);
+		int max_length = mtu - 8;
+		length = Math.min(Math.max(length, 0), max_length);
+		out.put((byte) length);
+		int flags = 0;
+		if (is_fd) {
+			flags = CANFD_FDF;
+			if (bitrate_switch)
+				flags |= CANFD_BRS;
+			if (error_state_indicator)
+				flags |= CANFD_ESI;
+		}
+		out.put((byte) flags);
+		out.put((byte) 0);
+		out.put((byte) 0);
+		int data_length = is_remote_frame || data == null ? 0 : Math.min(length, data.length);
+		out.put(data, 0, data_length);
+		for (int i = data_length; i < max_length; i++) {
+			out.put((byte) 0);
+		}
+		out.putInt(block_length);
+
+		this.file_size += block_length;
+		this.written++;
+	}
+
+	/**
+	 * Make sure the active buffer has room for ``length`` bytes, handing it to the
+	 * writer thread if needed.
+	 *
+	 * @return false if no buffer is available, the message is dropped
+	 */
+	private boolean reserve(int length) {
+		if (this.active != null && this.active.buffer.remaining() >= length)
+			return true;
+		if (this.active != null)
+			this.handoff();
+		this.active = this.free.poll();
+		if (this.active == null) {
+			this.dropped++;
+			return false;
+		}
+		this.active.buffer.clear();
+		this.active.file = this.file;
+		return true;
+	}
+
+	/** Hand the active buffer to the writer thread, if it holds anything */
+	private void handoff() {
+		Chunk chunk = this.active;
+		if (chunk == null || chunk.buffer.position() == 0)
+			return;
+		chunk.buffer.flip();
+		this.filled.add(chunk);
+		this.active = null;
+	}
+
+	/** Encode the section header of a new file */
+	private void start_file() {
+		ByteBuffer out = this.active.buffer;
+		out.putInt(SECTION_HEADER_BLOCK);
+		out.putInt(28);
+		out.putInt(BYTE_ORDER_MAGIC);
+		out.putShort((short) 1);
+		out.putShort((short) 0);
+		out.putLong(-1);
+		out.putInt(28);
+		this.file_size += 28;
+	}
+
+	/** Encode the description of the interface of a channel */
+	private int write_interface(int channel) {
+		byte[] name = (this.interface_prefix + channel).getBytes(StandardCharsets.UTF_8);
+		int name_length = Math.min(name.length, 128);
+		int name_padded = (name_length + 3) & ~3;
+		int block_length = 16 + (4 + name_padded) + (4 + 4) + 4 + 4;
+
+		ByteBuffer out = this.active.buffer;
+		out.putInt(INTERFACE_DESCRIPTION_BLOCK);
+		out.putInt(block_length);
+		out.putShort((short) LINKTYPE_CAN_SOCKETCAN);
+		out.putShort((short) 0);
+		out.putInt(CANFD_MTU); // snap length
+		out.putShort(IF_NAME);
+		out.putShort((short) name_length);
+		out.put(name, 0, name_length);
+		for (int i = name_length; i < name_padded; i++)
+			out.put((byte) 0);
+		out.putShort(IF_TSRESOL);
+		out.putShort((short) 1);
+		out.putInt(9); // 10^-9 s, padded
+		out.putShort(OPT_ENDOFOPT);
+		out.putShort((short) 0);
+		out.putInt(block_length);
+
+		int interface_id = this.interfaces.size();
+		this.interfaces.put(channel, interface_id);
+		this.file_size += block_length;
+		return interface_id;
+	}
+
+	private void open(int file) throws IOException {
+		if (this.channel != null)
+			this.channel.close();
+		this.channel = FileChannel.open(Paths.get(this.file_name(file)), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		this.channel_file = file;
+	}
+
+	private void _writer_thread() {
+		while (true) {
+			Chunk chunk;
+			try {
+				chunk = this.filled.poll(this.flush_interval, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				chunk = null;
+			}
+			if (chunk == END)
+				break;
+			if (chunk == null) {
+				// periodic flush of the pending messages
+				synchronized (this) {
+					this.handoff();
+				}
+				continue;
+			}
+			try {
+				if (this.error == null) {
+					if (chunk.file != this.channel_file)
+						this.open(chunk.file);
+					while (chunk.buffer.hasRemaining()) {
+						this.channel.write(chunk.buffer);
+					}
+				}
+			} catch (IOException e) {
+				logger.error("Cannot write capture " + this.file_name(chunk.file) + ", dropping messages: " + e);
+				this.error = e;
+			}
+			chunk.buffer.clear();
+			this.free.add(chunk);
+		}
+	}
+
+	/** @return the number of messages encoded */
+	public synchronized long written() {
+		return this.written;
+	}
+
+	/** @return the number of messages dropped because no buffer was free */
+	public synchronized long dropped() {
+		return this.dropped;
+	}
+
+	/** @return the error which stopped writing to the file, or null */
+	public IOException error() {
+		return this.error;
+	}
+
+	/** Write the pending messages and close the file. */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (this.closed)
+				return;
+			this.closed = true;
+			this.handoff();
+			this.filled.add(END);
+		}
+		try {
+			this.thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.channel != null)
+			this.channel.close();
+		if (this.error != null)
+			throw this.error;
+	}
+
+	@Override
+	public void on_message_received(Message msg) {
+		this.write(msg);
+	}
+
+	@Override
+	public void on_error(Exception exc) {
+		logger.warn("Error in receive thread, capture " + this.path + " may be incomplete: " + exc);
+	}
+
+	@Override
+	public void stop() {
+		try {
+			this.close();
+		} catch (IOException e) {
+			logger.warn("Cannot close capture: " + e);
+		}
+	}
+}
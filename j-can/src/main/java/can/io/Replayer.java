@@ -0,0 +1,292 @@
+package can.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.BusABC;
+import can.Filter;
+import can.FilterMatcher;
+import can.Clock;
+import can.Frame;
+
+/**
+ * Sends recorded messages on a bus with their original timing, scaled by a
+ * speed factor, or as fast as possible.
+ *
+ * Messages are read from the source one at a time, so recordings of any size
+ * can be replayed. The send time of each message is computed from its recorded
+ * timestamp relative to the first one, against the default :class:`~can.Clock`, so
+ * errors do not accumulate. The replay thread sleeps until shortly before a
+ * message is due and busy waits the rest of the time, which gives sub
+ * millisecond accuracy at the cost of some CPU.
+ *
+ * <pre>
+ * Replayer replayer = new Replayer(new TraceReader("drive"), bus, 2.0);
+ * replayer.remap_channel(1, 0);
+ * replayer.run();
+ * logger.info(replayer.statistics().toString());
+ * </pre>
+ */
+public class Replayer implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(Replayer.class);
+
+	/** Remaining time below which the replay thread busy waits, unit=nanosecond */
+	public static final long DEFAULT_SPIN_THRESHOLD = 200_000L;
+	/** Delay between starting and the first message, unit=nanosecond */
+	private static final long START_DELAY = 1_000_000L;
+
+	/** Timing achieved by a replay */
+	public static class Statistics {
+		/** messages read from the source */
+		public long read;
+		/** messages sent on the bus */
+		public long sent;
+		/** messages skipped by the filters */
+		public long filtered;
+		/** mean difference between actual and target send time, unit=nanosecond */
+		public double mean_error;
+		/** largest difference between actual and target send time, unit=nanosecond */
+		public long max_error;
+		/** recorded time between the first and the last sent message, unit=nanosecond */
+		public long recorded_duration;
+		/** time taken to send them, unit=nanosecond */
+		public long actual_duration;
+
+		Statistics copy() {
+			Statistics copy = new Statistics();
+			copy.read = this.read;
+			copy.sent = this.sent;
+			copy.filtered = this.filtered;
+			copy.mean_error = this.mean_error;
+			copy.max_error = this.max_error;
+			copy.recorded_duration = this.recorded_duration;
+			copy.actual_duration = this.actual_duration;
+			return copy;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"Replay [read=%d, sent=%d, filtered=%d, mean error=%.1fus, max error=%.1fus, recorded=%.3fs, actual=%.3fs]",
+					this.read, this.sent, this.filtered, this.mean_error / 1000.0, this.max_error / 1000.0,
+					this.recorded_duration / 1e9, this.actual_duration / 1e9);
+		}
+	}
+
+	private final FrameSource source;
+	private final BusABC bus;
+	/** 0 to send as fast as possible */
+	private final double speed;
+	private final Map<Integer, Integer> channel_map = new HashMap<Integer, Integer>();
+	private volatile FilterMatcher filter = FilterMatcher.MATCH_ALL;
+	private long spin_threshold = DEFAULT_SPIN_THRESHOLD;
+
+	private final Statistics statistics = new Statistics();
+	private final Clock clock = Clock.get_default();
+	private volatile boolean running = false;
+	private Thread thread;
+
+	/**
+	 * @param source the recorded messages, closed at the end of the replay
+	 * @param bus    the bus to send the messages on
+	 * @param speed  speed factor, 2.0 replays twice as fast as recorded. 0 sends
+	 *               the messages as fast as possible. Default: 1.0
+	 */
+	public Replayer(FrameSource source, BusABC bus, Double speed) {
+		// Default value if input is null
+		if (speed == null) {
+			speed = 1.0;
+		}
+		if (speed < 0 || speed.isNaN())
+			throw new IllegalArgumentException("speed must not be negative");
+		this.source = source;
+		this.bus = bus;
+		this.speed = speed.isInfinite() ? 0 : speed;
+	}
+
+	/** Send the messages recorded on channel ``from`` with channel ``to``. */
+	public void remap_channel(int from, int to) {
+		synchronized (this.channel_map) {
+			this.channel_map.put(from, to);
+		}
+	}
+
+	/**
+	 * Only replay the messages matching at least one of the filters, see
+	 * :meth:`~can.BusABC.set_filters`. null replays all messages.
+	 */
+	public void set_filters(List<Filter> filters) {
+		this.filter = FilterMatcher.compile(filters);
+	}
+
+	/**
+	 * @param spin_threshold remaining time below which the replay thread stops
+	 *                       sleeping and busy waits, unit=nanosecond. 0 never
+	 *                       busy waits.
+	 */
+	public void set_spin_threshold(long spin_threshold) {
+		this.spin_threshold = spin_threshold;
+	}
+
+	/** Replay in a new daemon thread. */
+	public synchronized void start() {
+		if (this.thread != null)
+			throw new IllegalStateException("The replay was already started");
+		this.running = true;
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Replayer.this.run();
+				} finally {
+					Replayer.this.clock.deregister();
+				}
+			}
+		});
+		this.thread.setName("Replay to " + this.bus);
+		this.thread.setDaemon(true);
+		this.clock.register(this.thread);
+		this.thread.start();
+	}
+
+	/** Stop the replay, the message being waited for is not sent. */
+	public void stop() {
+		this.running = false;
+		Thread thread;
+		synchronized (this) {
+			thread = this.thread;
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			this.clock.unpark(thread);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** Wait for the replay started with :meth:`start` to end. */
+	public void join() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			thread = this.thread;
+		}
+		if (thread != null)
+			thread.join();
+	}
+
+	/** @return whether messages are still being replayed */
+	public boolean is_running() {
+		return this.running;
+	}
+
+	/** @return a snapshot of the timing achieved so far */
+	public Statistics statistics() {
+		synchronized (this.statistics) {
+			return this.statistics.copy();
+		}
+	}
+
+	/** Replay all messages in the calling thread. */
+	@Override
+	public void run() {
+		this.running = true;
+		Frame frame = new Frame();
+		long first_timestamp = 0;
+		long first_target = 0;
+		long first_sent = 0;
+		double total_error = 0;
+		try {
+			while (this.running) {
+				long timestamp = this.source.next(frame);
+				if (timestamp == FrameSource.END)
+					break;
+				synchronized (this.statistics) {
+					this.statistics.read++;
+				}
+				if (!this.filter.match(frame.arbitration_id, frame.is_extended_id)) {
+					synchronized (this.statistics) {
+						this.statistics.filtered++;
+					}
+					continue;
+				}
+				this.remap(frame);
+
+				long now = this.clock.time_ns();
+				long target = now;
+				if (this.statistics.sent == 0) {
+					first_timestamp = timestamp;
+					first_target = now + (this.speed > 0 ? START_DELAY : 0);
+					target = first_target;
+				} else if (this.speed > 0) {
+					target = first_target + (long) ((timestamp - first_timestamp) / this.speed);
+				}
+				now = this.wait_until(target);
+				if (!this.running)
+					break;
+
+				this.bus.send(frame.to_message());
+
+				long error = now - target;
+				total_error += error;
+				synchronized (this.statistics) {
+					Statistics statistics = this.statistics;
+					if (statistics.sent == 0)
+						first_sent = now;
+					statistics.sent++;
+					statistics.mean_error = total_error / statistics.sent;
+					statistics.max_error = Math.max(statistics.max_error, error);
+					statistics.recorded_duration = timestamp - first_timestamp;
+					statistics.actual_duration = now - first_sent;
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Cannot read recorded messages, stopping replay: " + e);
+		} finally {
+			this.running = false;
+			try {
+				this.source.close();
+			} catch (IOException e) {
+				logger.warn("Cannot close recorded messages: " + e);
+			}
+		}
+	}
+
+	private void remap(Frame frame) {
+		synchronized (this.channel_map) {
+			if (this.channel_map.isEmpty())
+				return;
+			Integer channel = this.channel_map.get(frame.channel);
+			if (channel != null)
+				frame.channel = channel;
+		}
+	}
+
+	/**
+	 * Sleep, then busy wait until the target time. A virtual clock has no
+	 * latency, so its waits are never finished by busy waiting.
+	 *
+	 * @return the time at which the wait ended
+	 */
+	private long wait_until(long target) {
+		long now = this.clock.time_ns();
+		while (now < target && this.running) {
+			long remaining = target - now;
+			if (!this.clock.is_real_time()) {
+				this.clock.park_ns(this, remaining);
+			} else if (remaining > this.spin_threshold) {
+				this.clock.park_ns(this, remaining - this.spin_threshold);
+			} else {
+				Thread.yield();
+			}
+			now = this.clock.time_ns();
+		}
+		return now;
+	}
+}
@@ -0,0 +1,109 @@
+package can.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Formats ASCII text directly into a reusable byte buffer, written to a channel
+ * when it fills up. Used instead of {@link String#format} for per-message
+ * output.
+ */
+final class TextBuffer {
+
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private final WritableByteChannel channel;
+	private final byte[] buffer;
+	private final ByteBuffer wrapper;
+	private int pos = 0;
+
+	TextBuffer(WritableByteChannel channel) {
+		this.channel = channel;
+		this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+		this.wrapper = ByteBuffer.wrap(this.buffer);
+	}
+
+	/** Make room for ``length`` bytes, a line is always shorter than the buffer */
+	TextBuffer reserve(int length) throws IOException {
+		if (this.pos + length > this.buffer.length)
+			this.flush();
+		return this;
+	}
+
+	TextBuffer append(char c) {
+		this.buffer[this.pos++] = (byte) c;
+		return this;
+	}
+
+	TextBuffer append(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			this.buffer[this.pos++] = (byte) s.charAt(i);
+		}
+		return this;
+	}
+
+	TextBuffer spaces(int count) {
+		for (int i = 0; i < count; i++) {
+			this.buffer[this.pos++] = ' ';
+		}
+		return this;
+	}
+
+	/** Append ``digits`` upper case hex digits of ``value`` */
+	TextBuffer hex(long value, int digits) {
+		for (int i = digits - 1; i >= 0; i--) {
+			this.buffer[this.pos + i] = HEX[(int) (value & 0xF)];
+			value >>>= 4;
+		}
+		this.pos += digits;
+		return this;
+	}
+
+	/** Append the hex digits of ``value``, without leading zeros */
+	TextBuffer hex(long value) {
+		int digits = 1;
+		while (digits < 16 && (value >>> (4 * digits)) != 0)
+			digits++;
+		return this.hex(value, digits);
+	}
+
+	/** Append a non negative decimal number, padded with zeros to ``digits`` */
+	TextBuffer decimal(long value, int digits) {
+		int length = 1;
+		for (long v = value / 10; v != 0; v /= 10)
+			length++;
+		if (length < digits)
+			length = digits;
+		for (int i = length - 1; i >= 0; i--) {
+			this.buffer[this.pos + i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		this.pos += length;
+		return this;
+	}
+
+	TextBuffer decimal(long value) {
+		return this.decimal(value, 1);
+	}
+
+	/** Append a non negative decimal number, right aligned in ``width`` characters */
+	TextBuffer decimal_right(long value, int width) {
+		int length = 1;
+		for (long v = value / 10; v != 0; v /= 10)
+			length++;
+		this.spaces(width - length);
+		return this.decimal(value, 1);
+	}
+
+	/** Write the buffered bytes to the channel */
+	void flush() throws IOException {
+		this.wrapper.clear();
+		this.wrapper.limit(this.pos);
+		while (this.wrapper.hasRemaining()) {
+			this.channel.write(this.wrapper);
+		}
+		this.pos = 0;
+	}
+}
@@ -0,0 +1,104 @@
+package can.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import can.Frame;
+import can.Message;
+
+/**
+ * Base of the readers of text log formats.
+ *
+ * The file is read in large blocks and each line is parsed in place, so
+ * reading with :meth:`next` does not allocate per message. Lines which do not
+ * describe a message (comments, headers, events) are skipped and counted.
+ *
+ * The reader can also be iterated as :class:`~can.Message` objects.
+ */
+public abstract class TextLogReader implements FrameSource, Iterable<Message> {
+
+	/** Returned by :meth:`parse_line` for lines without a message */
+	static final long SKIP = Long.MIN_VALUE + 1;
+
+	private final ReadableByteChannel channel;
+	final LineScanner scanner;
+	private long skipped = 0;
+
+	TextLogReader(ReadableByteChannel channel) {
+		this.channel = channel;
+		this.scanner = new LineScanner(channel);
+	}
+
+	TextLogReader(String path) throws IOException {
+		this(FileChannel.open(Paths.get(path), StandardOpenOption.READ));
+	}
+
+	/**
+	 * Parse the current line of the scanner.
+	 *
+	 * @return the timestamp of the message, unit=nanosecond, or {@link #SKIP}
+	 */
+	abstract long parse_line(LineScanner scanner, Frame frame);
+
+	@Override
+	public long next(Frame frame) throws IOException {
+		while (this.scanner.next_line()) {
+			long timestamp = this.parse_line(this.scanner, frame);
+			if (timestamp != SKIP)
+				return timestamp;
+			this.skipped++;
+		}
+		return END;
+	}
+
+	/** @return the number of lines skipped because they hold no message */
+	public long skipped() {
+		return this.skipped;
+	}
+
+	/**
+	 * Iterate over the remaining messages.
+	 *
+	 * @exception UncheckedIOException if the file cannot be read
+	 */
+	@Override
+	public Iterator<Message> iterator() {
+		return new Iterator<Message>() {
+			private final Frame frame = new Frame();
+			private Message next;
+
+			@Override
+			public boolean hasNext() {
+				if (this.next == null) {
+					try {
+						if (TextLogReader.this.next(this.frame) != END)
+							this.next = this.frame.to_message();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+				return this.next != null;
+			}
+
+			@Override
+			public Message next() {
+				if (!this.hasNext())
+					throw new NoSuchElementException();
+				Message msg = this.next;
+				this.next = null;
+				return msg;
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
@@ -0,0 +1,107 @@
+package can.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.Frame;
+import can.Listener;
+import can.Message;
+
+/**
+ * Base of the writers of text log formats.
+ *
+ * Lines are formatted directly into a byte buffer which is written to the file
+ * when full, on :meth:`flush` and on :meth:`close`. The writer is a
+ * :class:`~can.Listener`, so it can be registered on a :class:`~can.Notifier`.
+ */
+public abstract class TextLogWriter implements Listener, Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(TextLogWriter.class);
+
+	private final WritableByteChannel channel;
+	final TextBuffer out;
+	/** used to write messages through the frame based methods */
+	private final Frame scratch = new Frame();
+	private boolean closed = false;
+
+	TextLogWriter(WritableByteChannel channel) {
+		this.channel = channel;
+		this.out = new TextBuffer(channel);
+	}
+
+	TextLogWriter(String path) throws IOException {
+		this(FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE));
+	}
+
+	/** Format one message into :attr:`out` */
+	abstract void format(Frame frame, long timestamp) throws IOException;
+
+	/** Format the end of the file into :attr:`out`, called once by :meth:`close` */
+	void format_footer() throws IOException {
+	}
+
+	/**
+	 * Append a message.
+	 *
+	 * @param frame     the message
+	 * @param timestamp unit=nanosecond
+	 */
+	public synchronized void write(Frame frame, long timestamp) throws IOException {
+		if (this.closed)
+			throw new IOException("The log is closed");
+		this.format(frame, timestamp);
+	}
+
+	/** Append a message with its nanosecond timestamp. */
+	public synchronized void write(Message msg) throws IOException {
+		this.write(this.scratch.copy_from(msg), msg.timestamp_ns());
+	}
+
+	/** Write the buffered lines to the file */
+	public synchronized void flush() throws IOException {
+		this.out.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.closed)
+			return;
+		try {
+			this.format_footer();
+			this.out.flush();
+		} finally {
+			this.closed = true;
+			this.channel.close();
+		}
+	}
+
+	@Override
+	public void on_message_received(Message msg) {
+		try {
+			this.write(msg);
+		} catch (IOException e) {
+			this.on_error(e);
+		}
+	}
+
+	@Override
+	public void on_error(Exception exc) {
+		logger.warn("Error while logging: " + exc);
+	}
+
+	@Override
+	public void stop() {
+		try {
+			this.close();
+		} catch (IOException e) {
+			logger.warn("Cannot close log: " + e);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package can.io;
+
+import java.io.File;
+
+/**
+ * Layout of the binary trace files written by {@link TraceWriter}.
+ *
+ * A trace is a sequence of segment files ``<base>.000000.jct``,
+ * ``<base>.000001.jct``... Each segment starts with a header of
+ * {@link #HEADER_SIZE} bytes followed by fixed size records of
+ * {@link #RECORD_SIZE} bytes. All values are big endian.
+ *
+ * <pre>
+ * header: magic (8) | version (4) | record size (4) | segment number (4) |
+ *         capacity in records (4) | record count (8, -1 while being written)
+ * record: timestamp ns (8) | arbitration ID (4) | channel (2) | flags (1) |
+ *         payload length (1) | payload (64)
+ * </pre>
+ *
+ * Records are written in place, so a segment which was not closed (e.g. after
+ * a crash) still holds every record marked {@link #FLAG_VALID}.
+ */
+public final class TraceFormat {
+
+	private TraceFormat() {
+	}
+
+	public static final long MAGIC = 0x4A43414E54524331L; // "JCANTRC1"
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 32;
+	public static final int RECORD_SIZE = 80;
+	public static final int MAX_DATA_LENGTH = 64;
+
+	// header offsets
+	static final int HEADER_MAGIC = 0;
+	static final int HEADER_VERSION = 8;
+	static final int HEADER_RECORD_SIZE = 12;
+	static final int HEADER_SEGMENT = 16;
+	static final int HEADER_CAPACITY = 20;
+	static final int HEADER_COUNT = 24;
+
+	// record offsets
+	static final int RECORD_TIMESTAMP = 0;
+	static final int RECORD_ID = 8;
+	static final int RECORD_CHANNEL = 12;
+	static final int RECORD_FLAGS = 14;
+	static final int RECORD_LENGTH = 15;
+	static final int RECORD_DATA = 16;
+
+	// record flags
+	public static final int FLAG_EXTENDED_ID = 0x01;
+	public static final int FLAG_REMOTE_FRAME = 0x02;
+	public static final int FLAG_ERROR_FRAME = 0x04;
+	public static final int FLAG_FD = 0x08;
+	public static final int FLAG_BITRATE_SWITCH = 0x10;
+	public static final int FLAG_ERROR_STATE_INDICATOR = 0x20;
+	/** set on every record, last, so partially written records can be told apart */
+	public static final int FLAG_VALID = 0x80;
+
+	/** @return the file of a segment of the trace */
+	public static File segment_file(String base_name, int segment) {
+		return new File(String.format("%s.%06d.jct", base_name, segment));
+	}
+}
@@ -0,0 +1,125 @@
+package can.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import can.Frame;
+
+/**
+ * Reads the binary trace files written by {@link TraceWriter}, segment after
+ * segment.
+ *
+ * Each segment is mapped read only and :meth:`next` moves a single
+ * {@link TraceRecord} view over the records, so reading does not copy nor
+ * allocate per record.
+ *
+ * <pre>
+ * try (TraceReader reader = new TraceReader("drive")) {
+ * 	TraceRecord record;
+ * 	while ((record = reader.next()) != null) {
+ * 		...
+ * 	}
+ * }
+ * </pre>
+ */
+public class TraceReader implements FrameSource {
+
+	public final String base_name;
+	private final TraceRecord record = new TraceRecord();
+
+	private int segment = -1;
+	private MappedByteBuffer buffer;
+	/** number of records of the current segment, -1 if it was not closed */
+	private long count;
+	private int capacity;
+	private int index;
+
+	/**
+	 * @param base_name path and name of the trace, without the segment suffix
+	 * @throws IOException if the first segment cannot be read
+	 */
+	public TraceReader(String base_name) throws IOException {
+		this.base_name = base_name;
+		if (!this.open_next()) {
+			throw new IOException("No trace found: " + TraceFormat.segment_file(base_name, 0));
+		}
+	}
+
+	/** Map the next segment, false if there is none. */
+	private boolean open_next() throws IOException {
+		File file = TraceFormat.segment_file(this.base_name, this.segment + 1);
+		if (!file.isFile())
+			return false;
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		if (buffer.capacity() < TraceFormat.HEADER_SIZE || buffer.getLong(TraceFormat.HEADER_MAGIC) != TraceFormat.MAGIC)
+			throw new IOException("Not a trace file: " + file);
+		if (buffer.getInt(TraceFormat.HEADER_VERSION) != TraceFormat.VERSION
+				|| buffer.getInt(TraceFormat.HEADER_RECORD_SIZE) != TraceFormat.RECORD_SIZE)
+			throw new IOException("Unsupported trace version: " + file);
+
+		this.segment++;
+		this.buffer = buffer;
+		this.count = buffer.getLong(TraceFormat.HEADER_COUNT);
+		this.capacity = Math.min(buffer.getInt(TraceFormat.HEADER_CAPACITY),
+				(buffer.capacity() - TraceFormat.HEADER_SIZE) / TraceFormat.RECORD_SIZE);
+		this.index = 0;
+		return true;
+	}
+
+	/**
+	 * Move to the next record.
+	 *
+	 * @return the record view, the same instance for every record, or null at the
+	 *         end of the trace
+	 * @throws IOException if a following segment cannot be read
+	 */
+	public TraceRecord next() throws IOException {
+		while (true) {
+			if (this.buffer != null && this.has_record(this.index)) {
+				this.record.move(this.buffer, TraceFormat.HEADER_SIZE + this.index * TraceFormat.RECORD_SIZE);
+				this.index++;
+				return this.record;
+			}
+			if (this.buffer == null || !this.open_next()) {
+				this.buffer = null;
+				return null;
+			}
+		}
+	}
+
+	@Override
+	public long next(Frame frame) throws IOException {
+		TraceRecord record = this.next();
+		if (record == null)
+			return END;
+		record.copy_to(frame);
+		return record.timestamp();
+	}
+
+	private boolean has_record(int index) {
+		if (this.count >= 0)
+			return index < this.count;
+		// segment not closed: read the records which were completely written
+		if (index >= this.capacity)
+			return false;
+		int flags = this.buffer.get(TraceFormat.HEADER_SIZE + index * TraceFormat.RECORD_SIZE + TraceFormat.RECORD_FLAGS);
+		return (flags & TraceFormat.FLAG_VALID) != 0;
+	}
+
+	/** @return the number of the segment being read */
+	public int segment() {
+		return this.segment;
+	}
+
+	@Override
+	public void close() {
+		// mappings are released by the garbage collector
+		this.buffer = null;
+	}
+}
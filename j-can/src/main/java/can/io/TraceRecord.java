@@ -0,0 +1,100 @@
+package can.io;
+
+import java.nio.ByteBuffer;
+
+import can.Frame;
+import can.Message;
+
+/**
+ * View of one record of a mapped trace segment.
+ *
+ * The view is moved from record to record by {@link TraceReader#next()}; its
+ * accessors read the mapped file directly, nothing is copied until
+ * :meth:`copy_to` or :meth:`to_message` is called.
+ */
+public final class TraceRecord {
+
+	private ByteBuffer buffer;
+	private int pos;
+
+	TraceRecord() {
+	}
+
+	void move(ByteBuffer buffer, int pos) {
+		this.buffer = buffer;
+		this.pos = pos;
+	}
+
+	/** @return the timestamp, unit=nanosecond */
+	public long timestamp() {
+		return this.buffer.getLong(this.pos + TraceFormat.RECORD_TIMESTAMP);
+	}
+
+	public long arbitration_id() {
+		return this.buffer.getInt(this.pos + TraceFormat.RECORD_ID) & 0xFFFFFFFFL;
+	}
+
+	public int channel() {
+		return this.buffer.getShort(this.pos + TraceFormat.RECORD_CHANNEL) & 0xFFFF;
+	}
+
+	/** @return the ``FLAG_*`` bits of {@link TraceFormat} */
+	public int flags() {
+		return this.buffer.get(this.pos + TraceFormat.RECORD_FLAGS) & 0xFF;
+	}
+
+	public boolean is_extended_id() {
+		return (this.flags() & TraceFormat.FLAG_EXTENDED_ID) != 0;
+	}
+
+	public boolean is_remote_frame() {
+		return (this.flags() & TraceFormat.FLAG_REMOTE_FRAME) != 0;
+	}
+
+	public boolean is_fd() {
+		return (this.flags() & TraceFormat.FLAG_FD) != 0;
+	}
+
+	/** @return the payload length */
+	public int length() {
+		return this.buffer.get(this.pos + TraceFormat.RECORD_LENGTH) & 0xFF;
+	}
+
+	/** @return one byte of the payload */
+	public byte data(int index) {
+		return this.buffer.get(this.pos + TraceFormat.RECORD_DATA + index);
+	}
+
+	/** Copy the record into a frame. */
+	public Frame copy_to(Frame frame) {
+		int flags = this.flags();
+		frame.timestamp_ns(this.timestamp());
+		frame.arbitration_id = this.arbitration_id();
+		frame.channel = this.channel();
+		frame.is_extended_id = (flags & TraceFormat.FLAG_EXTENDED_ID) != 0;
+		frame.is_remote_frame = (flags & TraceFormat.FLAG_REMOTE_FRAME) != 0;
+		frame.is_error_frame = (flags & TraceFormat.FLAG_ERROR_FRAME) != 0;
+		frame.is_fd = (flags & TraceFormat.FLAG_FD) != 0;
+		frame.bitrate_switch = (flags & TraceFormat.FLAG_BITRATE_SWITCH) != 0;
+		frame.error_state_indicator = (flags & TraceFormat.FLAG_ERROR_STATE_INDICATOR) != 0;
+		int length = this.length();
+		for (int i = 0; i < length; i++) {
+			frame.data[i] = this.data(i);
+		}
+		for (int i = length; i < frame.length; i++) {
+			frame.data[i] = 0;
+		}
+		frame.length = length;
+		return frame;
+	}
+
+	/** @return a new message with the content of the record */
+	public Message to_message() {
+		return this.copy_to(new Frame()).to_message();
+	}
+
+	@Override
+	public String toString() {
+		return this.to_message().toString();
+	}
+}
@@ -0,0 +1,530 @@
+package can.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.Message;
+
+/**
+ * Queries by arbitration ID and time range over large binary traces written by
+ * {@link TraceWriter}.
+ *
+ * The records of each segment are grouped in blocks of ``block_records``. For
+ * each block, a sparse index keeps the time range of its records, a bitmap of
+ * the standard IDs it contains and a bloom filter of its extended IDs. A query
+ * only reads the blocks which may hold matching records.
+ *
+ * The index is stored next to the trace in ``<base>.jci`` and rebuilt when it
+ * does not match the trace any more, i.e. when segments were added, or when the
+ * size or the modification time of a segment changed. All values are big
+ * endian:
+ *
+ * <pre>
+ * header:  magic (8) | version (4) | records per block (4) | segment count (4) |
+ *          block count (4) | record count (8)
+ * segment: file size (8) | modification time ms (8)
+ * block:   segment (4) | first record (4) | record count (4) | OR of the flags (4) |
+ *          first timestamp ns (8) | last timestamp ns (8) |
+ *          standard ID bitmap (256) | extended ID bloom filter (256)
+ * </pre>
+ *
+ * Query results are streams of messages, read lazily from the mapped segments.
+ * Parallel streams split the remaining blocks between the threads of the
+ * fork/join pool, the order of the records in the trace being kept.
+ *
+ * <pre>
+ * try (TraceStore store = new TraceStore("drive", null)) {
+ * 	List&lt;Message&gt; frames = store.query(0x7AFL, false, t1, t2, true).collect(Collectors.toList());
+ * }
+ * </pre>
+ */
+public class TraceStore implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(TraceStore.class);
+
+	public static final long INDEX_MAGIC = 0x4A43414E49445831L; // "JCANIDX1"
+	public static final int INDEX_VERSION = 2;
+	/** Default number of records per block, 320 KiB of records */
+	public static final int DEFAULT_BLOCK_RECORDS = 4096;
+
+	static final int INDEX_HEADER_SIZE = 32;
+	static final int INDEX_SEGMENT_SIZE = 16;
+	static final int BITMAP_LONGS = 32;
+	static final int INDEX_BLOCK_SIZE = 32 + 2 * BITMAP_LONGS * 8;
+
+	/** Index entry of a block of records */
+	static final class Block {
+		int segment;
+		int first;
+		int count;
+		int flags;
+		long start = Long.MAX_VALUE;
+		long end = Long.MIN_VALUE;
+		/** one bit per standard ID */
+		final long[] standard = new long[BITMAP_LONGS];
+		/** bloom filter of the extended IDs */
+		final long[] extended = new long[BITMAP_LONGS];
+
+		void add(long timestamp, long arbitration_id, int flags) {
+			this.flags |= flags;
+			this.start = Math.min(this.start, timestamp);
+			this.end = Math.max(this.end, timestamp);
+			if ((flags & TraceFormat.FLAG_EXTENDED_ID) != 0) {
+				int id = (int) arbitration_id;
+				set(this.extended, hash1(id));
+				set(this.extended, hash2(id));
+			} else {
+				set(this.standard, (int) arbitration_id & 0x7FF);
+			}
+		}
+
+		/** @return false if the block cannot hold the ID */
+		boolean may_contain(long arbitration_id, Boolean is_extended_id) {
+			if (is_extended_id == null)
+				return this.may_contain(arbitration_id, false) || this.may_contain(arbitration_id, true);
+			if (is_extended_id) {
+				int id = (int) arbitration_id;
+				return get(this.extended, hash1(id)) && get(this.extended, hash2(id));
+			}
+			return arbitration_id <= 0x7FF && get(this.standard, (int) arbitration_id);
+		}
+
+		/** @return true if the block holds extended IDs, or standard IDs */
+		boolean has_ids(boolean is_extended_id) {
+			if (is_extended_id)
+				return (this.flags & TraceFormat.FLAG_EXTENDED_ID) != 0;
+			for (long bits : this.standard) {
+				if (bits != 0)
+					return true;
+			}
+			return false;
+		}
+
+		boolean overlaps(long start, long end) {
+			return this.count > 0 && this.start <= end && this.end >= start;
+		}
+
+		private static void set(long[] bits, int bit) {
+			bits[bit >>> 6] |= 1L << bit;
+		}
+
+		private static boolean get(long[] bits, int bit) {
+			return (bits[bit >>> 6] & (1L << bit)) != 0;
+		}
+
+		private static int hash1(int id) {
+			return (id * 0x9E3779B1) >>> 21;
+		}
+
+		private static int hash2(int id) {
+			return ((id ^ (id >>> 15)) * 0x85EBCA77) >>> 21;
+		}
+	}
+
+	public final String base_name;
+	private int block_records;
+	private MappedByteBuffer[] segments;
+	private final Block[] blocks;
+	private final long count;
+
+	/**
+	 * Open a trace, reading its index or building it.
+	 *
+	 * @param base_name     path and name of the trace, without the segment suffix
+	 * @param block_records number of records per block when the index is built.
+	 *                      Default: 4096
+	 * @throws IOException if the trace cannot be read
+	 */
+	public TraceStore(String base_name, Integer block_records) throws IOException {
+		// Default value if input is null
+		if (block_records == null) {
+			block_records = DEFAULT_BLOCK_RECORDS;
+		}
+		if (block_records <= 0)
+			throw new IllegalArgumentException("block_records must be positive");
+		this.base_name = base_name;
+
+		List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+		List<File> files = new ArrayList<File>();
+		File file;
+		while ((file = TraceFormat.segment_file(base_name, segments.size())).isFile()) {
+			files.add(file);
+			segments.add(map(file));
+		}
+		if (segments.isEmpty())
+			throw new IOException("No trace found: " + TraceFormat.segment_file(base_name, 0));
+		this.segments = segments.toArray(new MappedByteBuffer[segments.size()]);
+		// identify the segments the index was built from
+		long[] sizes = new long[files.size()];
+		long[] modified = new long[files.size()];
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = files.get(i).length();
+			modified[i] = files.get(i).lastModified();
+		}
+
+		int[] counts = new int[this.segments.length];
+		long count = 0;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = record_count(this.segments[i]);
+			count += counts[i];
+		}
+		this.count = count;
+
+		Block[] blocks = this.read_index(counts, sizes, modified);
+		if (blocks == null) {
+			this.block_records = block_records;
+			blocks = this.build_index(counts, block_records);
+			this.write_index(blocks, block_records, sizes, modified);
+		}
+		this.blocks = blocks;
+	}
+
+	public TraceStore(String base_name) throws IOException {
+		this(base_name, null);
+	}
+
+	/** @return the index file of a trace */
+	public static File index_file(String base_name) {
+		return new File(base_name + ".jci");
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		if (buffer.capacity() < TraceFormat.HEADER_SIZE || buffer.getLong(TraceFormat.HEADER_MAGIC) != TraceFormat.MAGIC)
+			throw new IOException("Not a trace file: " + file);
+		if (buffer.getInt(TraceFormat.HEADER_VERSION) != TraceFormat.VERSION
+				|| buffer.getInt(TraceFormat.HEADER_RECORD_SIZE) != TraceFormat.RECORD_SIZE)
+			throw new IOException("Unsupported trace version: " + file);
+		return buffer;
+	}
+
+	/** @return the number of records of a segment, counting the valid ones if it was not closed */
+	private static int record_count(MappedByteBuffer buffer) {
+		long count = buffer.getLong(TraceFormat.HEADER_COUNT);
+		if (count >= 0)
+			return (int) count;
+		int capacity = Math.min(buffer.getInt(TraceFormat.HEADER_CAPACITY),
+				(buffer.capacity() - TraceFormat.HEADER_SIZE) / TraceFormat.RECORD_SIZE);
+		int index = 0;
+		while (index < capacity && (buffer.get(TraceFormat.HEADER_SIZE + index * TraceFormat.RECORD_SIZE
+				+ TraceFormat.RECORD_FLAGS) & TraceFormat.FLAG_VALID) != 0) {
+			index++;
+		}
+		return index;
+	}
+
+	/** @return the index stored next to the trace, or null if it is missing or stale */
+	private Block[] read_index(int[] counts, long[] sizes, long[] modified) {
+		File file = index_file(this.base_name);
+		if (!file.isFile())
+			return null;
+		try {
+			ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			if (in.capacity() < INDEX_HEADER_SIZE || in.getLong() != INDEX_MAGIC || in.getInt() != INDEX_VERSION)
+				return null;
+			int block_records = in.getInt();
+			int segment_count = in.getInt();
+			int block_count = in.getInt();
+			long count = in.getLong();
+			if (segment_count != counts.length || count != this.count || in.remaining() != (long) segment_count
+					* INDEX_SEGMENT_SIZE + (long) block_count * INDEX_BLOCK_SIZE)
+				return null;
+			for (int i = 0; i < segment_count; i++) {
+				if (in.getLong() != sizes[i] || in.getLong() != modified[i])
+					return null;
+			}
+
+			Block[] blocks = new Block[block_count];
+			for (int i = 0; i < block_count; i++) {
+				Block block = new Block();
+				block.segment = in.getInt();
+				block.first = in.getInt();
+				block.count = in.getInt();
+				block.flags = in.getInt();
+				block.start = in.getLong();
+				block.end = in.getLong();
+				for (int j = 0; j < BITMAP_LONGS; j++)
+					block.standard[j] = in.getLong();
+				for (int j = 0; j < BITMAP_LONGS; j++)
+					block.extended[j] = in.getLong();
+				if (block.segment < 0 || block.segment >= counts.length
+						|| (long) block.first + block.count > counts[block.segment])
+					return null;
+				blocks[i] = block;
+			}
+			this.block_records = block_records;
+			return blocks;
+		} catch (IOException e) {
+			logger.warn("Cannot read index " + file + ", rebuilding it: " + e);
+			return null;
+		}
+	}
+
+	/** Scan the trace, the blocks being indexed in parallel */
+	private Block[] build_index(int[] counts, int block_records) {
+		List<Block> list = new ArrayList<Block>();
+		for (int segment = 0; segment < counts.length; segment++) {
+			for (int first = 0; first < counts[segment]; first += block_records) {
+				Block block = new Block();
+				block.segment = segment;
+				block.first = first;
+				block.count = Math.min(block_records, counts[segment] - first);
+				list.add(block);
+			}
+		}
+		final Block[] blocks = list.toArray(new Block[list.size()]);
+		IntStream.range(0, blocks.length).parallel().forEach(new IntConsumer() {
+			@Override
+			public void accept(int i) {
+				Block block = blocks[i];
+				ByteBuffer buffer = TraceStore.this.segments[block.segment];
+				int pos = TraceFormat.HEADER_SIZE + block.first * TraceFormat.RECORD_SIZE;
+				for (int r = 0; r < block.count; r++, pos += TraceFormat.RECORD_SIZE) {
+					block.add(buffer.getLong(pos + TraceFormat.RECORD_TIMESTAMP),
+							buffer.getInt(pos + TraceFormat.RECORD_ID) & 0xFFFFFFFFL,
+							buffer.get(pos + TraceFormat.RECORD_FLAGS) & 0xFF);
+				}
+			}
+		});
+		return blocks;
+	}
+
+	/** Store the index next to the trace, the store works without it */
+	private void write_index(Block[] blocks, int block_records, long[] sizes, long[] modified) {
+		File file = index_file(this.base_name);
+		ByteBuffer out = ByteBuffer.allocate(
+				INDEX_HEADER_SIZE + sizes.length * INDEX_SEGMENT_SIZE + blocks.length * INDEX_BLOCK_SIZE);
+		out.putLong(INDEX_MAGIC);
+		out.putInt(INDEX_VERSION);
+		out.putInt(block_records);
+		out.putInt(this.segments.length);
+		out.putInt(blocks.length);
+		out.putLong(this.count);
+		for (int i = 0; i < sizes.length; i++) {
+			out.putLong(sizes[i]);
+			out.putLong(modified[i]);
+		}
+		for (Block block : blocks) {
+			out.putInt(block.segment);
+			out.putInt(block.first);
+			out.putInt(block.count);
+			out.putInt(block.flags);
+			out.putLong(block.start);
+			out.putLong(block.end);
+			for (long bits : block.standard)
+				out.putLong(bits);
+			for (long bits : block.extended)
+				out.putLong(bits);
+		}
+		try {
+			File temp = new File(file.getPath() + ".tmp");
+			Files.write(temp.toPath(), out.array());
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			logger.warn("Cannot write index " + file + ": " + e);
+		}
+	}
+
+	/** @return the number of records of the trace */
+	public long count() {
+		return this.count;
+	}
+
+	/** @return the number of blocks of the index */
+	public int blocks() {
+		return this.blocks.length;
+	}
+
+	/** @return the number of records per block */
+	public int block_records() {
+		return this.block_records;
+	}
+
+	/**
+	 * @return the indexes of the blocks which may hold records matching a query,
+	 *         see :meth:`query`
+	 */
+	int[] candidates(Long arbitration_id, Boolean is_extended_id, Long start, Long end) {
+		long from = start == null ? Long.MIN_VALUE : start;
+		long to = end == null ? Long.MAX_VALUE : end;
+		int[] candidates = new int[this.blocks.length];
+		int n = 0;
+		for (int i = 0; i < this.blocks.length; i++) {
+			Block block = this.blocks[i];
+			if (!block.overlaps(from, to))
+				continue;
+			if (arbitration_id != null && !block.may_contain(arbitration_id, is_extended_id))
+				continue;
+			if (arbitration_id == null && is_extended_id != null && !block.has_ids(is_extended_id))
+				continue;
+			candidates[n++] = i;
+		}
+		int[] result = new int[n];
+		System.arraycopy(candidates, 0, result, 0, n);
+		return result;
+	}
+
+	/**
+	 * Find the records of an ID in a time range.
+	 *
+	 * The blocks which cannot match are skipped using the index, the others are
+	 * read when the stream is consumed.
+	 *
+	 * @param arbitration_id ID of the records, null for every ID
+	 * @param is_extended_id true for extended IDs only, false for standard IDs
+	 *                       only, null for both
+	 * @param start          first timestamp, unit=nanosecond, included. null
+	 *                       from the beginning of the trace
+	 * @param end            last timestamp, unit=nanosecond, included. null up
+	 *                       to the end of the trace
+	 * @param parallel       scan the blocks in parallel. Default: false
+	 * @return the matching records in trace order, timestamps in milliseconds like
+	 *         every :class:`~can.Message`
+	 */
+	public Stream<Message> query(Long arbitration_id, Boolean is_extended_id, Long start, Long end,
+			Boolean parallel) {
+		// Default value if input is null
+		if (parallel == null) {
+			parallel = false;
+		}
+		if (this.segments == null)
+			throw new IllegalStateException("The trace store is closed");
+		int[] candidates = this.candidates(arbitration_id, is_extended_id, start, end);
+		Scan scan = new Scan(this.segments, this.blocks, this.block_records, candidates, 0, candidates.length,
+				arbitration_id, is_extended_id, start == null ? Long.MIN_VALUE : start,
+				end == null ? Long.MAX_VALUE : end);
+		return StreamSupport.stream(scan, parallel);
+	}
+
+	/** Find the records of an ID in a time range, see :meth:`query` */
+	public Stream<Message> query(long arbitration_id, boolean is_extended_id, long start, long end) {
+		return this.query(arbitration_id, is_extended_id, start, end, null);
+	}
+
+	/**
+	 * Reads the candidate blocks of a query, record after record. Splitting hands
+	 * half of the blocks not started yet to another scan.
+	 */
+	private static final class Scan implements Spliterator<Message> {
+		private final MappedByteBuffer[] segments;
+		private final Block[] blocks;
+		private final int block_records;
+		private final int[] candidates;
+		private int next;
+		private final int end_block;
+		private final Long arbitration_id;
+		private final Boolean is_extended_id;
+		private final long start;
+		private final long end;
+		private final TraceRecord record = new TraceRecord();
+
+		/** block being read, null before the first one */
+		private Block block;
+		private int index;
+
+		Scan(MappedByteBuffer[] segments, Block[] blocks, int block_records, int[] candidates, int next,
+				int end_block, Long arbitration_id, Boolean is_extended_id, long start, long end) {
+			this.segments = segments;
+			this.blocks = blocks;
+			this.block_records = block_records;
+			this.candidates = candidates;
+			this.next = next;
+			this.end_block = end_block;
+			this.arbitration_id = arbitration_id;
+			this.is_extended_id = is_extended_id;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Message> action) {
+			while (true) {
+				if (this.block == null || this.index >= this.block.count) {
+					if (this.next >= this.end_block)
+						return false;
+					this.block = this.blocks[this.candidates[this.next++]];
+					this.index = 0;
+				}
+				Block block = this.block;
+				MappedByteBuffer buffer = this.segments[block.segment];
+				while (this.index < block.count) {
+					int pos = TraceFormat.HEADER_SIZE + (block.first + this.index++) * TraceFormat.RECORD_SIZE;
+					if (this.matches(buffer, pos)) {
+						this.record.move(buffer, pos);
+						action.accept(this.record.to_message());
+						return true;
+					}
+				}
+			}
+		}
+
+		private boolean matches(ByteBuffer buffer, int pos) {
+			long timestamp = buffer.getLong(pos + TraceFormat.RECORD_TIMESTAMP);
+			if (timestamp < this.start || timestamp > this.end)
+				return false;
+			if (this.is_extended_id != null) {
+				boolean extended = (buffer.get(pos + TraceFormat.RECORD_FLAGS) & TraceFormat.FLAG_EXTENDED_ID) != 0;
+				if (extended != this.is_extended_id)
+					return false;
+			}
+			return this.arbitration_id == null
+					|| (buffer.getInt(pos + TraceFormat.RECORD_ID) & 0xFFFFFFFFL) == this.arbitration_id;
+		}
+
+		@Override
+		public Spliterator<Message> trySplit() {
+			int remaining = this.end_block - this.next;
+			if (remaining < 2)
+				return null;
+			int middle = this.next + remaining / 2;
+			Scan prefix = new Scan(this.segments, this.blocks, this.block_records, this.candidates, this.next, middle,
+					this.arbitration_id, this.is_extended_id, this.start, this.end);
+			// the block being read stays before the split blocks
+			prefix.block = this.block;
+			prefix.index = this.index;
+			this.block = null;
+			this.next = middle;
+			return prefix;
+		}
+
+		/** @return the number of records left to read, an upper bound of the matches */
+		@Override
+		public long estimateSize() {
+			long size = (long) (this.end_block - this.next) * this.block_records;
+			if (this.block != null)
+				size += this.block.count - this.index;
+			return size;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL | IMMUTABLE;
+		}
+	}
+
+	@Override
+	public void close() {
+		// mappings are released by the garbage collector
+		this.segments = null;
+	}
+}
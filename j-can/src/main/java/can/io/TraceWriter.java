@@ -0,0 +1,260 @@
+package can.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.Frame;
+import can.Listener;
+import can.Message;
+
+/**
+ * Records messages to memory-mapped binary trace files, see
+ * {@link TraceFormat}.
+ *
+ * Writing a message only claims a record with an atomic increment and copies
+ * the fields into the mapped segment: several threads (e.g. the receive threads
+ * of several buses) may write concurrently without locking, and nothing is
+ * allocated per message. When a segment is full, the writer claiming its first
+ * record creates the next segment.
+ *
+ * The writer is a :class:`~can.Listener`, so it can be registered on a
+ * :class:`~can.Notifier`.
+ */
+public class TraceWriter implements Listener, Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(TraceWriter.class);
+
+	/** Default number of records per segment, 80 MiB segments */
+	public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+
+	/** added to the sequence on close, so late writers can tell */
+	private static final long CLOSED = 1L << 62;
+
+	/** One mapped file */
+	private static final class Segment {
+		final int number;
+		final long first;
+		final MappedByteBuffer buffer;
+		/** number of records completely written */
+		final AtomicInteger written = new AtomicInteger();
+		volatile Segment next;
+
+		Segment(int number, long first, MappedByteBuffer buffer) {
+			this.number = number;
+			this.first = first;
+			this.buffer = buffer;
+		}
+	}
+
+	public final String base_name;
+	private final int segment_records;
+	/** sequence number of the next record */
+	private final AtomicLong sequence = new AtomicLong();
+	/** newest segment, older ones are reachable from writers still using them */
+	private volatile Segment current;
+	private volatile IOException error;
+
+	/**
+	 * @param base_name       path and name of the trace, without the segment
+	 *                        suffix
+	 * @param segment_records number of records per segment file. Default: 1M
+	 * @throws IOException if the first segment cannot be created
+	 */
+	public TraceWriter(String base_name, Integer segment_records) throws IOException {
+		// Default value if input is null
+		if (segment_records == null) {
+			segment_records = DEFAULT_SEGMENT_RECORDS;
+		}
+		if (segment_records <= 0)
+			throw new IllegalArgumentException("segment_records must be positive");
+		this.base_name = base_name;
+		this.segment_records = segment_records;
+		this.current = this.create_segment(0);
+	}
+
+	public TraceWriter(String base_name) throws IOException {
+		this(base_name, null);
+	}
+
+	private Segment create_segment(int number) throws IOException {
+		long size = TraceFormat.HEADER_SIZE + (long) this.segment_records * TraceFormat.RECORD_SIZE;
+		MappedByteBuffer buffer;
+		try (RandomAccessFile file = new RandomAccessFile(TraceFormat.segment_file(this.base_name, number), "rw")) {
+			file.setLength(0);
+			file.setLength(size);
+			// the mapping stays valid once the file is closed
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		buffer.putLong(TraceFormat.HEADER_MAGIC, TraceFormat.MAGIC);
+		buffer.putInt(TraceFormat.HEADER_VERSION, TraceFormat.VERSION);
+		buffer.putInt(TraceFormat.HEADER_RECORD_SIZE, TraceFormat.RECORD_SIZE);
+		buffer.putInt(TraceFormat.HEADER_SEGMENT, number);
+		buffer.putInt(TraceFormat.HEADER_CAPACITY, this.segment_records);
+		buffer.putLong(TraceFormat.HEADER_COUNT, -1);
+		return new Segment(number, (long) number * this.segment_records, buffer);
+	}
+
+	/**
+	 * Append a record.
+	 *
+	 * @param timestamp      unit=nanosecond
+	 * @param channel        channel number
+	 * @param arbitration_id arbitration ID
+	 * @param flags          combination of the ``FLAG_*`` constants of
+	 *                       {@link TraceFormat}
+	 * @param data           payload
+	 * @param offset         offset of the payload in ``data``
+	 * @param length         payload length, at most 64 bytes. For remote frames
+	 *                       the requested length, ``data`` is not read
+	 * @exception IllegalStateException if the writer is closed or failed to
+	 *                                  create a segment
+	 */
+	public void write(long timestamp, int channel, long arbitration_id, int flags, byte[] data, int offset,
+			int length) {
+		if (length < 0 || length > TraceFormat.MAX_DATA_LENGTH)
+			throw new IllegalArgumentException("Invalid payload length " + length);
+		Segment segment = this.current;
+		long seq = this.sequence.getAndIncrement();
+		if (seq >= CLOSED)
+			throw new IllegalStateException("Trace " + this.base_name + " is closed");
+		segment = this.segment_for(segment, seq);
+
+		MappedByteBuffer buffer = segment.buffer;
+		int pos = TraceFormat.HEADER_SIZE + (int) (seq - segment.first) * TraceFormat.RECORD_SIZE;
+		buffer.putLong(pos + TraceFormat.RECORD_TIMESTAMP, timestamp);
+		buffer.putInt(pos + TraceFormat.RECORD_ID, (int) arbitration_id);
+		buffer.putShort(pos + TraceFormat.RECORD_CHANNEL, (short) channel);
+		buffer.put(pos + TraceFormat.RECORD_LENGTH, (byte) length);
+		if ((flags & TraceFormat.FLAG_REMOTE_FRAME) == 0) {
+			for (int i = 0; i < length; i++) {
+				buffer.put(pos + TraceFormat.RECORD_DATA + i, data[offset + i]);
+			}
+		}
+		buffer.put(pos + TraceFormat.RECORD_FLAGS, (byte) (flags | TraceFormat.FLAG_VALID));
+
+		if (segment.written.incrementAndGet() == this.segment_records) {
+			// the last writer of a full segment finalizes it
+			this.finish(segment, this.segment_records);
+		}
+	}
+
+	/** Append a message with its nanosecond timestamp. */
+	public void write(Message msg) {
+		int flags = 0;
+		if (msg.is_extended_id != null && msg.is_extended_id.booleanValue())
+			flags |= TraceFormat.FLAG_EXTENDED_ID;
+		flags |= flags(msg.is_remote_frame, msg.is_error_frame, msg.is_fd, msg.bitrate_switch,
+				msg.error_state_indicator);
+		int length = Math.min(Math.max(msg.dlc, 0), TraceFormat.MAX_DATA_LENGTH);
+		if (!msg.is_remote_frame)
+			length = msg.data == null ? 0 : Math.min(length, msg.data.length);
+		this.write(msg.timestamp_ns(), msg.channel, msg.arbitration_id, flags, msg.data, 0, length);
+	}
+
+	/** Append a pooled frame with its nanosecond timestamp. */
+	public void write(Frame frame) {
+		int flags = frame.is_extended_id ? TraceFormat.FLAG_EXTENDED_ID : 0;
+		flags |= flags(frame.is_remote_frame, frame.is_error_frame, frame.is_fd, frame.bitrate_switch,
+				frame.error_state_indicator);
+		this.write(frame.timestamp_ns(), frame.channel, frame.arbitration_id, flags, frame.data, 0,
+				frame.length);
+	}
+
+	private static int flags(boolean is_remote_frame, boolean is_error_frame, boolean is_fd, boolean bitrate_switch,
+			boolean error_state_indicator) {
+		int flags = 0;
+		if (is_remote_frame)
+			flags |= TraceFormat.FLAG_REMOTE_FRAME;
+		if (is_error_frame)
+			flags |= TraceFormat.FLAG_ERROR_FRAME;
+		if (is_fd)
+			flags |= TraceFormat.FLAG_FD;
+		if (bitrate_switch)
+			flags |= TraceFormat.FLAG_BITRATE_SWITCH;
+		if (error_state_indicator)
+			flags |= TraceFormat.FLAG_ERROR_STATE_INDICATOR;
+		return flags;
+	}
+
+	/**
+	 * Find the segment of a record, starting from a segment read before the record
+	 * was claimed. Creates the segment if the record is its first one.
+	 */
+	private Segment segment_for(Segment segment, long seq) {
+		int number = (int) (seq / this.segment_records);
+		while (segment.number < number) {
+			Segment next = segment.next;
+			if (next != null) {
+				segment = next;
+				continue;
+			}
+			if (segment.number == number - 1 && seq % this.segment_records == 0) {
+				// first record of the next segment: create it
+				try {
+					next = this.create_segment(number);
+				} catch (IOException e) {
+					this.error = e;
+					throw new IllegalStateException("Cannot create segment " + number + " of " + this.base_name, e);
+				}
+				segment.next = next;
+				this.current = next;
+				segment = next;
+				continue;
+			}
+			if (this.error != null)
+				throw new IllegalStateException("Cannot create segment of " + this.base_name, this.error);
+			Thread.yield();
+		}
+		return segment;
+	}
+
+	private void finish(Segment segment, long count) {
+		segment.buffer.putLong(TraceFormat.HEADER_COUNT, count);
+		segment.buffer.force();
+	}
+
+	/** @return the number of records written so far */
+	public long count() {
+		long seq = this.sequence.get();
+		return seq >= CLOSED ? seq - CLOSED : seq;
+	}
+
+	/**
+	 * Write the header of the last segment and flush it to disk. Writes still in
+	 * progress in other threads are completed first, later writes fail.
+	 */
+	@Override
+	public void close() {
+		long end = this.sequence.getAndAdd(CLOSED);
+		if (end >= CLOSED)
+			return;
+		Segment segment = this.segment_for(this.current, end == 0 ? 0 : end - 1);
+		int count = (int) (end - segment.first);
+		while (segment.written.get() < count) {
+			Thread.yield();
+		}
+		this.finish(segment, count);
+	}
+
+	@Override
+	public void on_message_received(Message msg) {
+		this.write(msg);
+	}
+
+	@Override
+	public void on_error(Exception exc) {
+		logger.warn("Error in receive thread, trace " + this.base_name + " may be incomplete: " + exc);
+	}
+
+	@Override
+	public void stop() {
+		this.close();
+	}
+}
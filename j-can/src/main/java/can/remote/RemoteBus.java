@@ -0,0 +1,269 @@
+package can.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+import can.BusABC;
+import can.CanError;
+import can.Filter;
+import can.Frame;
+import can.Message;
+import can.RecvResult;
+
+/**
+ * A bus shared by a :class:`~can.remote.RemoteServer`, possibly in another
+ * process.
+ *
+ * The filters set with :meth:`~can.BusABC.set_filters` are sent to the
+ * server, which only forwards the matching messages. Messages sent by this bus
+ * are received by the other clients of the server, not by this one.
+ */
+public class RemoteBus extends BusABC {
+
+	/** Default time to wait for the connection, unit=millisecond */
+	public static final long DEFAULT_CONNECT_TIMEOUT = 5000;
+
+	private final SocketChannel channel;
+	private final Selector read_selector;
+	private final Selector write_selector;
+	/**
+	 * bytes received, from its position, the next message to decode, to its
+	 * limit, the end of the data read
+	 */
+	private final ByteBuffer input = ByteBuffer.allocate(1 << 16);
+	private final Frame frame = new Frame();
+	private final Object write_lock = new Object();
+	private ByteBuffer output = ByteBuffer.allocate(4096);
+
+	/**
+	 * Connect to a server.
+	 *
+	 * @param host            host name or address of the server. Default:
+	 *                        localhost
+	 * @param port            port of the server. Default: 29536
+	 * @param can_filters     See :meth:`~can.BusABC.set_filters` for details.
+	 * @param connect_timeout time to wait for the connection, unit=millisecond.
+	 *                        Default: 5000
+	 * @param args            Unused
+	 * @throws CanError if the server cannot be reached
+	 */
+	public RemoteBus(String host, Integer port, List<Filter> can_filters, Long connect_timeout, String[] args)
+			throws CanError {
+		super(host, null, args);
+
+		// Default value if input is null
+		if (host == null)
+			host = "localhost";
+		if (port == null)
+			port = RemoteServer.DEFAULT_PORT;
+		if (connect_timeout == null)
+			connect_timeout = DEFAULT_CONNECT_TIMEOUT;
+
+		this.channel_info = "Remote bus " + host + ":" + port;
+		this.input.limit(0);
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.socket().connect(new InetSocketAddress(host, port), connect_timeout.intValue());
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.configureBlocking(false);
+			this.channel = channel;
+			this.read_selector = Selector.open();
+			this.write_selector = Selector.open();
+			channel.register(this.read_selector, SelectionKey.OP_READ);
+			channel.register(this.write_selector, SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+				}
+			}
+			throw new CanError("Cannot connect to " + host + ":" + port, e);
+		}
+		this.set_filters(can_filters);
+	}
+
+	public RemoteBus(String host, Integer port) throws CanError {
+		this(host, port, null, null, null);
+	}
+
+	/** Send the filters to the server, called by :meth:`~can.BusABC.set_filters` */
+	@Override
+	public void _apply_filters(List<Filter> filters) {
+		// called by the constructor of BusABC before connecting
+		if (this.channel == null)
+			return;
+		synchronized (this.write_lock) {
+			try {
+				this.write_fully(RemoteProtocol.encode_filters(filters));
+			} catch (IOException e) {
+				logger.warn("Cannot send the filters to " + this.channel_info + ": " + e);
+			}
+		}
+	}
+
+	@Override
+	public boolean _recv_internal(Long timeout, RecvResult result) throws Exception {
+		long deadline = timeout == null ? 0 : System.nanoTime() + timeout * 1_000_000L;
+		while (true) {
+			if (this.next_frame())
+				return result.set(this.frame.to_message(), false);
+			if (!this.fill(timeout == null ? null : deadline))
+				return result.set(null, false);
+		}
+	}
+
+	/** Decode every message already received, waiting only for the first one. */
+	@Override
+	public int recv_batch(Message[] out, int max, Long timeout) throws Exception {
+		if (max > out.length)
+			max = out.length;
+		if (max <= 0)
+			return 0;
+
+		long deadline = timeout == null ? 0 : System.nanoTime() + timeout * 1_000_000L;
+		int count = 0;
+		while (true) {
+			while (count < max && this.next_frame()) {
+				Message msg = this.frame.to_message();
+				if (this._match_filters(msg)) {
+					this._count_received(msg);
+					out[count++] = msg;
+				}
+			}
+			if (count > 0 || !this.fill(timeout == null ? null : deadline))
+				return count;
+		}
+	}
+
+	/**
+	 * Decode the next message of the input buffer into :attr:`frame`. The buffer
+	 * is only compacted by :meth:`fill`, once per read.
+	 */
+	private boolean next_frame() {
+		ByteBuffer input = this.input;
+		while (true) {
+			int size = RemoteProtocol.frame_size(input);
+			if (size < 0 || size > input.remaining())
+				return false;
+			if (input.get(input.position()) == RemoteProtocol.MESSAGE) {
+				RemoteProtocol.get_message(input, this.frame);
+				return true;
+			}
+			// only clients send filters
+			input.position(input.position() + size);
+		}
+	}
+
+	/**
+	 * Read from the socket, waiting until data arrives or the deadline passes.
+	 *
+	 * @param deadline {@link System#nanoTime()} to give up, null waits
+	 *                 indefinitely
+	 * @return false on timeout
+	 * @throws CanError if the connection is lost
+	 */
+	private boolean fill(Long deadline) throws CanError {
+		ByteBuffer input = this.input;
+		// keep the partial message at the start, append after it
+		input.compact();
+		try {
+			while (true) {
+				int read = this.channel.read(input);
+				if (read < 0)
+					throw new CanError("Connection closed by " + this.channel_info);
+				if (read > 0)
+					return true;
+				long wait = 0;
+				if (deadline != null) {
+					wait = (deadline - System.nanoTime()) / 1_000_000L;
+					if (wait <= 0)
+						return false;
+				}
+				this.read_selector.select(wait);
+				this.read_selector.selectedKeys().clear();
+			}
+		} catch (CanError e) {
+			throw e;
+		} catch (IOException e) {
+			throw new CanError("Cannot read from " + this.channel_info, e);
+		} finally {
+			input.flip();
+		}
+	}
+
+	/** Write the whole buffer, waiting for the socket if its buffer is full */
+	private void write_fully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (this.channel.write(buffer) == 0) {
+				this.write_selector.select();
+				this.write_selector.selectedKeys().clear();
+			}
+		}
+	}
+
+	@Override
+	public void send(Message msg, Long timeout) {
+		this.send_batch(new Message[] { msg }, 1);
+	}
+
+	@Override
+	public void send(Message msg) {
+		this.send(msg, null);
+	}
+
+	/**
+	 * Encode the messages into one buffer written with a single call. The timeout
+	 * is not used: a message written partly must be completed to keep the stream
+	 * in sync.
+	 */
+	@Override
+	public int send_batch(Message[] msgs, int count, Long timeout) {
+		synchronized (this.write_lock) {
+			int size = 0;
+			for (int i = 0; i < count; i++) {
+				size += RemoteProtocol.message_size(msgs[i]);
+			}
+			if (size > this.output.capacity())
+				this.output = ByteBuffer.allocate(Math.max(size, 2 * this.output.capacity()));
+			ByteBuffer output = this.output;
+			output.clear();
+			for (int i = 0; i < count; i++) {
+				RemoteProtocol.put_message(output, msgs[i]);
+			}
+			output.flip();
+			try {
+				this.write_fully(output);
+			} catch (IOException e) {
+				logger.warn("Error happened when sending message. " + e.getMessage());
+			}
+			// the messages written completely
+			int sent = 0;
+			for (int end = 0; sent < count; sent++) {
+				end += RemoteProtocol.message_size(msgs[sent]);
+				if (end > output.position())
+					break;
+				this._count_sent(msgs[sent]);
+			}
+			return sent;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		try {
+			this.channel.close();
+			this.read_selector.close();
+			this.write_selector.close();
+		} catch (IOException e) {
+			logger.warn("Cannot close " + this.channel_info + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package can.remote;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import can.Filter;
+import can.Frame;
+import can.Message;
+
+/**
+ * Binary framing between :class:`~can.remote.RemoteServer` and
+ * :class:`~can.remote.RemoteBus`, all values big-endian.
+ *
+ * Every frame starts with its type byte:
+ * <ul>
+ * <li>``MESSAGE``: flags (u8), channel (u8), payload length (u8), arbitration
+ * ID (u32), timestamp in nanoseconds (i64), then the payload. Remote frames
+ * carry their length but no payload.</li>
+ * <li>``FILTERS``: count (u16), then for each filter can_id (u32), can_mask
+ * (u32) and extended (u8: 0 standard, 1 extended, 2 both). Sent by the client,
+ * replaces the filters the server applies for it.</li>
+ * </ul>
+ */
+final class RemoteProtocol {
+
+	static final byte MESSAGE = 1;
+	static final byte FILTERS = 2;
+
+	static final int MESSAGE_HEADER_SIZE = 16;
+	static final int FILTERS_HEADER_SIZE = 3;
+	static final int FILTER_SIZE = 9;
+	/** Largest frame, the filters frame with 65535 filters */
+	static final int MAX_FRAME_SIZE = FILTERS_HEADER_SIZE + 0xFFFF * FILTER_SIZE;
+
+	static final int FLAG_EXTENDED_ID = 0x01;
+	static final int FLAG_REMOTE_FRAME = 0x02;
+	static final int FLAG_ERROR_FRAME = 0x04;
+	static final int FLAG_FD = 0x08;
+	static final int FLAG_BITRATE_SWITCH = 0x10;
+	static final int FLAG_ERROR_STATE_INDICATOR = 0x20;
+
+	private RemoteProtocol() {
+	}
+
+	/** @return the number of payload bytes sent for the message */
+	static int payload_length(Message msg) {
+		if (msg.is_remote_frame || msg.data == null)
+			return 0;
+		return Math.min(Math.min(Math.max(msg.dlc, 0), msg.data.length), Frame.MAX_DATA_LENGTH);
+	}
+
+	/** @return the size of the encoded message */
+	static int message_size(Message msg) {
+		return MESSAGE_HEADER_SIZE + payload_length(msg);
+	}
+
+	/** Append a message to the buffer, which must have :meth:`message_size` bytes left */
+	static void put_message(ByteBuffer buffer, Message msg) {
+		int flags = 0;
+		if (msg.is_extended_id != null && msg.is_extended_id.booleanValue())
+			flags |= FLAG_EXTENDED_ID;
+		if (msg.is_remote_frame)
+			flags |= FLAG_REMOTE_FRAME;
+		if (msg.is_error_frame)
+			flags |= FLAG_ERROR_FRAME;
+		if (msg.is_fd)
+			flags |= FLAG_FD;
+		if (msg.bitrate_switch)
+			flags |= FLAG_BITRATE_SWITCH;
+		if (msg.error_state_indicator)
+			flags |= FLAG_ERROR_STATE_INDICATOR;
+		int payload = payload_length(msg);
+		buffer.put(MESSAGE);
+		buffer.put((byte) flags);
+		buffer.put((byte) msg.channel);
+		buffer.put((byte) (msg.is_remote_frame ? Math.min(Math.max(msg.dlc, 0), Frame.MAX_DATA_LENGTH) : payload));
+		buffer.putInt((int) msg.arbitration_id);
+		buffer.putLong(msg.timestamp_ns());
+		buffer.put(msg.data, 0, payload);
+	}
+
+	/** Encode a filters frame, null or no filters match every message */
+	static ByteBuffer encode_filters(List<Filter> filters) {
+		int count = filters == null ? 0 : filters.size();
+		if (count > 0xFFFF)
+			throw new IllegalArgumentException("Too many filters: " + count);
+		ByteBuffer buffer = ByteBuffer.allocate(FILTERS_HEADER_SIZE + count * FILTER_SIZE);
+		buffer.put(FILTERS);
+		buffer.putShort((short) count);
+		for (int i = 0; i < count; i++) {
+			Filter filter = filters.get(i);
+			buffer.putInt((int) filter.can_id);
+			buffer.putInt((int) filter.can_mask);
+			buffer.put((byte) (filter.extended == null ? 2 : filter.extended.booleanValue() ? 1 : 0));
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * @param buffer buffer in read mode, positioned at the start of a frame
+	 * @return the size of the frame at the position, or -1 if not enough bytes
+	 *         are available to tell
+	 * @exception IllegalStateException if the frame is malformed
+	 */
+	static int frame_size(ByteBuffer buffer) {
+		int position = buffer.position();
+		int available = buffer.remaining();
+		if (available < 1)
+			return -1;
+		byte type = buffer.get(position);
+		switch (type) {
+		case MESSAGE:
+			if (available < MESSAGE_HEADER_SIZE)
+				return -1;
+			int length = buffer.get(position + 3) & 0xFF;
+			if (length > Frame.MAX_DATA_LENGTH)
+				throw new IllegalStateException("Invalid payload length " + length);
+			boolean remote = (buffer.get(position + 1) & FLAG_REMOTE_FRAME) != 0;
+			return MESSAGE_HEADER_SIZE + (remote ? 0 : length);
+		case FILTERS:
+			if (available < FILTERS_HEADER_SIZE)
+				return -1;
+			return FILTERS_HEADER_SIZE + (buffer.getShort(position + 1) & 0xFFFF) * FILTER_SIZE;
+		default:
+			throw new IllegalStateException("Unknown frame type " + type);
+		}
+	}
+
+	/** Decode a message frame, the buffer is moved past it */
+	static void get_message(ByteBuffer buffer, Frame frame) {
+		buffer.get();
+		int flags = buffer.get();
+		frame.is_extended_id = (flags & FLAG_EXTENDED_ID) != 0;
+		frame.is_remote_frame = (flags & FLAG_REMOTE_FRAME) != 0;
+		frame.is_error_frame = (flags & FLAG_ERROR_FRAME) != 0;
+		frame.is_fd = (flags & FLAG_FD) != 0;
+		frame.bitrate_switch = (flags & FLAG_BITRATE_SWITCH) != 0;
+		frame.error_state_indicator = (flags & FLAG_ERROR_STATE_INDICATOR) != 0;
+		frame.channel = buffer.get() & 0xFF;
+		int length = buffer.get() & 0xFF;
+		frame.arbitration_id = buffer.getInt() & 0xFFFFFFFFL;
+		frame.timestamp_ns(buffer.getLong());
+		// remote frames carry a length but no data
+		int payload = frame.is_remote_frame ? 0 : length;
+		buffer.get(frame.data, 0, payload);
+		if (payload < frame.length)
+			Arrays.fill(frame.data, payload, frame.length, (byte) 0);
+		frame.length = length;
+	}
+
+	/** Decode a filters frame, the buffer is moved past it */
+	static List<Filter> get_filters(ByteBuffer buffer) {
+		buffer.get();
+		int count = buffer.getShort() & 0xFFFF;
+		List<Filter> filters = new ArrayList<Filter>(count);
+		for (int i = 0; i < count; i++) {
+			long can_id = buffer.getInt() & 0xFFFFFFFFL;
+			long can_mask = buffer.getInt() & 0xFFFFFFFFL;
+			int extended = buffer.get();
+			filters.add(new Filter(can_id, can_mask, extended == 2 ? null : extended == 1));
+		}
+		return filters;
+	}
+}
@@ -0,0 +1,409 @@
+package can.remote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.BusABC;
+import can.Clock;
+import can.FilterMatcher;
+import can.Frame;
+import can.Message;
+
+/**
+ * Shares one bus with any number of :class:`~can.remote.RemoteBus` clients
+ * over TCP.
+ *
+ * The bus is read by one thread. Each batch of received messages is encoded
+ * once into a single buffer; each client gets read-only slices of it for the
+ * messages its filters accept, which the selector thread writes with one
+ * gathering write. Messages sent by a client are sent on the bus and, like on
+ * a real bus, delivered to the other clients.
+ *
+ * A client which does not read fast enough loses messages once more than
+ * ``max_backlog`` bytes are waiting for it, without slowing down the others.
+ */
+public class RemoteServer implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(RemoteServer.class);
+
+	/** Default port of the server */
+	public static final int DEFAULT_PORT = 29536;
+	/** Default number of bytes which may wait for a client before dropping */
+	public static final int DEFAULT_MAX_BACKLOG = 1 << 20;
+	/** Number of messages read from the bus at once */
+	private static final int BATCH_SIZE = 64;
+	/** Time the bus reader waits for messages before checking for close, unit=millisecond */
+	private static final long TIMEOUT = 100;
+	private static final ByteBuffer[] NO_BUFFERS = new ByteBuffer[0];
+
+	/** The state of one connected client */
+	private final class Client {
+		final SocketChannel channel;
+		SelectionKey key;
+		ByteBuffer input = ByteBuffer.allocate(4096);
+		volatile FilterMatcher matcher = FilterMatcher.MATCH_ALL;
+
+		/** slices handed over by other threads, written by the selector thread */
+		final Queue<ByteBuffer[]> output = new ConcurrentLinkedQueue<ByteBuffer[]>();
+		final AtomicLong backlog = new AtomicLong();
+		final AtomicLong dropped = new AtomicLong();
+		/** buffers of a partial write, only used by the selector thread */
+		ByteBuffer[] pending = NO_BUFFERS;
+		int pending_offset;
+
+		Client(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	public final BusABC bus;
+	private final int max_backlog;
+	private final Clock clock = Clock.get_default();
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+	/** clients with new output, to be flushed by the selector thread */
+	private final Queue<Client> ready = new ConcurrentLinkedQueue<Client>();
+	private final Thread selector_thread;
+	private final Thread reader_thread;
+	private volatile boolean running = true;
+
+	/**
+	 * Start serving the bus.
+	 *
+	 * @param bus         the bus to share, it is read by the server only
+	 * @param host        address to listen on. Default: all addresses
+	 * @param port        port to listen on, 0 picks a free port. Default: 29536
+	 * @param max_backlog number of bytes which may wait for one client. Default:
+	 *                    1 MiB
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public RemoteServer(BusABC bus, String host, Integer port, Integer max_backlog) throws IOException {
+		// Default value if input is null
+		if (port == null) {
+			port = DEFAULT_PORT;
+		}
+		if (max_backlog == null) {
+			max_backlog = DEFAULT_MAX_BACKLOG;
+		}
+		this.bus = bus;
+		this.max_backlog = max_backlog;
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		try {
+			this.server.bind(host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+			this.server.configureBlocking(false);
+			this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			this.server.close();
+			this.selector.close();
+			throw e;
+		}
+
+		this.selector_thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				RemoteServer.this._selector_thread();
+			}
+		});
+		this.selector_thread.setName("can.remote server on port " + this.port());
+		this.selector_thread.setDaemon(true);
+		this.selector_thread.start();
+
+		this.reader_thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				RemoteServer.this._rx_thread();
+			}
+		});
+		this.reader_thread.setName("can.remote reader for bus '" + bus + "'");
+		this.reader_thread.setDaemon(true);
+		this.reader_thread.start();
+	}
+
+	public RemoteServer(BusABC bus) throws IOException {
+		this(bus, null, null, null);
+	}
+
+	/** @return the port the server listens on */
+	public int port() {
+		return this.server.socket().getLocalPort();
+	}
+
+	/** @return the number of connected clients */
+	public int clients() {
+		return this.clients.size();
+	}
+
+	/** @return the number of messages lost by all clients because they read too slowly */
+	public long dropped() {
+		long dropped = 0;
+		for (Client client : this.clients) {
+			dropped += client.dropped.get();
+		}
+		return dropped;
+	}
+
+	private void _rx_thread() {
+		Message[] batch = new Message[BATCH_SIZE];
+		while (this.running) {
+			try {
+				int count = this.bus.recv_batch(batch, batch.length, TIMEOUT);
+				if (count > 0)
+					this.distribute(batch, count, null);
+				for (int i = 0; i < count; i++) {
+					batch[i] = null;
+				}
+			} catch (Exception e) {
+				if (this.running)
+					logger.error("Error reading " + this.bus + ", stopping the server: " + e);
+				this.close();
+			}
+		}
+	}
+
+	/**
+	 * Encode the messages once and queue the slices matching the filters of each
+	 * client. Called by the bus reader and the selector thread.
+	 *
+	 * @param exclude the client which sent the messages, or null
+	 */
+	private void distribute(Message[] msgs, int count, Client exclude) {
+		if (this.clients.isEmpty())
+			return;
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			size += RemoteProtocol.message_size(msgs[i]);
+		}
+		ByteBuffer encoded = ByteBuffer.allocate(size);
+		int[] offsets = new int[count + 1];
+		for (int i = 0; i < count; i++) {
+			offsets[i] = encoded.position();
+			RemoteProtocol.put_message(encoded, msgs[i]);
+		}
+		offsets[count] = encoded.position();
+
+		List<ByteBuffer> slices = new ArrayList<ByteBuffer>();
+		for (Client client : this.clients) {
+			if (client == exclude)
+				continue;
+			FilterMatcher matcher = client.matcher;
+			int bytes = 0;
+			int matched = 0;
+			int first = -1;
+			for (int i = 0; i <= count; i++) {
+				boolean match = i < count && matcher.match(msgs[i]);
+				if (match)
+					matched++;
+				if (match && first < 0) {
+					first = i;
+				} else if (!match && first >= 0) {
+					// one slice per run of consecutive matching messages
+					ByteBuffer slice = encoded.duplicate();
+					slice.limit(offsets[i]).position(offsets[first]);
+					slices.add(slice);
+					bytes += offsets[i] - offsets[first];
+					first = -1;
+				}
+			}
+			if (slices.isEmpty())
+				continue;
+			if (client.backlog.get() + bytes > this.max_backlog) {
+				client.dropped.addAndGet(matched);
+			} else {
+				client.backlog.addAndGet(bytes);
+				client.output.add(slices.toArray(NO_BUFFERS));
+				this.ready.add(client);
+			}
+			slices.clear();
+		}
+		if (!this.ready.isEmpty())
+			this.selector.wakeup();
+	}
+
+	private void _selector_thread() {
+		try {
+			while (this.running) {
+				this.selector.select();
+				Client client;
+				while ((client = this.ready.poll()) != null) {
+					if (client.key != null && client.key.isValid())
+						this.flush(client);
+				}
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						this.accept();
+						continue;
+					}
+					client = (Client) key.attachment();
+					try {
+						if (key.isReadable())
+							this.read(client);
+						if (key.isValid() && key.isWritable())
+							this.flush(client);
+					} catch (IOException | RuntimeException e) {
+						logger.info("Closing client " + client.channel.getRemoteAddress() + ": " + e);
+						this.disconnect(client);
+					}
+				}
+			}
+		} catch (IOException e) {
+			if (this.running)
+				logger.error("Error in selector thread, stopping the server: " + e);
+		} finally {
+			for (Client client : this.clients) {
+				this.disconnect(client);
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = this.server.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		Client client = new Client(channel);
+		client.key = channel.register(this.selector, SelectionKey.OP_READ, client);
+		this.clients.add(client);
+		logger.info("Client connected from " + channel.getRemoteAddress());
+	}
+
+	private void disconnect(Client client) {
+		this.clients.remove(client);
+		if (client.key != null)
+			client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/** Read the frames of a client: send its messages, apply its filters. */
+	private void read(Client client) throws IOException {
+		if (client.channel.read(client.input) < 0) {
+			this.disconnect(client);
+			return;
+		}
+		ByteBuffer input = client.input;
+		input.flip();
+		List<Message> msgs = new ArrayList<Message>();
+		Frame frame = new Frame();
+		while (true) {
+			int size = RemoteProtocol.frame_size(input);
+			if (size < 0 || size > input.remaining())
+				break;
+			if (input.get(input.position()) == RemoteProtocol.MESSAGE) {
+				RemoteProtocol.get_message(input, frame);
+				Message msg = frame.to_message();
+				msg.timestamp_ns(this.clock.time_ns());
+				msgs.add(msg);
+			} else {
+				client.matcher = FilterMatcher.compile(RemoteProtocol.get_filters(input));
+			}
+		}
+		int size = RemoteProtocol.frame_size(input);
+		input.compact();
+		if (size > input.capacity()) {
+			// a large filters frame
+			ByteBuffer larger = ByteBuffer.allocate(size);
+			input.flip();
+			larger.put(input);
+			client.input = larger;
+		}
+
+		if (!msgs.isEmpty()) {
+			Message[] batch = msgs.toArray(new Message[msgs.size()]);
+			this.bus.send_batch(batch, batch.length);
+			this.distribute(batch, batch.length, client);
+		}
+	}
+
+	/** Write as much of the output of a client as the socket takes. */
+	private void flush(Client client) throws IOException {
+		while (true) {
+			if (client.pending_offset == client.pending.length) {
+				client.pending = this.drain(client);
+				client.pending_offset = 0;
+				if (client.pending.length == 0) {
+					client.key.interestOps(SelectionKey.OP_READ);
+					return;
+				}
+			}
+			client.channel.write(client.pending, client.pending_offset,
+					client.pending.length - client.pending_offset);
+			while (client.pending_offset < client.pending.length
+					&& !client.pending[client.pending_offset].hasRemaining()) {
+				client.pending[client.pending_offset++] = null;
+			}
+			if (client.pending_offset < client.pending.length) {
+				// the socket buffer is full
+				client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Take the slices queued for the client, in order. They no longer count in
+	 * the backlog: the socket takes them as fast as the client reads.
+	 */
+	private ByteBuffer[] drain(Client client) {
+		List<ByteBuffer> all = new ArrayList<ByteBuffer>();
+		long bytes = 0;
+		ByteBuffer[] buffers;
+		while (all.size() < 1024 && (buffers = client.output.poll()) != null) {
+			for (ByteBuffer buffer : buffers) {
+				all.add(buffer);
+				bytes += buffer.remaining();
+			}
+		}
+		client.backlog.addAndGet(-bytes);
+		return all.toArray(NO_BUFFERS);
+	}
+
+	/** Stop serving, disconnect the clients. The bus is not shut down. */
+	@Override
+	public void close() {
+		if (!this.running)
+			return;
+		this.running = false;
+		this.selector.wakeup();
+		try {
+			this.server.close();
+		} catch (IOException e) {
+		}
+		if (Thread.currentThread() != this.selector_thread) {
+			try {
+				this.selector_thread.join(2 * TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			this.selector.close();
+		} catch (IOException e) {
+		}
+	}
+}
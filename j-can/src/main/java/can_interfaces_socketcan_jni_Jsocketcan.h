@@ -0,0 +1,135 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class can_interfaces_socketcan_jni_Jsocketcan */
+
+#ifndef _Included_can_interfaces_socketcan_jni_Jsocketcan
+#define _Included_can_interfaces_socketcan_jni_Jsocketcan
+#ifdef __cplusplus
+extern "C" {
+#endif
+#undef can_interfaces_socketcan_jni_Jsocketcan_RECORD_SIZE
+#define can_interfaces_socketcan_jni_Jsocketcan_RECORD_SIZE 80L
+#undef can_interfaces_socketcan_jni_Jsocketcan_RECORD_FRAME
+#define can_interfaces_socketcan_jni_Jsocketcan_RECORD_FRAME 8L
+#undef can_interfaces_socketcan_jni_Jsocketcan_FRAME_CAN_ID
+#define can_interfaces_socketcan_jni_Jsocketcan_FRAME_CAN_ID 0L
+#undef can_interfaces_socketcan_jni_Jsocketcan_FRAME_LEN
+#define can_interfaces_socketcan_jni_Jsocketcan_FRAME_LEN 4L
+#undef can_interfaces_socketcan_jni_Jsocketcan_FRAME_FLAGS
+#define can_interfaces_socketcan_jni_Jsocketcan_FRAME_FLAGS 5L
+#undef can_interfaces_socketcan_jni_Jsocketcan_FRAME_DATA
+#define can_interfaces_socketcan_jni_Jsocketcan_FRAME_DATA 8L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CAN_MTU
+#define can_interfaces_socketcan_jni_Jsocketcan_CAN_MTU 16L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CANFD_MTU
+#define can_interfaces_socketcan_jni_Jsocketcan_CANFD_MTU 72L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CAN_EFF_FLAG
+#define can_interfaces_socketcan_jni_Jsocketcan_CAN_EFF_FLAG -2147483648L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CAN_RTR_FLAG
+#define can_interfaces_socketcan_jni_Jsocketcan_CAN_RTR_FLAG 1073741824L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CAN_ERR_FLAG
+#define can_interfaces_socketcan_jni_Jsocketcan_CAN_ERR_FLAG 536870912L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CAN_SFF_MASK
+#define can_interfaces_socketcan_jni_Jsocketcan_CAN_SFF_MASK 2047L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CAN_EFF_MASK
+#define can_interfaces_socketcan_jni_Jsocketcan_CAN_EFF_MASK 536870911L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CAN_ERR_MASK
+#define can_interfaces_socketcan_jni_Jsocketcan_CAN_ERR_MASK 536870911L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CANFD_BRS
+#define can_interfaces_socketcan_jni_Jsocketcan_CANFD_BRS 1L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CANFD_ESI
+#define can_interfaces_socketcan_jni_Jsocketcan_CANFD_ESI 2L
+#undef can_interfaces_socketcan_jni_Jsocketcan_CANFD_FDF
+#define can_interfaces_socketcan_jni_Jsocketcan_CANFD_FDF 4L
+#undef can_interfaces_socketcan_jni_Jsocketcan_EAGAIN
+#define can_interfaces_socketcan_jni_Jsocketcan_EAGAIN 11L
+#undef can_interfaces_socketcan_jni_Jsocketcan_EINTR
+#define can_interfaces_socketcan_jni_Jsocketcan_EINTR 4L
+#undef can_interfaces_socketcan_jni_Jsocketcan_TIMESTAMP_SOFTWARE
+#define can_interfaces_socketcan_jni_Jsocketcan_TIMESTAMP_SOFTWARE 1L
+#undef can_interfaces_socketcan_jni_Jsocketcan_TIMESTAMP_HARDWARE
+#define can_interfaces_socketcan_jni_Jsocketcan_TIMESTAMP_HARDWARE 2L
+/*
+ * Class:     can_interfaces_socketcan_jni_Jsocketcan
+ * Method:    open
+ * Signature: (Ljava/lang/String;ZZZ)I
+ */
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_open
+  (JNIEnv *, jclass, jstring, jboolean, jboolean, jboolean);
+
+/*
+ * Class:     can_interfaces_socketcan_jni_Jsocketcan
+ * Method:    close
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_close
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     can_interfaces_socketcan_jni_Jsocketcan
+ * Method:    timestamp_mode
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_timestamp_1mode
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     can_interfaces_socketcan_jni_Jsocketcan
+ * Method:    time_ns
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_time_1ns
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     can_interfaces_socketcan_jni_Jsocketcan
+ * Method:    set_filters
+ * Signature: (I[I[II)I
+ */
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_set_1filters
+  (JNIEnv *, jclass, jint, jintArray, jintArray, jint);
+
+/*
+ * Class:     can_interfaces_socketcan_jni_Jsocketcan
+ * Method:    set_receive_all
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_set_1receive_1all
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     can_interfaces_socketcan_jni_Jsocketcan
+ * Method:    set_error_filter
+ * Signature: (II)I
+ */
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_set_1error_1filter
+  (JNIEnv *, jclass, jint, jint);
+
+/*
+ * Class:     can_interfaces_socketcan_jni_Jsocketcan
+ * Method:    recv_batch
+ * Signature: (ILjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_recv_1batch
+  (JNIEnv *, jclass, jint, jobject, jint, jint);
+
+/*
+ * Class:     can_interfaces_socketcan_jni_Jsocketcan
+ * Method:    send_batch
+ * Signature: (ILjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_send_1batch
+  (JNIEnv *, jclass, jint, jobject, jint, jint);
+
+/*
+ * Class:     can_interfaces_socketcan_jni_Jsocketcan
+ * Method:    strerror
+ * Signature: (I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_strerror
+  (JNIEnv *, jclass, jint);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
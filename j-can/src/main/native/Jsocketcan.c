@@ -0,0 +1,316 @@
+/*
+ * JNI shim for can.interfaces.socketcan.jni.Jsocketcan, raw AF_CAN sockets.
+ *
+ * Build on Linux with:
+ *   gcc -shared -fPIC -O2 -I"$JAVA_HOME/include" -I"$JAVA_HOME/include/linux" \
+ *       -I../java -o libJsocketcan.so Jsocketcan.c
+ * and put libJsocketcan.so on java.library.path.
+ */
+#define _GNU_SOURCE
+#include <errno.h>
+#include <fcntl.h>
+#include <net/if.h>
+#include <stdio.h>
+#include <poll.h>
+#include <string.h>
+#include <sys/ioctl.h>
+#include <sys/socket.h>
+#include <sys/uio.h>
+#include <time.h>
+#include <unistd.h>
+
+#include <linux/can.h>
+#include <linux/can/raw.h>
+#include <linux/errqueue.h>
+#include <linux/ethtool.h>
+#include <linux/net_tstamp.h>
+#include <linux/sockios.h>
+
+#include "can_interfaces_socketcan_jni_Jsocketcan.h"
+
+#define RECORD_SIZE can_interfaces_socketcan_jni_Jsocketcan_RECORD_SIZE
+#define RECORD_FRAME can_interfaces_socketcan_jni_Jsocketcan_RECORD_FRAME
+#define MAX_BATCH 256
+#define CONTROL_SIZE 256
+
+#define MAX_SOCKETS 1024
+/* clock id of a PTP hardware clock device, see FD_TO_CLOCKID in the kernel */
+#define PHC_CLOCKID(fd) ((~(clockid_t) (fd) << 3) | 3)
+
+/*
+ * Time domain of the receive timestamps of each socket, chosen at open:
+ * 0: none, 1: software (CLOCK_REALTIME), 2: raw hardware time of the PTP clock
+ * phc_fd[s], only when the controller stamps frames with a clock we can read.
+ */
+static int timestamp_mode[MAX_SOCKETS];
+static int phc_fd[MAX_SOCKETS];
+
+/** @return the PTP clock of the interface stamping received frames, or -1 */
+static int open_phc(int s, struct ifreq *ifr) {
+	struct ethtool_ts_info info;
+	memset(&info, 0, sizeof(info));
+	info.cmd = ETHTOOL_GET_TS_INFO;
+	ifr->ifr_data = (void *) &info;
+	if (ioctl(s, SIOCETHTOOL, ifr) < 0)
+		return -1;
+	int needed = SOF_TIMESTAMPING_RX_HARDWARE | SOF_TIMESTAMPING_RAW_HARDWARE;
+	if ((info.so_timestamping & needed) != needed || info.phc_index < 0)
+		return -1;
+	char path[32];
+	snprintf(path, sizeof(path), "/dev/ptp%d", info.phc_index);
+	return open(path, O_RDONLY);
+}
+
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_open(JNIEnv *env, jclass cls, jstring ifname,
+		jboolean fd, jboolean receive_own, jboolean hardware_timestamps) {
+	struct sockaddr_can addr;
+	struct ifreq ifr;
+	int enable = 1;
+	int phc = -1;
+	int s = socket(PF_CAN, SOCK_RAW, CAN_RAW);
+	if (s < 0)
+		return -errno;
+
+	const char *name = (*env)->GetStringUTFChars(env, ifname, NULL);
+	memset(&ifr, 0, sizeof(ifr));
+	strncpy(ifr.ifr_name, name, IFNAMSIZ - 1);
+	(*env)->ReleaseStringUTFChars(env, ifname, name);
+	if (ioctl(s, SIOCGIFINDEX, &ifr) < 0)
+		goto error;
+	int ifindex = ifr.ifr_ifindex;
+
+	if (fd && setsockopt(s, SOL_CAN_RAW, CAN_RAW_FD_FRAMES, &enable, sizeof(enable)) < 0)
+		goto error;
+	if (receive_own && setsockopt(s, SOL_CAN_RAW, CAN_RAW_RECV_OWN_MSGS, &enable, sizeof(enable)) < 0)
+		goto error;
+
+	/* one time domain for all the frames of the socket, hardware only if its clock can be read */
+	if (hardware_timestamps && s < MAX_SOCKETS)
+		phc = open_phc(s, &ifr);
+	int mode = 1;
+	int flags = SOF_TIMESTAMPING_RX_SOFTWARE | SOF_TIMESTAMPING_SOFTWARE;
+	if (phc >= 0) {
+		mode = 2;
+		flags = SOF_TIMESTAMPING_RX_HARDWARE | SOF_TIMESTAMPING_RAW_HARDWARE;
+	}
+	if (setsockopt(s, SOL_SOCKET, SO_TIMESTAMPING, &flags, sizeof(flags)) < 0) {
+		/* fall back to the plain software timestamp */
+		if (setsockopt(s, SOL_SOCKET, SO_TIMESTAMPNS, &enable, sizeof(enable)) < 0)
+			goto error;
+		mode = 1;
+	}
+	if (mode != 2 && phc >= 0) {
+		close(phc);
+		phc = -1;
+	}
+
+	memset(&addr, 0, sizeof(addr));
+	addr.can_family = AF_CAN;
+	addr.can_ifindex = ifindex;
+	if (bind(s, (struct sockaddr *) &addr, sizeof(addr)) < 0)
+		goto error;
+	if (s < MAX_SOCKETS) {
+		timestamp_mode[s] = mode;
+		phc_fd[s] = phc;
+	}
+	return s;
+
+error: {
+		int err = errno;
+		if (phc >= 0)
+			close(phc);
+		close(s);
+		return -err;
+	}
+}
+
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_close(JNIEnv *env, jclass cls, jint s) {
+	if (s >= 0 && s < MAX_SOCKETS) {
+		if (timestamp_mode[s] == 2)
+			close(phc_fd[s]);
+		timestamp_mode[s] = 0;
+	}
+	return close(s) < 0 ? -errno : 0;
+}
+
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_timestamp_1mode(JNIEnv *env, jclass cls,
+		jint s) {
+	return s >= 0 && s < MAX_SOCKETS ? timestamp_mode[s] : 1;
+}
+
+/** @return the current time in the timestamp domain of a socket, unit=nanosecond */
+static jlong now_ns(int s) {
+	struct timespec now;
+	if (s >= 0 && s < MAX_SOCKETS && timestamp_mode[s] == 2) {
+		if (clock_gettime(PHC_CLOCKID(phc_fd[s]), &now) < 0)
+			return -errno;
+	} else {
+		clock_gettime(CLOCK_REALTIME, &now);
+	}
+	return (jlong) now.tv_sec * 1000000000LL + now.tv_nsec;
+}
+
+JNIEXPORT jlong JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_time_1ns(JNIEnv *env, jclass cls, jint s) {
+	return now_ns(s);
+}
+
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_set_1filters(JNIEnv *env, jclass cls, jint s,
+		jintArray can_ids, jintArray can_masks, jint count) {
+	struct can_filter filters[count > 0 ? count : 1];
+	jint *ids = (*env)->GetIntArrayElements(env, can_ids, NULL);
+	jint *masks = (*env)->GetIntArrayElements(env, can_masks, NULL);
+	for (int i = 0; i < count; i++) {
+		filters[i].can_id = (canid_t) ids[i];
+		filters[i].can_mask = (canid_t) masks[i];
+	}
+	(*env)->ReleaseIntArrayElements(env, can_ids, ids, JNI_ABORT);
+	(*env)->ReleaseIntArrayElements(env, can_masks, masks, JNI_ABORT);
+	if (setsockopt(s, SOL_CAN_RAW, CAN_RAW_FILTER, count > 0 ? filters : NULL, count * sizeof(struct can_filter)) < 0)
+		return -errno;
+	return 0;
+}
+
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_set_1receive_1all(JNIEnv *env, jclass cls,
+		jint s) {
+	struct can_filter filter = { .can_id = 0, .can_mask = 0 };
+	if (setsockopt(s, SOL_CAN_RAW, CAN_RAW_FILTER, &filter, sizeof(filter)) < 0)
+		return -errno;
+	return 0;
+}
+
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_set_1error_1filter(JNIEnv *env, jclass cls,
+		jint s, jint err_mask) {
+	can_err_mask_t mask = (can_err_mask_t) err_mask;
+	if (setsockopt(s, SOL_CAN_RAW, CAN_RAW_ERR_FILTER, &mask, sizeof(mask)) < 0)
+		return -errno;
+	return 0;
+}
+
+/** @return the receive time of a message in the time domain of its socket, unit=nanosecond */
+static jlong timestamp_of(struct msghdr *msg, int s, int mode) {
+	struct cmsghdr *cmsg;
+	for (cmsg = CMSG_FIRSTHDR(msg); cmsg != NULL; cmsg = CMSG_NXTHDR(msg, cmsg)) {
+		if (cmsg->cmsg_level != SOL_SOCKET)
+			continue;
+		if (cmsg->cmsg_type == SO_TIMESTAMPING) {
+			struct timespec *ts = (struct timespec *) CMSG_DATA(cmsg);
+			/* ts[0] software, ts[2] raw hardware: only the one requested at open is set */
+			struct timespec *t = mode == 2 ? &ts[2] : &ts[0];
+			if (t->tv_sec != 0 || t->tv_nsec != 0)
+				return (jlong) t->tv_sec * 1000000000LL + t->tv_nsec;
+			break;
+		}
+		if (cmsg->cmsg_type == SO_TIMESTAMPNS) {
+			struct timespec *ts = (struct timespec *) CMSG_DATA(cmsg);
+			return (jlong) ts->tv_sec * 1000000000LL + ts->tv_nsec;
+		}
+	}
+	/* not stamped: the time of reception, still in the domain of the socket */
+	return now_ns(s);
+}
+
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_recv_1batch(JNIEnv *env, jclass cls, jint s,
+		jobject buffer, jint max, jint timeout_ms) {
+	char *records = (char *) (*env)->GetDirectBufferAddress(env, buffer);
+	jlong capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+	if (records == NULL)
+		return -EINVAL;
+	if (max > capacity / RECORD_SIZE)
+		max = (jint) (capacity / RECORD_SIZE);
+	if (max > MAX_BATCH)
+		max = MAX_BATCH;
+	if (max <= 0)
+		return 0;
+
+	struct pollfd pfd = { .fd = s, .events = POLLIN };
+	int ready = poll(&pfd, 1, timeout_ms < 0 ? -1 : timeout_ms);
+	if (ready < 0)
+		return errno == EINTR ? 0 : -errno;
+	if (ready == 0)
+		return 0;
+
+	struct mmsghdr msgs[MAX_BATCH];
+	struct iovec iovs[MAX_BATCH];
+	char control[MAX_BATCH][CONTROL_SIZE];
+	memset(msgs, 0, sizeof(struct mmsghdr) * max);
+	for (int i = 0; i < max; i++) {
+		iovs[i].iov_base = records + (size_t) i * RECORD_SIZE + RECORD_FRAME;
+		iovs[i].iov_len = sizeof(struct canfd_frame);
+		msgs[i].msg_hdr.msg_iov = &iovs[i];
+		msgs[i].msg_hdr.msg_iovlen = 1;
+		msgs[i].msg_hdr.msg_control = control[i];
+		msgs[i].msg_hdr.msg_controllen = CONTROL_SIZE;
+	}
+	int count = recvmmsg(s, msgs, max, MSG_DONTWAIT, NULL);
+	if (count < 0)
+		return (errno == EAGAIN || errno == EINTR) ? 0 : -errno;
+
+	int mode = s < MAX_SOCKETS ? timestamp_mode[s] : 1;
+	for (int i = 0; i < count; i++) {
+		char *record = records + (size_t) i * RECORD_SIZE;
+		struct canfd_frame *frame = (struct canfd_frame *) (record + RECORD_FRAME);
+		if (msgs[i].msg_len == CAN_MTU) {
+			/* classic frame: len is the DLC, flags are undefined */
+			frame->flags = 0;
+		} else {
+			frame->flags |= CANFD_FDF;
+		}
+		*(jlong *) record = timestamp_of(&msgs[i].msg_hdr, s, mode);
+	}
+	return count;
+}
+
+JNIEXPORT jint JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_send_1batch(JNIEnv *env, jclass cls, jint s,
+		jobject buffer, jint count, jint timeout_ms) {
+	char *records = (char *) (*env)->GetDirectBufferAddress(env, buffer);
+	if (records == NULL)
+		return -EINVAL;
+	if (count > MAX_BATCH)
+		count = MAX_BATCH;
+
+	struct mmsghdr msgs[MAX_BATCH];
+	struct iovec iovs[MAX_BATCH];
+	memset(msgs, 0, sizeof(struct mmsghdr) * count);
+	for (int i = 0; i < count; i++) {
+		char *record = records + (size_t) i * RECORD_SIZE;
+		iovs[i].iov_base = record + RECORD_FRAME;
+		iovs[i].iov_len = (size_t) *(jlong *) record;
+		msgs[i].msg_hdr.msg_iov = &iovs[i];
+		msgs[i].msg_hdr.msg_iovlen = 1;
+	}
+
+	struct timespec now;
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	long long deadline = now.tv_sec * 1000LL + now.tv_nsec / 1000000 + timeout_ms;
+
+	int sent = 0;
+	while (sent < count) {
+		int n = sendmmsg(s, msgs + sent, count - sent, 0);
+		if (n < 0) {
+			if (errno == EINTR)
+				continue;
+			if (errno == ENOBUFS || errno == EAGAIN) {
+				/* transmit queue full, wait until it drains or the timeout expires */
+				int wait = 10;
+				if (timeout_ms >= 0) {
+					clock_gettime(CLOCK_MONOTONIC, &now);
+					long long left = deadline - (now.tv_sec * 1000LL + now.tv_nsec / 1000000);
+					if (left <= 0)
+						return sent;
+					if (left < wait)
+						wait = (int) left;
+				}
+				struct pollfd pfd = { .fd = s, .events = POLLOUT };
+				poll(&pfd, 1, wait);
+				continue;
+			}
+			return sent > 0 ? sent : -errno;
+		}
+		sent += n;
+	}
+	return sent;
+}
+
+JNIEXPORT jstring JNICALL Java_can_interfaces_socketcan_jni_Jsocketcan_strerror(JNIEnv *env, jclass cls, jint err) {
+	return (*env)->NewStringUTF(env, strerror(err));
+}
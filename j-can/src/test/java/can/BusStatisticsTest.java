@@ -0,0 +1,143 @@
+package can;
+
+import org.junit.Test;
+
+import can.interfaces.virtual.VirtualBus;
+import junit.framework.TestCase;
+
+public class BusStatisticsTest extends TestCase {
+
+	private static Message make_message(long arbitration_id, boolean is_extended_id, int length, boolean is_fd)
+			throws Exception {
+		return new Message(0, arbitration_id, is_extended_id, null, null, null, null, new byte[length], is_fd, is_fd,
+				null, null);
+	}
+
+	@Test
+	public void test_counts_received_and_sent() throws Exception {
+		VirtualBus tx = new VirtualBus("test_counts_received_and_sent");
+		VirtualBus rx = new VirtualBus("test_counts_received_and_sent");
+		BusStatistics tx_statistics = tx.enable_statistics(null, null);
+		BusStatistics rx_statistics = rx.enable_statistics(null, null);
+
+		for (int i = 0; i < 10; i++) {
+			tx.send(make_message(0x7E0, false, 8, false));
+		}
+		tx.send(make_message(0x18DAF110, true, 12, true));
+		Message remote = make_message(0x123, false, 0, false);
+		remote.is_remote_frame = true;
+		tx.send(remote);
+		Message error = make_message(0, false, 0, false);
+		error.is_error_frame = true;
+		tx.send(error);
+
+		Message[] batch = new Message[4];
+		int received = 0;
+		while (received < 13) {
+			int count = rx.recv_batch(batch, batch.length, 1000L);
+			TestCase.assertTrue(count > 0);
+			received += count;
+		}
+
+		BusStatistics.Report report = rx_statistics.snapshot();
+		TestCase.assertEquals(13, report.received);
+		TestCase.assertEquals(0, report.sent);
+		TestCase.assertEquals(1, report.error_frames);
+		TestCase.assertEquals(1, report.remote_frames);
+		TestCase.assertEquals(1, report.fd_frames);
+		TestCase.assertEquals(3, report.ids.size());
+		TestCase.assertEquals(0x123, report.ids.get(0).arbitration_id);
+		TestCase.assertEquals(10, report.get(0x7E0, false).count);
+		TestCase.assertEquals(1, report.get(0x18DAF110, true).count);
+		TestCase.assertNull(report.get(0x7E0, true));
+
+		BusStatistics.Report sent = tx_statistics.snapshot();
+		TestCase.assertEquals(13, sent.sent);
+		TestCase.assertEquals(report.busy_time, sent.busy_time);
+
+		rx.disable_statistics();
+		TestCase.assertNull(rx.statistics());
+		tx.shutdown();
+		rx.shutdown();
+	}
+
+	@Test
+	public void test_bus_load() throws Exception {
+		BusStatistics statistics = new BusStatistics(500_000, 2_000_000);
+		Message classic = make_message(0x100, false, 8, false);
+		for (int i = 0; i < 1000; i++) {
+			statistics.received(classic);
+		}
+		// 135 bits at 500 kbit/s
+		BusStatistics.Report report = statistics.snapshot();
+		TestCase.assertEquals(1000 * 270_000L, report.busy_time);
+		TestCase.assertEquals(1000 * FrameTiming.worst_case_duration(classic, 500_000, 2_000_000), report.busy_time);
+		TestCase.assertTrue(report.average_bus_load > 0 && report.average_bus_load <= 1.0);
+
+		statistics.reset();
+		Message fd = make_message(0x18DAF110, true, 64, true);
+		Frame frame = new Frame().copy_from(fd);
+		statistics.received(fd);
+		statistics.received(frame);
+		report = statistics.snapshot();
+		TestCase.assertEquals(2, report.received);
+		TestCase.assertEquals(2 * FrameTiming.worst_case_duration(fd, 500_000, 2_000_000), report.busy_time);
+		// the load of the window since the previous snapshot only counts newer frames
+		TestCase.assertEquals(0.0, statistics.snapshot().bus_load);
+	}
+
+	@Test
+	public void test_bus_load_window() throws Exception {
+		VirtualClock clock = new VirtualClock();
+		Clock.set_default(clock);
+		try {
+			BusStatistics statistics = new BusStatistics(500_000, null);
+			Message classic = make_message(0x100, false, 8, false);
+			statistics.snapshot();
+			for (int i = 0; i < 1000; i++) {
+				statistics.received(classic);
+			}
+			clock.advance(1_000_000_000L);
+			// 1000 frames of 270 us in the last second
+			BusStatistics.Report report = statistics.snapshot();
+			TestCase.assertEquals(1_000_000_000L, report.elapsed);
+			TestCase.assertEquals(0.27, report.bus_load, 1e-9);
+
+			clock.advance(1_000_000_000L);
+			report = statistics.snapshot();
+			TestCase.assertEquals(0.0, report.bus_load);
+			TestCase.assertEquals(0.135, report.average_bus_load, 1e-9);
+		} finally {
+			Clock.set_default(null);
+		}
+	}
+
+	@Test
+	public void test_inter_arrival_times() throws Exception {
+		BusStatistics statistics = new BusStatistics();
+		Message msg = make_message(0x7E8, false, 8, false);
+		// measured between the timestamps of the frames
+		long[] times = { 0, 10_000_000L, 20_000_000L, 35_000_000L, 45_000_000L };
+		for (long time : times) {
+			msg.timestamp_ns(time);
+			statistics.received(msg);
+		}
+		BusStatistics.IdReport id = statistics.snapshot().get(0x7E8, false);
+		TestCase.assertEquals(5, id.count);
+		long[] histogram = id.histogram();
+		long intervals = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			intervals += histogram[i];
+			if (histogram[i] > 0) {
+				TestCase.assertTrue(BusStatistics.bucket_limit(i) > id.min_interval);
+			}
+		}
+		TestCase.assertEquals(4, intervals);
+		TestCase.assertEquals(10_000_000L, id.min_interval);
+		TestCase.assertEquals(15_000_000L, id.max_interval);
+		TestCase.assertEquals(11_250_000L, id.mean_interval);
+		// standard deviation of 10, 10, 15 and 10 ms
+		TestCase.assertEquals(2_165_063L, id.jitter, 1);
+		TestCase.assertEquals(14, BusStatistics.bucket(10_000_000L));
+	}
+}
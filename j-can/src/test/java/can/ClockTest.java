@@ -0,0 +1,118 @@
+package can;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.function.LongSupplier;
+
+import org.junit.Test;
+
+import can.interfaces.virtual.VirtualBus;
+import can.io.TraceFormat;
+import can.io.TraceReader;
+import can.io.TraceWriter;
+import junit.framework.TestCase;
+
+public class ClockTest extends TestCase {
+
+	/** A clock which only moves when told to */
+	private static class ManualClock extends Clock {
+		long now;
+
+		@Override
+		public long time_ns() {
+			return this.now;
+		}
+	}
+
+	@Test
+	public void test_system_clock() throws Exception {
+		long wall = System.currentTimeMillis();
+		long previous = Clock.SYSTEM.time_ns();
+		TestCase.assertTrue(Math.abs(Clock.SYSTEM.time_ms() - wall) < 50);
+		for (int i = 0; i < 1000; i++) {
+			long now = Clock.SYSTEM.time_ns();
+			TestCase.assertTrue(now >= previous);
+			previous = now;
+		}
+		TestCase.assertSame(Clock.SYSTEM, Clock.get_default());
+	}
+
+	@Test
+	public void test_offset_of() throws Exception {
+		final ManualClock clock = new ManualClock();
+		clock.now = 5_000_000_000L;
+		// the hardware clock started 2 s after the clock, each reading takes 1 us
+		long offset = clock.offset_of(new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				clock.now += 1000;
+				long hardware = clock.now - 2_000_000_000L;
+				clock.now += 1000;
+				return hardware;
+			}
+		});
+		TestCase.assertEquals(2_000_000_000L, offset);
+	}
+
+	@Test
+	public void test_nanosecond_timestamps() throws Exception {
+		Message msg = new Message(0, 0x123, false, null, null, null, null, new byte[] { 1, 2 }, null, null, null,
+				null);
+		msg.timestamp_ns(1_234_567_891L);
+		TestCase.assertEquals(1234, msg.timestamp);
+		TestCase.assertEquals(1_234_567_891L, msg.timestamp_ns());
+		TestCase.assertEquals(1_234_567_891L, new Message(msg).timestamp_ns());
+
+		Frame frame = new Frame().copy_from(msg);
+		TestCase.assertEquals(1_234_567_891L, frame.timestamp_ns());
+		TestCase.assertEquals(1_234_567_891L, frame.to_message().timestamp_ns());
+
+		// a millisecond timestamp set directly takes precedence
+		msg.timestamp = 2000;
+		TestCase.assertEquals(2_000_000_000L, msg.timestamp_ns());
+		frame.timestamp = 3000;
+		TestCase.assertEquals(3_000_000_000L, frame.timestamp_ns());
+
+		// timestamps before the epoch round down
+		msg.timestamp_ns(-1L);
+		TestCase.assertEquals(-1, msg.timestamp);
+		TestCase.assertEquals(-1L, msg.timestamp_ns());
+	}
+
+	@Test
+	public void test_default_clock_and_traces() throws Exception {
+		ManualClock clock = new ManualClock();
+		clock.now = 1_500_000_123_456L;
+		Clock.set_default(clock);
+		VirtualBus tx;
+		VirtualBus rx;
+		try {
+			tx = new VirtualBus("test_default_clock_and_traces");
+			rx = new VirtualBus("test_default_clock_and_traces");
+		} finally {
+			Clock.set_default(null);
+		}
+		TestCase.assertSame(Clock.SYSTEM, Clock.get_default());
+
+		tx.send(new Message(0, 0x7E0, false, null, null, null, null, new byte[8], null, null, null, null));
+		Message msg = rx.recv(1000L);
+		tx.shutdown();
+		rx.shutdown();
+		TestCase.assertEquals(1_500_000_123_456L, msg.timestamp_ns());
+		TestCase.assertEquals(1_500_000L, msg.timestamp);
+
+		File dir = Files.createTempDirectory("clock").toFile();
+		dir.deleteOnExit();
+		String base = new File(dir, "trace").getPath();
+		TraceWriter writer = new TraceWriter(base);
+		writer.write(msg);
+		writer.close();
+		TraceFormat.segment_file(base, 0).deleteOnExit();
+
+		TraceReader reader = new TraceReader(base);
+		Frame frame = new Frame();
+		TestCase.assertEquals(1_500_000_123_456L, reader.next(frame));
+		reader.close();
+		TestCase.assertEquals(1_500_000_123_456L, frame.timestamp_ns());
+	}
+}
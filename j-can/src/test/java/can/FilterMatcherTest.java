@@ -0,0 +1,97 @@
+package can;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class FilterMatcherTest extends TestCase {
+
+	private static Message make_message(long arbitration_id, boolean is_extended_id) throws Exception {
+		return new Message(0, arbitration_id, is_extended_id, null, null, null, null, null, null, null, null, null);
+	}
+
+	private static boolean match_linear(List<Filter> filters, Message msg) {
+		for (Filter filter : filters) {
+			if (filter.match(msg))
+				return true;
+		}
+		return false;
+	}
+
+	@Test
+	public void test_no_filters() throws Exception {
+		TestCase.assertSame(FilterMatcher.MATCH_ALL, FilterMatcher.compile(null));
+		TestCase.assertSame(FilterMatcher.MATCH_ALL, FilterMatcher.compile(new ArrayList<Filter>()));
+		TestCase.assertTrue(FilterMatcher.MATCH_ALL.match(make_message(0x123, false)));
+	}
+
+	@Test
+	public void test_exact_ids() throws Exception {
+		FilterMatcher matcher = FilterMatcher.compile(Arrays.asList(new Filter(0x7A7, 0x7FF, false),
+				new Filter(0x18DAF110, 0x1FFFFFFF, true)));
+		TestCase.assertTrue(matcher.match(make_message(0x7A7, false)));
+		TestCase.assertFalse(matcher.match(make_message(0x7A7, true)));
+		TestCase.assertFalse(matcher.match(make_message(0x7AF, false)));
+		TestCase.assertTrue(matcher.match(make_message(0x18DAF110, true)));
+		TestCase.assertFalse(matcher.match(make_message(0x18DAF111, true)));
+	}
+
+	@Test
+	public void test_masks() throws Exception {
+		FilterMatcher matcher = FilterMatcher.compile(
+				Arrays.asList(new Filter(0x700, 0x700, null), new Filter(0x18DA00F1, 0x1FFF00FF, true)));
+		TestCase.assertTrue(matcher.match(make_message(0x7DF, false)));
+		TestCase.assertFalse(matcher.match(make_message(0x6DF, false)));
+		TestCase.assertTrue(matcher.match(make_message(0x18DA10F1, true)));
+		TestCase.assertFalse(matcher.match(make_message(0x18DB10F1, true)));
+		// the first filter applies to extended frames as well
+		TestCase.assertTrue(matcher.match(make_message(0x1234F7FF, true)));
+	}
+
+	@Test
+	public void test_same_as_linear_match() throws Exception {
+		Random random = new Random(42);
+		long[] masks = { 0x7FF, 0x7F0, 0x700, 0x1FFFFFFF, 0x1FFFFF00, 0x1FFF00FF, 0xFF, 0xFFFFFFFFL };
+		for (int round = 0; round < 20; round++) {
+			List<Filter> filters = new ArrayList<>();
+			int count = 1 + random.nextInt(200);
+			for (int i = 0; i < count; i++) {
+				long can_id = random.nextBoolean() ? random.nextInt(0x800) : random.nextInt(0x20000000);
+				Boolean extended = random.nextInt(3) == 0 ? null : random.nextBoolean();
+				filters.add(new Filter(can_id, masks[random.nextInt(masks.length)], extended));
+			}
+			FilterMatcher matcher = FilterMatcher.compile(filters);
+			for (int i = 0; i < 5000; i++) {
+				Message msg;
+				if (i % 100 == 0) {
+					// out of range IDs
+					msg = make_message(random.nextInt() & 0xFFFFFFFFL, random.nextBoolean());
+				} else if (random.nextBoolean()) {
+					msg = make_message(random.nextBoolean() ? filters.get(random.nextInt(count)).can_id & 0x7FF
+							: random.nextInt(0x800), false);
+				} else {
+					msg = make_message(random.nextBoolean() ? filters.get(random.nextInt(count)).can_id
+							: random.nextInt(0x20000000), true);
+				}
+				TestCase.assertEquals(msg.toString(), match_linear(filters, msg), matcher.match(msg));
+			}
+		}
+	}
+
+	@Test
+	public void test_bus_uses_new_filters() throws Exception {
+		BusABC bus = new Bus(null, Arrays.asList(new Filter(0x100, 0x7FF, false)), null);
+		TestCase.assertTrue(bus._match_filters(make_message(0x100, false)));
+		TestCase.assertFalse(bus._match_filters(make_message(0x200, false)));
+		bus.set_filters(Arrays.asList(new Filter(0x200, 0x7FF, false)));
+		TestCase.assertFalse(bus._match_filters(make_message(0x100, false)));
+		TestCase.assertTrue(bus._match_filters(make_message(0x200, false)));
+		bus.set_filters(null);
+		TestCase.assertTrue(bus._match_filters(make_message(0x100, false)));
+	}
+}
@@ -0,0 +1,80 @@
+package can;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class FrameTimingTest extends TestCase {
+
+	private static Message make_message(long arbitration_id, boolean is_extended_id, byte[] data) throws Exception {
+		return new Message(0, arbitration_id, is_extended_id, null, null, null, null, data, null, null, null, null);
+	}
+
+	@Test
+	public void test_crc15() throws Exception {
+		int crc = 0;
+		for (byte b : "123456789".getBytes("US-ASCII")) {
+			for (int i = 7; i >= 0; i--) {
+				crc = FrameTiming.crc15(crc, (b >> i) & 1);
+			}
+		}
+		// check value of CRC-15/CAN
+		TestCase.assertEquals(0x059E, crc);
+	}
+
+	@Test
+	public void test_exact_between_unstuffed_and_worst_case() throws Exception {
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			boolean is_extended_id = random.nextBoolean();
+			boolean is_fd = random.nextBoolean();
+			byte[] data = new byte[random.nextInt(is_fd ? 65 : 9)];
+			// sparse bits produce long runs and many stuff bits
+			for (int j = 0; j < data.length; j++) {
+				data[j] = (byte) (random.nextInt(4) == 0 ? random.nextInt(256) : 0);
+			}
+			Message msg = make_message(random.nextInt(is_extended_id ? 1 << 29 : 1 << 11), is_extended_id, data);
+			msg.is_fd = is_fd;
+			msg.bitrate_switch = is_fd && random.nextBoolean();
+
+			int n = FrameTiming.payload_length(msg);
+			int unstuffed_nominal;
+			int unstuffed_data = 0;
+			if (is_fd) {
+				unstuffed_nominal = (is_extended_id ? 36 : 17) + 13;
+				int fixed = 4 + (n > 16 ? 21 : 17);
+				unstuffed_data = 5 + 8 * n + fixed + (fixed + 3) / 4;
+			} else {
+				unstuffed_nominal = 8 * n + (is_extended_id ? 67 : 47);
+			}
+			int nominal = FrameTiming.exact_nominal_bits(msg);
+			int data_bits = FrameTiming.exact_data_bits(msg);
+			TestCase.assertTrue(nominal >= unstuffed_nominal);
+			TestCase.assertTrue(data_bits >= unstuffed_data);
+			TestCase.assertTrue(nominal <= FrameTiming.worst_case_nominal_bits(msg));
+			TestCase.assertTrue(nominal + data_bits <= FrameTiming.worst_case_bits(msg));
+		}
+	}
+
+	@Test
+	public void test_exact_depends_on_content() throws Exception {
+		Message zeros = make_message(0x7E0, false, new byte[8]);
+		Message alternating = make_message(0x7E0, false,
+				new byte[] { 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55 });
+		// 64 zero bits need a stuff bit every 4 bits, alternating bits need none
+		int difference = FrameTiming.exact_nominal_bits(zeros) - FrameTiming.exact_nominal_bits(alternating);
+		TestCase.assertTrue(difference >= 14);
+		TestCase.assertEquals(0, FrameTiming.exact_data_bits(zeros));
+
+		Message fd = make_message(0x18DAF110, true, new byte[64]);
+		fd.is_fd = true;
+		fd.bitrate_switch = true;
+		long expected = FrameTiming.exact_nominal_bits(fd) * 2000L + FrameTiming.exact_data_bits(fd) * 500L;
+		TestCase.assertEquals(expected, FrameTiming.exact_duration(fd, 500_000, 2_000_000));
+		fd.bitrate_switch = false;
+		expected = (FrameTiming.exact_nominal_bits(fd) + FrameTiming.exact_data_bits(fd)) * 2000L;
+		TestCase.assertEquals(expected, FrameTiming.exact_duration(fd, 500_000, 2_000_000));
+	}
+}
@@ -0,0 +1,81 @@
+package can;
+
+import org.junit.Test;
+
+import can.interfaces.virtual.VirtualBus;
+import junit.framework.TestCase;
+
+public class MessagePoolTest extends TestCase {
+
+	@Test
+	public void test_borrow_and_release() {
+		MessagePool pool = new MessagePool(2, 1);
+		TestCase.assertEquals(1, pool.size());
+		Frame a = pool.borrow();
+		Frame b = pool.borrow();
+		Frame c = pool.borrow();
+		TestCase.assertEquals(3, pool.created());
+		TestCase.assertEquals(0, pool.size());
+
+		a.arbitration_id = 0x123;
+		a.set_data(new byte[] { 1, 2, 3 }, 0, 3);
+		a.release();
+		b.release();
+		// pool is full, c is dropped
+		pool.release(c);
+		TestCase.assertEquals(2, pool.size());
+
+		// frames are reused and reset
+		Frame d = pool.borrow();
+		Frame e = pool.borrow();
+		TestCase.assertTrue(d == b || d == a);
+		TestCase.assertTrue(e == b || e == a);
+		TestCase.assertEquals(0, a.arbitration_id);
+		TestCase.assertEquals(0, a.length);
+		TestCase.assertEquals(0, a.data[0]);
+		TestCase.assertEquals(3, pool.created());
+
+		try {
+			new MessagePool().release(d);
+			TestCase.fail("releasing to another pool must fail");
+		} catch (IllegalArgumentException ex) {
+		}
+	}
+
+	@Test
+	public void test_message_conversion() throws Exception {
+		byte[] data = new byte[12];
+		data[11] = 0x42;
+		Message msg = new Message(1234, 0x18DAF110, true, false, false, 2, null, data, true, true, false, null);
+		Frame frame = new Frame().copy_from(msg);
+		TestCase.assertEquals(12, frame.length);
+		TestCase.assertEquals(9, frame.dlc());
+		TestCase.assertTrue(frame.is_extended_id);
+		TestCase.assertEquals(msg, frame.to_message());
+
+		// a shorter payload clears the end of the previous one
+		frame.set_data(new byte[] { 7 }, 0, 1);
+		TestCase.assertEquals(0, frame.data[11]);
+		TestCase.assertEquals(1, frame.to_message().data.length);
+	}
+
+	@Test
+	public void test_recv_into() throws Exception {
+		VirtualBus tx = new VirtualBus("test_recv_into");
+		VirtualBus rx = new VirtualBus("test_recv_into");
+		MessagePool pool = new MessagePool();
+		try {
+			tx.send(new Message(0, 0x321, null, null, null, null, null, new byte[] { 5, 6 }, null, null, null, null));
+			Frame frame = pool.borrow();
+			TestCase.assertTrue(rx.recv_into(frame, 100l));
+			TestCase.assertEquals(0x321, frame.arbitration_id);
+			TestCase.assertEquals(2, frame.length);
+			TestCase.assertEquals(6, frame.data[1]);
+			frame.release();
+			TestCase.assertFalse(rx.recv_into(pool.borrow(), 10l));
+		} finally {
+			tx.shutdown();
+			rx.shutdown();
+		}
+	}
+}
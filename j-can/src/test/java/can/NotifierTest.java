@@ -0,0 +1,153 @@
+package can;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import can.interfaces.virtual.VirtualBus;
+import junit.framework.TestCase;
+
+public class NotifierTest extends TestCase {
+
+	private static Message make_message(long arbitration_id, boolean is_extended_id) throws Exception {
+		return new Message(0, arbitration_id, is_extended_id, null, null, null, null, new byte[] { 1 }, null, null,
+				null, null);
+	}
+
+	/** Listener recording the arbitration IDs it receives */
+	static class RecordingListener implements Listener {
+		final List<Long> ids = new ArrayList<>();
+		final List<Exception> errors = new ArrayList<>();
+		boolean stopped = false;
+
+		@Override
+		public synchronized void on_message_received(Message msg) {
+			this.ids.add(msg.arbitration_id);
+		}
+
+		@Override
+		public synchronized void on_error(Exception exc) {
+			this.errors.add(exc);
+		}
+
+		@Override
+		public synchronized void stop() {
+			this.stopped = true;
+		}
+
+		synchronized int size() {
+			return this.ids.size();
+		}
+	}
+
+	private static void wait_for(RecordingListener listener, int count) throws InterruptedException {
+		for (int i = 0; i < 100 && listener.size() < count; i++) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void test_dispatch_by_arbitration_id() throws Exception {
+		VirtualBus tx = new VirtualBus("test_dispatch_by_arbitration_id");
+		VirtualBus rx = new VirtualBus("test_dispatch_by_arbitration_id");
+		RecordingListener all = new RecordingListener();
+		RecordingListener std = new RecordingListener();
+		RecordingListener ext = new RecordingListener();
+		List<Listener> listeners = new ArrayList<>();
+		listeners.add(all);
+		Notifier notifier = new Notifier(rx, listeners, 50l);
+		notifier.add_listener(std, 0x7E8, false);
+		notifier.add_listener(std, 0x7DF, false);
+		notifier.add_listener(ext, 0x7E8, true);
+		try {
+			tx.send(make_message(0x7E8, false));
+			tx.send(make_message(0x123, false));
+			tx.send(make_message(0x7E8, true));
+			tx.send(make_message(0x7DF, false));
+			wait_for(all, 4);
+
+			TestCase.assertEquals(4, all.size());
+			TestCase.assertEquals(2, std.size());
+			TestCase.assertEquals(0x7DF, (long) std.ids.get(1));
+			TestCase.assertEquals(1, ext.size());
+		} finally {
+			notifier.stop();
+			rx.shutdown();
+			tx.shutdown();
+		}
+		TestCase.assertTrue(all.stopped);
+		TestCase.assertTrue(std.stopped);
+		TestCase.assertFalse(notifier.is_running());
+	}
+
+	@Test
+	public void test_remove_listener() throws Exception {
+		VirtualBus tx = new VirtualBus("test_remove_listener");
+		VirtualBus rx = new VirtualBus("test_remove_listener");
+		RecordingListener listener = new RecordingListener();
+		RecordingListener marker = new RecordingListener();
+		Notifier notifier = new Notifier(rx, null, 50l);
+		notifier.add_listener(listener, 0x100, false);
+		notifier.add_listener(marker);
+		try {
+			tx.send(make_message(0x100, false));
+			wait_for(listener, 1);
+			TestCase.assertTrue(notifier.remove_listener(listener));
+			TestCase.assertFalse(notifier.remove_listener(listener));
+			tx.send(make_message(0x100, false));
+			wait_for(marker, 2);
+			TestCase.assertEquals(2, marker.size());
+			TestCase.assertEquals(1, listener.size());
+		} finally {
+			notifier.stop();
+			rx.shutdown();
+			tx.shutdown();
+		}
+		TestCase.assertFalse(listener.stopped);
+	}
+
+	@Test
+	public void test_listener_error_does_not_stop_dispatch() throws Exception {
+		VirtualBus tx = new VirtualBus("test_listener_error");
+		VirtualBus rx = new VirtualBus("test_listener_error");
+		RecordingListener failing = new RecordingListener() {
+			@Override
+			public synchronized void on_message_received(Message msg) {
+				super.on_message_received(msg);
+				throw new IllegalStateException("failing listener");
+			}
+		};
+		RecordingListener other = new RecordingListener();
+		Notifier notifier = new Notifier(rx, null, 50l);
+		notifier.add_listener(failing);
+		notifier.add_listener(other);
+		try {
+			tx.send(make_message(0x1, false));
+			tx.send(make_message(0x2, false));
+			wait_for(other, 2);
+			TestCase.assertEquals(2, other.size());
+			TestCase.assertEquals(2, failing.errors.size());
+			TestCase.assertTrue(notifier.is_running());
+		} finally {
+			notifier.stop();
+			rx.shutdown();
+			tx.shutdown();
+		}
+	}
+
+	@Test
+	public void test_buffered_listener() throws Exception {
+		BufferedListener listener = new BufferedListener(2);
+		listener.on_message_received(make_message(0x1, false));
+		listener.on_message_received(make_message(0x2, false));
+		listener.on_message_received(make_message(0x3, false));
+		TestCase.assertEquals(1, listener.dropped());
+		TestCase.assertEquals(0x1, listener.get_message(0l).arbitration_id);
+		TestCase.assertEquals(0x2, listener.get_message(10l).arbitration_id);
+		TestCase.assertNull(listener.get_message(10l));
+		listener.stop();
+		listener.on_message_received(make_message(0x4, false));
+		TestCase.assertEquals(0, listener.size());
+	}
+}
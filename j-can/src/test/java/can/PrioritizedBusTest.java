@@ -0,0 +1,236 @@
+package can;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class PrioritizedBusTest extends TestCase {
+
+	/**
+	 * Bus recording what is sent, each send waits for a permit if gated. The
+	 * messages are confirmed when the test calls :meth:`land`.
+	 */
+	private static class GatedBus extends BusABC {
+		final Semaphore gate = new Semaphore(0);
+		final boolean gated;
+		final List<Message> sent = new ArrayList<>();
+		int landed;
+
+		GatedBus(boolean gated) {
+			this.gated = gated;
+		}
+
+		@Override
+		public boolean _recv_internal(Long timeout, RecvResult result) {
+			return result.set(null, false);
+		}
+
+		@Override
+		public void send(Message msg, Long timeout) {
+			this._tx_started(msg);
+			synchronized (this) {
+				this.sent.add(msg);
+			}
+			if (this.gated)
+				this.gate.acquireUninterruptibly();
+		}
+
+		@Override
+		protected boolean _apply_tx_confirmation(boolean enabled) {
+			return true;
+		}
+
+		/** the oldest message not yet confirmed is seen on the bus */
+		void land() {
+			Message msg;
+			synchronized (this) {
+				msg = this.sent.get(this.landed++);
+			}
+			this._tx_confirmed(msg, 0);
+		}
+
+		synchronized List<Long> ids() {
+			List<Long> ids = new ArrayList<>();
+			for (Message msg : this.sent) {
+				ids.add(msg.arbitration_id);
+			}
+			return ids;
+		}
+
+		/** wait until the bus has been handed ``count`` messages */
+		void await_sent(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (this.ids().size() < count && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			TestCase.assertEquals(count, this.ids().size());
+		}
+	}
+
+	private static Message message(long arbitration_id, byte... data) throws Exception {
+		return new Message(0, arbitration_id, null, null, null, null, null, data, null, null, null, null);
+	}
+
+	@Test
+	public void test_arbitration_order() throws Exception {
+		GatedBus bus = new GatedBus(true);
+		PrioritizedBus prioritized = new PrioritizedBus(bus);
+		prioritized.set_priority_class(0x7E0, 2);
+
+		// the first message occupies the sender while the others queue up
+		prioritized.send(message(0x500));
+		bus.await_sent(1);
+		prioritized.send(message(0x7E0, (byte) 0x10));
+		prioritized.send(message(0x300));
+		prioritized.send(message(0x100, (byte) 1));
+		prioritized.send(message(0x200), null, 1);
+		prioritized.send(message(0x100, (byte) 2));
+		TestCase.assertEquals(3, prioritized.depth(0));
+		TestCase.assertEquals(1, prioritized.depth(1));
+		TestCase.assertEquals(1, prioritized.depth(2));
+
+		bus.gate.release(6);
+		bus.await_sent(6);
+		TestCase.assertEquals("[1280, 256, 256, 768, 512, 2016]", bus.ids().toString());
+		// same ID and class keep their order
+		TestCase.assertEquals(1, bus.sent.get(1).data[0]);
+		TestCase.assertEquals(2, bus.sent.get(2).data[0]);
+
+		TestCase.assertEquals(0, prioritized.depth(0));
+		TestCase.assertEquals(3, prioritized.max_depth(0));
+		TestCase.assertEquals(4, prioritized.sent(0));
+		TestCase.assertEquals(1, prioritized.sent(1));
+		TestCase.assertEquals(1, prioritized.sent(2));
+		TestCase.assertEquals(0, prioritized.promoted());
+		prioritized.shutdown();
+	}
+
+	@Test
+	public void test_starvation() throws Exception {
+		GatedBus bus = new GatedBus(true);
+		PrioritizedBus prioritized = new PrioritizedBus(bus, 2, null, 20_000_000L, null, null);
+		prioritized.send(message(0x100));
+		bus.await_sent(1);
+		prioritized.send(message(0x700), null, 1);
+		Thread.sleep(50);
+		for (int i = 0; i < 5; i++) {
+			prioritized.send(message(0x100 + i));
+		}
+
+		bus.gate.release(7);
+		bus.await_sent(7);
+		// the low priority message waited longer than max_wait
+		TestCase.assertEquals(0x700, (long) bus.ids().get(1));
+		TestCase.assertEquals(1, prioritized.promoted());
+		prioritized.shutdown();
+	}
+
+	@Test
+	public void test_queue_full() throws Exception {
+		GatedBus bus = new GatedBus(true);
+		PrioritizedBus prioritized = new PrioritizedBus(bus, 2, 1, null, 2, null);
+		prioritized.send(message(0x100));
+		bus.await_sent(1);
+		long start = System.nanoTime();
+		for (int i = 0; i < 4; i++) {
+			prioritized.send(message(0x200), 20L);
+		}
+		TestCase.assertTrue(System.nanoTime() - start >= 40_000_000L);
+		// the other class has its own queue
+		prioritized.send(message(0x300), null, 0);
+		TestCase.assertEquals(2, prioritized.depth(1));
+		TestCase.assertEquals(1, prioritized.depth(0));
+		TestCase.assertEquals(2, prioritized.dropped());
+		try {
+			prioritized.send(message(0x300), null, 2);
+			TestCase.fail("no such class");
+		} catch (IllegalArgumentException e) {
+		}
+
+		prioritized.flush_tx_buffer();
+		bus.gate.release();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (prioritized.depth(1) > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		TestCase.assertEquals(0, prioritized.depth(0));
+		TestCase.assertEquals(0, prioritized.depth(1));
+		TestCase.assertEquals(1, bus.ids().size());
+		prioritized.shutdown();
+	}
+
+	@Test
+	public void test_in_flight_limit() throws Exception {
+		// the driver takes the messages without blocking
+		GatedBus bus = new GatedBus(false);
+		bus.enable_tx_confirmation(null, null);
+		PrioritizedBus prioritized = new PrioritizedBus(bus, null, null, null, null, 1);
+		prioritized.send(message(0x500));
+		bus.await_sent(1);
+		prioritized.send(message(0x300));
+		prioritized.send(message(0x100));
+		prioritized.send(message(0x200));
+		// the others wait in the queue until the first one is on the bus
+		TestCase.assertEquals(1, prioritized.in_flight());
+		TestCase.assertEquals(3, prioritized.depth(0));
+		TestCase.assertEquals(1, bus.ids().size());
+
+		for (int i = 2; i <= 4; i++) {
+			bus.land();
+			bus.await_sent(i);
+		}
+		TestCase.assertEquals("[1280, 256, 512, 768]", bus.ids().toString());
+		bus.land();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (prioritized.in_flight() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		TestCase.assertEquals(0, prioritized.in_flight());
+		TestCase.assertEquals(0, prioritized.depth(0));
+		prioritized.shutdown();
+	}
+
+	@Test
+	public void test_producers() throws Exception {
+		final GatedBus bus = new GatedBus(false);
+		final PrioritizedBus prioritized = new PrioritizedBus(bus);
+		final int count = 10_000;
+		Thread[] producers = new Thread[4];
+		for (int p = 0; p < producers.length; p++) {
+			final long arbitration_id = 0x100 + p;
+			producers[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < count; i++) {
+							prioritized.send(message(arbitration_id, (byte) (i >> 8), (byte) i));
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			producers[p].start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		bus.await_sent(producers.length * count);
+
+		// the messages of each producer keep their order
+		int[] next = new int[producers.length];
+		synchronized (bus) {
+			for (Message msg : bus.sent) {
+				int p = (int) msg.arbitration_id - 0x100;
+				TestCase.assertEquals(next[p]++, (msg.data[0] & 0xFF) << 8 | msg.data[1] & 0xFF);
+			}
+		}
+		TestCase.assertEquals(producers.length * count, prioritized.sent(0));
+		TestCase.assertEquals(0, prioritized.dropped());
+		prioritized.shutdown();
+	}
+}
@@ -0,0 +1,182 @@
+package can;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import can.interfaces.simulated.SimulatedBus;
+import can.interfaces.virtual.VirtualBus;
+import junit.framework.TestCase;
+
+public class TxConfirmationTest extends TestCase {
+
+	/** Bus accepting messages which never show up on the wire */
+	private static class SilentBus extends BusABC {
+		boolean accept = true;
+
+		@Override
+		public boolean _recv_internal(Long timeout, RecvResult result) {
+			return result.set(null, false);
+		}
+
+		@Override
+		public void send(Message msg, Long timeout) {
+			if (this.accept)
+				this._tx_started(msg);
+		}
+
+		@Override
+		protected boolean _apply_tx_confirmation(boolean enabled) {
+			return true;
+		}
+
+		/** the driver reports the message ``echo`` as transmitted */
+		boolean echo(Message echo, long wire_ns) {
+			return this._tx_confirmed(echo, wire_ns);
+		}
+	}
+
+	private static Message message(long arbitration_id, byte... data) throws Exception {
+		return new Message(0, arbitration_id, null, null, null, null, null, data, null, null, null, null);
+	}
+
+	@Test
+	public void test_simulated_bus() throws Exception {
+		SimulatedBus low = new SimulatedBus("tx-confirmation", null, null, null, null, false, null, null, null);
+		SimulatedBus high = new SimulatedBus("tx-confirmation", null, null, null, null, false, null, null, null);
+		TxConfirmation confirmation = low.enable_tx_confirmation(null, null);
+		long start = low.time_ns();
+		long duration = FrameTiming.exact_duration(message(0x200, new byte[8]), 500000, null);
+
+		// the frames of the other node win the arbitration
+		for (int i = 0; i < 3; i++) {
+			high.send(message(0x100, new byte[8]));
+		}
+		CompletableFuture<Long> first = low.send_confirmed(message(0x200, new byte[8]), null);
+		CompletableFuture<Long> second = low.send_confirmed(message(0x200, new byte[8]), null);
+		low.send(message(0x201, (byte) 1));
+
+		long first_on_wire = first.get(5, TimeUnit.SECONDS);
+		long second_on_wire = second.get(5, TimeUnit.SECONDS);
+		TestCase.assertTrue(first_on_wire >= start + duration);
+		TestCase.assertTrue(second_on_wire >= first_on_wire + duration);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (confirmation.confirmed() < 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		TestCase.assertEquals(3, confirmation.confirmed());
+		TestCase.assertEquals(0, confirmation.pending());
+		TestCase.assertEquals(0, confirmation.lost());
+		// no frame is on the bus before the end of its own transmission
+		TestCase.assertTrue(confirmation.latency_percentile(0) >= FrameTiming.exact_duration(message(0x201, (byte) 1),
+				500000, null));
+		TestCase.assertTrue(confirmation.max_latency() <= low.time_ns() - start);
+
+		// the echo confirms the message without being received
+		for (int i = 0; i < 3; i++) {
+			TestCase.assertEquals(0x100, low.recv(1000L).arbitration_id);
+		}
+		TestCase.assertNull(low.recv(50L));
+		TestCase.assertEquals(0x200, high.recv(1000L).arbitration_id);
+		low.shutdown();
+		high.shutdown();
+	}
+
+	@Test
+	public void test_virtual_bus() throws Exception {
+		VirtualBus sender = new VirtualBus("tx-confirmation", null, null, null, null, null);
+		VirtualBus receiver = new VirtualBus("tx-confirmation", null, null, null, null, null);
+		TxConfirmation confirmation = sender.enable_tx_confirmation(null, null);
+		CompletableFuture<Long> future = sender.send_confirmed(message(0x123, (byte) 1, (byte) 2), null);
+		TestCase.assertTrue(future.isDone());
+		TestCase.assertEquals(1, confirmation.confirmed());
+		TestCase.assertEquals(0x123, receiver.recv(1000L).arbitration_id);
+
+		sender.disable_tx_confirmation();
+		TestCase.assertNull(sender.tx_confirmation());
+		try {
+			sender.send_confirmed(message(0x123), null);
+			TestCase.fail("confirmation disabled");
+		} catch (IllegalStateException e) {
+		}
+		sender.shutdown();
+		receiver.shutdown();
+	}
+
+	@Test
+	public void test_matching_and_loss() throws Exception {
+		SilentBus bus = new SilentBus();
+		TxConfirmation confirmation = bus.enable_tx_confirmation(1000L, 2);
+		long now = Clock.get_default().time_ns();
+
+		CompletableFuture<Long> a = bus.send_confirmed(message(0x10, (byte) 1), null);
+		CompletableFuture<Long> b = bus.send_confirmed(message(0x10, (byte) 2), null);
+		// same ID, the data tells the messages apart
+		TestCase.assertTrue(bus.echo(message(0x10, (byte) 2), now));
+		TestCase.assertTrue(b.isDone());
+		TestCase.assertFalse(a.isDone());
+		TestCase.assertFalse(bus.echo(message(0x10, (byte) 3), now));
+		TestCase.assertEquals(1, confirmation.unmatched());
+
+		// pushed out by newer messages
+		bus.send(message(0x11));
+		CompletableFuture<Long> c = bus.send_confirmed(message(0x12), null);
+		TestCase.assertTrue(a.isCompletedExceptionally());
+		TestCase.assertEquals(1, confirmation.lost());
+		// no echo within the timeout
+		TestCase.assertFalse(bus.echo(message(0x13), Clock.get_default().time_ns() + 2_000_000_000L));
+		TestCase.assertEquals(3, confirmation.lost());
+		try {
+			c.get();
+			TestCase.fail("no echo");
+		} catch (ExecutionException e) {
+			TestCase.assertTrue(e.getCause() instanceof CanError);
+		}
+
+		// not handed to the driver
+		bus.accept = false;
+		TestCase.assertTrue(bus.send_confirmed(message(0x14), null).isCompletedExceptionally());
+		TestCase.assertEquals(0, confirmation.pending());
+	}
+
+	@Test
+	public void test_timeout_without_traffic() throws Exception {
+		SilentBus bus = new SilentBus();
+		TxConfirmation confirmation = bus.enable_tx_confirmation(20L, null);
+		long start = System.nanoTime();
+		CompletableFuture<Long> future = bus.send_confirmed(message(0x20), null);
+
+		// nothing else is sent nor received
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			TestCase.fail("no echo");
+		} catch (ExecutionException e) {
+			TestCase.assertTrue(e.getCause() instanceof CanError);
+		}
+		TestCase.assertTrue(System.nanoTime() - start >= 20_000_000L);
+		TestCase.assertEquals(1, confirmation.lost());
+		TestCase.assertEquals(0, confirmation.pending());
+	}
+
+	@Test
+	public void test_not_supported() throws Exception {
+		BusABC bus = new BusABC() {
+			@Override
+			public boolean _recv_internal(Long timeout, RecvResult result) {
+				return result.set(null, false);
+			}
+
+			@Override
+			public void send(Message msg, Long timeout) {
+			}
+		};
+		try {
+			bus.enable_tx_confirmation(null, null);
+			TestCase.fail("not supported");
+		} catch (CanError e) {
+		}
+		TestCase.assertNull(bus.tx_confirmation());
+	}
+}
@@ -0,0 +1,193 @@
+package can;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+import can.broadcastmanager.CyclicSendTaskABC;
+import junit.framework.TestCase;
+
+public class VirtualClockTest extends TestCase {
+
+	/** Bus recording the virtual time of what is sent */
+	private static class RecordingBus extends BusABC {
+		final Clock clock;
+		final List<Long> times = new ArrayList<>();
+
+		RecordingBus(Clock clock) {
+			this.clock = clock;
+		}
+
+		@Override
+		public boolean _recv_internal(Long timeout, RecvResult result) {
+			return result.set(null, false);
+		}
+
+		@Override
+		public synchronized void send(Message msg, Long timeout) {
+			this.times.add(this.clock.time_ns());
+		}
+
+		synchronized List<Long> times() {
+			return new ArrayList<>(this.times);
+		}
+	}
+
+	/** Thread logging its name and the time every ``period`` */
+	private static Thread start_ticker(final VirtualClock clock, final String name, final long period,
+			final int count, final List<String> log) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < count; i++) {
+						clock.sleep(period);
+						synchronized (log) {
+							log.add(name + "@" + clock.time_ms());
+						}
+					}
+				} catch (InterruptedException e) {
+				} finally {
+					clock.deregister();
+				}
+			}
+		});
+		clock.register(thread);
+		thread.start();
+		return thread;
+	}
+
+	@Test
+	public void test_sleep_single_thread() throws Exception {
+		VirtualClock clock = new VirtualClock(1_000_000_000L, null);
+		long wall_start = System.nanoTime();
+		clock.sleep(3_600_000L);
+		TestCase.assertEquals(1_000_000_000L + 3_600_000_000_000L, clock.time_ns());
+		TestCase.assertTrue(System.nanoTime() - wall_start < 1_000_000_000L);
+		TestCase.assertFalse(clock.is_real_time());
+		TestCase.assertEquals(0, clock.pending());
+	}
+
+	@Test
+	public void test_schedule_and_advance() throws Exception {
+		VirtualClock clock = new VirtualClock(null, false);
+		final List<String> log = new ArrayList<>();
+		for (final String name : new String[] { "30", "10a", "20", "10b" }) {
+			clock.schedule(Integer.parseInt(name.substring(0, 2)) * 1_000_000L, new Runnable() {
+				@Override
+				public void run() {
+					log.add(name);
+				}
+			});
+		}
+		TestCase.assertEquals(4, clock.pending());
+
+		clock.advance(15_000_000L);
+		TestCase.assertEquals(15_000_000L, clock.time_ns());
+		// tasks due at the same time run in the order they were scheduled
+		TestCase.assertEquals("[10a, 10b]", log.toString());
+		TestCase.assertTrue(clock.advance_to_next());
+		TestCase.assertEquals(20_000_000L, clock.time_ns());
+		clock.advance(100_000_000L);
+		TestCase.assertEquals(120_000_000L, clock.time_ns());
+		TestCase.assertEquals("[10a, 10b, 20, 30]", log.toString());
+		TestCase.assertFalse(clock.advance_to_next());
+		TestCase.assertEquals(120_000_000L, clock.time_ns());
+	}
+
+	@Test
+	public void test_threads_are_deterministic() throws Exception {
+		String first = null;
+		for (int run = 0; run < 5; run++) {
+			VirtualClock clock = new VirtualClock();
+			List<String> log = new ArrayList<>();
+			clock.register();
+			try {
+				Thread a = start_ticker(clock, "a", 3, 10, log);
+				Thread b = start_ticker(clock, "b", 5, 6, log);
+				clock.sleep(100);
+				a.join();
+				b.join();
+			} finally {
+				clock.deregister();
+			}
+			TestCase.assertEquals(100, clock.time_ms());
+			if (first == null)
+				first = log.toString();
+			TestCase.assertEquals(first, log.toString());
+		}
+		// b sleeps until 15 and 30 before a does
+		TestCase.assertEquals("[a@3, b@5, a@6, a@9, b@10, a@12, b@15, a@15, a@18, b@20, a@21, a@24, b@25, a@27, "
+				+ "b@30, a@30]", first);
+	}
+
+	@Test
+	public void test_poll_and_unpark() throws Exception {
+		final VirtualClock clock = new VirtualClock();
+		final BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+		TestCase.assertNull(clock.poll(queue, 250));
+		TestCase.assertEquals(250, clock.time_ms());
+
+		clock.schedule(100_000_000L, new Runnable() {
+			@Override
+			public void run() {
+				queue.offer("ready");
+			}
+		});
+		TestCase.assertEquals("ready", clock.poll(queue, 1000));
+		TestCase.assertEquals(350, clock.time_ms());
+
+		final long[] woken = new long[1];
+		Thread parked = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				clock.park_ns(this, 10_000_000_000L);
+				woken[0] = clock.time_ms();
+				clock.deregister();
+			}
+		});
+		clock.register();
+		try {
+			clock.register(parked);
+			parked.start();
+			clock.sleep(1000);
+			clock.unpark(parked);
+			parked.join();
+		} finally {
+			clock.deregister();
+		}
+		TestCase.assertEquals(1350, woken[0]);
+	}
+
+	@Test
+	public void test_cyclic_send() throws Exception {
+		VirtualClock clock = new VirtualClock();
+		Clock.set_default(clock);
+		clock.register();
+		try {
+			RecordingBus bus = new RecordingBus(clock);
+			CyclicSendTaskABC task = bus.send_periodic(
+					new Message(0, 0x100, null, null, null, null, null, null, null, null, null, null), 10l, null,
+					true);
+			long wall_start = System.nanoTime();
+			clock.sleep(10_000);
+			task.stop();
+			clock.sleep(1000);
+
+			// ten seconds of transmissions in a fraction of that, without jitter
+			TestCase.assertTrue(System.nanoTime() - wall_start < 5_000_000_000L);
+			List<Long> times = bus.times();
+			TestCase.assertTrue("sent " + times.size(), times.size() >= 1000 && times.size() <= 1001);
+			for (int i = 1; i < times.size(); i++) {
+				TestCase.assertEquals(10_000_000L, times.get(i) - times.get(i - 1));
+			}
+			TestCase.assertTrue(times.get(times.size() - 1) <= 10_000_000_000L);
+		} finally {
+			clock.deregister();
+			Clock.set_default(null);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package can.broadcastmanager;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import can.Clock;
+import can.Message;
+import can.VirtualClock;
+import can.broadcastmanager.CyclicSendSchedulerTest.RecordingBus;
+import junit.framework.TestCase;
+
+public class CyclicMessageGroupTest extends TestCase {
+
+	private VirtualClock clock;
+	private RecordingBus bus;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// the scheduler waits in virtual time, see CyclicSendSchedulerTest
+		this.clock = new VirtualClock();
+		this.clock.register(Thread.currentThread());
+		Clock.set_default(this.clock);
+		this.bus = new RecordingBus();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.bus.stop_all_periodic_tasks();
+		this.clock.sleep_ns(2_000_000_000L);
+		this.clock.deregister();
+		Clock.set_default(null);
+		super.tearDown();
+	}
+
+	private static Message make_message(long arbitration_id) throws Exception {
+		return new Message(0, arbitration_id, null, null, null, null, null, new byte[8], null, null, null, null);
+	}
+
+	@Test
+	public void test_offsets_spread_load() throws Exception {
+		RecordingBus bus = this.bus;
+		CyclicMessageGroup group = bus.create_periodic_group(500_000, null);
+		for (int i = 0; i < 10; i++) {
+			group.add(make_message(0x100 + i), 10);
+		}
+		for (int i = 0; i < 10; i++) {
+			group.add(make_message(0x200 + i), 20);
+		}
+
+		TestCase.assertTrue(group.peak_load() < group.unsmoothed_peak_load() / 5);
+		// 2 frames of at most 270us per tick
+		TestCase.assertTrue("peak " + group.peak_load(), group.peak_load() < 0.55);
+		TestCase.assertEquals(10 * 0.270 / 10 + 10 * 0.270 / 20, group.average_load(), 0.02);
+
+		// 10 messages of 10ms fit one per tick
+		Set<Double> phases = new HashSet<>();
+		List<ScheduledCyclicSendTask> tasks = group.tasks();
+		for (int i = 0; i < 10; i++) {
+			double phase = tasks.get(i).phase();
+			TestCase.assertTrue(phase >= 0 && phase < 10);
+			phases.add(phase);
+		}
+		TestCase.assertEquals(10, phases.size());
+	}
+
+	@Test
+	public void test_start_and_stop() throws Exception {
+		RecordingBus bus = this.bus;
+		CyclicMessageGroup group = bus.create_periodic_group(500_000, null);
+		for (int i = 0; i < 5; i++) {
+			group.add(make_message(0x300 + i), 10);
+		}
+		group.start();
+		this.clock.sleep(108);
+		group.stop();
+		synchronized (bus) {
+			// from one tick after the start, at the phase of each message then every
+			// 10ms: 11 times, the last ones from 101 to 105ms
+			for (int i = 0; i < 5; i++) {
+				TestCase.assertEquals(11, bus.count(0x300 + i));
+			}
+			// spread over ticks instead of sent as one batch
+			TestCase.assertEquals(bus.sent.size(), bus.batches);
+		}
+		TestCase.assertEquals(5, bus._periodic_tasks.size());
+
+		try {
+			group.add(make_message(0x310), 10);
+			TestCase.fail("adding to a started group must fail");
+		} catch (IllegalStateException e) {
+		}
+	}
+}
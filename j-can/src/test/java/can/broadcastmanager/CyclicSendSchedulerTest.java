@@ -0,0 +1,178 @@
+package can.broadcastmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import can.BusABC;
+import can.Clock;
+import can.Message;
+import can.RecvResult;
+import can.VirtualClock;
+import junit.framework.TestCase;
+
+public class CyclicSendSchedulerTest extends TestCase {
+
+	/** Bus recording what is sent, with the time of sending */
+	static class RecordingBus extends BusABC {
+		final List<Message> sent = new ArrayList<>();
+		final List<Long> times = new ArrayList<>();
+		int batches = 0;
+		/** messages with this ID fail to be sent */
+		long failing_id = -1;
+
+		@Override
+		public boolean _recv_internal(Long timeout, RecvResult result) {
+			return result.set(null, false);
+		}
+
+		@Override
+		public synchronized void send(Message msg, Long timeout) {
+			if (msg.arbitration_id == this.failing_id)
+				throw new IllegalStateException("cannot send " + msg);
+			this.sent.add(msg);
+			this.times.add(Clock.get_default().time_ns());
+		}
+
+		@Override
+		public synchronized int send_batch(Message[] msgs, int count) {
+			this.batches++;
+			return super.send_batch(msgs, count);
+		}
+
+		synchronized int count(long arbitration_id) {
+			int count = 0;
+			for (Message msg : this.sent) {
+				if (msg.arbitration_id == arbitration_id)
+					count++;
+			}
+			return count;
+		}
+	}
+
+	private VirtualClock clock;
+	private RecordingBus bus;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// the scheduler waits in virtual time, so the timing is exact. The test
+		// thread takes part too, the time only moves while it sleeps.
+		this.clock = new VirtualClock();
+		this.clock.register(Thread.currentThread());
+		Clock.set_default(this.clock);
+		this.bus = new RecordingBus();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		// let the scheduler thread go idle and end
+		this.bus.stop_all_periodic_tasks();
+		this.clock.sleep_ns(2_000_000_000L);
+		this.clock.deregister();
+		Clock.set_default(null);
+		super.tearDown();
+	}
+
+	private static Message make_message(long arbitration_id, byte... data) throws Exception {
+		return new Message(0, arbitration_id, null, null, null, null, null, data, null, null, null, null);
+	}
+
+	@Test
+	public void test_period() throws Exception {
+		RecordingBus bus = this.bus;
+		CyclicSendTaskABC task = bus.send_periodic(make_message(0x100), 10l, null, true);
+		this.clock.sleep(205);
+		task.stop();
+		TestCase.assertEquals(21, bus.count(0x100));
+
+		// no drift: the n-th message is sent n periods after the first
+		synchronized (bus) {
+			long first = bus.times.get(0);
+			for (int i = 1; i < bus.times.size(); i++) {
+				TestCase.assertEquals(first + i * 10_000_000L, (long) bus.times.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void test_stop_and_restart() throws Exception {
+		RecordingBus bus = this.bus;
+		CyclicSendTaskABC task = bus.send_periodic(make_message(0x200), 5l, null, true);
+		this.clock.sleep(52);
+		bus.stop_all_periodic_tasks();
+		TestCase.assertEquals(11, bus.count(0x200));
+		this.clock.sleep(50);
+		TestCase.assertEquals(11, bus.count(0x200));
+		TestCase.assertTrue(bus._periodic_tasks.isEmpty());
+
+		task.start();
+		this.clock.sleep(52);
+		task.stop();
+		TestCase.assertEquals(22, bus.count(0x200));
+	}
+
+	@Test
+	public void test_duration() throws Exception {
+		RecordingBus bus = this.bus;
+		ScheduledCyclicSendTask task = (ScheduledCyclicSendTask) bus.send_periodic(make_message(0x300), 10l, 50l,
+				true);
+		this.clock.sleep(150);
+		TestCase.assertTrue(task.is_stopped());
+		TestCase.assertEquals(5, bus.count(0x300));
+	}
+
+	@Test
+	public void test_modify_data() throws Exception {
+		RecordingBus bus = this.bus;
+		CyclicSendTaskABC task = bus.send_periodic(make_message(0x400, (byte) 1), 5l, null, true);
+		this.clock.sleep(32);
+		task.modify_data(make_message(0x400, (byte) 2));
+		this.clock.sleep(30);
+		task.stop();
+		synchronized (bus) {
+			// sent at 0, 5, ..., 30ms with the old data, then up to 60ms with the new
+			TestCase.assertEquals(13, bus.sent.size());
+			for (int i = 0; i < bus.sent.size(); i++) {
+				TestCase.assertEquals(i < 7 ? 1 : 2, bus.sent.get(i).data[0]);
+			}
+		}
+		try {
+			task.modify_data(make_message(0x401));
+			TestCase.fail("changing the arbitration ID must fail");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void test_same_tick_is_one_batch() throws Exception {
+		RecordingBus bus = this.bus;
+		for (int i = 0; i < 300; i++) {
+			bus.send_periodic(make_message(0x500 + i), 20l, null, true);
+		}
+		this.clock.sleep(110);
+		bus.stop_all_periodic_tasks();
+		synchronized (bus) {
+			// at 0, 20, ..., 100ms
+			TestCase.assertEquals(300 * 6, bus.sent.size());
+			TestCase.assertTrue("batches " + bus.batches, bus.batches < bus.sent.size() / 10);
+		}
+	}
+
+	@Test
+	public void test_failing_task() throws Exception {
+		RecordingBus bus = this.bus;
+		bus.failing_id = 0x666;
+		bus.send_periodic(make_message(0x600), 10l, null, true);
+		bus.send_periodic(make_message(0x666), 10l, null, true);
+		bus.send_periodic(make_message(0x601), 10l, null, true);
+		this.clock.sleep(105);
+		bus.stop_all_periodic_tasks();
+		// the failing message is stopped, the others keep being sent, each once
+		// per period
+		TestCase.assertEquals(11, bus.count(0x600));
+		TestCase.assertEquals(11, bus.count(0x601));
+		TestCase.assertEquals(0, bus.count(0x666));
+	}
+}
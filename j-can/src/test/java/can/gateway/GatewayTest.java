@@ -0,0 +1,155 @@
+package can.gateway;
+
+import org.junit.Test;
+
+import can.Filter;
+import can.LatencyHistogram;
+import can.Message;
+import can.interfaces.virtual.VirtualBus;
+import junit.framework.TestCase;
+
+public class GatewayTest extends TestCase {
+
+	private static Message make_message(long arbitration_id, boolean is_extended_id, byte[] data) throws Exception {
+		return new Message(0, arbitration_id, is_extended_id, null, null, null, null, data, null, null, null, null);
+	}
+
+	@Test
+	public void test_rewrite() throws Exception {
+		VirtualBus node_a = new VirtualBus("test_rewrite_a");
+		VirtualBus node_b = new VirtualBus("test_rewrite_b");
+		VirtualBus gw_a = new VirtualBus("test_rewrite_a");
+		VirtualBus gw_b = new VirtualBus("test_rewrite_b");
+
+		Gateway gateway = new Gateway();
+		Route route = gateway.add_route(new Route(gw_a, gw_b, new Filter(0x123, 0x7FF, false))
+				.rewrite(0x700, 0x700, null)
+				.mask_data(new byte[] { (byte) 0xFF, 0x0F }, new byte[] { 0, (byte) 0xA0 }));
+		gateway.start();
+		try {
+			route.rewrite(0, 0, null);
+			TestCase.fail("a route in use cannot be changed");
+		} catch (IllegalStateException e) {
+		}
+
+		node_a.send(make_message(0x124, false, new byte[] { 1, 2, 3 }));
+		node_a.send(make_message(0x123, true, new byte[] { 1, 2, 3 }));
+		node_a.send(make_message(0x123, false, new byte[] { 1, 0x52, 3 }));
+		Message msg = node_b.recv(1000L);
+		TestCase.assertNotNull(msg);
+		TestCase.assertEquals(0x723, msg.arbitration_id);
+		TestCase.assertFalse(msg.is_extended_id);
+		TestCase.assertEquals(1, msg.data[0]);
+		TestCase.assertEquals((byte) 0xA2, msg.data[1]);
+		TestCase.assertEquals(3, msg.data[2]);
+		TestCase.assertNull(node_b.recv(50L));
+
+		gateway.stop();
+		TestCase.assertEquals(1, route.matched());
+		TestCase.assertEquals(1, route.forwarded());
+		TestCase.assertTrue(route.latency_percentile(50) > 0);
+		TestCase.assertTrue(route.latency_percentile(99) <= route.max_latency());
+		TestCase.assertNull(gateway.exception());
+
+		for (VirtualBus bus : new VirtualBus[] { node_a, node_b, gw_a, gw_b }) {
+			bus.shutdown();
+		}
+	}
+
+	@Test
+	public void test_routing_table() throws Exception {
+		VirtualBus node_a = new VirtualBus("test_routing_table_a");
+		VirtualBus node_b = new VirtualBus("test_routing_table_b");
+		VirtualBus node_c = new VirtualBus("test_routing_table_c");
+		VirtualBus gw_a = new VirtualBus("test_routing_table_a");
+		VirtualBus gw_b = new VirtualBus("test_routing_table_b");
+		VirtualBus gw_c = new VirtualBus("test_routing_table_c");
+
+		Gateway gateway = new Gateway(null, 10L);
+		// diagnostic requests from A to B, responses back
+		Route requests = gateway.add_route(new Route(gw_a, gw_b, new Filter(0x18DA00F1, 0x1FFF00FF, true)));
+		Route responses = gateway.add_route(new Route(gw_b, gw_a, new Filter(0x18DAF100, 0x1FFFFF00, true)));
+		// every standard message of A is mirrored to C
+		Route mirror = gateway.add_route(new Route(gw_a, gw_c, new Filter(0, 0, false)));
+		Route exact = gateway.add_route(new Route(gw_a, gw_c, new Filter(0x18FEF100, 0x1FFFFFFF, true)));
+		gateway.start();
+
+		node_a.send(make_message(0x18DA10F1, true, new byte[] { 0x02, 0x10, 0x03 }));
+		node_a.send(make_message(0x18FEF100, true, new byte[8]));
+		node_a.send(make_message(0x100, false, new byte[8]));
+		node_b.send(make_message(0x18DAF110, true, new byte[] { 0x06, 0x50, 0x03 }));
+		node_b.send(make_message(0x7E8, false, new byte[8]));
+
+		Message msg = node_b.recv(1000L);
+		TestCase.assertEquals(0x18DA10F1, msg.arbitration_id);
+		msg = node_a.recv(1000L);
+		TestCase.assertEquals(0x18DAF110, msg.arbitration_id);
+		TestCase.assertEquals(0x50, msg.data[1]);
+		msg = node_c.recv(1000L);
+		TestCase.assertEquals(0x18FEF100, msg.arbitration_id);
+		msg = node_c.recv(1000L);
+		TestCase.assertEquals(0x100, msg.arbitration_id);
+		TestCase.assertNull(node_a.recv(50L));
+		TestCase.assertNull(node_b.recv(0L));
+		TestCase.assertNull(node_c.recv(0L));
+
+		gateway.stop();
+		TestCase.assertEquals(1, requests.forwarded());
+		TestCase.assertEquals(1, responses.forwarded());
+		TestCase.assertEquals(1, mirror.forwarded());
+		TestCase.assertEquals(1, exact.forwarded());
+		TestCase.assertFalse(gateway.is_running());
+
+		for (VirtualBus bus : new VirtualBus[] { node_a, node_b, node_c, gw_a, gw_b, gw_c }) {
+			bus.shutdown();
+		}
+	}
+
+	@Test
+	public void test_rate_limit() throws Exception {
+		VirtualBus node_a = new VirtualBus("test_rate_limit_a");
+		VirtualBus node_b = new VirtualBus("test_rate_limit_b");
+		VirtualBus gw_a = new VirtualBus("test_rate_limit_a");
+		VirtualBus gw_b = new VirtualBus("test_rate_limit_b");
+
+		Gateway gateway = new Gateway();
+		Route route = gateway.add_route(new Route(gw_a, gw_b, null).rate_limit(1));
+		gateway.start();
+		for (int i = 0; i < 10; i++) {
+			node_a.send(make_message(0x200, false, new byte[] { (byte) i }));
+		}
+		Message msg = node_b.recv(1000L);
+		TestCase.assertEquals(0, msg.data[0]);
+		TestCase.assertNull(node_b.recv(100L));
+		gateway.stop();
+		TestCase.assertEquals(10, route.matched());
+		TestCase.assertEquals(9, route.rate_limited());
+		TestCase.assertEquals(1, route.forwarded());
+		TestCase.assertEquals(0, route.dropped());
+
+		for (VirtualBus bus : new VirtualBus[] { node_a, node_b, gw_a, gw_b }) {
+			bus.shutdown();
+		}
+	}
+
+	@Test
+	public void test_latency_histogram() throws Exception {
+		for (long value : new long[] { 0, 1, 15, 16, 17, 31, 32, 1000, 123_456, 10_000_000L, 1L << 39 }) {
+			int bucket = LatencyHistogram.bucket(value);
+			TestCase.assertTrue(value <= LatencyHistogram.bucket_limit(bucket));
+			TestCase.assertTrue(bucket == 0 || value > LatencyHistogram.bucket_limit(bucket - 1));
+		}
+		TestCase.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		TestCase.assertEquals(0, histogram.percentile(50));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		TestCase.assertEquals(1000, histogram.count());
+		TestCase.assertEquals(1_000_000L, histogram.max());
+		long median = histogram.percentile(50);
+		TestCase.assertTrue(median >= 500_000L && median < 500_000L * 1.07);
+		TestCase.assertEquals(1_000_000L, histogram.percentile(100));
+	}
+}
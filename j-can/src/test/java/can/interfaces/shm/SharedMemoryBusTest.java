@@ -0,0 +1,141 @@
+package can.interfaces.shm;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import can.CanError;
+import can.Frame;
+import can.Message;
+import junit.framework.TestCase;
+
+public class SharedMemoryBusTest extends TestCase {
+
+	private static Message make_message(long arbitration_id, boolean is_extended_id, byte[] data) throws Exception {
+		return new Message(0, arbitration_id, is_extended_id, null, null, null, null, data, null, null, null, null);
+	}
+
+	private static String channel(String name) throws Exception {
+		File dir = Files.createTempDirectory("shm").toFile();
+		dir.deleteOnExit();
+		File file = new File(dir, name + ".shm");
+		file.deleteOnExit();
+		return file.getPath();
+	}
+
+	@Test
+	public void test_send_receive() throws Exception {
+		String channel = channel("test_send_receive");
+		// each bus maps the file on its own, as separate processes would
+		SharedMemoryBus owner = new SharedMemoryBus(channel, null, null, 64, null, null);
+		SharedMemoryBus tool_1 = new SharedMemoryBus(channel);
+		SharedMemoryBus tool_2 = new SharedMemoryBus(channel);
+		TestCase.assertEquals(64L * SharedRing.SLOT_SIZE + SharedRing.HEADER_SIZE, new File(channel).length());
+
+		Message msg = make_message(0x18DAF110, true, new byte[64]);
+		msg.data[63] = 0x55;
+		msg.is_fd = true;
+		msg.bitrate_switch = true;
+		msg.channel = 2;
+		owner.send(msg);
+		Message remote = make_message(0x123, false, null);
+		remote.is_remote_frame = true;
+		remote.dlc = 4;
+		owner.send(remote);
+
+		for (SharedMemoryBus tool : new SharedMemoryBus[] { tool_1, tool_2 }) {
+			Message received = tool.recv(1000L);
+			TestCase.assertEquals(0x18DAF110, received.arbitration_id);
+			TestCase.assertTrue(received.is_extended_id);
+			TestCase.assertTrue(received.is_fd);
+			TestCase.assertTrue(received.bitrate_switch);
+			TestCase.assertEquals(2, received.channel);
+			TestCase.assertEquals(64, received.dlc);
+			TestCase.assertEquals(0x55, received.data[63]);
+			Frame frame = new Frame();
+			TestCase.assertTrue(tool.recv_into(frame, 1000L));
+			TestCase.assertEquals(0x123, frame.arbitration_id);
+			TestCase.assertTrue(frame.is_remote_frame);
+			TestCase.assertEquals(4, frame.length);
+			TestCase.assertNull(tool.recv(0L));
+		}
+		// own messages are skipped
+		TestCase.assertNull(owner.recv(10L));
+
+		tool_1.send(make_message(0x7E0, false, new byte[] { 0x02, 0x10, 0x03 }));
+		TestCase.assertEquals(0x7E0, owner.recv(1000L).arbitration_id);
+		TestCase.assertEquals(0x7E0, tool_2.recv(1000L).arbitration_id);
+		TestCase.assertNull(tool_1.recv(10L));
+
+		owner.shutdown();
+		try {
+			owner.recv(0L);
+			TestCase.fail("a closed bus cannot receive");
+		} catch (CanError e) {
+		}
+		tool_1.shutdown();
+		tool_2.shutdown();
+	}
+
+	@Test
+	public void test_overrun() throws Exception {
+		String channel = channel("test_overrun");
+		SharedMemoryBus sender = new SharedMemoryBus(channel, null, null, 16, null, null);
+		SharedMemoryBus receiver = new SharedMemoryBus(channel);
+		for (int i = 0; i < 40; i++) {
+			sender.send(make_message(0x100, false, new byte[] { (byte) i }));
+		}
+		Message msg = receiver.recv(1000L);
+		TestCase.assertEquals(24, receiver.dropped());
+		TestCase.assertEquals(24, msg.data[0]);
+		for (int i = 25; i < 40; i++) {
+			TestCase.assertEquals(i, receiver.recv(1000L).data[0]);
+		}
+		sender.shutdown();
+		receiver.shutdown();
+	}
+
+	@Test
+	public void test_concurrent_senders() throws Exception {
+		String channel = channel("test_concurrent_senders");
+		final int per_sender = 5000;
+		final SharedMemoryBus receiver = new SharedMemoryBus(channel, null, null, 1 << 16, null, null);
+		Thread[] senders = new Thread[3];
+		for (int s = 0; s < senders.length; s++) {
+			final SharedMemoryBus bus = new SharedMemoryBus(channel);
+			final int sender_id = s;
+			senders[s] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < per_sender; i++) {
+							bus.send(make_message(0x100 + sender_id, false,
+									new byte[] { (byte) i, (byte) (i >> 8), (byte) sender_id }));
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+		}
+		for (Thread thread : senders) {
+			thread.start();
+		}
+
+		int[] next = new int[senders.length];
+		Frame frame = new Frame();
+		for (int i = 0; i < senders.length * per_sender; i++) {
+			TestCase.assertTrue(receiver.recv_into(frame, 5000L));
+			int sender_id = frame.data[2];
+			TestCase.assertEquals(0x100 + sender_id, frame.arbitration_id);
+			// every sender's messages arrive complete and in order
+			TestCase.assertEquals(next[sender_id]++, (frame.data[0] & 0xFF) | (frame.data[1] & 0xFF) << 8);
+		}
+		for (Thread thread : senders) {
+			thread.join();
+		}
+		TestCase.assertEquals(0, receiver.dropped());
+		receiver.shutdown();
+	}
+}
@@ -0,0 +1,125 @@
+package can.interfaces.simulated;
+
+import org.junit.Test;
+
+import can.CanError;
+import can.FrameTiming;
+import can.Message;
+import junit.framework.TestCase;
+
+public class SimulatedBusTest extends TestCase {
+
+	private static Message make_message(long arbitration_id, boolean is_extended_id, byte[] data) throws Exception {
+		return new Message(0, arbitration_id, is_extended_id, null, null, null, null, data, null, null, null, null);
+	}
+
+	@Test
+	public void test_priority() throws Exception {
+		Message standard = make_message(0x123, false, null);
+		Message remote = make_message(0x123, false, null);
+		remote.is_remote_frame = true;
+		// same base ID 0x123
+		Message extended = make_message(0x123L << 18, true, null);
+		Message lower = make_message(0x122L << 18 | 0x3FFFF, true, null);
+
+		TestCase.assertTrue(FrameTiming.arbitration_priority(standard) < FrameTiming.arbitration_priority(remote));
+		TestCase.assertTrue(FrameTiming.arbitration_priority(remote) < FrameTiming.arbitration_priority(extended));
+		TestCase.assertTrue(FrameTiming.arbitration_priority(lower) < FrameTiming.arbitration_priority(standard));
+		remote.is_fd = true;
+		TestCase.assertEquals(FrameTiming.arbitration_priority(standard), FrameTiming.arbitration_priority(remote));
+	}
+
+	@Test
+	public void test_simulated_time() throws Exception {
+		SimulatedBus sender = new SimulatedBus("test_simulated_time", null, null, 500_000, 2_000_000, false, null,
+				null, null);
+		SimulatedBus receiver = new SimulatedBus("test_simulated_time");
+		long start = sender.time_ns();
+
+		Message[] msgs = new Message[200];
+		long total = 0;
+		for (int i = 0; i < msgs.length; i++) {
+			msgs[i] = make_message(0x7E0, false, new byte[] { (byte) i, 0, 0, 0, 0, 0, 0, 0 });
+			if (i % 2 == 1) {
+				msgs[i].data = new byte[64];
+				msgs[i].dlc = 64;
+				msgs[i].is_fd = true;
+				msgs[i].bitrate_switch = true;
+			}
+			total += FrameTiming.exact_duration(msgs[i], 500_000, 2_000_000);
+		}
+		long wall_start = System.nanoTime();
+		sender.send_batch(msgs, msgs.length);
+
+		long end = start;
+		for (int i = 0; i < msgs.length; i++) {
+			Message msg = receiver.recv(1000L);
+			TestCase.assertEquals(msgs[i].is_fd, msg.is_fd);
+			// frames are sent back to back
+			end += FrameTiming.exact_duration(msgs[i], 500_000, 2_000_000);
+			TestCase.assertEquals(end, msg.timestamp_ns());
+		}
+		TestCase.assertEquals(start + total, sender.time_ns());
+		TestCase.assertEquals(total, sender.busy_ns());
+		// tens of milliseconds of bus time without waiting for them
+		TestCase.assertTrue(System.nanoTime() - wall_start < total);
+		TestCase.assertNull(sender.recv(10L));
+
+		sender.shutdown();
+		receiver.shutdown();
+		try {
+			receiver.recv(0L);
+			TestCase.fail("a closed bus cannot receive");
+		} catch (CanError e) {
+		}
+	}
+
+	@Test
+	public void test_arbitration_in_real_time() throws Exception {
+		// about 12 ms per frame
+		SimulatedBus node_1 = new SimulatedBus("test_arbitration", null, null, 10_000, null, true, null, null,
+				null);
+		SimulatedBus node_2 = new SimulatedBus("test_arbitration");
+		SimulatedBus node_3 = new SimulatedBus("test_arbitration");
+		SimulatedBus node_4 = new SimulatedBus("test_arbitration");
+		SimulatedBus listener = new SimulatedBus("test_arbitration");
+
+		long wall_start = System.nanoTime();
+		Message first = make_message(0x700, false, new byte[8]);
+		node_1.send(first);
+		// the others queue their frames while the first one is on the wire
+		Thread.sleep(2);
+		Message[] queued = new Message[] { make_message(0x300, false, new byte[8]),
+				make_message(0x100L << 18, true, new byte[8]), make_message(0x200, false, new byte[8]) };
+		node_2.send(queued[0]);
+		node_3.send(queued[1]);
+		node_4.send(queued[2]);
+
+		long[] expected = new long[] { 0x700, 0x100L << 18, 0x200, 0x300 };
+		Message[] sent = new Message[] { first, queued[1], queued[2], queued[0] };
+		long previous = 0;
+		for (int i = 0; i < expected.length; i++) {
+			Message msg = listener.recv(1000L);
+			TestCase.assertEquals(expected[i], msg.arbitration_id);
+			if (i > 0)
+				TestCase.assertEquals(FrameTiming.exact_duration(sent[i], 10_000, null),
+						msg.timestamp_ns() - previous);
+			previous = msg.timestamp_ns();
+		}
+		long total = 0;
+		for (Message msg : sent) {
+			total += FrameTiming.exact_duration(msg, 10_000, null);
+		}
+		TestCase.assertTrue(System.nanoTime() - wall_start >= total);
+		TestCase.assertEquals(0, node_1.arbitration_lost());
+		TestCase.assertEquals(2, node_2.arbitration_lost());
+		TestCase.assertEquals(0, node_3.arbitration_lost());
+		TestCase.assertEquals(1, node_4.arbitration_lost());
+		// every node sees the frames of the others
+		TestCase.assertEquals(0x100L << 18, node_1.recv(1000L).arbitration_id);
+
+		for (SimulatedBus bus : new SimulatedBus[] { node_1, node_2, node_3, node_4, listener }) {
+			bus.shutdown();
+		}
+	}
+}
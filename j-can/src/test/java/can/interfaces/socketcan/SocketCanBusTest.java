@@ -0,0 +1,173 @@
+package can.interfaces.socketcan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import can.CanError;
+import can.Filter;
+import can.Frame;
+import can.Message;
+import can.interfaces.socketcan.jni.Jsocketcan;
+import junit.framework.TestCase;
+
+public class SocketCanBusTest extends TestCase {
+	private static final Logger logger = LoggerFactory.getLogger(SocketCanBusTest.class);
+
+	private static Message make_message(long arbitration_id, boolean is_extended_id, byte[] data) throws Exception {
+		return new Message(0, arbitration_id, is_extended_id, null, null, null, null, data, null, null, null, null);
+	}
+
+	/** Turn a send record into a received one, as the shim does. */
+	private static void loop_back(ByteBuffer buffer, int offset, long timestamp_ns) {
+		long mtu = buffer.getLong(offset);
+		int flags_offset = offset + Jsocketcan.RECORD_FRAME + Jsocketcan.FRAME_FLAGS;
+		if (mtu == Jsocketcan.CANFD_MTU)
+			buffer.put(flags_offset, (byte) (buffer.get(flags_offset) | Jsocketcan.CANFD_FDF));
+		buffer.putLong(offset, timestamp_ns);
+	}
+
+	@Test
+	public void test_encode_decode() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(3 * Jsocketcan.RECORD_SIZE).order(ByteOrder.nativeOrder());
+		Frame frame = new Frame();
+
+		frame.copy_from(make_message(0x18DAF110, true, new byte[] { 0x02, 0x3E, 0x00 }));
+		SocketCanBus.encode(frame, buffer, 0);
+		TestCase.assertEquals(Jsocketcan.CAN_MTU, buffer.getLong(0));
+		TestCase.assertEquals(0x18DAF110 | Jsocketcan.CAN_EFF_FLAG, buffer.getInt(Jsocketcan.RECORD_FRAME));
+		TestCase.assertEquals(3, buffer.get(Jsocketcan.RECORD_FRAME + Jsocketcan.FRAME_LEN));
+
+		// FD lengths are padded up to the next DLC
+		Message fd = make_message(0x123, false, new byte[11]);
+		fd.data[10] = 0x55;
+		fd.is_fd = true;
+		fd.bitrate_switch = true;
+		frame.copy_from(fd);
+		SocketCanBus.encode(frame, buffer, Jsocketcan.RECORD_SIZE);
+		TestCase.assertEquals(Jsocketcan.CANFD_MTU, buffer.getLong(Jsocketcan.RECORD_SIZE));
+		TestCase.assertEquals(12, buffer.get(Jsocketcan.RECORD_SIZE + Jsocketcan.RECORD_FRAME + Jsocketcan.FRAME_LEN));
+
+		Message remote = make_message(0x7DF, false, null);
+		remote.is_remote_frame = true;
+		remote.dlc = 8;
+		frame.copy_from(remote);
+		SocketCanBus.encode(frame, buffer, 2 * Jsocketcan.RECORD_SIZE);
+
+		for (int i = 0; i < 3; i++) {
+			loop_back(buffer, i * Jsocketcan.RECORD_SIZE, 1_000_000_123L + i);
+		}
+
+		SocketCanBus.decode(buffer, 0, frame);
+		TestCase.assertEquals(1_000_000_123L, frame.timestamp_ns());
+		TestCase.assertEquals(1000L, frame.timestamp);
+		TestCase.assertEquals(0x18DAF110, frame.arbitration_id);
+		TestCase.assertTrue(frame.is_extended_id);
+		TestCase.assertFalse(frame.is_fd);
+		TestCase.assertEquals(3, frame.length);
+		TestCase.assertEquals(0x3E, frame.data[1]);
+
+		SocketCanBus.decode(buffer, Jsocketcan.RECORD_SIZE, frame);
+		TestCase.assertEquals(0x123, frame.arbitration_id);
+		TestCase.assertFalse(frame.is_extended_id);
+		TestCase.assertTrue(frame.is_fd);
+		TestCase.assertTrue(frame.bitrate_switch);
+		TestCase.assertFalse(frame.error_state_indicator);
+		TestCase.assertEquals(12, frame.length);
+		TestCase.assertEquals(0x55, frame.data[10]);
+		TestCase.assertEquals(0, frame.data[11]);
+
+		SocketCanBus.decode(buffer, 2 * Jsocketcan.RECORD_SIZE, frame);
+		TestCase.assertEquals(0x7DF, frame.arbitration_id);
+		TestCase.assertTrue(frame.is_remote_frame);
+		TestCase.assertEquals(8, frame.length);
+		TestCase.assertEquals(0, frame.data[0]);
+	}
+
+	@Test
+	public void test_error_frame() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(Jsocketcan.RECORD_SIZE).order(ByteOrder.nativeOrder());
+		// CAN_ERR_BUSOFF
+		buffer.putInt(Jsocketcan.RECORD_FRAME, Jsocketcan.CAN_ERR_FLAG | 0x40);
+		buffer.put(Jsocketcan.RECORD_FRAME + Jsocketcan.FRAME_LEN, (byte) 8);
+		Frame frame = new Frame();
+		SocketCanBus.decode(buffer, 0, frame);
+		TestCase.assertTrue(frame.is_error_frame);
+		TestCase.assertEquals(0x40, frame.arbitration_id);
+		TestCase.assertEquals(8, frame.length);
+	}
+
+	@Test
+	public void test_kernel_filters() throws Exception {
+		Filter any = new Filter(0x7E8, 0x7F8, null);
+		TestCase.assertEquals(0x7E8, SocketCanBus.kernel_id(any));
+		TestCase.assertEquals(0x7F8, SocketCanBus.kernel_mask(any));
+
+		Filter standard = new Filter(0x7E8, 0x7FF, false);
+		TestCase.assertEquals(0x7E8, SocketCanBus.kernel_id(standard));
+		TestCase.assertEquals(0x7FF | Jsocketcan.CAN_EFF_FLAG, SocketCanBus.kernel_mask(standard));
+
+		Filter extended = new Filter(0x18DAF100L, 0x1FFFFF00L, true);
+		TestCase.assertEquals(0x18DAF100 | Jsocketcan.CAN_EFF_FLAG, SocketCanBus.kernel_id(extended));
+		TestCase.assertEquals(0x1FFFFF00 | Jsocketcan.CAN_EFF_FLAG, SocketCanBus.kernel_mask(extended));
+	}
+
+	/** Needs the Jsocketcan library and a vcan0 interface, skipped otherwise. */
+	@Test
+	public void test_vcan() throws Exception {
+		SocketCanBus sender;
+		try {
+			sender = new SocketCanBus("vcan0", null, null, true, null, null);
+		} catch (CanError e) {
+			// TestCase classes run under the JUnit 3 runner, which reports Assume as an error
+			logger.warn("Skipping test_vcan, vcan0 cannot be opened: " + e.getMessage());
+			return;
+		}
+		SocketCanBus receiver = new SocketCanBus("vcan0",
+				Arrays.asList(new Filter(0x7E8, 0x7FF, false), new Filter(0x18DAF100L, 0x1FFFFF00L, true)), null,
+				true, null, null);
+
+		Message[] msgs = new Message[100];
+		for (int i = 0; i < msgs.length; i++) {
+			msgs[i] = make_message(i % 2 == 0 ? 0x7E8 : 0x7E0, false, new byte[] { (byte) i });
+		}
+		Message fd = make_message(0x18DAF1F1, true, new byte[64]);
+		fd.is_fd = true;
+		fd.data[63] = 0x55;
+		msgs[99] = fd;
+		sender.send_batch(msgs, msgs.length);
+
+		Message[] out = new Message[100];
+		int received = 0;
+		while (received < 50) {
+			int count = receiver.recv_batch(out, out.length - received, 1000L);
+			TestCase.assertTrue(count > 0);
+			for (int i = 0; i < count; i++) {
+				Message msg = out[i];
+				if (received < 49) {
+					TestCase.assertEquals(0x7E8, msg.arbitration_id);
+					TestCase.assertEquals(2 * received, msg.data[0]);
+				} else {
+					TestCase.assertEquals(0x18DAF1F1, msg.arbitration_id);
+					TestCase.assertTrue(msg.is_fd);
+					TestCase.assertEquals(0x55, msg.data[63]);
+				}
+				TestCase.assertTrue(msg.timestamp > 0);
+				received++;
+			}
+		}
+		TestCase.assertNull(receiver.recv(10L));
+
+		receiver.shutdown();
+		sender.shutdown();
+		try {
+			receiver.recv(0L);
+			TestCase.fail("a closed bus cannot receive");
+		} catch (CanError e) {
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package can.interfaces.virtual;
+
+import org.junit.Test;
+
+import can.Message;
+import junit.framework.TestCase;
+
+public class VirtualBusTest extends TestCase {
+
+	private static Message make_message(long arbitration_id, byte... data) throws Exception {
+		return new Message(0, arbitration_id, null, null, null, null, null, data, null, null, null, null);
+	}
+
+	@Test
+	public void test_send_and_receive() throws Exception {
+		VirtualBus bus1 = new VirtualBus("test_send_and_receive");
+		VirtualBus bus2 = new VirtualBus("test_send_and_receive");
+		VirtualBus bus3 = new VirtualBus("test_send_and_receive");
+		try {
+			bus1.send(make_message(0x123, (byte) 0x11, (byte) 0x22));
+
+			Message msg2 = bus2.recv(100l);
+			Message msg3 = bus3.recv(100l);
+			TestCase.assertNotNull(msg2);
+			TestCase.assertNotNull(msg3);
+			TestCase.assertEquals(0x123, msg2.arbitration_id);
+			TestCase.assertEquals(2, msg2.dlc);
+			TestCase.assertEquals(0x22, msg3.data[1]);
+			// own messages are not received by default
+			TestCase.assertNull(bus1.recv(0l));
+		} finally {
+			bus1.shutdown();
+			bus2.shutdown();
+			bus3.shutdown();
+		}
+	}
+
+	@Test
+	public void test_receive_own_messages() throws Exception {
+		VirtualBus bus = new VirtualBus("test_receive_own_messages", null, true, null, null, null);
+		try {
+			bus.send(make_message(0x456));
+			Message msg = bus.recv(100l);
+			TestCase.assertNotNull(msg);
+			TestCase.assertEquals(0x456, msg.arbitration_id);
+		} finally {
+			bus.shutdown();
+		}
+	}
+
+	@Test
+	public void test_channels_are_isolated() throws Exception {
+		VirtualBus bus1 = new VirtualBus("test_channels_are_isolated_1");
+		VirtualBus bus2 = new VirtualBus("test_channels_are_isolated_2");
+		try {
+			bus1.send(make_message(0x100));
+			TestCase.assertNull(bus2.recv(10l));
+		} finally {
+			bus1.shutdown();
+			bus2.shutdown();
+		}
+	}
+
+	@Test
+	public void test_recv_timeout() throws Exception {
+		VirtualBus bus = new VirtualBus("test_recv_timeout");
+		try {
+			long start = System.currentTimeMillis();
+			TestCase.assertNull(bus.recv(50l));
+			TestCase.assertTrue(System.currentTimeMillis() - start >= 50);
+		} finally {
+			bus.shutdown();
+		}
+	}
+
+	@Test
+	public void test_blocking_receive_is_woken_up() throws Exception {
+		final VirtualBus bus1 = new VirtualBus("test_blocking_receive_is_woken_up");
+		VirtualBus bus2 = new VirtualBus("test_blocking_receive_is_woken_up");
+		try {
+			Thread sender = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(20);
+						bus1.send(make_message(0x7AF));
+					} catch (Exception e) {
+					}
+				}
+			});
+			sender.start();
+			Message msg = bus2.recv(null);
+			TestCase.assertEquals(0x7AF, msg.arbitration_id);
+			sender.join();
+		} finally {
+			bus1.shutdown();
+			bus2.shutdown();
+		}
+	}
+
+	@Test
+	public void test_overrun_drops_oldest() throws Exception {
+		VirtualBus bus1 = new VirtualBus("test_overrun_drops_oldest", null, null, 16, null, null);
+		VirtualBus bus2 = new VirtualBus("test_overrun_drops_oldest");
+		try {
+			for (int i = 0; i < 20; i++) {
+				bus1.send(make_message(i));
+			}
+			Message msg = bus2.recv(0l);
+			TestCase.assertEquals(4, msg.arbitration_id);
+			TestCase.assertEquals(4, bus2.dropped());
+			for (int i = 5; i < 20; i++) {
+				TestCase.assertEquals(i, bus2.recv(0l).arbitration_id);
+			}
+			TestCase.assertNull(bus2.recv(0l));
+		} finally {
+			bus1.shutdown();
+			bus2.shutdown();
+		}
+	}
+
+	@Test
+	public void test_many_producers() throws Exception {
+		final int producers = 4;
+		final int count = 10000;
+		VirtualBus receiver = new VirtualBus("test_many_producers");
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final VirtualBus bus = new VirtualBus("test_many_producers");
+			threads[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < count; i++) {
+							bus.send(make_message(i & 0x7FF));
+						}
+					} catch (Exception e) {
+					}
+					bus.shutdown();
+				}
+			});
+		}
+		try {
+			for (Thread t : threads)
+				t.start();
+			int received = 0;
+			while (received < producers * count && receiver.recv(1000l) != null) {
+				received++;
+			}
+			TestCase.assertEquals(producers * count, received);
+			TestCase.assertEquals(0, receiver.dropped());
+		} finally {
+			for (Thread t : threads)
+				t.join();
+			receiver.shutdown();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package can.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import can.Message;
+import junit.framework.TestCase;
+
+public class FlightRecorderTest extends TestCase {
+
+	private static File temp_dir() throws Exception {
+		File dir = Files.createTempDirectory("flight").toFile();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	/** Count the records of a trace, checking their IDs grow by ``id_step`` */
+	private static int read_count(String base_name, long first_id, long id_step) throws Exception {
+		TraceReader reader = new TraceReader(base_name);
+		int count = 0;
+		TraceRecord record;
+		while ((record = reader.next()) != null) {
+			TestCase.assertEquals(first_id + count * id_step, record.arbitration_id());
+			count++;
+		}
+		reader.close();
+		TraceFormat.segment_file(base_name, 0).deleteOnExit();
+		return count;
+	}
+
+	@Test
+	public void test_keeps_newest_messages() throws Exception {
+		FlightRecorder recorder = new FlightRecorder(100 * TraceFormat.RECORD_SIZE, null, null, null);
+		TestCase.assertEquals(100, recorder.slots());
+		for (int i = 0; i < 250; i++) {
+			byte[] data = new byte[i % 2 == 0 ? 8 : 64];
+			data[data.length - 1] = (byte) i;
+			recorder.on_message_received(new Message((long) i, i, true, null, null, 1, null, data, i % 2 == 1,
+					null, null, null));
+		}
+		TestCase.assertEquals(250, recorder.count());
+
+		String base = new File(temp_dir(), "all").getPath();
+		TestCase.assertEquals(100, recorder.dump(base));
+		TraceReader reader = new TraceReader(base);
+		for (int i = 150; i < 250; i++) {
+			Message msg = reader.next().to_message();
+			TestCase.assertEquals(i, msg.arbitration_id);
+			TestCase.assertEquals(i, msg.timestamp);
+			TestCase.assertTrue(msg.is_extended_id);
+			TestCase.assertEquals(i % 2 == 1, msg.is_fd);
+			TestCase.assertEquals(1, msg.channel);
+			TestCase.assertEquals((byte) i, msg.data[msg.data.length - 1]);
+		}
+		TestCase.assertNull(reader.next());
+		reader.close();
+		TraceFormat.segment_file(base, 0).deleteOnExit();
+	}
+
+	@Test
+	public void test_dump_window() throws Exception {
+		FlightRecorder recorder = new FlightRecorder(1000 * TraceFormat.RECORD_SIZE, null, null, null);
+		for (int i = 0; i < 500; i++) {
+			recorder.record(i * 10_000_000L, 0, i, 0, new byte[8], 0, 8);
+		}
+		// 10 ms between messages: the last second holds 101 messages
+		String base = new File(temp_dir(), "window").getPath();
+		TestCase.assertEquals(101, recorder.dump(base, 1000L));
+		TestCase.assertEquals(101, read_count(base, 399, 1));
+	}
+
+	@Test
+	public void test_trigger_holdoff() throws Exception {
+		File dir = temp_dir();
+		FlightRecorder recorder = new FlightRecorder(64 * TraceFormat.RECORD_SIZE, dir, null, 60_000L);
+		for (int i = 0; i < 10; i++) {
+			recorder.record(i, 0, 0x7E8, 0, new byte[8], 0, 8);
+		}
+		CompletableFuture<String> dump = recorder.trigger("uds timeout");
+		TestCase.assertNotNull(dump);
+		TestCase.assertNull(recorder.trigger("again"));
+		// recorded after the trigger, not part of the dump
+		recorder.record(10, 0, 0x7E8, 0, new byte[8], 0, 8);
+
+		String base = dump.get(5, TimeUnit.SECONDS);
+		TestCase.assertTrue(base.contains("uds_timeout"));
+		TestCase.assertEquals(10, read_count(base, 0x7E8, 0));
+	}
+}
@@ -0,0 +1,167 @@
+package can.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import can.BusABC;
+import can.Clock;
+import can.Frame;
+import can.Message;
+import can.RecvResult;
+import junit.framework.TestCase;
+
+public class MergeReaderTest extends TestCase {
+
+	/** Bus delivering the messages queued by the test */
+	static class QueueBus extends BusABC {
+		final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+
+		@Override
+		public boolean _recv_internal(Long timeout, RecvResult result) throws Exception {
+			return result.set(this.queue.poll(timeout, TimeUnit.MILLISECONDS), false);
+		}
+
+		@Override
+		public void send(Message msg, Long timeout) {
+		}
+
+		void deliver(long arbitration_id, long timestamp_ns) throws Exception {
+			Message msg = new Message(0, arbitration_id, null, null, null, null, null, null, null, null, null, null);
+			msg.timestamp_ns(timestamp_ns);
+			this.queue.add(msg);
+		}
+	}
+
+	/** Record messages with the given timestamps, IDs follow the timestamps */
+	private static String record(String name, long... timestamps) throws Exception {
+		File dir = Files.createTempDirectory("merge").toFile();
+		dir.deleteOnExit();
+		String base = new File(dir, name).getPath();
+		TraceWriter writer = new TraceWriter(base, 8);
+		for (long timestamp : timestamps) {
+			writer.write(timestamp, 0, 0x100 + timestamp, 0, new byte[0], 0, 0);
+		}
+		writer.close();
+		return base;
+	}
+
+	@Test
+	public void test_merge_recordings() throws Exception {
+		MergeReader merge = new MergeReader(null, 4);
+		merge.add_source(new TraceReader(record("a", 0, 10, 20, 30)), 1);
+		merge.add_source(new TraceReader(record("b", 5, 10, 35, 36, 37)), 2);
+		merge.add_source(new TraceReader(record("c", 1)), null);
+		merge.start();
+
+		Frame frame = new Frame();
+		StringBuilder merged = new StringBuilder();
+		long timestamp;
+		while ((timestamp = merge.next(frame)) != FrameSource.END) {
+			TestCase.assertEquals(0x100 + timestamp, frame.arbitration_id);
+			merged.append(timestamp).append('/').append(frame.channel).append(' ');
+		}
+		// equal timestamps keep the order of the inputs
+		TestCase.assertEquals("0/1 1/0 5/2 10/1 10/2 20/1 30/1 35/2 36/2 37/2 ", merged.toString());
+		TestCase.assertTrue(merge.is_finished());
+		TestCase.assertEquals(10, merge.merged());
+		TestCase.assertEquals(0, merge.late());
+		merge.close();
+	}
+
+	@Test
+	public void test_bounded_memory() throws Exception {
+		long[] timestamps = new long[20_000];
+		for (int i = 0; i < timestamps.length; i++) {
+			timestamps[i] = 2L * i;
+		}
+		long[] odd = new long[timestamps.length];
+		for (int i = 0; i < odd.length; i++) {
+			odd[i] = 2L * i + 1;
+		}
+		// the merge waits for the reader instead of buffering the recordings
+		MergeReader merge = new MergeReader(null, 8);
+		merge.add_source(new TraceReader(record("even", timestamps)), null);
+		merge.add_source(new TraceReader(record("odd", odd)), null);
+		merge.start();
+		Frame frame = new Frame();
+		for (long expected = 0; expected < 2L * timestamps.length; expected++) {
+			TestCase.assertEquals(expected, merge.next(frame));
+		}
+		TestCase.assertEquals(FrameSource.END, merge.next(frame));
+		merge.close();
+	}
+
+	@Test
+	public void test_reorder_window() throws Exception {
+		QueueBus fast = new QueueBus();
+		QueueBus slow = new QueueBus();
+		MergeReader merge = new MergeReader(200_000_000L, null);
+		merge.add_bus(fast, 0);
+		merge.add_bus(slow, 1);
+		merge.start();
+
+		long now = Clock.get_default().time_ns();
+		fast.deliver(0x1, now);
+		fast.deliver(0x3, now + 2_000_000L);
+		Frame frame = new Frame();
+		// nothing is released while the slow bus may still deliver older messages
+		TestCase.assertFalse(merge.recv_into(frame, 50L));
+		slow.deliver(0x2, now + 1_000_000L);
+		slow.deliver(0x4, now + 3_000_000L);
+		for (long expected = 0x1; expected <= 0x4; expected++) {
+			TestCase.assertTrue(merge.recv_into(frame, 1000L));
+			TestCase.assertEquals(expected, frame.arbitration_id);
+			TestCase.assertEquals(expected % 2 == 1 ? 0 : 1, frame.channel);
+		}
+
+		// beyond the window the message is released without waiting for the slow bus
+		long start = System.nanoTime();
+		fast.deliver(0x5, now + 4_000_000L);
+		TestCase.assertTrue(merge.recv_into(frame, 1000L));
+		TestCase.assertEquals(0x5, frame.arbitration_id);
+		TestCase.assertTrue(System.nanoTime() - start < 1_000_000_000L);
+		// too late to be ordered
+		slow.deliver(0x6, now + 3_500_000L);
+		TestCase.assertTrue(merge.recv_into(frame, 1000L));
+		TestCase.assertEquals(0x6, frame.arbitration_id);
+		TestCase.assertEquals(1, merge.late());
+
+		merge.stop();
+		TestCase.assertFalse(merge.recv_into(frame, 1000L));
+		TestCase.assertTrue(merge.is_finished());
+		merge.close();
+	}
+
+	@Test
+	public void test_slow_reader_drops() throws Exception {
+		QueueBus bus = new QueueBus();
+		MergeReader merge = new MergeReader(0L, 4);
+		merge.add_bus(bus, null);
+		merge.start();
+		long now = Clock.get_default().time_ns();
+		for (int i = 0; i < 100; i++) {
+			bus.deliver(i, now + i);
+		}
+		while (!bus.queue.isEmpty()) {
+			Thread.sleep(10);
+		}
+		merge.stop();
+
+		Frame frame = new Frame();
+		long read = 0;
+		long previous = -1;
+		while (merge.recv_into(frame, 1000L)) {
+			TestCase.assertTrue(frame.arbitration_id > previous);
+			previous = frame.arbitration_id;
+			read++;
+		}
+		TestCase.assertTrue(merge.dropped() > 0);
+		TestCase.assertEquals(100, read + merge.dropped());
+		merge.close();
+	}
+}
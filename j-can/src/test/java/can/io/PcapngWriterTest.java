@@ -0,0 +1,188 @@
+package can.io;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import can.Message;
+import junit.framework.TestCase;
+
+public class PcapngWriterTest extends TestCase {
+
+	/** Blocks of a pcapng file: type, then the body without the lengths */
+	private static List<Object[]> read_blocks(File file) throws Exception {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		List<Object[]> blocks = new ArrayList<>();
+		while (in.hasRemaining()) {
+			int type = in.getInt();
+			int length = in.getInt();
+			TestCase.assertEquals(0, length % 4);
+			byte[] body = new byte[length - 12];
+			in.get(body);
+			TestCase.assertEquals(length, in.getInt());
+			blocks.add(new Object[] { type, ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN) });
+		}
+		return blocks;
+	}
+
+	private static File temp_dir() throws Exception {
+		File dir = Files.createTempDirectory("pcapng").toFile();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	@Test
+	public void test_socketcan_layout() throws Exception {
+		File file = new File(temp_dir(), "capture.pcapng");
+		file.deleteOnExit();
+		PcapngWriter writer = new PcapngWriter(file.getPath());
+		writer.write(new Message(1000L, 0x123, false, null, null, 0, null, new byte[] { 1, 2, 3 }, null, null, null,
+				null));
+		writer.write(new Message(1001L, 0x18DAF110, true, true, null, 1, 4, null, null, null, null, null));
+		byte[] fd_data = new byte[12];
+		fd_data[11] = 0x55;
+		writer.write(new Message(1002L, 0x456, false, null, null, 0, null, fd_data, true, true, true, null));
+		writer.close();
+		TestCase.assertEquals(3, writer.written());
+		TestCase.assertEquals(0, writer.dropped());
+
+		List<Object[]> blocks = read_blocks(file);
+		// section header, can0, message, can1, message, message
+		TestCase.assertEquals(6, blocks.size());
+		TestCase.assertEquals(0x0A0D0D0A, blocks.get(0)[0]);
+		TestCase.assertEquals(0x1A2B3C4D, ((ByteBuffer) blocks.get(0)[1]).getInt());
+		ByteBuffer idb = (ByteBuffer) blocks.get(1)[1];
+		TestCase.assertEquals(1, blocks.get(1)[0]);
+		TestCase.assertEquals(PcapngWriter.LINKTYPE_CAN_SOCKETCAN, idb.getShort());
+
+		ByteBuffer epb = (ByteBuffer) blocks.get(2)[1];
+		TestCase.assertEquals(6, blocks.get(2)[0]);
+		TestCase.assertEquals(0, epb.getInt());
+		long timestamp = ((long) epb.getInt() << 32) | (epb.getInt() & 0xFFFFFFFFL);
+		TestCase.assertEquals(1_000_000_000L, timestamp);
+		TestCase.assertEquals(16, epb.getInt());
+		TestCase.assertEquals(16, epb.getInt());
+		TestCase.assertEquals(0x123, epb.order(ByteOrder.BIG_ENDIAN).getInt());
+		TestCase.assertEquals(3, epb.get());
+		TestCase.assertEquals(0, epb.get());
+		epb.getShort();
+		TestCase.assertEquals(1, epb.get());
+
+		epb = (ByteBuffer) blocks.get(4)[1];
+		TestCase.assertEquals(1, epb.getInt());
+		epb.position(20);
+		TestCase.assertEquals(0x18DAF110 | 0x80000000 | 0x40000000, epb.order(ByteOrder.BIG_ENDIAN).getInt());
+		TestCase.assertEquals(4, epb.get());
+
+		epb = (ByteBuffer) blocks.get(5)[1];
+		epb.position(12);
+		TestCase.assertEquals(72, epb.getInt());
+		epb.position(20);
+		TestCase.assertEquals(0x456, epb.order(ByteOrder.BIG_ENDIAN).getInt());
+		TestCase.assertEquals(12, epb.get());
+		TestCase.assertEquals(0x07, epb.get());
+		epb.getShort();
+		epb.position(epb.position() + 11);
+		TestCase.assertEquals(0x55, epb.get());
+	}
+
+	@Test
+	public void test_rotation() throws Exception {
+		File dir = temp_dir();
+		String path = new File(dir, "capture.pcapng").getPath();
+		PcapngWriter writer = new PcapngWriter(path, 4096L, null, 1024, 64, null);
+		for (int i = 0; i < 500; i++) {
+			writer.write(new Message((long) i, i & 0x7FF, false, null, null, i % 2, null, new byte[] { (byte) i },
+					null, null, null, null));
+		}
+		writer.close();
+		TestCase.assertEquals(500 - writer.dropped(), writer.written());
+
+		int files = 0;
+		int messages = 0;
+		File file;
+		while ((file = new File(writer.file_name(files))).exists()) {
+			file.deleteOnExit();
+			TestCase.assertTrue(file.length() <= 4096);
+			List<Object[]> blocks = read_blocks(file);
+			TestCase.assertEquals(0x0A0D0D0A, blocks.get(0)[0]);
+			for (Object[] block : blocks) {
+				if ((Integer) block[0] == 6)
+					messages++;
+			}
+			files++;
+		}
+		TestCase.assertTrue(files > 1);
+		TestCase.assertEquals(writer.written(), messages);
+	}
+
+	@Test
+	public void test_rotation_without_buffers() throws Exception {
+		File dir = temp_dir();
+		String path = new File(dir, "capture.pcapng").getPath();
+		PcapngWriter writer = new PcapngWriter(path, 1500L, null, 1024, 2, 10L);
+		Thread writer_thread = null;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("pcapng writer " + path))
+				writer_thread = thread;
+		}
+		TestCase.assertNotNull(writer_thread);
+
+		synchronized (writer) {
+			// the writer thread blocks at its periodic flush, the buffers are not freed
+			long deadline = System.currentTimeMillis() + 5000;
+			while (writer_thread.getState() != Thread.State.BLOCKED && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			TestCase.assertEquals(Thread.State.BLOCKED, writer_thread.getState());
+			// 29 messages fill the first file, the 30th is dropped when rotating
+			for (int i = 0; i < 30; i++) {
+				writer.write(new Message((long) i, 0x100, false, null, null, 0, null, new byte[] { (byte) i }, null,
+						null, null, null));
+			}
+			TestCase.assertEquals(29, writer.written());
+			TestCase.assertEquals(1, writer.dropped());
+		}
+
+		// write to the second file once the buffers are free again
+		long deadline = System.currentTimeMillis() + 5000;
+		int i = 30;
+		while (writer.written() < 35 && System.currentTimeMillis() < deadline) {
+			writer.write(new Message((long) i, 0x100, false, null, null, 0, null, new byte[] { (byte) i++ }, null,
+					null, null, null));
+			Thread.sleep(1);
+		}
+		writer.close();
+		TestCase.assertEquals(35, writer.written());
+
+		for (int file = 0; file < 2; file++) {
+			File capture = new File(writer.file_name(file));
+			capture.deleteOnExit();
+			List<Object[]> blocks = read_blocks(capture);
+			TestCase.assertEquals(0x0A0D0D0A, blocks.get(0)[0]);
+			TestCase.assertEquals(1, blocks.get(1)[0]);
+			TestCase.assertEquals(file == 0 ? 31 : 8, blocks.size());
+		}
+		TestCase.assertFalse(new File(writer.file_name(2)).exists());
+	}
+
+	@Test
+	public void test_periodic_flush() throws Exception {
+		File file = new File(temp_dir(), "live.pcapng");
+		file.deleteOnExit();
+		PcapngWriter writer = new PcapngWriter(file.getPath(), null, null, null, null, 50L);
+		writer.on_message_received(
+				new Message(0L, 0x7E8, false, null, null, 0, null, new byte[8], null, null, null, null));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (file.length() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		TestCase.assertEquals(3, read_blocks(file).size());
+		writer.stop();
+	}
+}
@@ -0,0 +1,114 @@
+package can.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import can.BusABC;
+import can.Clock;
+import can.Filter;
+import can.Message;
+import can.RecvResult;
+import can.VirtualClock;
+import junit.framework.TestCase;
+
+public class ReplayerTest extends TestCase {
+
+	/** Bus recording what is sent, with the time of sending */
+	static class RecordingBus extends BusABC {
+		final Clock clock = Clock.get_default();
+		final List<Message> sent = new ArrayList<>();
+		final List<Long> times = new ArrayList<>();
+
+		@Override
+		public boolean _recv_internal(Long timeout, RecvResult result) {
+			return result.set(null, false);
+		}
+
+		@Override
+		public synchronized void send(Message msg, Long timeout) {
+			this.times.add(this.clock.time_ns());
+			this.sent.add(msg);
+		}
+	}
+
+	/** Record 20 messages on 2 channels, 5ms apart */
+	private static String record(String name) throws Exception {
+		File dir = Files.createTempDirectory("replay").toFile();
+		dir.deleteOnExit();
+		String base = new File(dir, name).getPath();
+		TraceWriter writer = new TraceWriter(base, 8);
+		for (int i = 0; i < 20; i++) {
+			writer.write(1_000_000_000L + i * 5_000_000L, i % 2, 0x100 + i, 0, new byte[] { (byte) i }, 0, 1);
+		}
+		writer.close();
+		return base;
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// the replay waits in virtual time, so the timing is exact
+		Clock.set_default(new VirtualClock());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Clock.set_default(null);
+		super.tearDown();
+	}
+
+	@Test
+	public void test_original_timing() throws Exception {
+		RecordingBus bus = new RecordingBus();
+		Replayer replayer = new Replayer(new TraceReader(record("test_original_timing")), bus, null);
+		replayer.run();
+
+		TestCase.assertEquals(20, bus.sent.size());
+		for (int i = 1; i < 20; i++) {
+			TestCase.assertEquals(5_000_000L, bus.times.get(i) - bus.times.get(i - 1));
+		}
+		Replayer.Statistics statistics = replayer.statistics();
+		TestCase.assertEquals(20, statistics.sent);
+		TestCase.assertEquals(95_000_000L, statistics.recorded_duration);
+		TestCase.assertEquals(95_000_000L, statistics.actual_duration);
+		TestCase.assertEquals(0L, statistics.max_error);
+	}
+
+	@Test
+	public void test_speed() throws Exception {
+		RecordingBus bus = new RecordingBus();
+		Replayer replayer = new Replayer(new TraceReader(record("test_speed")), bus, 5.0);
+		replayer.run();
+		TestCase.assertEquals(19_000_000L, replayer.statistics().actual_duration);
+
+		bus = new RecordingBus();
+		replayer = new Replayer(new TraceReader(record("test_as_fast_as_possible")), bus, 0.0);
+		replayer.run();
+		TestCase.assertEquals(20, bus.sent.size());
+		TestCase.assertTrue(replayer.statistics().actual_duration < 10_000_000L);
+	}
+
+	@Test
+	public void test_filters_and_remap() throws Exception {
+		RecordingBus bus = new RecordingBus();
+		Replayer replayer = new Replayer(new TraceReader(record("test_filters_and_remap")), bus, 0.0);
+		List<Filter> filters = new ArrayList<>();
+		filters.add(new Filter(0x100, 0x7FE, null));
+		replayer.set_filters(filters);
+		replayer.remap_channel(0, 3);
+		replayer.start();
+		replayer.join();
+
+		// only 0x100 and 0x101 match
+		TestCase.assertEquals(2, bus.sent.size());
+		TestCase.assertEquals(0x100, bus.sent.get(0).arbitration_id);
+		TestCase.assertEquals(3, bus.sent.get(0).channel);
+		TestCase.assertEquals(1, bus.sent.get(1).channel);
+		TestCase.assertEquals(18, replayer.statistics().filtered);
+		TestCase.assertFalse(replayer.is_running());
+	}
+}
@@ -0,0 +1,193 @@
+package can.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import can.Frame;
+import can.Message;
+import junit.framework.TestCase;
+
+public class TextLogTest extends TestCase {
+
+	private static File temp_file(String name, String content) throws Exception {
+		File dir = Files.createTempDirectory("textlog").toFile();
+		dir.deleteOnExit();
+		File file = new File(dir, name);
+		file.deleteOnExit();
+		if (content != null) {
+			try (FileOutputStream out = new FileOutputStream(file)) {
+				out.write(content.getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+		return file;
+	}
+
+	private static List<Message> read_all(TextLogReader reader) throws Exception {
+		List<Message> messages = new ArrayList<>();
+		for (Message msg : reader) {
+			messages.add(msg);
+		}
+		reader.close();
+		return messages;
+	}
+
+	/** Classic, extended, remote and FD frames */
+	private static List<Message> sample_messages() throws Exception {
+		List<Message> messages = new ArrayList<>();
+		long t = 1_436_509_052_249L;
+		messages.add(new Message(t, 0x123, false, null, null, 0, null, new byte[] { (byte) 0xDE, (byte) 0xAD }, null,
+				null, null, null));
+		messages.add(new Message(t + 1, 0x18DAF110, true, null, null, 1, null, new byte[] { 2, 0x10, 3 }, null, null,
+				null, null));
+		Message remote = new Message(t + 2, 0x7DF, false, true, null, 0, 4, null, null, null, null, null);
+		remote.data = new byte[0];
+		messages.add(remote);
+		byte[] fd_data = new byte[12];
+		for (int i = 0; i < fd_data.length; i++)
+			fd_data[i] = (byte) (0xF0 + i);
+		messages.add(new Message(t + 3, 0x456, false, null, null, 1, null, fd_data, true, true, null, null));
+		messages.add(new Message(t + 4, 0x10, true, null, null, 0, null, new byte[0], true, false, true, null));
+		return messages;
+	}
+
+	private static void assert_same(Message expected, Message actual, boolean compare_channel) {
+		TestCase.assertEquals(expected.arbitration_id, actual.arbitration_id);
+		TestCase.assertEquals(expected.is_extended_id, actual.is_extended_id);
+		TestCase.assertEquals(expected.is_remote_frame, actual.is_remote_frame);
+		TestCase.assertEquals(expected.is_fd, actual.is_fd);
+		TestCase.assertEquals(expected.bitrate_switch, actual.bitrate_switch);
+		TestCase.assertEquals(expected.error_state_indicator, actual.error_state_indicator);
+		TestCase.assertEquals(expected.dlc, actual.dlc);
+		if (!expected.is_remote_frame) {
+			for (int i = 0; i < expected.dlc; i++)
+				TestCase.assertEquals(expected.data[i], actual.data[i]);
+		}
+		if (compare_channel)
+			TestCase.assertEquals(expected.channel, actual.channel);
+	}
+
+	@Test
+	public void test_candump_read() throws Exception {
+		File file = temp_file("candump.log", "(1436509052.249713) can0 123#DEADBEEF\n"
+				+ "(1436509052.250000) vcan1 18DAF110#02.10.03\r\n" + "(1436509052.251000) can0 7DF#R4\n"
+				+ "(1436509052.252000) can0 456##3112233445566778899001122\n" + "(1436509052.253000) can0 20000004#0000\n"
+				+ "garbage line\n" + "(1436509052.254000) can0 001#");
+		CandumpReader reader = new CandumpReader(file.getPath());
+		Frame frame = new Frame();
+		TestCase.assertEquals(1_436_509_052_249_713_000L, reader.next(frame));
+		TestCase.assertEquals(0x123, frame.arbitration_id);
+		TestCase.assertEquals(4, frame.length);
+		TestCase.assertEquals((byte) 0xEF, frame.data[3]);
+		TestCase.assertEquals(1_436_509_052_249L, frame.timestamp);
+
+		reader.next(frame);
+		TestCase.assertTrue(frame.is_extended_id);
+		TestCase.assertEquals(1, frame.channel);
+		TestCase.assertEquals(3, frame.length);
+
+		reader.next(frame);
+		TestCase.assertTrue(frame.is_remote_frame);
+		TestCase.assertEquals(4, frame.length);
+
+		reader.next(frame);
+		TestCase.assertTrue(frame.is_fd);
+		TestCase.assertTrue(frame.bitrate_switch);
+		TestCase.assertTrue(frame.error_state_indicator);
+		TestCase.assertEquals(12, frame.length);
+
+		reader.next(frame);
+		TestCase.assertTrue(frame.is_error_frame);
+		TestCase.assertEquals(4, frame.arbitration_id);
+
+		reader.next(frame);
+		TestCase.assertEquals(1, frame.arbitration_id);
+		TestCase.assertEquals(0, frame.length);
+		TestCase.assertEquals(FrameSource.END, reader.next(frame));
+		TestCase.assertEquals(1, reader.skipped());
+		reader.close();
+	}
+
+	@Test
+	public void test_candump_round_trip() throws Exception {
+		File file = temp_file("round_trip.log", null);
+		List<Message> messages = sample_messages();
+		CandumpWriter writer = new CandumpWriter(file.getPath());
+		for (Message msg : messages)
+			writer.write(msg);
+		writer.close();
+
+		String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+		TestCase.assertTrue(text, text.startsWith("(1436509052.249000) can0 123#DEAD\n"));
+		TestCase.assertTrue(text, text.contains(" can1 18DAF110#021003\n"));
+		TestCase.assertTrue(text, text.contains(" can0 7DF#R4\n"));
+		TestCase.assertTrue(text, text.contains(" can1 456##1F0F1F2F3F4F5F6F7F8F9FAFB\n"));
+
+		List<Message> read = read_all(new CandumpReader(file.getPath()));
+		TestCase.assertEquals(messages.size(), read.size());
+		for (int i = 0; i < messages.size(); i++) {
+			assert_same(messages.get(i), read.get(i), true);
+			TestCase.assertEquals(messages.get(i).timestamp, read.get(i).timestamp);
+		}
+	}
+
+	@Test
+	public void test_asc_read() throws Exception {
+		File file = temp_file("vector.asc", "date Mon Oct 18 10:00:00.000 am 2026\n"
+				+ "base hex  timestamps absolute\n" + "internal events logged\n" + "// version 9.0.0\n"
+				+ "Begin Triggerblock Mon Oct 18 10:00:00.000 am 2026\n" + "   0.000000 Start of measurement\n"
+				+ "   0.012345 1  123             Rx   d 8 01 02 03 04 05 06 07 08  Length = 0 BitCount = 0 ID = 291\n"
+				+ "   0.012400 2  18DAF110x       Tx   r 4\n" + "   0.012500 1  Statistic: D 0 R 0 XD 0 XR 0 E 0 O 0 B 0.00%\n"
+				+ "   0.012600 CANFD   1 Rx        456  EngineData  1 0 9 12 00 01 02 03 04 05 06 07 08 09 0A 0B   130000  130     3000        0        0        0        0        0\n"
+				+ "   0.012700 1  ErrorFrame\n" + "End TriggerBlock\n");
+		AscReader reader = new AscReader(file.getPath());
+		Frame frame = new Frame();
+		long timestamp = reader.next(frame);
+		long start = reader.start_time();
+		TestCase.assertTrue(start > 0);
+		TestCase.assertEquals(start * 1_000_000L + 12_345_000L, timestamp);
+		TestCase.assertEquals(0x123, frame.arbitration_id);
+		TestCase.assertEquals(0, frame.channel);
+		TestCase.assertEquals(8, frame.length);
+		TestCase.assertEquals(8, frame.data[7]);
+
+		reader.next(frame);
+		TestCase.assertTrue(frame.is_extended_id);
+		TestCase.assertTrue(frame.is_remote_frame);
+		TestCase.assertEquals(0x18DAF110, frame.arbitration_id);
+		TestCase.assertEquals(1, frame.channel);
+
+		reader.next(frame);
+		TestCase.assertTrue(frame.is_fd);
+		TestCase.assertTrue(frame.bitrate_switch);
+		TestCase.assertEquals(12, frame.length);
+		TestCase.assertEquals(0x0B, frame.data[11]);
+
+		reader.next(frame);
+		TestCase.assertTrue(frame.is_error_frame);
+		TestCase.assertEquals(FrameSource.END, reader.next(frame));
+		reader.close();
+	}
+
+	@Test
+	public void test_asc_round_trip() throws Exception {
+		File file = temp_file("round_trip.asc", null);
+		List<Message> messages = sample_messages();
+		AscWriter writer = new AscWriter(file.getPath());
+		for (Message msg : messages)
+			writer.write(msg);
+		writer.close();
+
+		List<Message> read = read_all(new AscReader(file.getPath()));
+		TestCase.assertEquals(messages.size(), read.size());
+		for (int i = 0; i < messages.size(); i++) {
+			assert_same(messages.get(i), read.get(i), true);
+			TestCase.assertEquals(messages.get(i).timestamp, read.get(i).timestamp);
+		}
+	}
+}
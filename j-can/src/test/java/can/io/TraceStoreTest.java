@@ -0,0 +1,141 @@
+package can.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import can.Message;
+import junit.framework.TestCase;
+
+public class TraceStoreTest extends TestCase {
+
+	/**
+	 * 20000 records over 3 segments, 1 ms apart. 0x7AF only appears in records
+	 * 12005 to 12995, the extended ID 0x18DAF110 every 100 records.
+	 */
+	private static String write_trace() throws Exception {
+		File dir = Files.createTempDirectory("store").toFile();
+		dir.deleteOnExit();
+		String base = new File(dir, "drive").getPath();
+		TraceWriter writer = new TraceWriter(base, 8000);
+		byte[] data = new byte[8];
+		for (int i = 0; i < 20000; i++) {
+			data[0] = (byte) i;
+			data[1] = (byte) (i >> 8);
+			if (i % 100 == 0)
+				writer.write(i * 1_000_000L, 0, 0x18DAF110, TraceFormat.FLAG_EXTENDED_ID, data, 0, 8);
+			else if (i >= 12000 && i < 13000 && i % 10 == 5)
+				writer.write(i * 1_000_000L, 0, 0x7AF, 0, data, 0, 8);
+			else
+				writer.write(i * 1_000_000L, 0, 0x100 + i % 16, 0, data, 0, 8);
+		}
+		writer.close();
+		for (int i = 0; i < 3; i++)
+			TraceFormat.segment_file(base, i).deleteOnExit();
+		TraceStore.index_file(base).deleteOnExit();
+		return base;
+	}
+
+	private static int index_of(Message msg) {
+		return (msg.data[0] & 0xFF) | (msg.data[1] & 0xFF) << 8;
+	}
+
+	@Test
+	public void test_query_skips_blocks() throws Exception {
+		String base = write_trace();
+		TraceStore store = new TraceStore(base, 1000);
+		TestCase.assertEquals(20000, store.count());
+		// blocks do not span segments: 8 + 8 + 4
+		TestCase.assertEquals(20, store.blocks());
+		TestCase.assertTrue(TraceStore.index_file(base).isFile());
+
+		TestCase.assertEquals(1, store.candidates(0x7AFL, false, null, null).length);
+		TestCase.assertEquals(0, store.candidates(0x7AFL, true, null, null).length);
+		TestCase.assertEquals(0, store.candidates(0x7AFL, false, 0L, 11_999_000_000L).length);
+		TestCase.assertEquals(3, store.candidates(0x18DAF110L, true, 2_500_000_000L, 4_500_000_000L).length);
+
+		List<Message> result = store.query(0x7AF, false, 12_500_000_000L, 13_000_000_000L)
+				.collect(Collectors.toList());
+		TestCase.assertEquals(50, result.size());
+		for (int i = 0; i < result.size(); i++) {
+			Message msg = result.get(i);
+			TestCase.assertEquals(0x7AF, msg.arbitration_id);
+			TestCase.assertEquals(12505 + i * 10, index_of(msg));
+			TestCase.assertEquals(12505 + i * 10, msg.timestamp);
+		}
+
+		TestCase.assertEquals(200, store.query(0x18DAF110L, null, null, null, null).count());
+		TestCase.assertEquals(200, store.query(null, true, null, null, null).count());
+		TestCase.assertEquals(19800, store.query(null, false, null, null, null).count());
+		store.close();
+	}
+
+	@Test
+	public void test_parallel_query_keeps_order() throws Exception {
+		String base = write_trace();
+		TraceStore store = new TraceStore(base, 500);
+		List<Message> sequential = store.query(null, null, 1_000_000_000L, 18_999_000_000L, false)
+				.collect(Collectors.toList());
+		List<Message> parallel = store.query(null, null, 1_000_000_000L, 18_999_000_000L, true)
+				.collect(Collectors.toList());
+		TestCase.assertEquals(18000, sequential.size());
+		TestCase.assertEquals(sequential.size(), parallel.size());
+		for (int i = 0; i < parallel.size(); i++) {
+			TestCase.assertEquals(1000 + i, index_of(sequential.get(i)));
+			TestCase.assertEquals(1000 + i, index_of(parallel.get(i)));
+		}
+		store.close();
+	}
+
+	@Test
+	public void test_index_reused_until_trace_changes() throws Exception {
+		String base = write_trace();
+		new TraceStore(base, 1000).close();
+		long modified = TraceStore.index_file(base).lastModified();
+		TraceStore store = new TraceStore(base, 4000);
+		// the stored index is used, with its block size
+		TestCase.assertEquals(1000, store.block_records());
+		TestCase.assertEquals(20, store.blocks());
+		TestCase.assertEquals(modified, TraceStore.index_file(base).lastModified());
+		store.close();
+
+		// a longer trace under the same name invalidates the index
+		TraceWriter writer = new TraceWriter(base, 8000);
+		for (int i = 0; i < 24000; i++) {
+			writer.write(i * 1_000_000L, 0, 0x200, 0, new byte[0], 0, 0);
+		}
+		writer.close();
+		store = new TraceStore(base, 4000);
+		TestCase.assertEquals(24000, store.count());
+		TestCase.assertEquals(6, store.blocks());
+		TestCase.assertEquals(0, store.query(0x100L, false, null, null, null).count());
+		TestCase.assertEquals(24000, store.query(0x200L, false, null, null, null).count());
+		store.close();
+	}
+
+	@Test
+	public void test_index_rebuilt_when_segment_rewritten() throws Exception {
+		String base = write_trace();
+		new TraceStore(base, 1000).close();
+
+		// same number of records in each segment, other IDs
+		TraceWriter writer = new TraceWriter(base, 8000);
+		for (int i = 0; i < 20000; i++) {
+			writer.write(i * 1_000_000L, 0, 0x300, 0, new byte[8], 0, 8);
+		}
+		writer.close();
+		File segment = TraceFormat.segment_file(base, 2);
+		// not depending on the resolution of the file times
+		segment.setLastModified(segment.lastModified() + 2000);
+
+		TraceStore store = new TraceStore(base, 4000);
+		TestCase.assertEquals(20000, store.count());
+		TestCase.assertEquals(4000, store.block_records());
+		TestCase.assertEquals(0, store.query(0x7AFL, false, null, null, null).count());
+		TestCase.assertEquals(20000, store.query(0x300L, false, null, null, null).count());
+		store.close();
+	}
+}
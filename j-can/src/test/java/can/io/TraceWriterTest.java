@@ -0,0 +1,115 @@
+package can.io;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import can.Frame;
+import can.Message;
+import junit.framework.TestCase;
+
+public class TraceWriterTest extends TestCase {
+
+	private static String base_name(String name) throws Exception {
+		File dir = Files.createTempDirectory("trace").toFile();
+		dir.deleteOnExit();
+		return new File(dir, name).getPath();
+	}
+
+	@Test
+	public void test_write_and_read() throws Exception {
+		String base = base_name("test_write_and_read");
+		TraceWriter writer = new TraceWriter(base, 4);
+		for (int i = 0; i < 10; i++) {
+			byte[] data = new byte[i % 2 == 0 ? 8 : 64];
+			data[0] = (byte) i;
+			data[data.length - 1] = (byte) 0xAA;
+			writer.write(new Message(i, 0x100 + i, i % 2 == 0, null, null, i % 3, null, data, i % 2 == 1, i % 2 == 1,
+					null, null));
+		}
+		writer.close();
+		TestCase.assertEquals(10, writer.count());
+		TestCase.assertTrue(TraceFormat.segment_file(base, 2).isFile());
+		TestCase.assertFalse(TraceFormat.segment_file(base, 3).isFile());
+
+		TraceReader reader = new TraceReader(base);
+		Frame frame = new Frame();
+		for (int i = 0; i < 10; i++) {
+			TraceRecord record = reader.next();
+			TestCase.assertNotNull(record);
+			TestCase.assertEquals(i * 1_000_000L, record.timestamp());
+			TestCase.assertEquals(0x100 + i, record.arbitration_id());
+			TestCase.assertEquals(i % 3, record.channel());
+			TestCase.assertEquals(i % 2 == 0, record.is_extended_id());
+			TestCase.assertEquals(i % 2 == 0 ? 8 : 64, record.length());
+			TestCase.assertEquals(i, record.data(0));
+			record.copy_to(frame);
+			TestCase.assertEquals((byte) 0xAA, frame.data[frame.length - 1]);
+			TestCase.assertEquals(i % 2 == 1, frame.bitrate_switch);
+		}
+		TestCase.assertNull(reader.next());
+		reader.close();
+	}
+
+	@Test
+	public void test_concurrent_writers() throws Exception {
+		String base = base_name("test_concurrent_writers");
+		final TraceWriter writer = new TraceWriter(base, 1000);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int channel = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					byte[] data = new byte[64];
+					for (int i = 0; i < 25_000; i++) {
+						data[0] = (byte) i;
+						writer.write(i, channel, i, TraceFormat.FLAG_FD, data, 0, 64);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		writer.close();
+
+		// every record of every channel was written once, in order per channel
+		long[] next = new long[threads.length];
+		TraceReader reader = new TraceReader(base);
+		TraceRecord record;
+		int count = 0;
+		while ((record = reader.next()) != null) {
+			int channel = record.channel();
+			TestCase.assertEquals(next[channel], record.arbitration_id());
+			TestCase.assertEquals((byte) next[channel], record.data(0));
+			next[channel]++;
+			count++;
+		}
+		TestCase.assertEquals(100_000, count);
+		TestCase.assertEquals(99, reader.segment());
+	}
+
+	@Test
+	public void test_read_unclosed_trace() throws Exception {
+		String base = base_name("test_read_unclosed_trace");
+		TraceWriter writer = new TraceWriter(base, 100);
+		for (int i = 0; i < 7; i++) {
+			writer.write(i, 0, i, 0, new byte[8], 0, 8);
+		}
+		TraceReader reader = new TraceReader(base);
+		int count = 0;
+		while (reader.next() != null) {
+			count++;
+		}
+		TestCase.assertEquals(7, count);
+		writer.close();
+		try {
+			writer.write(0, 0, 0, 0, new byte[8], 0, 8);
+			TestCase.fail("writing to a closed trace must fail");
+		} catch (IllegalStateException e) {
+		}
+	}
+}
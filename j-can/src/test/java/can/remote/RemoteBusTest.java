@@ -0,0 +1,225 @@
+package can.remote;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import can.Filter;
+import can.Frame;
+import can.Message;
+import can.interfaces.virtual.VirtualBus;
+import junit.framework.TestCase;
+
+public class RemoteBusTest extends TestCase {
+
+	private static Message make_message(long arbitration_id, boolean is_extended_id, byte[] data) throws Exception {
+		return new Message(0, arbitration_id, is_extended_id, null, null, null, null, data, null, null, null, null);
+	}
+
+	private static void wait_for_clients(RemoteServer server, int clients) throws Exception {
+		for (int i = 0; i < 200 && server.clients() != clients; i++) {
+			Thread.sleep(10);
+		}
+		TestCase.assertEquals(clients, server.clients());
+	}
+
+	@Test
+	public void test_share_bus() throws Exception {
+		VirtualBus node = new VirtualBus("test_share_bus");
+		VirtualBus shared = new VirtualBus("test_share_bus");
+		RemoteServer server = new RemoteServer(shared, "localhost", 0, null);
+		RemoteBus logger = new RemoteBus("localhost", server.port());
+		RemoteBus tester = new RemoteBus("localhost", server.port(),
+				Arrays.asList(new Filter(0x7E8, 0x7FF, false)), null, null);
+		wait_for_clients(server, 2);
+
+		// from the bus to the clients
+		Message msg = make_message(0x100, false, new byte[] { 1, 2, 3 });
+		msg.is_fd = true;
+		msg.bitrate_switch = true;
+		node.send(msg);
+		Message remote = make_message(0x18DAF110, true, null);
+		remote.is_remote_frame = true;
+		remote.dlc = 3;
+		node.send(remote);
+		node.send(make_message(0x7E8, false, new byte[] { 0x02, 0x50, 0x03 }));
+
+		Message[] batch = new Message[8];
+		long[] ids = new long[3];
+		int count = 0;
+		while (count < 3) {
+			int n = logger.recv_batch(batch, batch.length, 1000L);
+			TestCase.assertTrue(n > 0);
+			for (int i = 0; i < n; i++) {
+				ids[count++] = batch[i].arbitration_id;
+			}
+		}
+		TestCase.assertTrue(Arrays.equals(new long[] { 0x100, 0x18DAF110, 0x7E8 }, ids));
+		TestCase.assertNull(logger.recv(0L));
+
+		Message received = tester.recv(1000L);
+		TestCase.assertEquals(0x7E8, received.arbitration_id);
+		TestCase.assertEquals(0x50, received.data[1]);
+		TestCase.assertNull(tester.recv(50L));
+
+		// from a client to the bus and the other clients
+		tester.send(make_message(0x7E0, false, new byte[] { 0x02, 0x10, 0x03 }));
+		received = node.recv(1000L);
+		TestCase.assertEquals(0x7E0, received.arbitration_id);
+		TestCase.assertEquals(0x10, received.data[1]);
+		received = logger.recv(1000L);
+		TestCase.assertEquals(0x7E0, received.arbitration_id);
+		TestCase.assertNull(tester.recv(50L));
+
+		Message[] msgs = new Message[200];
+		for (int i = 0; i < msgs.length; i++) {
+			msgs[i] = make_message(0x300, false, new byte[] { (byte) i });
+		}
+		logger.send_batch(msgs, msgs.length);
+		for (int i = 0; i < msgs.length; i++) {
+			received = node.recv(1000L);
+			TestCase.assertEquals((byte) i, received.data[0]);
+		}
+
+		logger.shutdown();
+		wait_for_clients(server, 1);
+		tester.shutdown();
+		server.close();
+		node.shutdown();
+		shared.shutdown();
+	}
+
+	@Test
+	public void test_message_fields() throws Exception {
+		VirtualBus node = new VirtualBus("test_message_fields");
+		VirtualBus shared = new VirtualBus("test_message_fields");
+		RemoteServer server = new RemoteServer(shared, null, 0, null);
+		RemoteBus client = new RemoteBus("localhost", server.port());
+		wait_for_clients(server, 1);
+
+		Message msg = make_message(0x18DAF110, true, new byte[64]);
+		msg.data[63] = 0x55;
+		msg.is_fd = true;
+		msg.bitrate_switch = true;
+		msg.error_state_indicator = true;
+		msg.channel = 3;
+		node.send(msg);
+		Message remote = make_message(0x123, false, null);
+		remote.is_remote_frame = true;
+		remote.dlc = 3;
+		node.send(remote);
+
+		Message received = client.recv(1000L);
+		TestCase.assertEquals(0x18DAF110, received.arbitration_id);
+		TestCase.assertTrue(received.is_extended_id);
+		TestCase.assertTrue(received.is_fd);
+		TestCase.assertTrue(received.bitrate_switch);
+		TestCase.assertTrue(received.error_state_indicator);
+		TestCase.assertEquals(3, received.channel);
+		TestCase.assertEquals(64, received.dlc);
+		TestCase.assertEquals(0x55, received.data[63]);
+		TestCase.assertTrue(received.timestamp_ns() > 0);
+
+		received = client.recv(1000L);
+		TestCase.assertEquals(0x123, received.arbitration_id);
+		TestCase.assertTrue(received.is_remote_frame);
+		TestCase.assertEquals(3, received.dlc);
+
+		client.shutdown();
+		server.close();
+		node.shutdown();
+		shared.shutdown();
+	}
+
+	@Test
+	public void test_burst() throws Exception {
+		VirtualBus node = new VirtualBus("test_burst");
+		VirtualBus shared = new VirtualBus("test_burst");
+		RemoteServer server = new RemoteServer(shared, null, 0, null);
+		RemoteBus client = new RemoteBus("localhost", server.port());
+		wait_for_clients(server, 1);
+
+		// several times the input buffer, messages end up split between two reads
+		int count = 20_000;
+		for (int i = 0; i < count; i++) {
+			node.send(make_message(0x200, false, new byte[] { (byte) (i >> 8), (byte) i }));
+		}
+		Message[] batch = new Message[256];
+		int received = 0;
+		while (received < count) {
+			int n = client.recv_batch(batch, batch.length, 1000L);
+			TestCase.assertTrue(n > 0);
+			for (int i = 0; i < n; i++, received++) {
+				TestCase.assertEquals(received & 0xFFFF, (batch[i].data[0] & 0xFF) << 8 | batch[i].data[1] & 0xFF);
+			}
+		}
+
+		client.shutdown();
+		server.close();
+		node.shutdown();
+		shared.shutdown();
+	}
+
+	/** Read the next message sent by the server, with a payload of one byte */
+	private static void read_message(SocketChannel channel, Frame frame) throws Exception {
+		ByteBuffer input = ByteBuffer.allocate(RemoteProtocol.MESSAGE_HEADER_SIZE + 1);
+		while (input.hasRemaining()) {
+			TestCase.assertTrue(channel.read(input) > 0);
+		}
+		input.flip();
+		TestCase.assertEquals(RemoteProtocol.MESSAGE_HEADER_SIZE + 1, RemoteProtocol.frame_size(input));
+		RemoteProtocol.get_message(input, frame);
+	}
+
+	/** Talk to the server without RemoteBus to see what it sends on the wire */
+	@Test
+	public void test_server_side_filters() throws Exception {
+		VirtualBus node = new VirtualBus("test_server_side_filters");
+		VirtualBus shared = new VirtualBus("test_server_side_filters");
+		RemoteServer server = new RemoteServer(shared, null, 0, null);
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.port()));
+		channel.write(RemoteProtocol.encode_filters(Arrays.asList(new Filter(0x7E8, 0x7FF, false),
+				new Filter(0x18DAF100, 0x1FFFFF00, true))));
+		wait_for_clients(server, 1);
+		// the filters apply once a rejected message no longer comes before an accepted one
+		Frame frame = new Frame();
+		long deadline = System.currentTimeMillis() + 5000;
+		boolean filtered = false;
+		while (!filtered && System.currentTimeMillis() < deadline) {
+			node.send(make_message(0x100, false, new byte[] { 0 }));
+			node.send(make_message(0x7E8, false, new byte[] { 0 }));
+			read_message(channel, frame);
+			filtered = frame.arbitration_id == 0x7E8;
+			if (!filtered)
+				read_message(channel, frame);
+		}
+		TestCase.assertTrue(filtered);
+
+		node.send(make_message(0x7E8, true, new byte[] { 1 }));
+		node.send(make_message(0x7E8, false, new byte[] { 2 }));
+		node.send(make_message(0x100, false, new byte[] { 3 }));
+		node.send(make_message(0x18DAF1FA, true, new byte[] { 4 }));
+		node.send(make_message(0x18DA00F1, true, new byte[] { 5 }));
+		node.send(make_message(0x7E8, false, new byte[] { 6 }));
+
+		read_message(channel, frame);
+		TestCase.assertEquals(0x7E8, frame.arbitration_id);
+		TestCase.assertEquals(2, frame.data[0]);
+		read_message(channel, frame);
+		TestCase.assertEquals(0x18DAF1FA, frame.arbitration_id);
+		TestCase.assertEquals(4, frame.data[0]);
+		// nothing in between
+		read_message(channel, frame);
+		TestCase.assertEquals(0x7E8, frame.arbitration_id);
+		TestCase.assertEquals(6, frame.data[0]);
+
+		channel.close();
+		wait_for_clients(server, 0);
+		server.close();
+		node.shutdown();
+		shared.shutdown();
+	}
+}
@@ -12,6 +12,9 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import can.Clock;
+import can.io.FlightRecorder;
+
 import udsoncan.base.DataFormatIdentifier;
 import udsoncan.base.DataIdentifier;
 import udsoncan.base.MemoryLocation;
@@ -63,6 +66,15 @@ public class Client {
 	public SuppressPositiveResponse suppress_positive_response;
 
 	public Response last_response;
+
+	/**
+	 * Recorder dumped when a request times out, to see what happened on the bus.
+	 * null by default
+	 */
+	public FlightRecorder flight_recorder;
+
+	/** Time source of the request timeouts, the default clock by default */
+	public Clock clock = Clock.get_default();
 	// ---------Fields------END-------
 
 	public Client(BaseConnection conn, Map<String, Object> config, Integer request_timeout) {
@@ -535,7 +547,7 @@ public class Client {
 			overall_timeout = timeout;
 			single_request_timeout = timeout;
 		}
-		overall_timeout_time = System.currentTimeMillis() + overall_timeout;
+		overall_timeout_time = this.clock.time_ms() + overall_timeout;
 		using_p2_star = false; // Will switch to true when Nrc 0x78 will be received the first time.
 
 		this.conn.empty_rxqueue();
@@ -568,12 +580,12 @@ public class Client {
 			String timeout_name_to_report;
 			try {
 
-				if ((System.currentTimeMillis() + single_request_timeout) < overall_timeout_time) {
+				if ((this.clock.time_ms() + single_request_timeout) < overall_timeout_time) {
 					timeout_type_used = "single_request";
 					timeout_value = single_request_timeout;
 				} else {
 					timeout_type_used = "overall";
-					timeout_value = (int) ((overall_timeout_time - System.currentTimeMillis()));
+					timeout_value = (int) ((overall_timeout_time - this.clock.time_ms()));
 				}
 
 				payload = this.conn.wait_frame(timeout_value, true);
@@ -589,6 +601,9 @@ public class Client {
 					// Shouldn't go here.
 					timeout_name_to_report = "timeout";
 				}
+				if (this.flight_recorder != null) {
+					this.flight_recorder.trigger("uds-timeout-" + request.service.get_name());
+				}
 				throw new TimeoutException(
 						String.format("Did not receive response in time. %s time has expired (timeout=%d msec)",
 								timeout_name_to_report, timeout_value));
@@ -623,7 +638,7 @@ public class Client {
 					done_receiving = false;
 					if (!using_p2_star) {
 						// Received a 0x78 NRC: timeout is now set to P2*
-						single_request_timeout = (long) this.config.get("p2_star_timeout");
+						single_request_timeout = (int) this.config.get("p2_star_timeout");
 						using_p2_star = true;
 						this.logger.debug(String.format(
 								"\"Server requested to wait with response code %s (0x%02x), single request timeout is now set to P2* (%d milliseconds)",
@@ -5,9 +5,11 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import can.BusABC;
+import can.Clock;
 import isotp.protocol.TransportLayer;
 import udsoncan.base.exceptions.TimeoutException;
 
@@ -26,6 +28,8 @@ public class JavaIsoTpConnection implements BaseConnection {
 	ExecutorService rxthread;//
 	boolean exit_requested;
 	boolean opened;
+	/** Time source of the receive timeout and of the rx thread, the one of the layer */
+	public Clock clock;
 
 	public JavaIsoTpConnection(TransportLayer isotp_layer, String name) {
 		this.toIsoTPQueue = new ArrayBlockingQueue<byte[]>(65535);
@@ -34,6 +38,7 @@ public class JavaIsoTpConnection implements BaseConnection {
 		this.exit_requested = false;
 		this.opened = false;
 		this.isotp_layer = isotp_layer;
+		this.clock = isotp_layer.clock;
 	}
 
 	@Override
@@ -54,11 +59,11 @@ public class JavaIsoTpConnection implements BaseConnection {
 		boolean timedout = false;
 		byte[] frame = null;
 		try {
-			frame = this.fromIsoTPQueue.poll(timeout, TimeUnit.MILLISECONDS);
+			frame = this.clock.poll(this.fromIsoTPQueue, timeout);
 		} catch (Exception e) {
 			timedout = true;
 		}
-		if (timedout) {
+		if (timedout || frame == null) {
 			throw new TimeoutException(
 					String.format("Did not receive frame from user queue in time (timeout=%s ms)", timeout));
 		}
@@ -74,7 +79,15 @@ public class JavaIsoTpConnection implements BaseConnection {
 	@Override
 	public void open() {
 		this.exit_requested = false;
-		this.rxthread = Executors.newCachedThreadPool();
+		this.rxthread = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				// takes part in the timeline of a virtual clock from the start
+				clock.register(thread);
+				return thread;
+			}
+		});
 		this.rxthread.execute(new rxthread_task());
 		this.opened = true;
 		logger.info("Connection opened");
@@ -93,6 +106,8 @@ public class JavaIsoTpConnection implements BaseConnection {
 		this.empty_rxqueue();
 		this.empty_txqueue();
 		this.exit_requested = true;
+		// wakes the rx thread up, it may be sleeping on a virtual clock
+		this.rxthread.shutdownNow();
 		try {
 			this.rxthread.awaitTermination(1000, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException e) {
@@ -123,6 +138,14 @@ public class JavaIsoTpConnection implements BaseConnection {
 
 		@Override
 		public void run() {
+			try {
+				serve();
+			} finally {
+				clock.deregister();
+			}
+		}
+
+		private void serve() {
 			while (!exit_requested) {
 				try {
 					while(!toIsoTPQueue.isEmpty()) {
@@ -132,8 +155,10 @@ public class JavaIsoTpConnection implements BaseConnection {
 					while(isotp_layer.available()) {
 						fromIsoTPQueue.offer(isotp_layer.recv());
 					}
-					Thread.sleep(isotp_layer.sleep_time());
+					clock.sleep(isotp_layer.sleep_time());
 
+				} catch (InterruptedException e) {
+					return;
 				} catch (Exception e) {
 					exit_requested = true;
 					logger.error(e.getMessage());
@@ -3,8 +3,8 @@ package udsoncan.connections;
 import java.util.Arrays;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
 
+import can.Clock;
 import udsoncan.base.exceptions.TimeoutException;
 
 public class QueueConnection implements BaseConnection {
@@ -15,6 +15,8 @@ public class QueueConnection implements BaseConnection {
 	BlockingQueue<byte[]> touserqueue;
 	boolean opened;
 	Integer mtu;
+	/** Time source of the receive timeout, the default clock by default */
+	public Clock clock = Clock.get_default();
 
 	public QueueConnection(Integer mtu) {
 		this.fromuserqueue = new ArrayBlockingQueue<byte[]>(65535);
@@ -49,12 +51,12 @@ public class QueueConnection implements BaseConnection {
 		boolean timedout = false;
 		byte[] frame = null;
 		try {
-			frame = this.fromuserqueue.poll(timeout, TimeUnit.MILLISECONDS);
+			frame = this.clock.poll(this.fromuserqueue, timeout);
 		} catch (Exception e) {
 			timedout = true;
 		}
 
-		if (timedout) {
+		if (timedout || frame == null) {
 			throw new TimeoutException(
 					String.format("Did not receive frame from user queue in time (timeout=%s ms)", timeout));
 		}
@@ -74,7 +74,11 @@ public abstract class BaseService {
 	// UDS standard.
 	public boolean is_supported_negative_response(Integer code) {
 		boolean supported = false;
-		if (this.supported_negative_response.contains(code)) {
+		// the services declare their own list, which hides this one
+		List<Integer> supported_negative_response = this.supported_negative_response;
+		if (supported_negative_response == null)
+			supported_negative_response = new ArrayList<Integer>();
+		if (supported_negative_response.contains(code)) {
 			supported = true;
 		}
 		if (BaseService.always_valid_negative_response.contains(code)) {
@@ -84,7 +88,7 @@ public abstract class BaseService {
 		// As specified by Annex A, negative response code ranging above 0x7F can be
 		// used anytime if the service can return ConditionNotCorrect
 		if (code >= 0x80 && code < 0xFF
-				&& this.supported_negative_response.contains(Response.Code.ConditionsNotCorrect)) {
+				&& supported_negative_response.contains(Response.Code.ConditionsNotCorrect)) {
 			supported = true;
 		}
 
@@ -0,0 +1,74 @@
+package udsoncan.connections;
+
+import org.junit.Test;
+
+import can.VirtualClock;
+import junit.framework.TestCase;
+import udsoncan.Client;
+import udsoncan.Response;
+import udsoncan.base.exceptions.TimeoutException;
+
+public class QueueConnectionTest extends TestCase {
+
+	private VirtualClock clock;
+	private QueueConnection conn;
+	private Client client;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// default timeouts: P2 1s, P2* 5s, request 5s
+		this.clock = new VirtualClock();
+		this.conn = new QueueConnection();
+		this.conn.clock = this.clock;
+		this.client = new Client(this.conn);
+		this.client.clock = this.clock;
+		this.client.open();
+	}
+
+	/** The server answers with the payload at the given time, unit=millisecond */
+	private void respond_at(long time, final byte[] payload) {
+		this.clock.schedule_at(time * 1_000_000L, new Runnable() {
+			@Override
+			public void run() {
+				QueueConnectionTest.this.conn.fromuserqueue.offer(payload);
+			}
+		});
+	}
+
+	@Test
+	public void test_response_pending() throws Exception {
+		this.respond_at(500, new byte[] { 0x7F, 0x3E, 0x78 });
+		this.respond_at(4500, new byte[] { 0x7E, 0x00 });
+		long wall_start = System.nanoTime();
+		Response response = this.client.tester_present();
+
+		TestCase.assertTrue(response.positive);
+		TestCase.assertEquals(4500, this.clock.time_ms());
+		TestCase.assertTrue(System.nanoTime() - wall_start < 1_000_000_000L);
+		TestCase.assertEquals(2, this.conn.touserqueue.poll().length);
+	}
+
+	@Test
+	public void test_p2_timeout() throws Exception {
+		try {
+			this.client.tester_present();
+			TestCase.fail("no response");
+		} catch (TimeoutException e) {
+			TestCase.assertTrue(e.getMessage(), e.getMessage().contains("P2 timeout"));
+		}
+		TestCase.assertEquals(1000, this.clock.time_ms());
+	}
+
+	@Test
+	public void test_overall_timeout_after_response_pending() throws Exception {
+		this.respond_at(500, new byte[] { 0x7F, 0x3E, 0x78 });
+		try {
+			this.client.tester_present();
+			TestCase.fail("no final response");
+		} catch (TimeoutException e) {
+			TestCase.assertTrue(e.getMessage(), e.getMessage().contains("Global request timeout"));
+		}
+		TestCase.assertEquals(5000, this.clock.time_ms());
+	}
+}